@@ -25,6 +25,7 @@ import ini.cx3d.localBiology.NeuriteElement;
 import ini.cx3d.localBiology.SomaElement;
 import ini.cx3d.physics.PhysicalSphere;
 import ini.cx3d.simulations.ECM;
+import ini.cx3d.simulations.SimulationContext;
 
 import java.awt.Color;
 import java.util.Vector;
@@ -47,11 +48,8 @@ public class Cell
     /* Unique identification for this Cell instance. */
     private int ID = 0;
 
-    /* Counter to uniquely identify every cell. */
-    private static int idCounter = 0;
-
-    /* Reference to the ECM. */
-    private static ECM ecm = ECM.getInstance();
+    /* Reference to the ECM (of the SimulationContext in which this cell was created). */
+    private ECM ecm = ECM.getInstance();
 
     /* List of all cell modules that are run at each time step*/
     public Vector<CellModule> cellModules = new Vector<CellModule>();
@@ -85,8 +83,7 @@ public class Cell
      */
     public Cell()
     {
-        idCounter++;
-        ID = idCounter;
+        ID = SimulationContext.getCurrent().nextCellID();
         ecm.addCell(this);
     }
 
@@ -180,8 +177,7 @@ public class Cell
 
         // 1) Create a new daughter cell. The mother cell and the 1st daughter cell are the same java object instance!
         Cell newCell = new Cell();
-        idCounter = idCounter + 1;
-        this.ID = idCounter;
+        this.ID = SimulationContext.getCurrent().nextCellID();
 
         // 2) Copy the CellModules that have to be copied
         for (CellModule module : cellModules) {
@@ -42,9 +42,6 @@ import java.util.Vector;
 public class CellFactory
 {
 
-    /* Reference to the ECM. */
-    private static ECM ecm = ECM.getInstance();
-
     /**
      * <code>CellFactory</code> constructor.
      */
@@ -60,23 +57,42 @@ public class CellFactory
      */
     public static Cell getCellInstance(double[] cellOrigin)
     {
+        Cell cell = newCell();
+        insertCell(cell, cellOrigin);
+        registerCell(cell, cellOrigin);
+        return cell;
+    }
 
-        // Create new cell
+    /* Creates a cell with its soma and its PhysicalSphere, without SpatialOrganizationNode.*/
+    private static Cell newCell()
+    {
         Cell cell = new Cell();
         SomaElement soma = new SomaElement();
         cell.setSomaElement(soma);
         PhysicalSphere ps = new PhysicalSphere();
         soma.setPhysical(ps);
-        SpatialOrganizationNode<PhysicalNode> son = ecm.getSpatialOrganizationNodeInstance(cellOrigin.clone(), ps);
-        ps.setSoNode(son);
+        return cell;
+    }
+
+    /* Gives a cell its SpatialOrganizationNode.*/
+    private static void insertCell(Cell cell, double[] cellOrigin)
+    {
+        PhysicalSphere ps = cell.getSomaElement().getPhysicalSphere();
+        ps.setSoNode(ECM.getInstance().getSpatialOrganizationNodeInstance(cellOrigin.clone(), ps));
+    }
+
+    /* Adds the PhysicalSphere of a cell to the ECM and sets its properties.*/
+    private static void registerCell(Cell cell, double[] cellOrigin)
+    {
+        ECM ecm = ECM.getInstance();
+        PhysicalSphere ps = cell.getSomaElement().getPhysicalSphere();
 
         // Add cell to ECM instance
-        ecm.addPhysicalSphere(soma.getPhysicalSphere());
+        ecm.addPhysicalSphere(ps);
 
         // Set cell properties
         ps.setMassLocation(cellOrigin);
         ps.setColor(ecm.cellTypeColor(cell.getType()));
-        return cell;
     }
 
     /**
@@ -102,18 +118,19 @@ public class CellFactory
         double dx = (xmax - xmin) / (1 + nx);
         double dy = (ymax - ymin) / (1 + ny);
 
-        // Generate cells
+        // Generate cell locations
+        Vector<double[]> locations = new Vector<double[]>();
         for (int i = 1; i < nx + 1; i++) {
             for (int j = 1; j < ny + 1; j++) {
                 double[] newLocation = {
-                        xmin + i * dx + ecm.getGaussianDouble(0, noiseStd),
-                        ymin + j * dy + ecm.getGaussianDouble(0, noiseStd),
-                        zpos + ecm.getGaussianDouble(0, noiseStd)};
+                        xmin + i * dx + ECM.getGaussianDouble(0, noiseStd),
+                        ymin + j * dy + ECM.getGaussianDouble(0, noiseStd),
+                        zpos + ECM.getGaussianDouble(0, noiseStd)};
                 Matrix.print(newLocation);
-                Cell cell = getCellInstance(newLocation);
-                cellList.add(cell);
+                locations.add(newLocation);
             }
         }
+        cellList.addAll(getCellInstances(locations));
         return cellList;
     }
 
@@ -144,19 +161,47 @@ public class CellFactory
         double dy = (ymax - ymin) / (1 + ny);
         double dz = (zmax - zmin) / (1 + nz);
 
-        // Generate cells
+        // Generate cell locations
+        Vector<double[]> locations = new Vector<double[]>();
         for (int i = 1; i < nx + 1; i++) {
             for (int j = 1; j < ny + 1; j++) {
                 for (int k = 1; k < nz + 1; k++) {
                     double[] newLocation = {
-                            xmin + i * dx + ecm.getGaussianDouble(0, noiseXYStd),
-                            ymin + j * dy + ecm.getGaussianDouble(0, noiseXYStd),
-                            zmin + k * dz + ecm.getGaussianDouble(0, noiseZStd)};
-                    Cell cell = getCellInstance(newLocation);
-                    cellList.add(cell);
+                            xmin + i * dx + ECM.getGaussianDouble(0, noiseXYStd),
+                            ymin + j * dy + ECM.getGaussianDouble(0, noiseXYStd),
+                            zmin + k * dz + ECM.getGaussianDouble(0, noiseZStd)};
+                    locations.add(newLocation);
                 }
             }
         }
+        cellList.addAll(getCellInstances(locations));
         return cellList;
     }
+
+    /**
+     * Generates one cell at each of the specified positions. The cells are created (and get
+     * their IDs) in the order of <code>cellOrigins</code>, but their SpatialOrganizationNodes
+     * are inserted along a space filling curve (see {@link ECM#insertSpatialOrganizationNodes(java.util.List, java.util.List)}),
+     * which is much faster than creating them one by one with {@link #getCellInstance(double[])}.
+     *
+     * @param cellOrigins
+     * @return the new cells, in the same order as <code>cellOrigins</code>.
+     */
+    public static Vector<Cell> getCellInstances(Vector<double[]> cellOrigins)
+    {
+        Vector<Cell> cells = new Vector<Cell>();
+        Vector<PhysicalSphere> spheres = new Vector<PhysicalSphere>();
+        Vector<double[]> positions = new Vector<double[]>();
+        for (int i = 0; i < cellOrigins.size(); i++) {
+            Cell cell = newCell();
+            cells.add(cell);
+            spheres.add(cell.getSomaElement().getPhysicalSphere());
+            positions.add(cellOrigins.get(i).clone());
+        }
+        ECM.getInstance().insertSpatialOrganizationNodes(positions, spheres);
+        for (int i = 0; i < cells.size(); i++) {
+            registerCell(cells.get(i), cellOrigins.get(i));
+        }
+        return cells;
+    }
 }
\ No newline at end of file
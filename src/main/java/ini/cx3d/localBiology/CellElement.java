@@ -24,9 +24,9 @@ package ini.cx3d.localBiology;
 import ini.cx3d.cells.Cell;
 import ini.cx3d.physics.PhysicalObject;
 import ini.cx3d.simulations.ECM;
+import ini.cx3d.simulations.SimulationContext;
 
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Super class for the local biological discrete elements (SomaElement & NeuriteElement).
@@ -39,10 +39,9 @@ public abstract class CellElement
 
     /* Unique identification for this CellElement instance.*/
     int ID = 0;
-    static AtomicInteger idCounter = new AtomicInteger(0);
 
-    /* Reference to the ECM. */
-    protected static ECM ecm = ECM.getInstance();
+    /* Reference to the ECM (of the SimulationContext in which this element was created). */
+    protected ECM ecm = ECM.getInstance();
 
     /* The cells.Cell this CellElement belongs to.*/
     protected Cell cell;
@@ -55,7 +54,7 @@ public abstract class CellElement
      */
     public CellElement()
     {
-        this.ID = idCounter.incrementAndGet();
+        this.ID = SimulationContext.getCurrent().nextCellElementID();
     }
 
     // *************************************************************************************
@@ -137,6 +136,14 @@ public abstract class CellElement
         return cell;
     }
 
+    /**
+     * Returns a unique ID for this CellElement.
+     */
+    public int getID()
+    {
+        return ID;
+    }
+
     // *************************************************************************************
     // *      METHODS FOR DEFINING TYPE (neurite element vs soma element)                                                  *
     // *************************************************************************************
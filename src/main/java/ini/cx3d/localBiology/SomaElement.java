@@ -185,7 +185,7 @@ public class SomaElement
                 return;
             }
 
-            if (Math.random() < p) {
+            if (ECM.getRandomDouble() < p) {
                 // create the physical part
                 double[] coord = {radius, Math.PI * ECM.getRandomDouble(), 2 * Math.PI * ECM.getRandomDouble()};
                 PhysicalSomaticSpine pSomSpine = new PhysicalSomaticSpine(physical, coord, 0.1);
@@ -22,81 +22,101 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 package ini.cx3d.parallelSpatialOrganization;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.LinkedList;
-
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The actions waiting to be run by a {@link SpatialOrganizationManager}, ordered by priority
+ * (lowest value first) and, among actions of equal priority, in the order they were added.
+ * <p/>
+ * The actions are kept in a skip list sorted by priority and sequence number, so that
+ * adding and removing an action takes O(log n) time. Actions can be added concurrently
+ * without locking.
+ */
 public class ActionQueue<T>
         implements Serializable
 {
-    int size = 0;
-    ArrayList<LinkedList<CacheManager<T>>> list = new ArrayList<LinkedList<CacheManager<T>>>();
+    private final ConcurrentSkipListSet<Entry<T>> entries = new ConcurrentSkipListSet<Entry<T>>();
+    /* Used to keep the FIFO order among actions of equal priority.*/
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger maxSize = new AtomicInteger();
 
     public ActionQueue()
     {
     }
 
-    private LinkedList<CacheManager<T>> getList(final int priority)
+    /**
+     * Adds an action to this queue.
+     *
+     * @param action
+     * @return the number of actions in the queue after the action was added.
+     */
+    public int addAction(CacheManager<T> action)
     {
-        int i = 0;
-        while (i < list.size()) {
-            int currentPriority = list.get(i).getFirst().getPriority();
-            if (currentPriority == priority) {
-                return list.get(i);
-            }
-            else if (currentPriority > priority) {
-                break;
-            }
-            i++;
+        entries.add(new Entry<T>(action, sequence.getAndIncrement()));
+        int newSize = size.incrementAndGet();
+        int max = maxSize.get();
+        while (newSize > max && !maxSize.compareAndSet(max, newSize)) {
+            max = maxSize.get();
         }
-        LinkedList<CacheManager<T>> ret = new LinkedList<CacheManager<T>>();
-        // add dummy action at front:
-        ret.add(new CacheManager<T>(null)
-        {
-            public int getPriority() { return priority; }
-
-            public void run() {}
-
-            boolean executeTask()
-                    throws NodeLockedException
-            {
-                return false;
-            }
-
-            @Override
-            public String descriptionString()
-            {
-                return "DummyAction";
-            }
-        });
-        list.add(i, ret);
-        return ret;
-    }
-
-    public void addAction(CacheManager<T> action)
-    {
-        getList(action.getPriority()).addLast(action);
-        size++;
+        return newSize;
     }
 
+    /**
+     * Removes the action with the highest priority from this queue.
+     *
+     * @return the action, or <code>null</code> if the queue is empty.
+     */
     public CacheManager<T> nextAction()
     {
-        for (LinkedList<CacheManager<T>> element : list) {
-            if (element.size() > 1) {
-                size--;
-                return element.remove(1);
-            }
+        Entry<T> entry = entries.pollFirst();
+        if (entry == null) {
+            return null;
         }
-        return null;
+        size.decrementAndGet();
+        return entry.action;
     }
 
     public boolean isEmpty()
     {
-        return this.size == 0;
+        return this.size.get() == 0;
     }
 
     public int getSize()
     {
-        return size;
+        return size.get();
+    }
+
+    /**
+     * @return the largest number of actions that were in this queue at the same time.
+     */
+    public int getMaxSize()
+    {
+        return maxSize.get();
+    }
+
+    private static class Entry<T>
+            implements Comparable<Entry<T>>, Serializable
+    {
+        final CacheManager<T> action;
+        final int priority;
+        final long sequence;
+
+        Entry(CacheManager<T> action, long sequence)
+        {
+            this.action = action;
+            this.priority = action.getPriority();
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Entry<T> other)
+        {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
     }
 }
- 
\ No newline at end of file
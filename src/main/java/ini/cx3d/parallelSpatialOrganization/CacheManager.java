@@ -45,6 +45,11 @@ public abstract class CacheManager<T>
     Hashtable<ManagedObjectReference<T>, Edge<T>> edges;
     SpatialOrganizationManager<T> mySOM;
     long id;
+    /* When this action was last added to the queue of its SOM (System.nanoTime()).*/
+    long queuedAt;
+    /* Counts the runs of this action, so that other processes can tell a retry from the run
+     * that was rolled back.*/
+    int attempt;
 
     /**
      * Creates a new CacheManager.
@@ -71,8 +76,9 @@ public abstract class CacheManager<T>
 
     public abstract String descriptionString();
 
-    private void init()
+    void init()
     {
+        attempt++;
         this.nodes = new Hashtable<ManagedObjectReference<T>, SpaceNode<T>>();
         this.tetrahedra = new Hashtable<ManagedObjectReference<T>, Tetrahedron<T>>();
         this.triangles = new Hashtable<ManagedObjectReference<T>, Triangle3D<T>>();
@@ -104,6 +110,14 @@ public abstract class CacheManager<T>
     {
     }
 
+    /**
+     * This function is executed from commit() once all objects were written to their SOMs, before they are unlocked.
+     * (I.e. remove the objects that were given to another SOM from their old SOM.)
+     */
+    protected void objectsCommitted()
+    {
+    }
+
     /**
      * Returns the priority of this process.
      *
@@ -648,6 +662,7 @@ public abstract class CacheManager<T>
             }
             node.getSOM().commitNode(this, node);
         }
+        objectsCommitted();
 
         // now, unlock all objects, nodes are the last objects to be unlocked:
         for (Tetrahedron<T> tetrahedron : tetrahedra.values()) {
@@ -694,6 +709,8 @@ public abstract class CacheManager<T>
                 throw new RuntimeException("Unexpected Error commiting ManagedObject - Transactional integrity lost - QUIT!");
             }
         }
+        // send the commits that are still waiting for SOMs of other processes:
+        RemoteSpatialOrganizationManager.flushCommits();
     }
 
     /**
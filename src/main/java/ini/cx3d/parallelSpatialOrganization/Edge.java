@@ -21,6 +21,7 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 
 package ini.cx3d.parallelSpatialOrganization;
 
+import java.util.Hashtable;
 import java.util.LinkedList;
 
 /**
@@ -134,6 +135,40 @@ public class Edge<T>
         this.crossSectionArea = origObj.crossSectionArea;
     }
 
+    /**
+     * Creates an empty edge, used to read an edge sent by another process.
+     *
+     * @see ManagedObjectCodec
+     */
+    Edge()
+    {
+    }
+
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        super.writeCompact(out);
+        out.writeReference(a);
+        out.writeReference(b);
+        out.writeReferences(adjacentTetrahedra);
+        out.writeDouble(crossSectionArea);
+    }
+
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        super.readCompact(in);
+        a = in.readReference();
+        b = in.readReference();
+        adjacentTetrahedra = in.readReferenceList();
+        crossSectionArea = in.readDouble();
+    }
+
+    void updateReferences(Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        a = updated(a, moved);
+        b = updated(b, moved);
+        updateAll(adjacentTetrahedra, moved);
+    }
+
     private SpaceNode<T> getNodeA()
             throws NodeLockedException, ManagedObjectDoesNotExistException
     {
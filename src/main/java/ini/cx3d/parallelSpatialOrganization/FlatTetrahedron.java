@@ -76,6 +76,15 @@ public class FlatTetrahedron<T>
                 nodeA, nodeB, nodeC, nodeD, cm);
     }
 
+    /**
+     * Creates an empty flat tetrahedron, used to read a tetrahedron sent by another process.
+     *
+     * @see ManagedObjectCodec
+     */
+    FlatTetrahedron()
+    {
+    }
+
     /**
      * Updates the circumsphere of this tetrahedron. Since a flat tetrahedron does not
      * have a real circumsphere, no work is performed in this function but the adjacent nodes are
@@ -0,0 +1,407 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * An implementation of {@link NodeToSOMAssignmentPolicy} that adapts the regions in which
+ * new nodes are given to each SOM to the places where the nodes are actually inserted.
+ * <p/>
+ * The space is divided by a recursive coordinate bisection : the list of SOMs is split in two
+ * halves, and the space is cut perpendicularly to its longest extent, such that each half
+ * receives a share of the recently inserted nodes that corresponds to its weight. Every
+ * <code>updateInterval</code> assignments, the cuts are recomputed from the coordinates
+ * of the last inserted nodes. The weight of a SOM is its share of all nodes : the SOMs get
+ * equal shares, unless they ran a different number of actions per node since the last update,
+ * in which case the shares are divided by that rate relative to the average one (by at most
+ * ten), so that the SOMs that are busiest with their own nodes end up with fewer of them.
+ * <p/>
+ * After the cuts are recomputed, the nodes that already exist are repartitioned : a SOM that
+ * owns more nodes than its share gives the nodes that now lie in the region of another SOM to
+ * that SOM, at most <code>updateInterval</code> nodes per update. Each
+ * node is moved by a {@link NodeMigrationCM}, together with the tetrahedra, triangles and edges
+ * around it that no other node of the old SOM needs. The objects that keep a reference to a
+ * moved object outside of that transaction are not rewritten : the old SOM forwards their
+ * requests to the new one.
+ * <p/>
+ * As for {@link SimpleAssignmentPolicy}, all SOMs have to be registered before the
+ * simulation starts. Contrary to it, the policy should be shared by all SOMs, because
+ * different instances would adapt their regions differently. When the SOMs run in separate
+ * processes (see {@link RemoteSOMServer}), each process has its own instance : all of them
+ * see the node counts and action rates of every SOM, but each one only samples the nodes
+ * that are inserted through the SOM of its process, and only moves the nodes of the SOM of
+ * its process.
+ *
+ * @param <T>
+ */
+public class LoadBalancingAssignmentPolicy<T>
+        implements NodeToSOMAssignmentPolicy<T>, Serializable
+{
+    /**
+     * A list of all SOMs that are known.
+     */
+    ArrayList<SpatialOrganizationManager<T>> somList = new ArrayList<SpatialOrganizationManager<T>>();
+
+    /* The estimated minimum and maximum coordinates of the working space.*/
+    double[] minCoordinate;
+    double[] maxCoordinate;
+
+    /* The coordinates of the last inserted nodes (ring buffer).*/
+    double[][] sample;
+    int sampleSize = 0;
+    int samplePointer = 0;
+
+    /* The regions are recomputed after this many assignments.*/
+    int updateInterval;
+    long assignments = 0;
+    int regionUpdates = 0;
+    long migrations = 0;
+
+    /* The migrations planned at the last update that were not committed yet.*/
+    LinkedList<NodeMigrationCM<T>> pendingMigrations = new LinkedList<NodeMigrationCM<T>>();
+
+    /* Action rates of the SOMs (actions per second), measured between the last two updates
+     * of the regions.*/
+    double[] actionRates = new double[0];
+    long[] lastExecutedActions = new long[0];
+    long lastUpdateTime;
+
+    /* The root of the bisection tree. Replaced as a whole, so that lookups never see a
+     * partially updated tree.*/
+    volatile Region<T> root;
+
+    /**
+     * Creates a new instance of this assignment policy, which keeps the coordinates of the
+     * last 4096 nodes and adapts the regions every 1000 assignments.
+     *
+     * @param minCoordinate The estimated minimum coordinate of the working space.
+     * @param maxCoordinate The estimated maximum coordinate of the working space.
+     */
+    public LoadBalancingAssignmentPolicy(double[] minCoordinate, double[] maxCoordinate)
+    {
+        this(minCoordinate, maxCoordinate, 4096, 1000);
+    }
+
+    /**
+     * Creates a new instance of this assignment policy.
+     *
+     * @param minCoordinate The estimated minimum coordinate of the working space.
+     * @param maxCoordinate The estimated maximum coordinate of the working space.
+     * @param sampleCapacity The number of recently inserted nodes used to place the cuts.
+     * @param updateInterval The number of assignments after which the regions are adapted.
+     */
+    public LoadBalancingAssignmentPolicy(double[] minCoordinate, double[] maxCoordinate, int sampleCapacity, int updateInterval)
+    {
+        if (sampleCapacity < 1 || updateInterval < 1) {
+            throw new IllegalArgumentException("The sample capacity and the update interval must be positive!");
+        }
+        this.minCoordinate = minCoordinate.clone();
+        this.maxCoordinate = maxCoordinate.clone();
+        this.sample = new double[sampleCapacity][];
+        this.updateInterval = updateInterval;
+        this.lastUpdateTime = System.nanoTime();
+    }
+
+    /**
+     * Registers a new SOM. The regions are recomputed immediately.
+     *
+     * @param newSOM The {@link SpatialOrganizationManager} that should be registered.
+     */
+    public void registerNewSOM(SpatialOrganizationManager<T> newSOM)
+    {
+        synchronized (this) {
+            somList.add(newSOM);
+            actionRates = Arrays.copyOf(actionRates, somList.size());
+            lastExecutedActions = Arrays.copyOf(lastExecutedActions, somList.size());
+            lastExecutedActions[somList.size() - 1] = newSOM.getExecutedActions();
+        }
+        updateRegions();
+    }
+
+    /* (non-Javadoc)
+     * @see ini.cx3d.parallelSpatialOrganization.NodeToSOMAssignmentPolicy#getResponsibleSOM(double[])
+     */
+    public SpatialOrganizationManager<T> getResponsibleSOM(double[] coordinate)
+    {
+        boolean update;
+        synchronized (this) {
+            sample[samplePointer] = coordinate.clone();
+            samplePointer = (samplePointer + 1) % sample.length;
+            if (sampleSize < sample.length) {
+                sampleSize++;
+            }
+            assignments++;
+            update = assignments % updateInterval == 0;
+        }
+        if (update) {
+            updateRegions();
+        }
+        return findRegion(root, coordinate);
+    }
+
+    /* Returns the SOM owning the region of the tree that contains a coordinate.*/
+    private static <T> SpatialOrganizationManager<T> findRegion(Region<T> region, double[] coordinate)
+    {
+        while (region.som == null) {
+            region = coordinate[region.axis] < region.cut ? region.lower : region.upper;
+        }
+        return region.som;
+    }
+
+    /**
+     * Recomputes the regions in which new nodes are given to each SOM, from the coordinates of
+     * the last inserted nodes and from the action rates of the SOMs, and moves the nodes of the
+     * local SOMs that own more nodes than their share to the SOMs whose region they now lie in.
+     */
+    public void updateRegions()
+    {
+        LinkedList<NodeMigrationCM<T>> planned;
+        synchronized (this) {
+            planned = computeRegions();
+        }
+        // (outside of the lock : addAction() may wait for the queue to drain)
+        for (NodeMigrationCM<T> migration : planned) {
+            migration.getSOM().addAction(migration);
+        }
+    }
+
+    /* Recomputes the tree, and returns the migrations that bring the node counts closer to
+     * the shares of the SOMs.*/
+    private LinkedList<NodeMigrationCM<T>> computeRegions()
+    {
+        LinkedList<NodeMigrationCM<T>> planned = new LinkedList<NodeMigrationCM<T>>();
+        int n = somList.size();
+        if (n == 0) {
+            return planned;
+        }
+        // update the action rates:
+        long now = System.nanoTime();
+        double elapsed = (now - lastUpdateTime) / 1e9;
+        for (int i = 0; i < n; i++) {
+            long executed = somList.get(i).getExecutedActions();
+            if (elapsed > 0) {
+                actionRates[i] = (executed - lastExecutedActions[i]) / elapsed;
+            }
+            lastExecutedActions[i] = executed;
+        }
+        lastUpdateTime = now;
+
+        // the share of each SOM : equal, unless some SOMs ran more actions per node than the
+        // others since the last update (then they are busier with the nodes they own, and get
+        // proportionally fewer nodes, at most ten times fewer):
+        // (the SOMs that own no node or ran no action yet are not compared)
+        int[] counts = new int[n];
+        long total = 0;
+        double[] perNodeRates = new double[n];
+        double averagePerNodeRate = 0;
+        int measured = 0;
+        for (int i = 0; i < n; i++) {
+            counts[i] = somList.get(i).getNodeCount();
+            total += counts[i];
+            if (counts[i] > 0 && actionRates[i] > 0) {
+                perNodeRates[i] = actionRates[i] / counts[i];
+                averagePerNodeRate += perNodeRates[i];
+                measured++;
+            }
+        }
+        if (measured > 0) {
+            averagePerNodeRate /= measured;
+        }
+        double[] weights = new double[n];
+        double totalWeight = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] = 1;
+            if (perNodeRates[i] > 0) {
+                weights[i] = averagePerNodeRate / Math.max(perNodeRates[i], 0.1 * averagePerNodeRate);
+            }
+            totalWeight += weights[i];
+        }
+
+        double[][] points = new double[sampleSize][];
+        System.arraycopy(sample, 0, points, 0, sampleSize);
+        Region<T> newRoot = bisect(points, 0, points.length, 0, n, weights, minCoordinate.clone(), maxCoordinate.clone());
+        root = newRoot;
+        regionUpdates++;
+
+        // a local SOM that owns more than its share (by more than 5%) gives the nodes that lie
+        // in the region of another SOM to that SOM. The node counts then follow the regions, as
+        // the SOMs that receive too many give them on in turn. (Only once the moves planned
+        // before are done, since the node counts don't show them yet.)
+        for (Iterator<NodeMigrationCM<T>> it = pendingMigrations.iterator(); it.hasNext(); ) {
+            if (it.next().finished) {
+                it.remove();
+            }
+        }
+        if (!pendingMigrations.isEmpty()) {
+            return planned;
+        }
+        for (int i = 0; i < n; i++) {
+            SpatialOrganizationManager<T> from = somList.get(i);
+            double share = total * weights[i] / totalWeight;
+            if (counts[i] <= Math.max(1.05 * share, share + 1) || from instanceof RemoteSpatialOrganizationManager) {
+                continue;
+            }
+            ArrayList<SpaceNode<T>> candidates;
+            synchronized (from.nodes) {
+                candidates = new ArrayList<SpaceNode<T>>(from.nodes.values());
+            }
+            int moving = 0;
+            for (SpaceNode<T> node : candidates) {
+                if (moving >= updateInterval) {
+                    break;
+                }
+                SpatialOrganizationManager<T> owner = findRegion(newRoot, node.getPosition());
+                if (owner != from) {
+                    planned.add(new NodeMigrationCM<T>(node.getReference(), owner, from));
+                    moving++;
+                }
+            }
+        }
+        migrations += planned.size();
+        pendingMigrations.addAll(planned);
+        return planned;
+    }
+
+    /* Builds the region of the SOMs somFrom..somTo-1, which contains the points from..to-1
+     * and lies within the box [min, max].*/
+    private Region<T> bisect(double[][] points, int from, int to, int somFrom, int somTo, double[] weights,
+                             double[] min, double[] max)
+    {
+        Region<T> region = new Region<T>();
+        if (somTo - somFrom == 1) {
+            region.som = somList.get(somFrom);
+            return region;
+        }
+        int somMid = (somFrom + somTo) / 2;
+        double lowerWeight = 0, totalWeight = 0;
+        for (int i = somFrom; i < somTo; i++) {
+            totalWeight += weights[i];
+            if (i < somMid) {
+                lowerWeight += weights[i];
+            }
+        }
+        double fraction = lowerWeight / totalWeight;
+
+        // cut perpendicularly to the longest extent of the points (or of the box, if
+        // there are too few points):
+        double[] lo = min.clone();
+        double[] hi = max.clone();
+        boolean usePoints = false;
+        if (to - from >= 2) {
+            double[] pointsLo = points[from].clone();
+            double[] pointsHi = points[from].clone();
+            for (int k = from + 1; k < to; k++) {
+                for (int i = 0; i < 3; i++) {
+                    pointsLo[i] = Math.min(pointsLo[i], points[k][i]);
+                    pointsHi[i] = Math.max(pointsHi[i], points[k][i]);
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                if (pointsHi[i] > pointsLo[i]) {
+                    usePoints = true;
+                }
+            }
+            if (usePoints) {
+                lo = pointsLo;
+                hi = pointsHi;
+            }
+        }
+        int axis = 0;
+        for (int i = 1; i < 3; i++) {
+            if (hi[i] - lo[i] > hi[axis] - lo[axis]) {
+                axis = i;
+            }
+        }
+        region.axis = axis;
+        int split;
+        if (usePoints) {
+            final int sortAxis = axis;
+            Arrays.sort(points, from, to, new Comparator<double[]>()
+            {
+                public int compare(double[] a, double[] b)
+                {
+                    return Double.compare(a[sortAxis], b[sortAxis]);
+                }
+            });
+            split = from + (int) Math.round(fraction * (to - from));
+            split = Math.max(from + 1, Math.min(to - 1, split));
+            region.cut = (points[split - 1][axis] + points[split][axis]) / 2;
+        }
+        else {
+            split = from;
+            region.cut = lo[axis] + fraction * (hi[axis] - lo[axis]);
+        }
+
+        double[] lowerMax = max.clone();
+        lowerMax[axis] = region.cut;
+        double[] upperMin = min.clone();
+        upperMin[axis] = region.cut;
+        region.lower = bisect(points, from, split, somFrom, somMid, weights, min, lowerMax);
+        region.upper = bisect(points, split, to, somMid, somTo, weights, upperMin, max);
+        return region;
+    }
+
+    /**
+     * @return the number of times the regions were recomputed.
+     */
+    public synchronized int getRegionUpdates()
+    {
+        return regionUpdates;
+    }
+
+    /**
+     * @return the number of nodes this instance decided to move to another SOM so far.
+     */
+    public synchronized long getMigrations()
+    {
+        return migrations;
+    }
+
+    /**
+     * @return the number of actions per second each registered SOM ran between the last
+     * two updates of the regions (in the order the SOMs were registered).
+     */
+    public synchronized double[] getActionRates()
+    {
+        return actionRates.clone();
+    }
+
+    /**
+     * A node of the bisection tree : either a cut of the space, or the region of one SOM.
+     */
+    static class Region<T>
+            implements Serializable
+    {
+        /* The SOM owning this region, or null if the region is cut in two.*/
+        SpatialOrganizationManager<T> som;
+        int axis;
+        double cut;
+        Region<T> lower;
+        Region<T> upper;
+    }
+}
@@ -22,6 +22,9 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 package ini.cx3d.parallelSpatialOrganization;
 
 import java.io.Serializable;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,6 +90,78 @@ public abstract class ManagedObject<T>
     {
         this.tracker = origObj.tracker.getCopy();
     }
+
+    /**
+     * Writes the state of this object in the compact format used to send it to the SOM of
+     * another process. Subclasses write their own fields after those of their superclass.
+     *
+     * @param out
+     * @see ManagedObjectCodec
+     */
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        out.writeBoolean(valid);
+        out.writeTracker(tracker);
+    }
+
+    /**
+     * Reads the state written by {@link #writeCompact(ManagedObjectCodec.Writer)} into a
+     * new object.
+     *
+     * @param in
+     */
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        valid = in.readBoolean();
+        tracker = in.<T>readTracker();
+    }
+
+    /**
+     * Replaces the references this object keeps to other ManagedObjects by the ones stored for
+     * the same addresses in <code>moved</code>, because these objects were given to another SOM
+     * (see {@link NodeMigrationCM}). Subclasses update their own fields.
+     *
+     * @param moved The new references of the moved objects.
+     */
+    void updateReferences(Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+    }
+
+    /**
+     * Gives this local copy to another SOM. The copy stays locked by <code>cm</code>, and is
+     * committed to the new SOM with the other objects of the transaction.
+     *
+     * @param cm The CacheManager that owns this copy.
+     * @param som The SOM that owns this object from now on.
+     */
+    void moveTo(CacheManager<T> cm, SpatialOrganizationManager<T> som)
+    {
+        this.tracker = new CacheRoutedMOTracker<T>(cm, new ManagedObjectReference<T>(getAddress(), som));
+    }
+
+    /* Returns the new reference of a moved object, or the given one if it wasn't moved.*/
+    static <T> ManagedObjectReference<T> updated(ManagedObjectReference<T> ref,
+            Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        ManagedObjectReference<T> newRef = (ref == null) ? null : moved.get(ref);
+        return (newRef == null) ? ref : newRef;
+    }
+
+    static <T> void updateAll(ManagedObjectReference<T>[] refs,
+            Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = updated(refs[i], moved);
+        }
+    }
+
+    static <T> void updateAll(List<ManagedObjectReference<T>> refs,
+            Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        for (ListIterator<ManagedObjectReference<T>> it = refs.listIterator(); it.hasNext(); ) {
+            it.set(updated(it.next(), moved));
+        }
+    }
 //	/**
 //	 * @return a local deep copy of the Managed Object
 //	 */
@@ -0,0 +1,579 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+
+/**
+ * A compact binary encoding of the {@link SpaceNode}s, {@link Tetrahedron}s, {@link Triangle3D}s
+ * and {@link Edge}s that are sent between the SOMs of different processes.
+ * <p/>
+ * Addresses and counts are written as varints and coordinates as raw doubles. Links to
+ * neighbouring objects are written as references only (the index of their SOM and their
+ * address). Everything else that belongs to an object - its SOM, the {@link CacheManager}
+ * that locks it, the user object - is collected in a {@link LinkTable} and written to the
+ * stream as usual, so that SOMs and transactions are still replaced by the stream. A stream
+ * that implements {@link LinkedStream} shares one table between all the objects of a batch,
+ * so that each SOM is only written once per batch. A ManagedObject that is reached from such
+ * an object (e.g. a node in the user object of another node) is written while the table is
+ * itself being written or read, and therefore gets a table of its own.
+ * <p/>
+ * The buffers used for encoding and decoding are pooled.
+ */
+class ManagedObjectCodec
+{
+    /* The types of ManagedObjects that are encoded. Subclasses of these types (other than
+     * FlatTetrahedron) are sent by default serialization.*/
+    private static final int SPACE_NODE = 0;
+    private static final int TETRAHEDRON = 1;
+    private static final int FLAT_TETRAHEDRON = 2;
+    private static final int TRIANGLE = 3;
+    private static final int EDGE = 4;
+
+    /* The kinds of references. Other values are the index of the SOM in the link table,
+     * plus COMPACT_REFERENCE.*/
+    private static final int NULL_REFERENCE = 0;
+    private static final int LINKED_REFERENCE = 1;
+    private static final int COMPACT_REFERENCE = 2;
+
+    /* The kinds of trackers.*/
+    private static final int PLAIN_REFERENCE = 0;
+    private static final int CACHE_ROUTED = 1;
+    private static final int OTHER_TRACKER = 2;
+
+    private static final int POOL_SIZE = 16;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    /* Larger buffers are not kept in the pool.*/
+    private static final int MAX_POOLED_BUFFER_SIZE = 1 << 16;
+
+    private static final LinkedList<byte[]> pool = new LinkedList<byte[]>();
+
+    /**
+     * @return <code>true</code>, if the object is sent in the compact format.
+     */
+    static boolean isEncodable(Object obj)
+    {
+        return typeOf(obj) >= 0;
+    }
+
+    private static int typeOf(Object obj)
+    {
+        if (obj == null) {
+            return -1;
+        }
+        Class<?> c = obj.getClass();
+        if (c == SpaceNode.class) {
+            return SPACE_NODE;
+        }
+        if (c == Tetrahedron.class) {
+            return TETRAHEDRON;
+        }
+        if (c == FlatTetrahedron.class) {
+            return FLAT_TETRAHEDRON;
+        }
+        if (c == Triangle3D.class) {
+            return TRIANGLE;
+        }
+        if (c == Edge.class) {
+            return EDGE;
+        }
+        return -1;
+    }
+
+    private static byte[] acquireBuffer(int minSize)
+    {
+        synchronized (pool) {
+            if (!pool.isEmpty() && pool.getFirst().length >= minSize) {
+                return pool.removeFirst();
+            }
+        }
+        return new byte[Math.max(minSize, INITIAL_BUFFER_SIZE)];
+    }
+
+    private static void releaseBuffer(byte[] buffer)
+    {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        synchronized (pool) {
+            if (pool.size() < POOL_SIZE) {
+                pool.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * A stream that keeps the {@link LinkTable} of the objects it writes or reads.
+     * The table must be cleared at the same position of the stream by both sides.
+     */
+    interface LinkedStream
+    {
+        LinkTable getLinkTable();
+    }
+
+    /**
+     * The objects referred to by the encoded ManagedObjects which are written to the stream
+     * as usual, and their indices.
+     */
+    static class LinkTable
+    {
+        private final ArrayList<Object> objects = new ArrayList<Object>();
+        private final IdentityHashMap<Object, Integer> indices = new IdentityHashMap<Object, Integer>();
+        /* The number of objects that were already written to the stream.*/
+        private int written = 0;
+        /* Whether the objects of this table are being written or read right now.*/
+        private boolean transferring = false;
+
+        private int indexOf(Object obj)
+        {
+            Integer index = indices.get(obj);
+            if (index == null) {
+                index = objects.size();
+                objects.add(obj);
+                indices.put(obj, index);
+            }
+            return index;
+        }
+
+        /* Writes the objects that were added since the last call, and where they start. The
+         * objects may contain encoded ManagedObjects themselves, which use their own table
+         * (see getLinkTable()).*/
+        private void writeUnwritten(ObjectOutputStream out)
+                throws IOException
+        {
+            if (written == objects.size()) {
+                out.writeObject(null);
+                return;
+            }
+            int first = written;
+            Object[] unwritten = objects.subList(first, objects.size()).toArray();
+            written = objects.size();
+            transferring = true;
+            try {
+                out.writeObject(unwritten);
+            }
+            finally {
+                transferring = false;
+            }
+            out.writeInt(first);
+        }
+
+        private void readUnwritten(ObjectInputStream in)
+                throws IOException, ClassNotFoundException
+        {
+            Object[] read;
+            transferring = true;
+            try {
+                read = (Object[]) in.readObject();
+            }
+            finally {
+                transferring = false;
+            }
+            if (read == null) {
+                return;
+            }
+            int first = in.readInt();
+            while (objects.size() < first + read.length) {
+                objects.add(null);
+            }
+            for (int i = 0; i < read.length; i++) {
+                objects.set(first + i, read[i]);
+            }
+        }
+
+        void clear()
+        {
+            objects.clear();
+            indices.clear();
+            written = 0;
+        }
+    }
+
+    /* Returns the table shared by the objects of the batch, or a new one if there is none, or
+     * if the shared one is being written or read: the objects of a table only get their
+     * indices once the whole table was read, so a ManagedObject nested in them can't refer
+     * to them.*/
+    private static LinkTable getLinkTable(Object stream)
+    {
+        if (stream instanceof LinkedStream) {
+            LinkTable links = ((LinkedStream) stream).getLinkTable();
+            if (!links.transferring) {
+                return links;
+            }
+        }
+        return new LinkTable();
+    }
+
+    /**
+     * Replaces a {@link ManagedObject} in a stream: writes the object in the compact format
+     * and is resolved to a new copy of the object when it is read.
+     */
+    static class Encoded
+            implements Serializable
+    {
+        private transient ManagedObject<?> obj;
+
+        Encoded(ManagedObject<?> obj)
+        {
+            this.obj = obj;
+        }
+
+        private void writeObject(ObjectOutputStream out)
+                throws IOException
+        {
+            out.defaultWriteObject();
+            Writer writer = new Writer(getLinkTable(out));
+            try {
+                writer.writeVarInt(typeOf(obj));
+                obj.writeCompact(writer);
+                writer.links.writeUnwritten(out);
+                out.writeInt(writer.size);
+                out.write(writer.buffer, 0, writer.size);
+            }
+            finally {
+                writer.release();
+            }
+        }
+
+        private void readObject(ObjectInputStream in)
+                throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            LinkTable links = getLinkTable(in);
+            links.readUnwritten(in);
+            int size = in.readInt();
+            Reader reader = new Reader(size, links);
+            try {
+                in.readFully(reader.buffer, 0, size);
+                obj = reader.readManagedObject();
+            }
+            finally {
+                reader.release();
+            }
+        }
+
+        private Object readResolve()
+                throws ObjectStreamException
+        {
+            if (obj == null) {
+                throw new InvalidObjectException("Unknown type of ManagedObject");
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Writes the fields of a ManagedObject.
+     */
+    static class Writer
+    {
+        private byte[] buffer = acquireBuffer(INITIAL_BUFFER_SIZE);
+        private int size = 0;
+        private final LinkTable links;
+
+        Writer(LinkTable links)
+        {
+            this.links = links;
+        }
+
+        private void ensureCapacity(int bytes)
+        {
+            if (size + bytes > buffer.length) {
+                byte[] larger = new byte[Math.max(buffer.length * 2, size + bytes)];
+                System.arraycopy(buffer, 0, larger, 0, size);
+                releaseBuffer(buffer);
+                buffer = larger;
+            }
+        }
+
+        private void release()
+        {
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+
+        void writeBoolean(boolean value)
+        {
+            ensureCapacity(1);
+            buffer[size++] = (byte) (value ? 1 : 0);
+        }
+
+        /**
+         * Writes a non-negative number in 7-bit groups, least significant first.
+         */
+        void writeVarLong(long value)
+        {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarInt(int value)
+        {
+            // zig-zag, so that small negative values are short too:
+            writeVarLong(((long) value << 1) ^ (value >> 31));
+        }
+
+        void writeDouble(double value)
+        {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 56; i >= 0; i -= 8) {
+                buffer[size++] = (byte) (bits >>> i);
+            }
+        }
+
+        /**
+         * Writes an array of doubles, which may be <code>null</code>.
+         */
+        void writeDoubles(double[] values)
+        {
+            if (values == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(values.length + 1);
+            for (double value : values) {
+                writeDouble(value);
+            }
+        }
+
+        /**
+         * Writes an object to the table of objects that are sent as usual, and its index here.
+         */
+        void writeLink(Object obj)
+        {
+            writeVarLong(obj == null ? 0 : links.indexOf(obj) + 1);
+        }
+
+        <T> void writeReference(ManagedObjectReference<T> ref)
+        {
+            if (ref == null) {
+                writeVarLong(NULL_REFERENCE);
+            }
+            else if (ref.getClass() != ManagedObjectReference.class || ref.getSOM() == null) {
+                // one of the deprecated subclasses, or a reference without SOM : send it as it is.
+                writeVarLong(LINKED_REFERENCE);
+                writeLink(ref);
+            }
+            else {
+                writeVarLong(COMPACT_REFERENCE + links.indexOf(ref.getSOM()));
+                writeVarLong(ref.getAddress());
+            }
+        }
+
+        <T> void writeReferences(ManagedObjectReference<T>[] refs)
+        {
+            writeVarLong(refs.length);
+            for (ManagedObjectReference<T> ref : refs) {
+                writeReference(ref);
+            }
+        }
+
+        <T> void writeReferences(LinkedList<ManagedObjectReference<T>> refs)
+        {
+            writeVarLong(refs.size());
+            for (ManagedObjectReference<T> ref : refs) {
+                writeReference(ref);
+            }
+        }
+
+        <T> void writeTracker(ManagedObjectTracker<T> tracker)
+        {
+            if (tracker != null && tracker.getClass() == ManagedObjectReference.class) {
+                writeVarLong(PLAIN_REFERENCE);
+                writeReference((ManagedObjectReference<T>) tracker);
+            }
+            else if (tracker != null && tracker.getClass() == CacheRoutedMOTracker.class) {
+                writeVarLong(CACHE_ROUTED);
+                writeLink(((CacheRoutedMOTracker<T>) tracker).cm);
+                writeReference(((CacheRoutedMOTracker<T>) tracker).myReference);
+            }
+            else {
+                writeVarLong(OTHER_TRACKER);
+                writeLink(tracker);
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a ManagedObject.
+     */
+    static class Reader
+    {
+        private byte[] buffer;
+        private int position = 0;
+        private final LinkTable links;
+
+        Reader(int size, LinkTable links)
+        {
+            this.buffer = acquireBuffer(size);
+            this.links = links;
+        }
+
+        private void release()
+        {
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private ManagedObject<?> readManagedObject()
+        {
+            ManagedObject<Object> obj;
+            switch (readVarInt()) {
+                case SPACE_NODE:
+                    obj = new SpaceNode<Object>();
+                    break;
+                case TETRAHEDRON:
+                    obj = new Tetrahedron<Object>();
+                    break;
+                case FLAT_TETRAHEDRON:
+                    obj = new FlatTetrahedron<Object>();
+                    break;
+                case TRIANGLE:
+                    obj = new Triangle3D<Object>();
+                    break;
+                case EDGE:
+                    obj = new Edge<Object>();
+                    break;
+                default:
+                    return null;
+            }
+            obj.readCompact(this);
+            return obj;
+        }
+
+        boolean readBoolean()
+        {
+            return buffer[position++] != 0;
+        }
+
+        long readVarLong()
+        {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        int readVarInt()
+        {
+            long zigzag = readVarLong();
+            return (int) (zigzag >>> 1) ^ -(int) (zigzag & 1);
+        }
+
+        double readDouble()
+        {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buffer[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        double[] readDoubles()
+        {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = readDouble();
+            }
+            return values;
+        }
+
+        Object readLink()
+        {
+            int index = (int) readVarLong();
+            return index == 0 ? null : links.objects.get(index - 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> ManagedObjectReference<T> readReference()
+        {
+            int kind = (int) readVarLong();
+            switch (kind) {
+                case NULL_REFERENCE:
+                    return null;
+                case LINKED_REFERENCE:
+                    return (ManagedObjectReference<T>) readLink();
+                default:
+                    SpatialOrganizationManager<T> som = (SpatialOrganizationManager<T>) links.objects.get(kind - COMPACT_REFERENCE);
+                    return new ManagedObjectReference<T>(readVarLong(), som);
+            }
+        }
+
+        /**
+         * Reads references into an existing array.
+         */
+        <T> void readReferences(ManagedObjectReference<T>[] refs)
+        {
+            int length = (int) readVarLong();
+            for (int i = 0; i < length; i++) {
+                refs[i] = readReference();
+            }
+        }
+
+        <T> LinkedList<ManagedObjectReference<T>> readReferenceList()
+        {
+            int length = (int) readVarLong();
+            LinkedList<ManagedObjectReference<T>> refs = new LinkedList<ManagedObjectReference<T>>();
+            for (int i = 0; i < length; i++) {
+                refs.add(this.<T>readReference());
+            }
+            return refs;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> ManagedObjectTracker<T> readTracker()
+        {
+            switch ((int) readVarLong()) {
+                case PLAIN_REFERENCE:
+                    return readReference();
+                case CACHE_ROUTED:
+                    CacheManager<T> cm = (CacheManager<T>) readLink();
+                    return new CacheRoutedMOTracker<T>(cm, this.<T>readReference());
+                default:
+                    return (ManagedObjectTracker<T>) readLink();
+            }
+        }
+    }
+}
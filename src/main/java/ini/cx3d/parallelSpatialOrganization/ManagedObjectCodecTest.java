@@ -0,0 +1,151 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
+import ini.cx3d.spatialOrganization.SpatialOrganizationNodeMovementListener;
+
+/**
+ * Sends SpaceNodes through the streams of {@link RemoteSOMRegistry} and checks that they
+ * come back with the same references, also for a node that is only reached through the
+ * user object or the listener list of another node (see {@link ManagedObjectCodec}). Also
+ * checks that the input stream refuses the classes the protocol doesn't need.
+ * <p/>
+ * Run the <code>main</code> method; it exits with status 1 if a check fails.
+ */
+public class ManagedObjectCodecTest
+{
+    private static int failures = 0;
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args)
+            throws Exception
+    {
+        SpatialOrganizationManager<Object> som = new SpatialOrganizationManager<Object>(null, 0, 1000000);
+        RemoteSOMRegistry.export(som, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            SpaceNode<Object> nestedInContent = new SpaceNode<Object>(new double[] {1, 2, 3}, "inner",
+                    null, new ManagedObjectReference<Object>(7, som));
+            SpaceNode<Object> nestedInListeners = new SpaceNode<Object>(new double[] {4, 5, 6}, "listener",
+                    null, new ManagedObjectReference<Object>(8, som));
+            SpaceNode<Object> outer = new SpaceNode<Object>(new double[] {7, 8, 9}, nestedInContent,
+                    null, new ManagedObjectReference<Object>(9, som));
+            outer.addSpatialOrganizationNodeMovementListener(new NodeHoldingListener(nestedInListeners));
+            SpaceNode<Object> plain = new SpaceNode<Object>(new double[] {0, 0, 0}, "plain",
+                    null, new ManagedObjectReference<Object>(10, som));
+
+            // two batches on the same streams, so that the shared link tables are reused:
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            RemoteSOMRegistry.Output out = new RemoteSOMRegistry.Output(bytes);
+            out.writeBatch(new Object[] {outer, plain});
+            out.writeBatch(new Object[] {plain, outer});
+            out.close();
+            RemoteSOMRegistry.Input in = new RemoteSOMRegistry.Input(new ByteArrayInputStream(bytes.toByteArray()));
+            for (int batch = 0; batch < 2; batch++) {
+                Object[] read = in.readBatch();
+                SpaceNode<Object> outerCopy = (SpaceNode<Object>) read[batch];
+                SpaceNode<Object> plainCopy = (SpaceNode<Object>) read[1 - batch];
+                check("outer node", outerCopy, som, 9);
+                check("plain node", plainCopy, som, 10);
+                check("node in the user object", (SpaceNode<Object>) outerCopy.getUserObject(), som, 7);
+                check("node in the listeners", ((NodeHoldingListener) listenersOf(outerCopy).getFirst()).node, som, 8);
+            }
+            in.close();
+
+            bytes = new ByteArrayOutputStream();
+            out = new RemoteSOMRegistry.Output(bytes);
+            out.writeBatch(new Object[] {new IllegalStateException("remote failure"), new Double[] {1.0}});
+            out.writeBatch(new Object[] {new HashMap<String, String>()});
+            out.close();
+            in = new RemoteSOMRegistry.Input(new ByteArrayInputStream(bytes.toByteArray()));
+            Object[] read = in.readBatch();
+            if (!(read[0] instanceof IllegalStateException) || !(read[1] instanceof Double[])) {
+                System.out.println("exceptions and arrays of boxed primitives should be allowed");
+                failures++;
+            }
+            try {
+                in.readBatch();
+                System.out.println("a HashMap should not be allowed");
+                failures++;
+            }
+            catch (InvalidClassException e) {
+            }
+            in.close();
+        }
+        finally {
+            RemoteSOMRegistry.unexport(som);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /* A listener that refers to another node, as the physical objects of cx3d do.*/
+    private static class NodeHoldingListener
+            implements SpatialOrganizationNodeMovementListener<Object>, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        final SpaceNode<Object> node;
+
+        NodeHoldingListener(SpaceNode<Object> node)
+        {
+            this.node = node;
+        }
+
+        public void nodeAboutToMove(SpatialOrganizationNode<Object> n, double[] planedMovement) {}
+        public void nodeMoved(SpatialOrganizationNode<Object> n) {}
+        public void nodeAboutToBeRemoved(SpatialOrganizationNode<Object> n) {}
+        public void nodeRemoved(SpatialOrganizationNode<Object> n) {}
+        public void nodeAboutToBeAdded(SpatialOrganizationNode<Object> n, double[] planedPosition, Object[] verticesOfTheTetrahedronContainingThePosition) {}
+        public void nodeAdded(SpatialOrganizationNode<Object> n) {}
+    }
+
+    private static LinkedList<?> listenersOf(SpaceNode<Object> node)
+            throws Exception
+    {
+        Field listeners = SpaceNode.class.getDeclaredField("listeners");
+        listeners.setAccessible(true);
+        return (LinkedList<?>) listeners.get(node);
+    }
+
+    private static void check(String what, SpaceNode<Object> node, SpatialOrganizationManager<Object> som, long address)
+    {
+        ManagedObjectReference<Object> ref = node.getReference();
+        if (ref.getSOM() != som || ref.getAddress() != address) {
+            System.out.println(what + ": expected som=" + som + " addr=" + address
+                    + ", got som=" + ref.getSOM() + " addr=" + ref.getAddress());
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+
+/**
+ * Gives a node to another SOM, together with the tetrahedra, triangles and edges around it
+ * that no other node of its old SOM is incident to.
+ * <p/>
+ * The transaction locks the node and its neighbours, copies the moved objects to the new SOM and
+ * rewrites the references that the objects of its cache keep to them. Once all objects are
+ * committed, the old SOM removes the moved objects and forwards the requests that still arrive
+ * with their old references (from objects outside of the cache) to the new SOM
+ * (see {@link SpatialOrganizationManager#releaseMovedObject(CacheManager, ManagedObjectReference, SpatialOrganizationManager)}).
+ *
+ * @param <T>
+ * @see LoadBalancingAssignmentPolicy
+ */
+public class NodeMigrationCM<T>
+        extends CacheManager<T>
+{
+    ManagedObjectReference<T> nodeReference;
+    SpatialOrganizationManager<T> target;
+
+    /* The old references of the objects given to the target SOM.*/
+    LinkedList<ManagedObjectReference<T>> movedReferences = new LinkedList<ManagedObjectReference<T>>();
+
+    /* Set once the transaction is committed.*/
+    volatile boolean finished = false;
+
+    public NodeMigrationCM(ManagedObjectReference<T> nodeReference, SpatialOrganizationManager<T> target, SpatialOrganizationManager<T> mySOM)
+    {
+        super(mySOM);
+        this.nodeReference = nodeReference;
+        this.target = target;
+    }
+
+    public String descriptionString()
+    {
+        return "Migration #" + id + " (Node " + nodeReference + ")";
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean executeTask()
+            throws NodeLockedException
+    {
+        movedReferences.clear();
+        if (nodeReference.getSOM().isNodePending(nodeReference)) {
+            return false;
+        }
+        SpaceNode<T> node;
+        try {
+            node = tryToGetNode(nodeReference);
+        }
+        catch (ManagedObjectDoesNotExistException e) {
+            // the node was removed in the meantime:
+            return true;
+        }
+        SpatialOrganizationManager<T> from = node.getSOM();
+        if (from.getUniqueSOMID().equals(target.getUniqueSOMID())) {
+            return true;
+        }
+
+        // lock the neighbourhood of the node:
+        LinkedList<Tetrahedron<T>> adjacentTetrahedra;
+        try {
+            adjacentTetrahedra = node.getAdjacentTetrahedra();
+        }
+        catch (ManagedObjectDoesNotExistException e) {
+            throw new RuntimeException("A modifying process tried to access a managed object that didn't exist!");
+        }
+        for (Tetrahedron<T> tetrahedron : adjacentTetrahedra) {
+            for (ManagedObjectReference<T> ref : tetrahedron.adjacentTriangles) {
+                if (ref != null) {
+                    getTriangle(ref);
+                }
+            }
+            for (ManagedObjectReference<T> ref : tetrahedron.adjacentEdges) {
+                if (ref != null) {
+                    getEdge(ref);
+                }
+            }
+        }
+
+        // the objects of the old SOM that only the moved node keeps there:
+        ArrayList<ManagedObject<T>> moving = new ArrayList<ManagedObject<T>>();
+        moving.add(node);
+        for (Tetrahedron<T> tetrahedron : tetrahedra.values()) {
+            if (staysWith(tetrahedron, tetrahedron.getAdjacentNodeReferences(), from)) {
+                moving.add(tetrahedron);
+            }
+        }
+        for (Triangle3D<T> triangle : triangles.values()) {
+            if (staysWith(triangle, triangle.getAdjacentNodeReferences(), from)) {
+                moving.add(triangle);
+            }
+        }
+        for (Edge<T> edge : edges.values()) {
+            if (staysWith(edge, new ManagedObjectReference[] {edge.getNodeAReference(), edge.getNodeBReference()}, from)) {
+                moving.add(edge);
+            }
+        }
+
+        // rewrite the references and give the objects to the target SOM:
+        Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved = new Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>>();
+        for (ManagedObject<T> object : moving) {
+            moved.put(object.getReference(), new ManagedObjectReference<T>(object.getAddress(), target));
+        }
+        for (SpaceNode<T> cached : nodes.values()) {
+            cached.updateReferences(moved);
+        }
+        for (Tetrahedron<T> cached : tetrahedra.values()) {
+            cached.updateReferences(moved);
+        }
+        for (Triangle3D<T> cached : triangles.values()) {
+            cached.updateReferences(moved);
+        }
+        for (Edge<T> cached : edges.values()) {
+            cached.updateReferences(moved);
+        }
+        for (ManagedObject<T> object : moving) {
+            movedReferences.add(object.getReference());
+            object.moveTo(this, target);
+        }
+        return true;
+    }
+
+    /* Returns true if an object belongs to the old SOM and none of its nodes other than the
+     * moved one does, so that it can go with the moved node.*/
+    private boolean staysWith(ManagedObject<T> object, ManagedObjectReference<T>[] incidentNodes, SpatialOrganizationManager<T> from)
+    {
+        if (!object.getSOM().getUniqueSOMID().equals(from.getUniqueSOMID())) {
+            return false;
+        }
+        for (ManagedObjectReference<T> ref : incidentNodes) {
+            if (ref != null && !ref.equals(nodeReference)
+                    && nodes.get(ref).getSOM().getUniqueSOMID().equals(from.getUniqueSOMID())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the moved objects from their old SOM, before they are unlocked on the new one.
+     */
+    @Override
+    protected void objectsCommitted()
+    {
+        // the moved objects have to be on the target SOM before the old SOM forwards to it:
+        RemoteSpatialOrganizationManager.flushCommits();
+        for (ManagedObjectReference<T> ref : movedReferences) {
+            ref.getSOM().releaseMovedObject(this, ref, target);
+        }
+    }
+
+    @Override
+    protected void jobSuccessful()
+    {
+        finished = true;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return 10;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import ini.cx3d.spatialOrganization.NeighborVisitor;
+import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
+
+/**
+ * Moves nodes between SOMs with a {@link LoadBalancingAssignmentPolicy} and checks that the
+ * triangulation stays consistent : all nodes are first inserted into one SOM, then two more SOMs
+ * are registered, so that the policy moves nodes to them (see {@link NodeMigrationCM}). The
+ * positions, the neighbors and the tetrahedra of the nodes are then read, the nodes are moved
+ * around and more nodes are inserted, through the references the simulation got before the
+ * migrations.
+ * <p/>
+ * Run the <code>main</code> method; it exits with status 1 if a check fails.
+ */
+public class NodeMigrationTest
+{
+    private static int failures = 0;
+
+    public static void main(String[] args)
+            throws Throwable
+    {
+        double[] min = {-30, -30, -30};
+        double[] max = {30, 30, 30};
+        LoadBalancingAssignmentPolicy<Integer> policy = new LoadBalancingAssignmentPolicy<Integer>(min, max, 4096, 200);
+        ArrayList<SpatialOrganizationManager<Integer>> soms = new ArrayList<SpatialOrganizationManager<Integer>>();
+        for (int i = 0; i < 3; i++) {
+            soms.add(new SpatialOrganizationManager<Integer>(policy, i * 1000000000L, (i + 1) * 1000000000L - 1));
+        }
+        policy.registerNewSOM(soms.get(0));
+
+        Random rand = new Random(1312);
+        ArrayList<SpatialOrganizationNode<Integer>> nodes = new ArrayList<SpatialOrganizationNode<Integer>>();
+        nodes.add(soms.get(0).createInitialNode(randomPosition(rand), 0));
+        for (int i = 1; i < 600; i++) {
+            nodes.add(nodes.get(i - 1).getNewInstance(randomPosition(rand), i));
+        }
+        waitUntilIdle(soms, 600);
+        check("all nodes in the first SOM", soms.get(0).getNodeCount() == 600);
+
+        // the two new SOMs have no node, so the first one gives them some:
+        policy.registerNewSOM(soms.get(1));
+        policy.registerNewSOM(soms.get(2));
+        for (int i = 0; i < 3; i++) {
+            policy.updateRegions();
+            waitUntilIdle(soms, 600);
+        }
+        printCounts(soms, policy);
+        for (SpatialOrganizationManager<Integer> som : soms) {
+            check("SOM " + soms.indexOf(som) + " got its share", Math.abs(som.getNodeCount() - 200) <= 20);
+        }
+        checkTriangulation(soms);
+
+        // use the references from before the migrations:
+        for (int i = 0; i < nodes.size(); i++) {
+            double[] position = nodes.get(i).getPosition();
+            check("position of node " + i, position != null);
+            final int[] visited = {0};
+            nodes.get(i).visitNeighbors(new NeighborVisitor<Integer>()
+            {
+                public void visit(Integer neighbor)
+                {
+                    visited[0]++;
+                }
+            });
+            check("neighbors of node " + i, visited[0] >= 4);
+            nodes.get(i).moveFrom(new double[] {rand.nextDouble() - 0.5, rand.nextDouble() - 0.5, rand.nextDouble() - 0.5});
+        }
+        ArrayList<double[]> positions = new ArrayList<double[]>();
+        positions.add(new double[] {0, 0, 0});
+        positions.add(new double[] {1000, 0, 0});
+        Object[][] vertices = nodes.get(0).getVerticesOfTheTetrahedraContaining(positions);
+        check("tetrahedron containing the origin", vertices[0] != null && vertices[0].length == 4 && vertices[0][3] instanceof Integer);
+        check("no tetrahedron outside of the hull", vertices[1] == null);
+        for (int i = 0; i < 300; i++) {
+            nodes.add(nodes.get(rand.nextInt(nodes.size())).getNewInstance(randomPosition(rand), nodes.size()));
+        }
+        waitUntilIdle(soms, 900);
+        printCounts(soms, policy);
+        checkTriangulation(soms);
+
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+        System.exit(0);
+    }
+
+    private static double[] randomPosition(Random rand)
+    {
+        return new double[] {rand.nextDouble() * 60 - 30, rand.nextDouble() * 60 - 30, rand.nextDouble() * 60 - 30};
+    }
+
+    /* Waits until the SOMs own the given number of nodes and have no action left to run.*/
+    private static void waitUntilIdle(ArrayList<SpatialOrganizationManager<Integer>> soms, int nodeCount)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 120000;
+        while (System.currentTimeMillis() < deadline) {
+            int total = 0;
+            boolean idle = true;
+            for (SpatialOrganizationManager<Integer> som : soms) {
+                total += som.getNodeCount();
+                synchronized (som) {
+                    idle &= som.getQueueDepth() == 0 && som.activeProcesses == 0;
+                }
+            }
+            if (total == nodeCount && idle) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        check("the SOMs finished their actions", false);
+    }
+
+    private static void printCounts(ArrayList<SpatialOrganizationManager<Integer>> soms, LoadBalancingAssignmentPolicy<Integer> policy)
+    {
+        for (int i = 0; i < soms.size(); i++) {
+            System.out.println("SOM " + i + ": " + soms.get(i).getNodeCount() + " nodes");
+        }
+        System.out.println(policy.getMigrations() + " nodes moved");
+    }
+
+    /* Checks that the triangles of all SOMs are Delaunay and that the references between the
+     * triangles and the tetrahedra agree, whichever SOM the objects were moved to.*/
+    @SuppressWarnings("unchecked")
+    private static void checkTriangulation(ArrayList<SpatialOrganizationManager<Integer>> soms)
+            throws Throwable
+    {
+        int triangles = 0;
+        for (SpatialOrganizationManager<Integer> som : soms) {
+            check("SOM " + soms.indexOf(som) + " is Delaunay", som.checkTriangulation());
+            for (ManagedObjectReference<Integer> ref : new ArrayList<ManagedObjectReference<Integer>>(som.triangles.keySet())) {
+                Triangle3D<Integer> triangle = som.getCopyOfTriangle(ref, null);
+                triangles++;
+                for (Tetrahedron<Integer> tetrahedron : new Tetrahedron[] {triangle.getFirstAdjacentTetrahedron(), triangle.getSecondAdjacentTetrahedron()}) {
+                    boolean found = false;
+                    for (ManagedObjectReference<Integer> back : tetrahedron.adjacentTriangles) {
+                        found |= back.equals(triangle.getReference());
+                    }
+                    check("triangle " + ref + " is a triangle of its tetrahedron " + tetrahedron.getReference(), found);
+                    for (ManagedObjectReference<Integer> node : tetrahedron.adjacentNodes) {
+                        if (node != null) {
+                            node.getSOM().getNodePosition(node);
+                        }
+                    }
+                }
+            }
+        }
+        check("there are triangles", triangles > 0);
+    }
+
+    private static void check(String what, boolean ok)
+    {
+        if (!ok) {
+            System.out.println("failed: " + what);
+            failures++;
+        }
+    }
+}
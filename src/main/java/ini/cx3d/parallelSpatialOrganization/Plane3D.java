@@ -90,6 +90,24 @@ public class Plane3D<T>
         this.normalVectorUpdated = origObj.normalVectorUpdated;
     }
 
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        super.writeCompact(out);
+        out.writeDoubles(normalVector);
+        out.writeDouble(offset);
+        out.writeDouble(tolerance);
+        out.writeBoolean(normalVectorUpdated);
+    }
+
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        super.readCompact(in);
+        normalVector = in.readDoubles();
+        offset = in.readDouble();
+        tolerance = in.readDouble();
+        normalVectorUpdated = in.readBoolean();
+    }
+
     /**
      * Creates a plane from a given normal vector and a defined offset value.
      *
@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.Serializable;
+
+/**
+ * A call of a {@link SpatialOrganizationManager} method that is sent to another process
+ * by a {@link RemoteSpatialOrganizationManager} and run there by a {@link RemoteSOMServer}.
+ * Calls are always sent in batches (arrays) and answered by an array of {@link Result}s
+ * of the same length.
+ */
+class RemoteCall
+        implements Serializable
+{
+    /**
+     * The methods of a SOM that can be called remotely.
+     */
+    enum Operation
+    {
+        GET_SOM_ID,
+        GET_NODE_COUNT,
+        GET_EXECUTED_ACTIONS,
+        RESERVE_ADDRESSES,
+        GET_COPY_OF_SPACE_NODE,
+        GET_COPY_OF_TETRAHEDRON,
+        GET_COPY_OF_TRIANGLE,
+        GET_COPY_OF_EDGE,
+        COMMIT_NODE,
+        COMMIT_TETRAHEDRON,
+        COMMIT_TRIANGLE,
+        COMMIT_EDGE,
+        UNLOCK_NODE,
+        UNLOCK_TETRAHEDRON,
+        UNLOCK_TRIANGLE,
+        UNLOCK_EDGE,
+        RELEASE_MOVED_OBJECT,
+        GET_NODE_POSITION,
+        GET_NODE_VOLUME,
+        GET_NODE_USER_OBJECT,
+        ADD_ACTION,
+        INSERT_NODE,
+        ADD_INSERTION_ACTION,
+        ADD_INSERTION_ACTION_AT_TETRAHEDRON,
+        ADD_MOVEMENT_ACTION,
+        CREATE_PENDING_NODE_REFERENCE,
+        REMOVE_PENDING_NODE,
+        IS_NODE_PENDING,
+        GET_A_NODE_REFERENCE,
+        GET_A_TETRAHEDRON_REFERENCE,
+        VISIBILITY_WALK,
+        CHECK_TRIANGULATION
+    }
+
+    final Operation operation;
+    final Object[] arguments;
+
+    RemoteCall(Operation operation, Object... arguments)
+    {
+        this.operation = operation;
+        this.arguments = arguments;
+    }
+
+    /**
+     * The outcome of a {@link RemoteCall} : either a return value or an exception.
+     * A call that locked other objects for a transaction of the calling process (the nodes
+     * of a requested object, or the triangles sent along with a tetrahedron) also returns the
+     * copies of these objects, so that the transaction can commit or unlock them.
+     */
+    static class Result
+            implements Serializable
+    {
+        final Object value;
+        final Throwable exception;
+        final ManagedObject<?>[] lockedObjects;
+
+        Result(Object value, Throwable exception, ManagedObject<?>[] lockedObjects)
+        {
+            this.value = value;
+            this.exception = exception;
+            this.lockedObjects = lockedObjects;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps track of the SOMs and transactions that are known to this process, so that they can
+ * be sent to other processes by reference.
+ * <p/>
+ * SOMs and {@link CacheManager}s are never serialized by the remote streams. A SOM is
+ * replaced by its ID and the address of the {@link RemoteSOMServer} exporting it, and is
+ * resolved in the receiving process either to the local SOM with that ID or to a
+ * {@link RemoteSpatialOrganizationManager}. A CacheManager is replaced by its ID, and is
+ * resolved either to the local CacheManager with that ID (if the ID comes back to the
+ * process running the transaction) or to a stand-in that holds the locks of the
+ * transaction in the other process. Locks are compared by identity, so all the requests of
+ * one transaction have to be resolved to the same stand-in : the stand-ins are kept as long
+ * as some object is locked by them.
+ * <p/>
+ * Nodes, tetrahedra, triangles and edges are written in the compact format of
+ * {@link ManagedObjectCodec}.
+ * <p/>
+ * The streams are not authenticated, so they are only meant for processes of the same host
+ * (or of a trusted network). To keep the receiving process from instantiating arbitrary
+ * classes, {@link Input} only reads the classes of this package, boxed primitives, the few
+ * JDK classes the protocol needs, exceptions and arrays of these.
+ */
+class RemoteSOMRegistry
+{
+    /* The local SOMs that can be reached from other processes, and where.*/
+    private static final HashMap<Long, SpatialOrganizationManager<?>> exportedSOMs = new HashMap<Long, SpatialOrganizationManager<?>>();
+    private static final HashMap<Long, InetSocketAddress> exportedAddresses = new HashMap<Long, InetSocketAddress>();
+
+    /* The SOMs of other processes that are known here.*/
+    private static final HashMap<Long, RemoteSpatialOrganizationManager<?>> remoteSOMs = new HashMap<Long, RemoteSpatialOrganizationManager<?>>();
+
+    /* The transactions that were sent to or received from other processes.*/
+    private static final HashMap<Long, WeakReference<CacheManager<?>>> transactions = new HashMap<Long, WeakReference<CacheManager<?>>>();
+    private static int transactionsAdded = 0;
+
+    static synchronized void export(SpatialOrganizationManager<?> som, InetSocketAddress address)
+    {
+        exportedSOMs.put(som.getUniqueSOMID(), som);
+        exportedAddresses.put(som.getUniqueSOMID(), address);
+    }
+
+    static synchronized void unexport(SpatialOrganizationManager<?> som)
+    {
+        exportedSOMs.remove(som.getUniqueSOMID());
+        exportedAddresses.remove(som.getUniqueSOMID());
+    }
+
+    static synchronized SpatialOrganizationManager<?> resolveSOM(SOMHandle handle)
+    {
+        SpatialOrganizationManager<?> som = exportedSOMs.get(handle.id);
+        if (som == null) {
+            som = remoteSOMs.get(handle.id);
+            if (som == null) {
+                RemoteSpatialOrganizationManager<?> remote = new RemoteSpatialOrganizationManager<Object>(handle.id, handle.address);
+                remoteSOMs.put(handle.id, remote);
+                som = remote;
+            }
+        }
+        return som;
+    }
+
+    static synchronized SOMHandle getHandle(SpatialOrganizationManager<?> som)
+            throws NotSerializableException
+    {
+        if (som instanceof RemoteSpatialOrganizationManager) {
+            return new SOMHandle(som.getUniqueSOMID(), ((RemoteSpatialOrganizationManager<?>) som).getAddress());
+        }
+        InetSocketAddress address = exportedAddresses.get(som.getUniqueSOMID());
+        if (address == null) {
+            throw new NotSerializableException("The SOM " + som.getUniqueSOMID() + " is not exported by a RemoteSOMServer!");
+        }
+        return new SOMHandle(som.getUniqueSOMID(), address);
+    }
+
+    static synchronized TransactionHandle getHandle(CacheManager<?> transaction)
+    {
+        WeakReference<CacheManager<?>> known = transactions.get(transaction.getID());
+        if (known == null || known.get() != transaction) {
+            addTransaction(transaction.getID(), transaction);
+        }
+        return new TransactionHandle(transaction.getID(), transaction.attempt);
+    }
+
+    static synchronized CacheManager<?> resolveTransaction(TransactionHandle handle)
+    {
+        WeakReference<CacheManager<?>> known = transactions.get(handle.id);
+        CacheManager<?> transaction = known == null ? null : known.get();
+        // a retry of a transaction that was rolled back gets a new stand-in:
+        if (transaction == null || (transaction instanceof RemoteTransaction && transaction.attempt != handle.attempt)) {
+            transaction = new RemoteTransaction<Object>(handle.id, handle.attempt);
+            addTransaction(handle.id, transaction);
+        }
+        return transaction;
+    }
+
+    /**
+     * Adds the copies of the objects that were locked in another process to the cache of
+     * the transaction they were locked for.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void cacheLockedObjects(CacheManager<T> transaction, ManagedObject<?>[] lockedObjects)
+    {
+        if (lockedObjects == null || transaction == null || transaction.nodes == null) {
+            return;
+        }
+        for (ManagedObject<?> object : lockedObjects) {
+            boolean added = false;
+            if (object instanceof SpaceNode) {
+                SpaceNode<T> copy = (SpaceNode<T>) object;
+                if (!transaction.nodes.containsKey(copy.getReference())) {
+                    transaction.nodes.put(copy.getReference(), copy);
+                    added = true;
+                }
+            }
+            else if (object instanceof Triangle3D) {
+                Triangle3D<T> copy = (Triangle3D<T>) object;
+                if (!transaction.triangles.containsKey(copy.getReference())) {
+                    transaction.triangles.put(copy.getReference(), copy);
+                    added = true;
+                }
+            }
+            if (added && transaction instanceof RemoteTransaction) {
+                ((RemoteTransaction<T>) transaction).lockedObjects.add((ManagedObject<T>) object);
+            }
+        }
+    }
+
+    private static void addTransaction(long id, CacheManager<?> transaction)
+    {
+        transactions.put(id, new WeakReference<CacheManager<?>>(transaction));
+        // from time to time, forget about the transactions that don't exist anymore:
+        if (++transactionsAdded % 1024 == 0) {
+            Iterator<WeakReference<CacheManager<?>>> it = transactions.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().get() == null) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces a SOM in a remote stream.
+     */
+    static class SOMHandle
+            implements Serializable
+    {
+        final Long id;
+        final InetSocketAddress address;
+
+        SOMHandle(Long id, InetSocketAddress address)
+        {
+            this.id = id;
+            this.address = address;
+        }
+    }
+
+    /**
+     * Replaces a CacheManager in a remote stream.
+     */
+    static class TransactionHandle
+            implements Serializable
+    {
+        final long id;
+        final int attempt;
+
+        TransactionHandle(long id, int attempt)
+        {
+            this.id = id;
+            this.attempt = attempt;
+        }
+    }
+
+    /**
+     * Stands for a transaction of another process, as the owner of the locks it holds here.
+     */
+    static class RemoteTransaction<T>
+            extends CacheManager<T>
+    {
+        /* The objects that were locked for the transaction but not sent to it yet.*/
+        private final LinkedList<ManagedObject<T>> lockedObjects = new LinkedList<ManagedObject<T>>();
+
+        RemoteTransaction(long id, int attempt)
+        {
+            super(null);
+            this.id = id;
+            // the SOM puts the copies of the objects it locks for this transaction here:
+            init();
+            this.attempt = attempt;
+        }
+
+        /**
+         * Locks a node for the transaction, like for a local one, and remembers the copy so
+         * that it can be sent to the transaction.
+         */
+        public SpaceNode<T> getNode(ManagedObjectReference<T> ref)
+                throws NodeLockedException
+        {
+            boolean cached = nodes.containsKey(ref);
+            SpaceNode<T> node = super.getNode(ref);
+            if (!cached) {
+                lockedObjects.add(node);
+            }
+            return node;
+        }
+
+        /**
+         * Adds a triangle that was locked for the transaction without being asked for,
+         * so that it is sent to the transaction.
+         */
+        void cachePrefetchedTriangle(Triangle3D<T> triangle)
+        {
+            triangles.put(triangle.getReference(), triangle);
+            lockedObjects.add(triangle);
+        }
+
+        ManagedObject<?>[] takeLockedObjects()
+        {
+            if (lockedObjects.isEmpty()) {
+                return null;
+            }
+            ManagedObject<?>[] ret = lockedObjects.toArray(new ManagedObject<?>[lockedObjects.size()]);
+            lockedObjects.clear();
+            return ret;
+        }
+
+        boolean executeTask()
+        {
+            throw new UnsupportedOperationException("A remote transaction can't be run here!");
+        }
+
+        public int getPriority()
+        {
+            return 0;
+        }
+
+        public String descriptionString()
+        {
+            return "RemoteTransaction " + id;
+        }
+
+        protected void finalize()
+        {
+            // there is no local SOM to inform.
+        }
+    }
+
+    /**
+     * The stream used to send calls and results to another process.
+     */
+    static class Output
+            extends ObjectOutputStream
+            implements ManagedObjectCodec.LinkedStream
+    {
+        /* An action that is sent to be run by the other process, and therefore
+         * serialized completely instead of being replaced by its ID.*/
+        private Object shippedAction = null;
+
+        /* The objects linked by the encoded ManagedObjects of the current batch.*/
+        private final ManagedObjectCodec.LinkTable links = new ManagedObjectCodec.LinkTable();
+
+        Output(OutputStream out)
+                throws IOException
+        {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        /**
+         * Writes a batch of calls or results, then forgets about the objects written, so that
+         * the next batch contains their current state.
+         */
+        void writeBatch(Object[] batch)
+                throws IOException
+        {
+            for (Object element : batch) {
+                if (element instanceof RemoteCall && ((RemoteCall) element).operation == RemoteCall.Operation.ADD_ACTION) {
+                    shippedAction = ((RemoteCall) element).arguments[0];
+                }
+            }
+            try {
+                writeObject(batch);
+            }
+            finally {
+                shippedAction = null;
+                links.clear();
+            }
+            reset();
+            flush();
+        }
+
+        public ManagedObjectCodec.LinkTable getLinkTable()
+        {
+            return links;
+        }
+
+        protected Object replaceObject(Object obj)
+                throws IOException
+        {
+            if (obj instanceof SpatialOrganizationManager) {
+                return getHandle((SpatialOrganizationManager<?>) obj);
+            }
+            if (obj instanceof CacheManager && obj != shippedAction) {
+                return getHandle((CacheManager<?>) obj);
+            }
+            if (ManagedObjectCodec.isEncodable(obj)) {
+                return new ManagedObjectCodec.Encoded((ManagedObject<?>) obj);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * The stream used to receive calls and results from another process. Only the classes
+     * listed in {@link #isAllowed(String)} can be read, so user objects stored in a distributed
+     * triangulation have to be boxed primitives, arrays or classes of this package.
+     */
+    static class Input
+            extends ObjectInputStream
+            implements ManagedObjectCodec.LinkedStream
+    {
+        /* The JDK classes that can be read, besides arrays, exceptions and the classes of this
+         * package : the elements of Object[] and String[], boxed primitives, the address in a
+         * SOMHandle, the lists of listeners of a node, and what a Throwable is made of.*/
+        private static final HashSet<String> ALLOWED_CLASSES = new HashSet<String>(Arrays.asList(
+                "java.lang.Object", "java.lang.String",
+                "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Short",
+                "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+                "java.lang.Number", "java.lang.Enum", "java.lang.StackTraceElement",
+                "java.net.SocketAddress", "java.net.InetSocketAddress", "java.net.InetAddress",
+                "java.net.Inet4Address", "java.net.Inet6Address",
+                "java.util.ArrayList", "java.util.LinkedList", "java.util.Collections$EmptyList",
+                "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+                "java.util.Collections$UnmodifiableRandomAccessList"));
+
+        /* The objects linked by the encoded ManagedObjects of the current batch.*/
+        private final ManagedObjectCodec.LinkTable links = new ManagedObjectCodec.LinkTable();
+
+        Input(InputStream in)
+                throws IOException
+        {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        Object[] readBatch()
+                throws IOException, ClassNotFoundException
+        {
+            links.clear();
+            return (Object[]) readObject();
+        }
+
+        public ManagedObjectCodec.LinkTable getLinkTable()
+        {
+            return links;
+        }
+
+        /**
+         * @param name The name of a class, as written in a stream.
+         * @return <code>true</code> if objects of that class can be read without checking their
+         * class any further : arrays of allowed classes, classes of this package and the classes
+         * of <code>ALLOWED_CLASSES</code>.
+         */
+        static boolean isAllowed(String name)
+        {
+            int dimensions = 0;
+            while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+            if (dimensions > 0) {
+                if (name.charAt(dimensions) != 'L') {
+                    // an array of primitives
+                    return true;
+                }
+                name = name.substring(dimensions + 1, name.length() - 1);
+            }
+            return name.startsWith(RemoteSOMRegistry.class.getPackage().getName() + ".")
+                    || ALLOWED_CLASSES.contains(name);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException
+        {
+            boolean allowed = isAllowed(desc.getName());
+            // (loaded without being initialised)
+            Class<?> c = super.resolveClass(desc);
+            if (!allowed && !Throwable.class.isAssignableFrom(c)) {
+                throw new InvalidClassException(desc.getName(), "not allowed in a remote stream");
+            }
+            return c;
+        }
+
+        protected Object resolveObject(Object obj)
+                throws ObjectStreamException
+        {
+            if (obj instanceof SOMHandle) {
+                return resolveSOM((SOMHandle) obj);
+            }
+            if (obj instanceof TransactionHandle) {
+                return resolveTransaction((TransactionHandle) obj);
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes a {@link SpatialOrganizationManager} reachable from other processes over TCP.
+ * <p/>
+ * Each connection is served by its own thread, which reads batches of {@link RemoteCall}s,
+ * runs them in order on the exported SOM and answers with the batch of their results.
+ * SOMs of other processes are accessed through {@link RemoteSpatialOrganizationManager}s,
+ * which are created automatically whenever a reference to such a SOM is received.
+ * The user objects stored in the triangulation have to be serializable, and of one of the
+ * classes a remote stream accepts (see {@link RemoteSOMRegistry}).
+ * <p/>
+ * The connections are neither authenticated nor encrypted, and anyone who can connect can
+ * lock and change the triangulation : a SOM should only be exported on the loopback
+ * interface (or, at most, on a trusted network).
+ * <p/>
+ * The <code>main</code> method starts a worker process, so that a distributed triangulation
+ * can be tested with several JVMs on the loopback interface.
+ *
+ * @param <T>
+ */
+public class RemoteSOMServer<T>
+{
+    //Get a logger
+    private static Logger theLogger = Logger.getLogger(RemoteSOMServer.class.getName());
+
+    ///////////////////////////////////////////////////////////////////
+    /// Replace with config. file at some point.....
+    ///////////////////////////////////////////////////////////////////
+    {
+        theLogger.setLevel(Level.INFO);
+    }
+    ///////////////////////////////////////////////////////////////////
+
+    private final SpatialOrganizationManager<T> som;
+    private final ServerSocket serverSocket;
+    private final InetSocketAddress address;
+    private final LinkedList<Socket> connections = new LinkedList<Socket>();
+    private volatile boolean closed = false;
+
+    /**
+     * Exports a SOM on the given port of the loopback interface.
+     *
+     * @param som The SOM that should be reachable from other processes.
+     * @param port The port to listen to, or 0 for any free port.
+     * @throws IOException If the server socket can't be opened.
+     */
+    public RemoteSOMServer(SpatialOrganizationManager<T> som, int port)
+            throws IOException
+    {
+        this(som, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Exports a SOM on the given address.
+     *
+     * @param som The SOM that should be reachable from other processes.
+     * @param address The address to listen to. Other processes connect to this address,
+     * so it shouldn't be a wildcard address. Anything else than a loopback address exposes
+     * the SOM to the whole network it is reachable from.
+     * @throws IOException If the server socket can't be opened.
+     */
+    public RemoteSOMServer(SpatialOrganizationManager<T> som, InetSocketAddress address)
+            throws IOException
+    {
+        this.som = som;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        this.address = new InetSocketAddress(address.getAddress(), serverSocket.getLocalPort());
+        RemoteSOMRegistry.export(som, this.address);
+        Thread acceptor = new Thread("RemoteSOMServer " + this.address)
+        {
+            public void run()
+            {
+                acceptConnections();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the address other processes have to connect to.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    public SpatialOrganizationManager<T> getSOM()
+    {
+        return som;
+    }
+
+    /**
+     * Stops accepting calls and closes all the connections.
+     */
+    public void close()
+    {
+        closed = true;
+        RemoteSOMRegistry.unexport(som);
+        try {
+            serverSocket.close();
+        }
+        catch (IOException e) {
+        }
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                try {
+                    socket.close();
+                }
+                catch (IOException e) {
+                }
+            }
+            connections.clear();
+        }
+    }
+
+    private void acceptConnections()
+    {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (connections) {
+                    connections.add(socket);
+                }
+                Thread handler = new Thread("RemoteSOMServer connection " + socket.getRemoteSocketAddress())
+                {
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                };
+                handler.setDaemon(true);
+                handler.start();
+            }
+            catch (IOException e) {
+                if (!closed) {
+                    theLogger.log(Level.WARNING, "Error while accepting a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        try {
+            RemoteSOMRegistry.Output out = new RemoteSOMRegistry.Output(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            RemoteSOMRegistry.Input in = new RemoteSOMRegistry.Input(new BufferedInputStream(socket.getInputStream()));
+            while (!closed) {
+                Object[] calls = in.readBatch();
+                RemoteCall.Result[] results = new RemoteCall.Result[calls.length];
+                for (int i = 0; i < calls.length; i++) {
+                    RemoteCall call = (RemoteCall) calls[i];
+                    Object value = null;
+                    Throwable exception = null;
+                    try {
+                        value = dispatch(call);
+                    }
+                    catch (Throwable t) {
+                        exception = t;
+                    }
+                    results[i] = new RemoteCall.Result(value, exception, takeLockedObjects(call));
+                }
+                out.writeBatch(results);
+            }
+        }
+        catch (EOFException e) {
+            // the other side closed the connection.
+        }
+        catch (SocketException e) {
+            // the connection was closed.
+        }
+        catch (Exception e) {
+            theLogger.log(Level.WARNING, "Error while serving " + socket.getRemoteSocketAddress(), e);
+        }
+        finally {
+            synchronized (connections) {
+                connections.remove(socket);
+            }
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    /* Runs a call on the exported SOM.*/
+    @SuppressWarnings("unchecked")
+    private Object dispatch(RemoteCall call)
+            throws Throwable
+    {
+        Object[] a = call.arguments;
+        switch (call.operation) {
+            case GET_SOM_ID:
+                return som.getUniqueSOMID();
+            case GET_NODE_COUNT:
+                return som.getNodeCount();
+            case GET_EXECUTED_ACTIONS:
+                return som.getExecutedActions();
+            case RESERVE_ADDRESSES:
+                return som.reserveAddresses((Integer) a[0]);
+            case GET_COPY_OF_SPACE_NODE:
+                if (a[1] == null) {
+                    return som.getCopyOfSpaceNode((ManagedObjectReference<T>) a[0], null);
+                }
+                return copyOrCached(som.getCopyOfSpaceNode((ManagedObjectReference<T>) a[0], (CacheManager<T>) a[1]), ((CacheManager<T>) a[1]).nodes, (ManagedObjectReference<T>) a[0]);
+            case GET_COPY_OF_TETRAHEDRON:
+                if (a[1] == null) {
+                    return som.getCopyOfTetrahedron((ManagedObjectReference<T>) a[0], null);
+                }
+                Tetrahedron<T> tetrahedron = copyOrCached(som.getCopyOfTetrahedron((ManagedObjectReference<T>) a[0], (CacheManager<T>) a[1]), ((CacheManager<T>) a[1]).tetrahedra, (ManagedObjectReference<T>) a[0]);
+                if (tetrahedron != null && a[1] instanceof RemoteSOMRegistry.RemoteTransaction) {
+                    prefetchTriangles(tetrahedron, (RemoteSOMRegistry.RemoteTransaction<T>) a[1]);
+                }
+                return tetrahedron;
+            case GET_COPY_OF_TRIANGLE:
+                if (a[1] == null) {
+                    return som.getCopyOfTriangle((ManagedObjectReference<T>) a[0], null);
+                }
+                return copyOrCached(som.getCopyOfTriangle((ManagedObjectReference<T>) a[0], (CacheManager<T>) a[1]), ((CacheManager<T>) a[1]).triangles, (ManagedObjectReference<T>) a[0]);
+            case GET_COPY_OF_EDGE:
+                if (a[1] == null) {
+                    return som.getCopyOfEdge((ManagedObjectReference<T>) a[0], null);
+                }
+                return copyOrCached(som.getCopyOfEdge((ManagedObjectReference<T>) a[0], (CacheManager<T>) a[1]), ((CacheManager<T>) a[1]).edges, (ManagedObjectReference<T>) a[0]);
+            case COMMIT_NODE:
+                som.commitNode((CacheManager<T>) a[0], (SpaceNode<T>) a[1]);
+                return null;
+            case COMMIT_TETRAHEDRON:
+                som.commitTetrahedron((CacheManager<T>) a[0], (Tetrahedron<T>) a[1]);
+                return null;
+            case COMMIT_TRIANGLE:
+                som.commitTriangle((CacheManager<T>) a[0], (Triangle3D<T>) a[1]);
+                return null;
+            case COMMIT_EDGE:
+                som.commitEdge((CacheManager<T>) a[0], (Edge<T>) a[1]);
+                return null;
+            case UNLOCK_NODE:
+                som.unlockNode((ManagedObjectReference<T>) a[0]);
+                return null;
+            case UNLOCK_TETRAHEDRON:
+                som.unlockTetrahedron((ManagedObjectReference<T>) a[0]);
+                return null;
+            case UNLOCK_TRIANGLE:
+                som.unlockTriangle((ManagedObjectReference<T>) a[0]);
+                return null;
+            case UNLOCK_EDGE:
+                som.unlockEdge((ManagedObjectReference<T>) a[0]);
+                return null;
+            case RELEASE_MOVED_OBJECT:
+                som.releaseMovedObject((CacheManager<T>) a[0], (ManagedObjectReference<T>) a[1], (SpatialOrganizationManager<T>) a[2]);
+                return null;
+            case GET_NODE_POSITION:
+                return som.getNodePosition((ManagedObjectReference<T>) a[0]);
+            case GET_NODE_VOLUME:
+                return som.getNodeVolume((ManagedObjectReference<T>) a[0]);
+            case GET_NODE_USER_OBJECT:
+                return som.getNodeUserObject((ManagedObjectReference<T>) a[0]);
+            case ADD_ACTION:
+                som.addAction((CacheManager<T>) a[0]);
+                return null;
+            case INSERT_NODE:
+                return som.addInsertionAction((T) a[0], (double[]) a[1], (ManagedObjectReference<T>) a[2]);
+            case ADD_INSERTION_ACTION:
+                som.addInsertionAction((T) a[0], (double[]) a[1], (ManagedObjectReference<T>) a[2], (ManagedObjectReference<T>) a[3]);
+                return null;
+            case ADD_INSERTION_ACTION_AT_TETRAHEDRON:
+                som.addInsertionActionAtTetrahedron((T) a[0], (double[]) a[1], (ManagedObjectReference<T>) a[2], (ManagedObjectReference<T>) a[3]);
+                return null;
+            case ADD_MOVEMENT_ACTION:
+                som.addMovementAction((ManagedObjectReference<T>) a[0], (double[]) a[1]);
+                return null;
+            case CREATE_PENDING_NODE_REFERENCE:
+                return som.createPendingNodeReference();
+            case REMOVE_PENDING_NODE:
+                som.removePendingNode((ManagedObjectReference<T>) a[0]);
+                return null;
+            case IS_NODE_PENDING:
+                return som.isNodePending((ManagedObjectReference<T>) a[0]);
+            case GET_A_NODE_REFERENCE:
+                return som.getANodeReference();
+            case GET_A_TETRAHEDRON_REFERENCE:
+                return som.getATetrahedronReference();
+            case VISIBILITY_WALK:
+                return som.visibilityWalk((double[]) a[0], (ManagedObjectReference<T>) a[1]);
+            case CHECK_TRIANGULATION:
+                return som.checkTriangulation();
+            default:
+                throw new UnsupportedOperationException("Unknown operation: " + call.operation);
+        }
+    }
+
+    /* A SOM returns null if the customer already owns a copy of the object, because it locked
+     * it earlier. When the lock was taken on behalf of another process, the copy was sent there
+     * and the customer here doesn't know it, so the copies are also kept in the cache of the
+     * customer (the transaction itself or its stand-in) and sent again when asked for.*/
+    private <M extends ManagedObject<T>> M copyOrCached(M copy, Hashtable<ManagedObjectReference<T>, M> cache, ManagedObjectReference<T> ref)
+    {
+        if (cache == null) {
+            // the transaction isn't running (anymore):
+            return copy;
+        }
+        if (copy == null) {
+            return cache.get(ref);
+        }
+        if (!cache.containsKey(ref)) {
+            cache.put(ref, copy);
+        }
+        return copy;
+    }
+
+    /* A transaction that asks for a tetrahedron nearly always asks for its triangles next, so
+     * the triangles owned by this SOM are sent along with it instead of costing one round trip
+     * each. Locking them can't fail or lock anything more: their nodes are nodes of the
+     * tetrahedron, which the transaction holds already. (The neighbouring tetrahedra are not
+     * sent, since they would lock their opposite nodes too.)*/
+    private void prefetchTriangles(Tetrahedron<T> tetrahedron, RemoteSOMRegistry.RemoteTransaction<T> transaction)
+    {
+        for (ManagedObjectReference<T> ref : tetrahedron.adjacentTriangles) {
+            if (ref == null || !som.belongsToThisSOM(ref) || transaction.triangles.containsKey(ref)) {
+                continue;
+            }
+            try {
+                Triangle3D<T> triangle = som.getCopyOfTriangle(ref, transaction);
+                // (null : the lock was taken for the transaction before, so it has a copy)
+                if (triangle != null) {
+                    transaction.cachePrefetchedTriangle(triangle);
+                }
+            }
+            catch (NodeLockedException e) {
+                return;
+            }
+            catch (ManagedObjectDoesNotExistException e) {
+                return;
+            }
+        }
+    }
+
+    /* Returns the objects a call locked for a transaction of another process, besides the
+     * object it asked for.*/
+    private ManagedObject<?>[] takeLockedObjects(RemoteCall call)
+    {
+        switch (call.operation) {
+            case GET_COPY_OF_SPACE_NODE:
+            case GET_COPY_OF_TETRAHEDRON:
+            case GET_COPY_OF_TRIANGLE:
+            case GET_COPY_OF_EDGE:
+                if (call.arguments[1] instanceof RemoteSOMRegistry.RemoteTransaction) {
+                    return ((RemoteSOMRegistry.RemoteTransaction<?>) call.arguments[1]).takeLockedObjects();
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Starts a worker process that runs one SOM of a distributed triangulation.
+     * <p/>
+     * Usage: <code>RemoteSOMServer index port0 port1 ... [-insert n] [-simple]</code>
+     * <p/>
+     * All workers listen on the loopback interface and are given the same list of ports;
+     * <code>index</code> is the position of this worker in the list. Each worker gets an
+     * equal part of the address space. The new nodes are given to the SOMs by a
+     * {@link LoadBalancingAssignmentPolicy} over the space [-30, 30]^3, or with
+     * <code>-simple</code>, by a {@link SimpleAssignmentPolicy} that gives each SOM an equal
+     * part of that space. With <code>-insert n</code>, the worker inserts n random nodes
+     * once all the others are reachable, and prints the number of nodes of each SOM (after
+     * the nodes the policy moved between the SOMs have moved) and whether its part of the
+     * triangulation is consistent.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+            throws Exception
+    {
+        int insert = 0;
+        boolean simple = false;
+        LinkedList<Integer> ports = new LinkedList<Integer>();
+        int index = Integer.parseInt(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-insert")) {
+                insert = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-simple")) {
+                simple = true;
+            }
+            else {
+                ports.add(Integer.parseInt(args[i]));
+            }
+        }
+        int somCount = ports.size();
+        long addressRange = 100000000000l / (long) somCount;
+        double volumeConstant = 30;
+        double[] minCoordinate = new double[] {-volumeConstant, -volumeConstant, -volumeConstant};
+        double[] maxCoordinate = new double[] {volumeConstant, volumeConstant, volumeConstant};
+        SimpleAssignmentPolicy<Integer> simplePolicy = null;
+        LoadBalancingAssignmentPolicy<Integer> balancingPolicy = null;
+        NodeToSOMAssignmentPolicy<Integer> policy;
+        if (simple) {
+            simplePolicy = new SimpleAssignmentPolicy<Integer>(minCoordinate, maxCoordinate);
+            policy = simplePolicy;
+        }
+        else {
+            balancingPolicy = new LoadBalancingAssignmentPolicy<Integer>(minCoordinate, maxCoordinate);
+            policy = balancingPolicy;
+        }
+        SpatialOrganizationManager<Integer> som = new SpatialOrganizationManager<Integer>(
+                policy, index * addressRange, (index + 1) * addressRange - 1);
+        RemoteSOMServer<Integer> server = new RemoteSOMServer<Integer>(som, ports.get(index));
+        theLogger.info("SOM " + index + " listening on " + server.getAddress());
+
+        // register all SOMs in the same order in every process:
+        LinkedList<SpatialOrganizationManager<Integer>> soms = new LinkedList<SpatialOrganizationManager<Integer>>();
+        for (int i = 0; i < somCount; i++) {
+            if (i == index) {
+                soms.add(som);
+            }
+            else {
+                InetSocketAddress peer = new InetSocketAddress(InetAddress.getLoopbackAddress(), ports.get(i));
+                soms.add(RemoteSpatialOrganizationManager.<Integer>connect(peer, 60000));
+            }
+            if (simplePolicy != null) {
+                simplePolicy.registerNewSOM(soms.getLast());
+            }
+            else {
+                balancingPolicy.registerNewSOM(soms.getLast());
+            }
+        }
+        theLogger.info("SOM " + index + " connected to " + (somCount - 1) + " other SOMs");
+
+        if (insert > 0) {
+            Random rand = new Random(1312);
+            SpatialOrganizationNode<Integer> last = null;
+            for (int i = 0; i < insert; i++) {
+                double[] position = new double[] {
+                        rand.nextDouble() * 2 * volumeConstant - volumeConstant,
+                        rand.nextDouble() * 2 * volumeConstant - volumeConstant,
+                        rand.nextDouble() * 2 * volumeConstant - volumeConstant};
+                if (last == null) {
+                    last = som.createInitialNode(position, Integer.valueOf(i));
+                }
+                else {
+                    last = last.getNewInstance(position, Integer.valueOf(i));
+                }
+            }
+            // the insertions are run asynchronously, wait until they are done:
+            long deadline = System.currentTimeMillis() + 120000;
+            int total = 0;
+            while (total < insert && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+                total = 0;
+                for (SpatialOrganizationManager<Integer> s : soms) {
+                    total += s.getNodeCount();
+                }
+            }
+            // and until the nodes this process decided to move have moved:
+            while (som.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            for (int i = 0; i < somCount; i++) {
+                System.out.println("SOM " + i + ": " + soms.get(i).getNodeCount() + " nodes"
+                        + (soms.get(i).checkTriangulation() ? "" : ", triangulation corrupt!"));
+            }
+            if (balancingPolicy != null) {
+                System.out.println("regions updated " + balancingPolicy.getRegionUpdates() + " times, "
+                        + balancingPolicy.getMigrations() + " nodes moved");
+            }
+        }
+        else {
+            // serve until the process is killed:
+            synchronized (server) {
+                server.wait();
+            }
+        }
+        server.close();
+    }
+}
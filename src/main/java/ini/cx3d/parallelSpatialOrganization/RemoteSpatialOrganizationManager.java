@@ -0,0 +1,538 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.parallelSpatialOrganization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Stands for a {@link SpatialOrganizationManager} that runs in another process and is
+ * exported there by a {@link RemoteSOMServer}. All the methods that are called on the SOM of
+ * a {@link ManagedObjectReference} are forwarded over TCP.
+ * <p/>
+ * Commits are not sent one by one : they are collected per thread and sent together with
+ * the next call the same thread makes to this SOM (typically, the unlock calls that follow
+ * them), or by {@link #flushCommits()} at the end of a transaction. A transaction that
+ * commits many objects owned by another process therefore only needs one round trip
+ * per SOM for its commits.
+ * <p/>
+ * Copies requested by a transaction are not batched in general, since the transaction only
+ * knows which object it needs next once it has read the previous one. A copy of a tetrahedron,
+ * however, comes with copies of its triangles (see <code>RemoteSOMServer</code>), which the
+ * transaction finds in its cache afterwards. Copies requested without transaction (by a
+ * visibility walk) are sent one by one : a walk is handed over to the SOM that owns the next
+ * tetrahedron as soon as it reaches one, so it rarely needs remote copies, and there is no
+ * cache that could keep copies sent ahead.
+ * <p/>
+ * Addresses for objects created here on behalf of the remote SOM are reserved in blocks.
+ * <p/>
+ * Each thread uses its own connection while it waits for an answer; idle connections are
+ * kept for later calls.
+ *
+ * @param <T>
+ */
+public class RemoteSpatialOrganizationManager<T>
+        extends SpatialOrganizationManager<T>
+{
+    /* Commits are sent at the latest when that many are waiting.*/
+    private static final int MAX_BATCHED_COMMITS = 256;
+
+    /* Number of addresses reserved at once for objects created here for the remote SOM.*/
+    private static final int ADDRESS_BLOCK_SIZE = 1024;
+
+    /* The commits waiting to be sent by the current thread, for each remote SOM.*/
+    private static final ThreadLocal<Map<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>>> pendingCommits =
+            new ThreadLocal<Map<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>>>()
+            {
+                protected Map<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>> initialValue()
+                {
+                    return new HashMap<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>>();
+                }
+            };
+
+    private final InetSocketAddress address;
+    private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+
+    /* The block of addresses reserved on the remote SOM that are not used yet.*/
+    private long nextAddress = 0;
+    private long addressBlockEnd = 0;
+
+    RemoteSpatialOrganizationManager(Long uniqueID, InetSocketAddress address)
+    {
+        super(uniqueID);
+        this.address = address;
+    }
+
+    /**
+     * Connects to the SOM exported at a given address. If the SOM is already known in this
+     * process, the existing instance is returned.
+     *
+     * @param address The address of the {@link RemoteSOMServer}.
+     * @param timeout How long (in ms) to retry if the server is not running yet.
+     * @return the SOM exported at that address.
+     * @throws IOException If no connection could be established.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SpatialOrganizationManager<T> connect(InetSocketAddress address, long timeout)
+            throws IOException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            try {
+                Connection connection = new Connection(address);
+                Object[] results = connection.send(new Object[] {new RemoteCall(RemoteCall.Operation.GET_SOM_ID)});
+                Long id = (Long) ((RemoteCall.Result) results[0]).value;
+                SpatialOrganizationManager<T> som = (SpatialOrganizationManager<T>) RemoteSOMRegistry.resolveSOM(
+                        new RemoteSOMRegistry.SOMHandle(id, address));
+                if (som instanceof RemoteSpatialOrganizationManager) {
+                    ((RemoteSpatialOrganizationManager<T>) som).release(connection);
+                }
+                else {
+                    connection.close();
+                }
+                return som;
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Unexpected answer from " + address, e);
+            }
+            catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e1) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the address of the server exporting this SOM.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * Sends the commits the current thread collected for any remote SOM.
+     */
+    public static void flushCommits()
+    {
+        Map<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>> pending = pendingCommits.get();
+        if (pending.isEmpty()) {
+            return;
+        }
+        LinkedList<RemoteSpatialOrganizationManager<?>> soms = new LinkedList<RemoteSpatialOrganizationManager<?>>(pending.keySet());
+        for (RemoteSpatialOrganizationManager<?> som : soms) {
+            som.send(new RemoteCall[0]);
+        }
+    }
+
+    // *************************************************************************************
+    // *      Transport                                                                    *
+    // *************************************************************************************
+
+    /* Sends the pending commits of the current thread together with the given calls, and
+     * returns the results of the given calls.*/
+    private RemoteCall.Result[] send(RemoteCall[] calls)
+    {
+        LinkedList<RemoteCall> commits = pendingCommits.get().remove(this);
+        int offset = commits == null ? 0 : commits.size();
+        Object[] batch = new Object[offset + calls.length];
+        if (commits != null) {
+            commits.toArray(batch);
+        }
+        System.arraycopy(calls, 0, batch, offset, calls.length);
+        if (batch.length == 0) {
+            return new RemoteCall.Result[0];
+        }
+
+        Object[] results;
+        Connection connection = acquire();
+        try {
+            results = connection.send(batch);
+        }
+        catch (Exception e) {
+            connection.close();
+            throw new RuntimeException("Lost the connection to the SOM at " + address + "!", e);
+        }
+        release(connection);
+
+        // a failed commit is as fatal as it would be locally:
+        for (int i = 0; i < offset; i++) {
+            Throwable t = ((RemoteCall.Result) results[i]).exception;
+            if (t != null) {
+                throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+            }
+        }
+        RemoteCall.Result[] ret = new RemoteCall.Result[calls.length];
+        System.arraycopy(results, offset, ret, 0, calls.length);
+        return ret;
+    }
+
+    /* Runs a single call, and throws the exceptions a local call could throw.*/
+    private Object invoke(RemoteCall.Operation operation, Object... arguments)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        return unwrap(send(new RemoteCall[] {new RemoteCall(operation, arguments)})[0]);
+    }
+
+    /* Requests a copy of an object. The other objects that were locked for the customer on the
+     * way are added to its cache, even if the request failed, so that they are unlocked again.*/
+    private Object fetch(RemoteCall.Operation operation, ManagedObjectReference<T> vma, CacheManager<T> customer)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        RemoteCall.Result result = send(new RemoteCall[] {new RemoteCall(operation, vma, customer)})[0];
+        RemoteSOMRegistry.cacheLockedObjects(customer, result.lockedObjects);
+        return unwrap(result);
+    }
+
+    private Object unwrap(RemoteCall.Result result)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        Throwable t = result.exception;
+        if (t == null) {
+            return result.value;
+        }
+        if (t instanceof NodeLockedException) {
+            throw (NodeLockedException) t;
+        }
+        if (t instanceof ManagedObjectDoesNotExistException) {
+            throw (ManagedObjectDoesNotExistException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+    /* Runs a single call that can't throw any checked exception.*/
+    private Object call(RemoteCall.Operation operation, Object... arguments)
+    {
+        try {
+            return invoke(operation, arguments);
+        }
+        catch (NodeLockedException e) {
+            throw new RuntimeException(e);
+        }
+        catch (ManagedObjectDoesNotExistException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void commit(RemoteCall.Operation operation, CacheManager<T> transaction, ManagedObject<T> obj)
+    {
+        Map<RemoteSpatialOrganizationManager<?>, LinkedList<RemoteCall>> pending = pendingCommits.get();
+        LinkedList<RemoteCall> commits = pending.get(this);
+        if (commits == null) {
+            commits = new LinkedList<RemoteCall>();
+            pending.put(this, commits);
+        }
+        commits.add(new RemoteCall(operation, transaction, obj));
+        if (commits.size() >= MAX_BATCHED_COMMITS) {
+            send(new RemoteCall[0]);
+        }
+    }
+
+    private Connection acquire()
+    {
+        synchronized (idleConnections) {
+            if (!idleConnections.isEmpty()) {
+                return idleConnections.removeFirst();
+            }
+        }
+        try {
+            return new Connection(address);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Can't connect to the SOM at " + address + "!", e);
+        }
+    }
+
+    private void release(Connection connection)
+    {
+        synchronized (idleConnections) {
+            idleConnections.addFirst(connection);
+        }
+    }
+
+    /**
+     * A connection to a {@link RemoteSOMServer}.
+     */
+    private static class Connection
+    {
+        private final Socket socket;
+        private final RemoteSOMRegistry.Output out;
+        private final RemoteSOMRegistry.Input in;
+
+        Connection(InetSocketAddress address)
+                throws IOException
+        {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            out = new RemoteSOMRegistry.Output(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new RemoteSOMRegistry.Input(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        Object[] send(Object[] batch)
+                throws IOException, ClassNotFoundException
+        {
+            out.writeBatch(batch);
+            return in.readBatch();
+        }
+
+        void close()
+        {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    // *************************************************************************************
+    // *      Forwarded methods                                                            *
+    // *************************************************************************************
+
+    public int getNodeCount()
+    {
+        return (Integer) call(RemoteCall.Operation.GET_NODE_COUNT);
+    }
+
+    public long getExecutedActions()
+    {
+        return (Long) call(RemoteCall.Operation.GET_EXECUTED_ACTIONS);
+    }
+
+    public synchronized long getUniqueAddress()
+    {
+        if (nextAddress == addressBlockEnd) {
+            nextAddress = (Long) call(RemoteCall.Operation.RESERVE_ADDRESSES, ADDRESS_BLOCK_SIZE);
+            addressBlockEnd = nextAddress + ADDRESS_BLOCK_SIZE;
+        }
+        return nextAddress++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public SpaceNode<T> getCopyOfSpaceNode(ManagedObjectReference<T> vma, CacheManager<T> customer)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        return (SpaceNode<T>) fetch(RemoteCall.Operation.GET_COPY_OF_SPACE_NODE, vma, customer);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Tetrahedron<T> getCopyOfTetrahedron(ManagedObjectReference<T> vma, CacheManager<T> customer)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        return (Tetrahedron<T>) fetch(RemoteCall.Operation.GET_COPY_OF_TETRAHEDRON, vma, customer);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Triangle3D<T> getCopyOfTriangle(ManagedObjectReference<T> vma, CacheManager<T> customer)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        return (Triangle3D<T>) fetch(RemoteCall.Operation.GET_COPY_OF_TRIANGLE, vma, customer);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Edge<T> getCopyOfEdge(ManagedObjectReference<T> vma, CacheManager<T> customer)
+            throws NodeLockedException, ManagedObjectDoesNotExistException
+    {
+        return (Edge<T>) fetch(RemoteCall.Operation.GET_COPY_OF_EDGE, vma, customer);
+    }
+
+    public void commitNode(CacheManager<T> transaction, SpaceNode<T> obj)
+    {
+        commit(RemoteCall.Operation.COMMIT_NODE, transaction, obj);
+    }
+
+    public void commitTetrahedron(CacheManager<T> transaction, Tetrahedron<T> obj)
+    {
+        commit(RemoteCall.Operation.COMMIT_TETRAHEDRON, transaction, obj);
+    }
+
+    public void commitTriangle(CacheManager<T> transaction, Triangle3D<T> obj)
+    {
+        commit(RemoteCall.Operation.COMMIT_TRIANGLE, transaction, obj);
+    }
+
+    public void commitEdge(CacheManager<T> transaction, Edge<T> obj)
+    {
+        commit(RemoteCall.Operation.COMMIT_EDGE, transaction, obj);
+    }
+
+    public void unlockNode(ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        unlock(RemoteCall.Operation.UNLOCK_NODE, ref);
+    }
+
+    public void unlockTetrahedron(ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        unlock(RemoteCall.Operation.UNLOCK_TETRAHEDRON, ref);
+    }
+
+    public void unlockTriangle(ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        unlock(RemoteCall.Operation.UNLOCK_TRIANGLE, ref);
+    }
+
+    public void unlockEdge(ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        unlock(RemoteCall.Operation.UNLOCK_EDGE, ref);
+    }
+
+    public void releaseMovedObject(CacheManager<T> transaction, ManagedObjectReference<T> ref, SpatialOrganizationManager<T> owner)
+    {
+        call(RemoteCall.Operation.RELEASE_MOVED_OBJECT, transaction, ref, owner);
+    }
+
+    private void unlock(RemoteCall.Operation operation, ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        try {
+            invoke(operation, ref);
+        }
+        catch (NodeLockedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public double[] getNodePosition(ManagedObjectReference<T> nodeReference)
+            throws ManagedObjectDoesNotExistException
+    {
+        return (double[]) get(RemoteCall.Operation.GET_NODE_POSITION, nodeReference);
+    }
+
+    public double getNodeVolume(ManagedObjectReference<T> nodeReference)
+            throws ManagedObjectDoesNotExistException
+    {
+        return (Double) get(RemoteCall.Operation.GET_NODE_VOLUME, nodeReference);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getNodeUserObject(ManagedObjectReference<T> nodeReference)
+            throws ManagedObjectDoesNotExistException
+    {
+        return (T) get(RemoteCall.Operation.GET_NODE_USER_OBJECT, nodeReference);
+    }
+
+    private Object get(RemoteCall.Operation operation, ManagedObjectReference<T> ref)
+            throws ManagedObjectDoesNotExistException
+    {
+        try {
+            return invoke(operation, ref);
+        }
+        catch (NodeLockedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void addAction(CacheManager<T> action)
+    {
+        call(RemoteCall.Operation.ADD_ACTION, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ManagedObjectReference<T> addInsertionAction(T userObject, double[] coordinate, ManagedObjectReference<T> closebyNode)
+    {
+        return (ManagedObjectReference<T>) call(RemoteCall.Operation.INSERT_NODE, userObject, coordinate, closebyNode);
+    }
+
+    void addInsertionAction(T userObject, double[] coordinate, ManagedObjectReference<T> closebyNode, ManagedObjectReference<T> preliminaryNodeReference)
+    {
+        call(RemoteCall.Operation.ADD_INSERTION_ACTION, userObject, coordinate, closebyNode, preliminaryNodeReference);
+    }
+
+    protected void addInsertionActionAtTetrahedron(T userObject, double[] coordinate, ManagedObjectReference<T> preliminaryNodeReference, ManagedObjectReference<T> startingTetrahedron)
+    {
+        call(RemoteCall.Operation.ADD_INSERTION_ACTION_AT_TETRAHEDRON, userObject, coordinate, preliminaryNodeReference, startingTetrahedron);
+    }
+
+    protected void addMovementAction(ManagedObjectReference<T> nodeReference, double[] delta)
+    {
+        call(RemoteCall.Operation.ADD_MOVEMENT_ACTION, nodeReference, delta);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ManagedObjectReference<T> createPendingNodeReference()
+    {
+        return (ManagedObjectReference<T>) call(RemoteCall.Operation.CREATE_PENDING_NODE_REFERENCE);
+    }
+
+    void removePendingNode(ManagedObjectReference<T> nodeReference)
+    {
+        call(RemoteCall.Operation.REMOVE_PENDING_NODE, nodeReference);
+    }
+
+    boolean isNodePending(ManagedObjectReference<T> nodeReference)
+    {
+        return (Boolean) call(RemoteCall.Operation.IS_NODE_PENDING, nodeReference);
+    }
+
+    @SuppressWarnings("unchecked")
+    ManagedObjectReference<T> getANodeReference()
+    {
+        return (ManagedObjectReference<T>) call(RemoteCall.Operation.GET_A_NODE_REFERENCE);
+    }
+
+    @SuppressWarnings("unchecked")
+    ManagedObjectReference<T> getATetrahedronReference()
+    {
+        return (ManagedObjectReference<T>) call(RemoteCall.Operation.GET_A_TETRAHEDRON_REFERENCE);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ManagedObjectReference<T> visibilityWalk(double[] coordinate, ManagedObjectReference<T> startingTetrahedron)
+    {
+        return (ManagedObjectReference<T>) call(RemoteCall.Operation.VISIBILITY_WALK, coordinate, startingTetrahedron);
+    }
+
+    boolean checkTriangulation()
+    {
+        return (Boolean) call(RemoteCall.Operation.CHECK_TRIANGULATION);
+    }
+
+    public String toString()
+    {
+        return "RemoteSOM [" + getUniqueSOMID() + " at " + address + "]";
+    }
+}
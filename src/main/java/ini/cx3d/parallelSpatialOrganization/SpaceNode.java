@@ -24,6 +24,7 @@ package ini.cx3d.parallelSpatialOrganization;
 import ini.cx3d.spatialOrganization.PositionNotAllowedException;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNodeMovementListener;
 
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.logging.Level;
@@ -181,6 +182,47 @@ public class SpaceNode<T>
 //		this.address = origObj.address;
     }
 
+    /**
+     * Creates an empty SpaceNode, used to read a node sent by another process.
+     *
+     * @see ManagedObjectCodec
+     */
+    SpaceNode()
+    {
+    }
+
+    @SuppressWarnings("unchecked")
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        super.writeCompact(out);
+        out.writeVarInt(id);
+        out.writeLink(content);
+        out.writeLink(listeners);
+        out.writeDoubles(position);
+        out.writeReferences(adjacentEdges);
+        out.writeReferences(adjacentTetrahedra);
+        out.writeDouble(volume);
+    }
+
+    @SuppressWarnings("unchecked")
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        super.readCompact(in);
+        id = in.readVarInt();
+        content = (T) in.readLink();
+        listeners = (LinkedList<SpatialOrganizationNodeMovementListener<T>>) in.readLink();
+        position = in.readDoubles();
+        adjacentEdges = in.readReferenceList();
+        adjacentTetrahedra = in.readReferenceList();
+        volume = in.readDouble();
+    }
+
+    void updateReferences(Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        updateAll(adjacentEdges, moved);
+        updateAll(adjacentTetrahedra, moved);
+    }
+
 //	/**
 //	 * Creates a new SpaceNode with at a given coordinate and associates it with
 //	 * a user object.
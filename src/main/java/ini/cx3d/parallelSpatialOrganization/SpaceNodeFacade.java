@@ -27,6 +27,7 @@ import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNodeMovementListener;
 
 import java.io.Serializable;
+import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -120,13 +121,31 @@ public class SpaceNodeFacade<T>
     }
 
     /**
-     * @return
+     * Reads the user objects of the neighbors from the SOMs, without locking anything.
+     *
+     * @return the user objects of the nodes connected to this one by an edge.
      * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#getNeighbors()
      */
     public Iterable<T> getNeighbors()
     {
-        // TODO Auto-generated method stub
-        return null;
+        try {
+            SpaceNode<T> node = myReference.getSOM().getCopyOfSpaceNode(myReference, null);
+            LinkedList<T> neighbors = new LinkedList<T>();
+            for (Edge<T> edge : node.getAdjacentEdges()) {
+                ManagedObjectReference<T> opposite = myReference.equals(edge.getNodeAReference())
+                        ? edge.getNodeBReference() : edge.getNodeAReference();
+                if (opposite != null) {
+                    neighbors.add(opposite.getSOM().getNodeUserObject(opposite));
+                }
+            }
+            return neighbors;
+        }
+        catch (NodeLockedException e) {
+            throw new RuntimeException("Received a NodeLockedException while reading the neighbors of a node without locking it!");
+        }
+        catch (ManagedObjectDoesNotExistException e) {
+            throw new RuntimeException("Request for the neighbors of an unknown node!");
+        }
     }
 
     /**
@@ -175,14 +194,25 @@ public class SpaceNodeFacade<T>
     }
 
     /**
+     * Walks from this node to the tetrahedron containing a position, on copies of the objects
+     * that are not locked.
+     *
      * @param position
-     * @return
+     * @return the user objects of the vertices of that tetrahedron, or <code>null</code> if the
+     * position lies outside of the convex hull.
      * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#getVerticesOfTheTetrahedronContaining(double[])
      */
     public Object[] getVerticesOfTheTetrahedronContaining(double[] position)
     {
-        // TODO Auto-generated method stub
-        return null;
+        try {
+            return myReference.getSOM().getCopyOfSpaceNode(myReference, null).getVerticesOfTheTetrahedronContaining(position);
+        }
+        catch (NodeLockedException e) {
+            throw new RuntimeException("Received a NodeLockedException while reading the triangulation without locking it!");
+        }
+        catch (ManagedObjectDoesNotExistException e) {
+            throw new RuntimeException("Request for the tetrahedron containing a position from an unknown node!");
+        }
     }
 
     /**
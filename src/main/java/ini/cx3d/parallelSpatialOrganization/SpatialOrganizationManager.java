@@ -28,6 +28,8 @@ import java.util.Date;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,6 +64,21 @@ public class SpatialOrganizationManager<T>
 
     public static boolean javaMultiThreaded = true;
 
+    /* The pool that runs the actions of all SOMs in multi-threaded mode (created lazily,
+     * with one worker per core by default).*/
+    private static ForkJoinPool actionExecutor = null;
+    private static int actionThreads = Runtime.getRuntime().availableProcessors();
+
+    /* Set while a thread runs an action, whatever pool it belongs to (actions still running on
+     * the previous pool after setActionThreads() must not be blocked by the back-pressure).*/
+    private static final ThreadLocal<Boolean> runningAction = new ThreadLocal<Boolean>()
+    {
+        protected Boolean initialValue()
+        {
+            return Boolean.FALSE;
+        }
+    };
+
     //Change this to use ProActive discovery or some other method of providing the default SOM
     // TODO: If used, this will crash the system since no NodeToSOMAssignmentPolicy is given.
     private static SpatialOrganizationManager defaultSOM = new SpatialOrganizationManager(null, 0L, 50000L);
@@ -81,6 +98,15 @@ public class SpatialOrganizationManager<T>
     int nonFinalizedProcesses = 0;
     int initiatedThreads = 0;
 
+    /* Callers of addAction() are blocked while this many actions are waiting in the queue
+     * (0 for no limit). Actions queued by the actions themselves are never blocked.*/
+    int maxQueuedActions = 10000;
+
+    /* Number of actions run, and time they spent waiting in the queue and running (in ns).*/
+    private final LongAdder executedActions = new LongAdder();
+    private final LongAdder actionWaitingTime = new LongAdder();
+    private final LongAdder actionRunningTime = new LongAdder();
+
     double maxDivergence = 0.03;
 
     //Unique Identifier for this SOM
@@ -91,6 +117,12 @@ public class SpatialOrganizationManager<T>
      */
     LinkedList<ManagedObjectReference<T>> pendingNodes = new LinkedList<ManagedObjectReference<T>>();
 
+    /**
+     * The SOMs that the objects which left this SOM were given to, by address (see {@link NodeMigrationCM}).
+     * The references that other objects still keep to a moved object are forwarded to its new SOM.
+     */
+    Hashtable<Long, SpatialOrganizationManager<T>> movedObjects = new Hashtable<Long, SpatialOrganizationManager<T>>();
+
     NodeToSOMAssignmentPolicy<T> nodeToSOMAssignmentPolicy;
 
     // only for debugging: used to interrupt all processes
@@ -117,6 +149,19 @@ public class SpatialOrganizationManager<T>
         myUniqueID = new Long(new Date().getTime() + new Random().nextLong());
     }
 
+    /**
+     * Creates a SOM that only stands for the SOM with the given ID and doesn't store any
+     * objects itself. Used by {@link RemoteSpatialOrganizationManager}.
+     */
+    SpatialOrganizationManager(Long uniqueID)
+    {
+        this.nodes = new Hashtable<ManagedObjectReference<T>, SpaceNode<T>>(1);
+        this.tetrahedra = new Hashtable<ManagedObjectReference<T>, Tetrahedron<T>>(1);
+        this.triangles = new Hashtable<ManagedObjectReference<T>, Triangle3D<T>>(1);
+        this.edges = new Hashtable<ManagedObjectReference<T>, Edge<T>>(1);
+        myUniqueID = uniqueID;
+    }
+
     /**
      * No argument constructor for ProActive compatibility.
      */
@@ -196,6 +241,14 @@ public class SpatialOrganizationManager<T>
         return createInitialNode(new double[] {x, y, z}, userObject);
     }
 
+    /**
+     * @return the number of nodes owned by this SOM.
+     */
+    public int getNodeCount()
+    {
+        return nodes.size();
+    }
+
     ManagedObjectReference<T> getANodeReference()
     {
         synchronized (nodes) {
@@ -295,7 +348,7 @@ public class SpatialOrganizationManager<T>
         synchronized (actionQueue) {
             activeProcesses--;
             checkActionQueue();
-            actionQueue.notify();
+            actionQueue.notifyAll();
         }
     }
 
@@ -320,33 +373,137 @@ public class SpatialOrganizationManager<T>
                 }
                 nonFinalizedProcesses++;
                 if (javaMultiThreaded) {
-//					CacheManager<T> act = actionQueue.nextAction();
-//					new Thread(act.descriptionString()) {
-                    new Thread("blubb")
+                    getActionExecutor().execute(new Runnable()
                     {
-                        //						CacheManager<T> action = actionQueue.nextAction();
                         public void run()
                         {
-                            action.run();
-//							action = null;
-                        }
-
-                        protected void finalize()
-                                throws Throwable
-                        {
-
-                            super.finalize();
+                            runAction(action);
                         }
-                    }.start();
+                    });
                 }
                 // not multi-threaded => run process right now!
                 else {
-                    action.run();
+                    runAction(action);
                 }
             }
         }
     }
 
+    /* Runs an action taken from the queue and records how long it waited and ran.*/
+    private void runAction(CacheManager<T> action)
+    {
+        long start = System.nanoTime();
+        actionWaitingTime.add(start - action.queuedAt);
+        Boolean wasRunningAction = runningAction.get();
+        runningAction.set(Boolean.TRUE);
+        try {
+            action.run();
+        }
+        finally {
+            runningAction.set(wasRunningAction);
+        }
+        actionRunningTime.add(System.nanoTime() - start);
+        // (moving nodes is the consequence of the load balancing, not load itself)
+        if (!(action instanceof NodeMigrationCM)) {
+            executedActions.increment();
+        }
+    }
+
+    private static synchronized ForkJoinPool getActionExecutor()
+    {
+        if (actionExecutor == null || actionExecutor.getParallelism() != actionThreads) {
+            if (actionExecutor != null) {
+                actionExecutor.shutdown();
+            }
+            // asynchronous mode: the actions are never joined, so they are run in FIFO order
+            actionExecutor = new ForkJoinPool(actionThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+        return actionExecutor;
+    }
+
+    /**
+     * Sets the number of threads that run the actions of all SOMs in multi-threaded mode
+     * (one per core by default). Actions that are already running are completed
+     * on the previous threads.
+     *
+     * @param threads
+     */
+    public static void setActionThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to run the actions: " + threads);
+        }
+        synchronized (SpatialOrganizationManager.class) {
+            actionThreads = threads;
+        }
+    }
+
+    public static synchronized int getActionThreads()
+    {
+        return actionThreads;
+    }
+
+    /**
+     * Sets the number of actions that can wait in the queue of this SOM before
+     * <code>addAction()</code> blocks its caller until some of them were run. Actions added
+     * by running actions (e.g. after a roll back) are never blocked. If the caller is
+     * interrupted while it waits, its action is queued anyway and the interrupt flag is kept.
+     *
+     * @param maxQueuedActions the maximum queue size, or 0 for an unbounded queue.
+     */
+    public void setMaxQueuedActions(int maxQueuedActions)
+    {
+        this.maxQueuedActions = maxQueuedActions;
+    }
+
+    public int getMaxQueuedActions()
+    {
+        return maxQueuedActions;
+    }
+
+    /**
+     * @return the number of actions that were run by this SOM (including the ones that had to roll back,
+     * but not the {@link NodeMigrationCM}s).
+     */
+    public long getExecutedActions()
+    {
+        return executedActions.sum();
+    }
+
+    /**
+     * @return the average time (in ms) the actions spent in the queue before they were started.
+     */
+    public double getAverageActionWaitingTime()
+    {
+        long executed = executedActions.sum();
+        return executed == 0 ? 0.0 : actionWaitingTime.sum() / (1e6 * executed);
+    }
+
+    /**
+     * @return the average time (in ms) needed to run an action.
+     */
+    public double getAverageActionRunningTime()
+    {
+        long executed = executedActions.sum();
+        return executed == 0 ? 0.0 : actionRunningTime.sum() / (1e6 * executed);
+    }
+
+    /**
+     * @return the number of actions currently waiting in the queue of this SOM.
+     */
+    public int getQueueDepth()
+    {
+        return actionQueue.getSize();
+    }
+
+    /**
+     * @return the largest number of actions that were waiting in the queue of this SOM at the same time.
+     */
+    public int getMaxQueueDepth()
+    {
+        return actionQueue.getMaxSize();
+    }
+
     public void processFinalized(long number)
     {
         synchronized (actionQueue) {
@@ -404,7 +561,8 @@ public class SpatialOrganizationManager<T>
      * Therefore, this function may only be called for the correct SOM.
      *
      * @param ref The reference to the node.
-     * @return A link to the original object.
+     * @return A link to the original object, or <code>null</code> if the object was given to another SOM
+     * (the caller has to look it up again with {@link #getCurrentReference(ManagedObjectReference)}).
      * @throws ManagedObjectDoesNotExistException if the object does not exist.
      * @throws RuntimeException if the object belongs to a different SOM.
      */
@@ -425,6 +583,9 @@ public class SpatialOrganizationManager<T>
             //if (ref.getSOM().getUniqueSOMID() == getUniqueSOMID()) {
             {
                 if (belongsToThisSOM(ref)) {
+                    if (movedObjects.containsKey(ref.getAddress())) {
+                        return null;
+                    }
                     if (!isNodePending(ref)) {
                         throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Node!");
                     }
@@ -455,7 +616,8 @@ public class SpatialOrganizationManager<T>
      * Therefore, this function may only be called for the correct SOM.
      *
      * @param ref The reference to the tetrahedron.
-     * @return A link to the original object.
+     * @return A link to the original object, or <code>null</code> if the object was given to another SOM
+     * (the caller has to look it up again with {@link #getCurrentReference(ManagedObjectReference)}).
      * @throws ManagedObjectDoesNotExistException if the object does not exist.
      * @throws RuntimeException if the object belongs to a different SOM.
      */
@@ -471,6 +633,9 @@ public class SpatialOrganizationManager<T>
         //if (ref.getSOM().getUniqueSOMID() == getUniqueSOMID())
         {
             if (belongsToThisSOM(ref)) {
+                if (movedObjects.containsKey(ref.getAddress())) {
+                    return null;
+                }
                 throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Tetrahedron!");
             }
             else {
@@ -485,7 +650,8 @@ public class SpatialOrganizationManager<T>
      * Therefore, this function may only be called for the correct SOM.
      *
      * @param ref The reference to the triangle.
-     * @return A link to the original object.
+     * @return A link to the original object, or <code>null</code> if the object was given to another SOM
+     * (the caller has to look it up again with {@link #getCurrentReference(ManagedObjectReference)}).
      * @throws ManagedObjectDoesNotExistException if the object does not exist.
      * @throws RuntimeException if the object belongs to a different SOM.
      */
@@ -500,6 +666,9 @@ public class SpatialOrganizationManager<T>
         //if (ref.getSOM().getUniqueSOMID() == getUniqueSOMID())
         {
             if (belongsToThisSOM(ref)) {
+                if (movedObjects.containsKey(ref.getAddress())) {
+                    return null;
+                }
                 throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Triangle!");
             }
             else {
@@ -514,7 +683,8 @@ public class SpatialOrganizationManager<T>
      * Therefore, this function may only be called for the correct SOM.
      *
      * @param ref The reference to the edge.
-     * @return A link to the original object.
+     * @return A link to the original object, or <code>null</code> if the object was given to another SOM
+     * (the caller has to look it up again with {@link #getCurrentReference(ManagedObjectReference)}).
      * @throws ManagedObjectDoesNotExistException if the object does not exist.
      * @throws RuntimeException if the object belongs to a different SOM.
      */
@@ -529,6 +699,9 @@ public class SpatialOrganizationManager<T>
         //if (ref.getSOM().getUniqueSOMID() == getUniqueSOMID())
         {
             if (belongsToThisSOM(ref)) {
+                if (movedObjects.containsKey(ref.getAddress())) {
+                    return null;
+                }
                 throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Edge!");
             }
             else {
@@ -555,8 +728,13 @@ public class SpatialOrganizationManager<T>
         //Check if this is the correct SOM to handle the request
         //if(vma.getSOM().equals(getThis())){
         //if(vma.getSOM().getUniqueSOMID() == getUniqueSOMID()){
+        vma = getCurrentReference(vma);
         if (belongsToThisSOM(vma)) {
             SpaceNode<T> originalNode = findNode(vma);
+            if (originalNode == null) {
+                // moved to another SOM in the meantime:
+                return getCopyOfSpaceNode(vma, customer);
+            }
             // try to get a lock on the SpaceNode if the node was requested by a modifying process:
             if (customer != null) {
                 // try to acquire a lock on the node:
@@ -613,8 +791,13 @@ public class SpatialOrganizationManager<T>
     {
         //if (vma.getSOM().equals(getThis())) {
         //if(vma.getSOM().getUniqueSOMID() == getUniqueSOMID()){
+        vma = getCurrentReference(vma);
         if (belongsToThisSOM(vma)) {
             Tetrahedron<T> originalTetrahedron = findTetrahedron(vma);
+            if (originalTetrahedron == null) {
+                // moved to another SOM in the meantime:
+                return getCopyOfTetrahedron(vma, customer);
+            }
             if (customer != null) {
 
 				/* TODO:
@@ -695,8 +878,13 @@ public class SpatialOrganizationManager<T>
     {
         //if (vma.getSOM().equals(getThis())) {
         //if(vma.getSOM().getUniqueSOMID() == getUniqueSOMID()){
+        vma = getCurrentReference(vma);
         if (belongsToThisSOM(vma)) {
             Triangle3D<T> originalTriangle = findTriangle(vma);
+            if (originalTriangle == null) {
+                // moved to another SOM in the meantime:
+                return getCopyOfTriangle(vma, customer);
+            }
             if (customer != null) {
                 // first, attempt to lock all incident nodes:
                 ManagedObjectReference[] incidentNodes = originalTriangle.getAdjacentNodeReferences();
@@ -763,8 +951,13 @@ public class SpatialOrganizationManager<T>
     {
         //if (vma.getSOM().equals(getThis())) {
         //if(vma.getSOM().getUniqueSOMID() == getUniqueSOMID()){
+        vma = getCurrentReference(vma);
         if (belongsToThisSOM(vma)) {
             Edge<T> originalEdge = findEdge(vma);
+            if (originalEdge == null) {
+                // moved to another SOM in the meantime:
+                return getCopyOfEdge(vma, customer);
+            }
             if (customer != null) {
                 // first, attempt to lock all incident nodes:
                 ManagedObjectReference<T> a = originalEdge.getNodeAReference(), b = originalEdge.getNodeBReference();
@@ -837,6 +1030,23 @@ public class SpatialOrganizationManager<T>
         }
     }
 
+    /**
+     * Reserves a block of consecutive addresses, so that another process can create
+     * objects for this SOM without asking for each address.
+     *
+     * @param count the number of addresses needed.
+     * @return the first address of the block.
+     */
+    synchronized long reserveAddresses(int count)
+    {
+        if (current + count > maxAddress) {
+            throw new RuntimeException("This SpatialOrganizationManager exceeded it's amount of addresses!");
+        }
+        long first = current;
+        current += count;
+        return first;
+    }
+
     /**
      * Unlocks a node.
      *
@@ -846,6 +1056,11 @@ public class SpatialOrganizationManager<T>
     public void unlockNode(ManagedObjectReference<T> ref)
             throws ManagedObjectDoesNotExistException
     {
+        ref = getCurrentReference(ref);
+        if (!belongsToThisSOM(ref)) {
+            ref.getSOM().unlockNode(ref);
+            return;
+        }
         SpaceNode<T> node = null;
         synchronized (nodes) {
             node = nodes.get(ref);
@@ -854,11 +1069,11 @@ public class SpatialOrganizationManager<T>
         // But nodes that should be unlocked can never be in the list of pendingNodes. (and if they are, they are new!)
         if (node == null) {
             //if (ref.getSOM().getUniqueSOMID() == getUniqueSOMID())
-            if (belongsToThisSOM(ref)) {
-                throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Tetrahedron!");
+            if (movedObjects.containsKey(ref.getAddress())) {
+                unlockNode(ref);
             }
             else {
-                throw new RuntimeException("This function returns a link to the original object and may therefore only called from inside the proper SOM!");
+                throw new ManagedObjectDoesNotExistException(ref, "Reference to an unknown Tetrahedron!");
             }
         }
         else {
@@ -875,7 +1090,18 @@ public class SpatialOrganizationManager<T>
     public void unlockTetrahedron(ManagedObjectReference<T> ref)
             throws ManagedObjectDoesNotExistException
     {
-        findTetrahedron(ref).unlock();
+        ref = getCurrentReference(ref);
+        if (!belongsToThisSOM(ref)) {
+            ref.getSOM().unlockTetrahedron(ref);
+            return;
+        }
+        ManagedObject<T> tetrahedron = findTetrahedron(ref);
+        if (tetrahedron == null) {
+            unlockTetrahedron(ref);
+        }
+        else {
+            tetrahedron.unlock();
+        }
     }
 
     /**
@@ -887,7 +1113,18 @@ public class SpatialOrganizationManager<T>
     public void unlockTriangle(ManagedObjectReference<T> ref)
             throws ManagedObjectDoesNotExistException
     {
-        findTriangle(ref).unlock();
+        ref = getCurrentReference(ref);
+        if (!belongsToThisSOM(ref)) {
+            ref.getSOM().unlockTriangle(ref);
+            return;
+        }
+        ManagedObject<T> triangle = findTriangle(ref);
+        if (triangle == null) {
+            unlockTriangle(ref);
+        }
+        else {
+            triangle.unlock();
+        }
     }
 
     /**
@@ -899,7 +1136,18 @@ public class SpatialOrganizationManager<T>
     public void unlockEdge(ManagedObjectReference<T> ref)
             throws ManagedObjectDoesNotExistException
     {
-        findEdge(ref).unlock();
+        ref = getCurrentReference(ref);
+        if (!belongsToThisSOM(ref)) {
+            ref.getSOM().unlockEdge(ref);
+            return;
+        }
+        ManagedObject<T> edge = findEdge(ref);
+        if (edge == null) {
+            unlockEdge(ref);
+        }
+        else {
+            edge.unlock();
+        }
     }
 
     /**
@@ -934,6 +1182,8 @@ public class SpatialOrganizationManager<T>
                     }
                     if (obj.isValid()) {
                         nodes.put(ref, obj);
+                        // (in case the object comes back)
+                        movedObjects.remove(ref.getAddress());
                     }
                 }
                 else {
@@ -972,6 +1222,8 @@ public class SpatialOrganizationManager<T>
                     // it's valid => put a new one!
                     if (obj.isValid()) {
                         tetrahedra.put(ref, obj);
+                        // (in case the object comes back)
+                        movedObjects.remove(ref.getAddress());
                     }
                 }
                 else {
@@ -1007,6 +1259,8 @@ public class SpatialOrganizationManager<T>
                     }
                     if (obj.isValid()) {
                         triangles.put(ref, obj);
+                        // (in case the object comes back)
+                        movedObjects.remove(ref.getAddress());
                     }
                 }
                 else {
@@ -1045,6 +1299,8 @@ public class SpatialOrganizationManager<T>
                     }
                     if (obj.isValid()) {
                         edges.put(ref, obj);
+                        // (in case the object comes back)
+                        movedObjects.remove(ref.getAddress());
                     }
                 }
                 else {
@@ -1131,6 +1387,7 @@ public class SpatialOrganizationManager<T>
     public double[] getNodePosition(ManagedObjectReference<T> nodeReference)
             throws ManagedObjectDoesNotExistException
     {
+        nodeReference = getCurrentReference(nodeReference);
         //if (!nodeReference.getSOM().getUniqueSOMID()equals(getThis()))
         //if (nodeReference.getSOM().getUniqueSOMID() != getUniqueSOMID()){
         if (!belongsToThisSOM(nodeReference)) {
@@ -1138,7 +1395,11 @@ public class SpatialOrganizationManager<T>
         }
         else {
             waitUntilReliable();
-            return findNode(nodeReference).getPosition();
+            SpaceNode<T> node = findNode(nodeReference);
+            if (node == null) {
+                return getNodePosition(nodeReference);
+            }
+            return node.getPosition();
         }
 // This following procedure is not necessary! It's much easier to access the original object here:
 //		if (!nodeReference.getSOM().equals(this)) 
@@ -1172,6 +1433,7 @@ public class SpatialOrganizationManager<T>
     public double getNodeVolume(ManagedObjectReference<T> nodeReference)
             throws ManagedObjectDoesNotExistException
     {
+        nodeReference = getCurrentReference(nodeReference);
         //if (!nodeReference.getSOM().equals(getThis())) {
         //if (nodeReference.getSOM().getUniqueSOMID() != getUniqueSOMID()){
         if (!belongsToThisSOM(nodeReference)) {
@@ -1179,13 +1441,18 @@ public class SpatialOrganizationManager<T>
         }
         else {
             waitUntilReliable();
-            return findNode(nodeReference).getVolume();
+            SpaceNode<T> node = findNode(nodeReference);
+            if (node == null) {
+                return getNodeVolume(nodeReference);
+            }
+            return node.getVolume();
         }
     }
 
     public T getNodeUserObject(ManagedObjectReference<T> nodeReference)
             throws ManagedObjectDoesNotExistException
     {
+        nodeReference = getCurrentReference(nodeReference);
         //if (nodeReference.getSOM().getUniqueSOMID() != getUniqueSOMID()){
         //if (!nodeReference.getSOM().equals(getThis())) {
         if (!belongsToThisSOM(nodeReference)) {
@@ -1193,19 +1460,37 @@ public class SpatialOrganizationManager<T>
         }
         else {
 //			waitUntilReliable();
-            return findNode(nodeReference).getUserObject();
+            SpaceNode<T> node = findNode(nodeReference);
+            if (node == null) {
+                return getNodeUserObject(nodeReference);
+            }
+            return node.getUserObject();
         }
     }
 
     public void addAction(CacheManager<T> action)
     {
-        synchronized (actionQueue) {
-
-            theLogger.finer("In SpatialOrganizationManager --- addAction()");
-            this.actionQueue.addAction(action);
-            // The following line should open a huge memory leak
-            // this.allActions.add(action);
+        theLogger.finer("In SpatialOrganizationManager --- addAction()");
+        // back-pressure: don't let the callers that are not running an action flood the queue
+        if (javaMultiThreaded && maxQueuedActions > 0 && actionQueue.getSize() >= maxQueuedActions
+                && !runningAction.get()) {
+            synchronized (actionQueue) {
+                while (actionQueue.getSize() >= maxQueuedActions) {
+                    try {
+                        actionQueue.wait();
+                    }
+                    catch (InterruptedException e) {
+                        // stop waiting, but let the caller know:
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
         }
+        action.queuedAt = System.nanoTime();
+        this.actionQueue.addAction(action);
+        // The following line should open a huge memory leak
+        // this.allActions.add(action);
         checkActionQueue();
     }
 
@@ -1246,10 +1531,11 @@ public class SpatialOrganizationManager<T>
         return preliminaryNodeReference;
     }
 
-    private void addInsertionAction(T userObject, double[] coordinate, ManagedObjectReference<T> closebyNode, ManagedObjectReference<T> preliminaryNodeReference)
+    void addInsertionAction(T userObject, double[] coordinate, ManagedObjectReference<T> closebyNode, ManagedObjectReference<T> preliminaryNodeReference)
     {
 
         theLogger.finest("In SpatialOrganizationManager --- addInsertionAction(c)");
+        closebyNode = getCurrentReference(closebyNode);
         SpatialOrganizationManager<T> tempSOM = closebyNode.getSOM();
 
         theLogger.finer("This  SOM:" + getUniqueSOMID());
@@ -1320,12 +1606,28 @@ public class SpatialOrganizationManager<T>
 
     protected void addMovementAction(ManagedObjectReference<T> nodeReference, double[] delta)
     {
+        nodeReference = getCurrentReference(nodeReference);
+        if (!belongsToThisSOM(nodeReference)) {
+            nodeReference.getSOM().addMovementAction(nodeReference, delta);
+            return;
+        }
         addAction(new NodeMovementCM<T>(nodeReference, delta, getThis()));
     }
 
     /**
      * This function will perform a stochastic visibility walk towards a given coordinate.
      * The returned reference will be a non-reliable reference to the tetrahedron that surrounds the given coordinate.
+     * <p/>
+     * The walk starts at <code>startingTetrahedron</code> (a random tetrahedron of this SOM is only picked if
+     * it doesn't exist anymore). When a walk is continued on another SOM, the tetrahedron it stopped at is
+     * passed on as starting tetrahedron, so that each SOM only walks over its own part of the way instead
+     * of restarting from an arbitrary tetrahedron.
+     * <p/>
+     * If the coordinate lies outside of the convex hull, the walk returns the infinite tetrahedron behind
+     * the hull triangle the coordinate is visible from. In particular, a walk that starts at an infinite
+     * tetrahedron stops there right away if walking on would lead back to it: otherwise, the walk could leave
+     * through a tetrahedron of the SOM that redirected the request here, and the request would go back and
+     * forth between the two SOMs.
      *
      * @param coordinate The coordinate to search for.
      * @param startingTetrahedron Any tetrahedron from which the search is started.
@@ -1333,6 +1635,7 @@ public class SpatialOrganizationManager<T>
      */
     protected ManagedObjectReference<T> visibilityWalk(double[] coordinate, ManagedObjectReference<T> startingTetrahedron)
     {
+        startingTetrahedron = getCurrentReference(startingTetrahedron);
         if (!belongsToThisSOM(startingTetrahedron)) {
             // return the same reference -> the caller must notice that this reference is pointing
             // to a different SOM and call visibilitywalk on that SOM.
@@ -1341,7 +1644,6 @@ public class SpatialOrganizationManager<T>
 //			return startingTetrahedron.getSOM().visibilityWalk(coordinate, startingTetrahedron);
         }
         else {
-            startingTetrahedron = getATetrahedronReference();
             // perform a stochastic visibility walk to the insertion position:
             while (true) {
                 // first, try to get a local copy of the specified startingTetrahedron
@@ -1368,7 +1670,18 @@ public class SpatialOrganizationManager<T>
                 try {
                     if (current.isInfinite()) {
                         try {
+                            Tetrahedron<T> infinite = current;
                             current = current.getOppositeTriangle(null).getOppositeTetrahedron(current);
+                            // if the coordinate lies outside of the convex hull, behind the triangle of
+                            // the infinite tetrahedron, stop here : walking on could lead back to the SOM
+                            // that just redirected the request to this one.
+                            try {
+                                if (!current.isInfinite() && infinite.getReference().equals(current.walkToPoint(coordinate).getReference())) {
+                                    return infinite.getReference();
+                                }
+                            }
+                            catch (PositionNotAllowedException e) {
+                            }
                         }
                         catch (NodeLockedException e) {
                             throw new RuntimeException("Error! Received a NodeLockedException while trying to obtain a local copy from a non-modifying process (visibility walk)!");
@@ -1427,7 +1740,9 @@ public class SpatialOrganizationManager<T>
         theLogger.info("Amount of edges: " + edges.size());
         theLogger.info("Amount of triangles: " + triangles.size());
         theLogger.info("Amount of tetrahedra: " + tetrahedra.size());
-        theLogger.info("Actions waiting: " + actionQueue.getSize());
+        theLogger.info("Actions waiting: " + actionQueue.getSize() + " (max. " + actionQueue.getMaxSize() + ")");
+        theLogger.info("Actions run: " + executedActions.sum() + " (avg. waiting time: " + getAverageActionWaitingTime()
+                + " ms, avg. running time: " + getAverageActionRunningTime() + " ms)");
         theLogger.info("Nodes pending: " + pendingNodes.size());
         if (nonFinalizedProcesses > 2000) {
 //			synchronized (stopLock) {
@@ -1545,6 +1860,64 @@ public class SpatialOrganizationManager<T>
         return myUniqueID;
     }
 
+    /**
+     * Returns the reference under which an object can be found now: if the object was given to
+     * another SOM by a {@link NodeMigrationCM}, a reference to the same address on that SOM.
+     *
+     * @param ref A reference to an object, possibly out of date.
+     * @return <code>ref</code>, or a reference to the SOM the object was given to.
+     */
+    ManagedObjectReference<T> getCurrentReference(ManagedObjectReference<T> ref)
+    {
+        if (ref != null && belongsToThisSOM(ref)) {
+            SpatialOrganizationManager<T> owner = movedObjects.get(ref.getAddress());
+            if (owner != null) {
+                return new ManagedObjectReference<T>(ref.getAddress(), owner);
+            }
+        }
+        return ref;
+    }
+
+    /**
+     * Removes an object that was given to another SOM, and forwards the requests for it to
+     * that SOM from now on. Called by a {@link NodeMigrationCM} once it has committed the
+     * object to its new SOM, while it still holds the lock of the old object.
+     *
+     * @param transaction The CacheManager that moved the object.
+     * @param ref The old reference of the object.
+     * @param owner The SOM that owns the object from now on.
+     * @throws RuntimeException if the object isn't locked by <code>transaction</code>.
+     */
+    public void releaseMovedObject(CacheManager<T> transaction, ManagedObjectReference<T> ref, SpatialOrganizationManager<T> owner)
+    {
+        if (!belongsToThisSOM(ref)) {
+            ref.getSOM().releaseMovedObject(transaction, ref, owner);
+            return;
+        }
+        if (!release(nodes, transaction, ref, owner) && !release(tetrahedra, transaction, ref, owner)
+                && !release(triangles, transaction, ref, owner) && !release(edges, transaction, ref, owner)) {
+            throw new RuntimeException("A CacheManager is trying to move an unknown ManagedObject!");
+        }
+    }
+
+    private <M extends ManagedObject<T>> boolean release(Hashtable<ManagedObjectReference<T>, M> table, CacheManager<T> transaction,
+            ManagedObjectReference<T> ref, SpatialOrganizationManager<T> owner)
+    {
+        synchronized (table) {
+            M original = table.get(ref);
+            if (original == null) {
+                return false;
+            }
+            if (!original.isLockedBy(transaction)) {
+                throw new RuntimeException("A CacheManager is trying to move a ManagedObject for which it doesn't own a lock!");
+            }
+            // forward first, so that whoever misses the object in the table finds its new SOM:
+            movedObjects.put(ref.getAddress(), owner);
+            table.remove(ref);
+            return true;
+        }
+    }
+
     /**
      * Returns a reference to this SOM - wrapper for the Java "this"
      *
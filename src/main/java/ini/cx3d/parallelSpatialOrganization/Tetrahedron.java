@@ -26,6 +26,7 @@ import ini.cx3d.spatialOrganization.PositionNotAllowedException;
 import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -499,6 +500,48 @@ public class Tetrahedron<T>
         this.squaredRadius = origObj.squaredRadius;
     }
 
+    /**
+     * Creates an empty tetrahedron, used to read a tetrahedron sent by another process.
+     *
+     * @see ManagedObjectCodec
+     */
+    Tetrahedron()
+    {
+    }
+
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        super.writeCompact(out);
+        out.writeReferences(adjacentNodes);
+        out.writeReferences(adjacentEdges);
+        out.writeReferences(adjacentTriangles);
+        out.writeDoubles(crossSectionAreas);
+        out.writeDoubles(circumCenter);
+        out.writeDouble(squaredRadius);
+        out.writeDouble(tolerance);
+        out.writeDouble(volume);
+    }
+
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        super.readCompact(in);
+        in.readReferences(adjacentNodes);
+        in.readReferences(adjacentEdges);
+        in.readReferences(adjacentTriangles);
+        crossSectionAreas = in.readDoubles();
+        circumCenter = in.readDoubles();
+        squaredRadius = in.readDouble();
+        tolerance = in.readDouble();
+        volume = in.readDouble();
+    }
+
+    void updateReferences(Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        updateAll(adjacentNodes, moved);
+        updateAll(adjacentEdges, moved);
+        updateAll(adjacentTriangles, moved);
+    }
+
     /**
      * Extracts the user objects associated with the four endpoints of this
      * tetrahedron.
@@ -30,6 +30,8 @@ import static ini.cx3d.utilities.Matrix.normalize;
 import static ini.cx3d.utilities.Matrix.scalarMult;
 import static ini.cx3d.utilities.Matrix.subtract;
 
+import java.util.Hashtable;
+
 /**
  * Represents a triangle in three-dimensional space. A triangle is defined by its three endpoints, and two incident tetrahedra.
  * Each triangle stores information about the corresponding plane equation as well as its circumcircle.
@@ -194,6 +196,45 @@ public class Triangle3D<T>
         this.connectionChecked = origObj.connectionChecked;
     }
 
+    /**
+     * Creates an empty triangle, used to read a triangle sent by another process.
+     *
+     * @see ManagedObjectCodec
+     */
+    Triangle3D()
+    {
+    }
+
+    void writeCompact(ManagedObjectCodec.Writer out)
+    {
+        super.writeCompact(out);
+        out.writeReferences(adjacentTetrahedra);
+        out.writeReferences(nodes);
+        out.writeDoubles(circumCenter);
+        out.writeBoolean(planeUpdated);
+        out.writeBoolean(circumCenterUpdated);
+        out.writeBoolean(upperSidePositive);
+        out.writeVarInt(connectionChecked);
+    }
+
+    void readCompact(ManagedObjectCodec.Reader in)
+    {
+        super.readCompact(in);
+        in.readReferences(adjacentTetrahedra);
+        in.readReferences(nodes);
+        circumCenter = in.readDoubles();
+        planeUpdated = in.readBoolean();
+        circumCenterUpdated = in.readBoolean();
+        upperSidePositive = in.readBoolean();
+        connectionChecked = in.readVarInt();
+    }
+
+    void updateReferences(Hashtable<ManagedObjectReference<T>, ManagedObjectReference<T>> moved)
+    {
+        updateAll(nodes, moved);
+        updateAll(adjacentTetrahedra, moved);
+    }
+
     Tetrahedron<T> getFirstAdjacentTetrahedron()
             throws NodeLockedException, ManagedObjectDoesNotExistException
     {
@@ -26,6 +26,7 @@ import ini.cx3d.localBiology.CellElement;
 import ini.cx3d.localBiology.LocalBiologyModule;
 import ini.cx3d.localBiology.NeuriteElement;
 import ini.cx3d.simulations.ECM;
+import ini.cx3d.spatialOrganization.NeighborSnapshot;
 import ini.cx3d.spatialOrganization.PositionNotAllowedException;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
 import ini.cx3d.synapses.Excrescence;
@@ -76,6 +77,10 @@ public class PhysicalCylinder
 
     /* The part of the inter-object force transmitted to the mother (parent node) -- c.f. runPhysics() */
     private double[] forceToTransmitToProximalMass = {0.0, 0.0, 0.0};
+    /* Value of forceToTransmitToProximalMass computed in computePhysics(), set in commitPhysics().*/
+    private double[] pendingForceToTransmitToProximalMass = null;
+    /* Displacement computed in computePhysics(), performed in commitPhysics() (null if no movement).*/
+    private double[] pendingDisplacement = null;
 
     /* Vector from the attachment point to the massLocation (proximal -> distal).  */
     private double[] springAxis = new double[3];
@@ -505,7 +510,7 @@ public class PhysicalCylinder
 
         // Tell the node to moves
         try {
-            soNode.moveFrom(displacementOfTheCenter);
+            ecm.moveSpatialOrganizationNode(soNode, displacementOfTheCenter);
         }
         catch (PositionNotAllowedException e) {
             e.printStackTrace();
@@ -876,13 +881,24 @@ public class PhysicalCylinder
      *
      */
     public void runPhysics()
+    {
+        prepareForPhysics();
+        computePhysics();
+        commitPhysics();
+    }
+
+    @Override
+    public void prepareForPhysics()
     {
         // decide first if we have to split or fuse this cylinder. Usually only
         // terminal branches (growth cone) do this.
         if (daughterLeft == null) {
             runDiscretization();
         }
+    }
 
+    public void computePhysics()
+    {
         // in case we don't move, we won't run physics the next time :
         super.setOnTheSchedulerListForPhysicalObjects(false);
 
@@ -916,7 +932,9 @@ public class PhysicalCylinder
 
         // 3) Object avoidance force -----------------------------------------------------------
         //	(We check for every neighbor object if they touch us, i.e. push us away)
-        for (PhysicalNode neighbor : soNode.getNeighbors()) {
+        NeighborSnapshot<PhysicalNode> neighbors = soNode.getNeighborSnapshot();
+        for (int k = 0; k < neighbors.size(); k++) {
+            PhysicalNode neighbor = neighbors.getNeighbor(k);
             // of course, only if it is an instance of PhysicalObject
             if (neighbor.isAPhysicalObject()) {
                 PhysicalObject n = (PhysicalObject) neighbor;
@@ -1020,8 +1038,10 @@ public class PhysicalCylinder
         getRwLock().readLock().unlock();
 
         // 5) define the force that will be transmitted to the mother
+        //    (only in commitPhysics(), because our mother might be reading it right now)
         getRwLock().writeLock().lock();
-        forceToTransmitToProximalMass = forceOnMyMothersPointMass;
+        pendingForceToTransmitToProximalMass = forceOnMyMothersPointMass;
+        pendingDisplacement = null;
         getRwLock().writeLock().unlock();
         // 6) Compute the movement of this neurite elicited by the resultant force----------------
         // 	6.0) In case we display the force
@@ -1039,6 +1059,7 @@ public class PhysicalCylinder
             getRwLock().writeLock().lock();
             super.totalForceLastTimeStep[3] = -1;
             getRwLock().writeLock().unlock();
+            recordMechanics(normOfTheForce, 0);
             return;
         }
         // So, what follows is only executed if we do actually move :
@@ -1046,6 +1067,7 @@ public class PhysicalCylinder
         // 	6.3) Since there's going be a move, we calculate it
         double[] displacement = scalarMult(hOverM, forceOnMyPointMass);
         double normOfDisplacement = normOfTheForce * hOverM;
+        recordMechanics(normOfTheForce, normOfDisplacement);
 
         // 	6.4) There is an upper bound for the movement.
         if (normOfDisplacement > Param.SIMULATION_MAXIMAL_DISPLACEMENT) {
@@ -1098,7 +1120,24 @@ public class PhysicalCylinder
         //		}
         //		}
 
-        double[] actualDisplacement = displacement;
+        getRwLock().writeLock().lock();
+        pendingDisplacement = displacement;
+        getRwLock().writeLock().unlock();
+    }
+
+    public void commitPhysics()
+    {
+        getRwLock().writeLock().lock();
+        if (pendingForceToTransmitToProximalMass != null) {
+            forceToTransmitToProximalMass = pendingForceToTransmitToProximalMass;
+            pendingForceToTransmitToProximalMass = null;
+        }
+        double[] actualDisplacement = pendingDisplacement;
+        pendingDisplacement = null;
+        getRwLock().writeLock().unlock();
+        if (actualDisplacement == null) {
+            return;
+        }
 
         // 8) Eventually, we do perform the move--------------------------------------------------
         // 8.1) The move of our mass
@@ -1144,11 +1183,7 @@ public class PhysicalCylinder
         }
         // neighbors in the triangulation :
 
-        for (PhysicalNode neighbor : soNode.getNeighbors()) {
-            if (neighbor.isAPhysicalObject()) {
-                ((PhysicalObject) neighbor).setOnTheSchedulerListForPhysicalObjects(true);
-            }
-        }
+        soNode.visitNeighbors(NEIGHBOR_SCHEDULER);
         for (int i = 0; i < physicalBonds.size(); i++) {
             physicalBonds.get(i).getOppositePhysicalObject(this).setOnTheSchedulerListForPhysicalObjects(true);
         }
@@ -23,14 +23,18 @@ package ini.cx3d.physics;
 
 import ini.cx3d.Param;
 import ini.cx3d.simulations.ECM;
+import ini.cx3d.simulations.SimulationContext;
+import ini.cx3d.spatialOrganization.NeighborSnapshot;
 import ini.cx3d.spatialOrganization.SpatialOrganizationEdge;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -64,10 +68,9 @@ public class PhysicalNode
 
     /* Unique identification for this CellElement instance. Used for marshalling/demarshalling*/
     int ID = 0;
-    static AtomicInteger idCounter = new AtomicInteger(0);
 
-    /* Reference to the ECM. */
-    protected static ECM ecm = ECM.getInstance();
+    /* Reference to the ECM (of the SimulationContext in which this node was created). */
+    protected transient ECM ecm = ECM.getInstance();
 
     /* If true, the PhysicalNode will be run by the Scheduler.*/
     private boolean onTheSchedulerListForPhysicalNodes = true;
@@ -90,8 +93,10 @@ public class PhysicalNode
     public PhysicalNode()
     {
         getRwLock().writeLock().lock();
-        this.ID = idCounter.incrementAndGet();
+        this.ID = SimulationContext.getCurrent().nextPhysicalNodeID();
         getRwLock().writeLock().unlock();
+        // a new node is on the scheduler list
+        ecm.addToActivePhysicalNodes(this);
     }
 
     // *************************************************************************************
@@ -178,7 +183,9 @@ public class PhysicalNode
             double currC = this.getExtracellularConcentration(id);
             volSum = volSum + currVol;
             exC = exC + currVol * currC;
-            for (PhysicalNode pn : this.getSoNode().getNeighbors()) {
+            NeighborSnapshot<PhysicalNode> neighbors = this.getSoNode().getNeighborSnapshot();
+            for (int i = 0; i < neighbors.size(); i++) {
+                PhysicalNode pn = neighbors.getNeighbor(i);
                 currVol = pn.getSoNode().getVolume();
                 currC = pn.getExtracellularConcentration(id);
                 exC = exC + currVol * currC;
@@ -223,6 +230,44 @@ public class PhysicalNode
         }
     }
 
+    /**
+     * Returns the concentration of an extra-cellular Substance at several places
+     * outside this PhysicalNode. Equivalent to calling
+     * {@link #getExtracellularConcentration(String, double[])} for each location,
+     * but the containing tetrahedra are searched in one pass, which is much faster
+     * when the locations are close to each other.
+     *
+     * @param id the name of the substance
+     * @param locations the places where concentration is probed
+     * @return the concentration at each location, in the same order
+     */
+    public double[] getExtracellularConcentrations(String id, List<double[]> locations)
+    {
+        getRwLock().readLock().lock();
+        try {
+            double[] c = new double[locations.size()];
+            Object[][] vertices = soNode.getVerticesOfTheTetrahedraContaining(locations);
+            for (int i = 0; i < c.length; i++) {
+                double[] location = locations.get(i);
+                if (ecm.thereAreArtificialGradients()) {
+                    c[i] += ecm.getValueArtificialConcentration(id, location);
+                }
+                double concentrationAtLocation = 0;
+                if (vertices[i] != null) {
+                    double[] barycentricCoord = getBarycentricCoordinates(location, vertices[i]);
+                    for (int j = 0; j < 4; j++) {
+                        concentrationAtLocation += ((PhysicalNode) vertices[i][j]).getExtracellularConcentration(id) * barycentricCoord[j];
+                    }
+                }
+                c[i] += concentrationAtLocation;
+            }
+            return c;
+        }
+        finally {
+            getRwLock().readLock().unlock();
+        }
+    }
+
     /**
      * Returns the gradient at the space node location for a given substance.
      * The way this method is implemented was suggested by Andreas Steimer.
@@ -247,7 +292,9 @@ public class PhysicalNode
                 double[] differencesBetweenTheNeighborsAndThis = new double[3];
                 int indexOfTheEquationWeGet = 0;
                 // loop through the neighbors until we have selected three of them (indexOfTheEquationWeGet)
-                for (PhysicalNode n : soNode.getNeighbors()) {
+                NeighborSnapshot<PhysicalNode> neighbors = soNode.getNeighborSnapshot();
+                for (int i = 0; i < neighbors.size(); i++) {
+                    PhysicalNode n = neighbors.getNeighbor(i);
                     double substanceConcentrationInNeighbor = n.getExtracellularConcentration(id);
                     // prepare the linear system to be solved
                     vectorsToNeighbors[indexOfTheEquationWeGet] = subtract(n.soNodePosition(), this.soNode.getPosition());
@@ -300,7 +347,7 @@ public class PhysicalNode
         ss.changeQuantityFrom(deltaQ);
         ss.updateConcentrationBasedOnQuantity(volume);
         // we will diffuse next time step
-        onTheSchedulerListForPhysicalNodes = true;
+        setOnTheSchedulerListForPhysicalNodes(true);
 
         getRwLock().writeLock().unlock();
     }
@@ -314,16 +361,32 @@ public class PhysicalNode
      * all the <code>Substance</code> stored in this <code>PhysicalNode</code>.
      */
     public void runExtracellularDiffusion()
+    {
+        runExtracellularDiffusion(Param.SIMULATION_TIME_STEP);
+    }
+
+    /**
+     * Same as <code>runExtracellularDiffusion()</code>, but the diffusion is integrated over
+     * a given time interval instead of one simulation time step (the degradation is always
+     * computed since the last time it was run).
+     *
+     * @param timeStep the time over which the diffusion is computed
+     */
+    public void runExtracellularDiffusion(double timeStep)
     {
         // 1) now that we are about to diffuse, a new diffusion should only be performed
         // if there is a good reason for that.
         onTheSchedulerListForPhysicalNodes = false;
         double currentEcmTime = ecm.getECMtime();
         // 2) Degradation according to the degradation constant for each chemical
+        // (locked, because a neighbour might be diffusing with us at the same time)
+        getRwLock().writeLock().lock();
         degradate(currentEcmTime);
+        getRwLock().writeLock().unlock();
         // 3) Diffusion (along every edge)
-        for (SpatialOrganizationEdge<PhysicalNode> e : soNode.getEdges()) {
-            diffuseEdgeAnalytically(e, currentEcmTime);
+        NeighborSnapshot<PhysicalNode> neighbors = soNode.getNeighborSnapshot();
+        for (int i = 0; i < neighbors.getNumberOfEdges(); i++) {
+            diffuseEdgeAnalytically(neighbors.getEdge(i), currentEcmTime, timeStep);
         }
     }
 
@@ -358,7 +421,7 @@ public class PhysicalNode
     /* Analytic solution of the diffusion process along the edge between two PhysicalNodes.
      * dQA/dt = diffCst*(Area/distance)*(QB/VB-QA/VA)
      */
-    private void diffuseEdgeAnalytically(SpatialOrganizationEdge<PhysicalNode> e, double currentEcmTime)
+    private void diffuseEdgeAnalytically(SpatialOrganizationEdge<PhysicalNode> e, double currentEcmTime, double timeStep)
     {
 
         // the two PhysicalNodes
@@ -412,7 +475,7 @@ public class PhysicalNode
             // If we reach this point, it means that it is worth performing the diffusion.
             // we thus put ourselves on the list for performing it again next time step.
             nB.setOnTheSchedulerListForPhysicalNodes(true);
-            this.onTheSchedulerListForPhysicalNodes = true;
+            this.setOnTheSchedulerListForPhysicalNodes(true);
 
             // Analytical computation of the diffusion between these two nodes
             // (cf document "Diffusion" by F.Zubler for explanation).
@@ -427,7 +490,7 @@ public class PhysicalNode
             double nOverM = n / m;
             double K = qA - nOverM;
 
-            qA = K * Math.exp(-m * Param.SIMULATION_TIME_STEP) + nOverM;
+            qA = K * Math.exp(-m * timeStep) + nOverM;
             qB = Tot - qA;
 
             sA.setQuantity(qA);
@@ -621,14 +684,20 @@ public class PhysicalNode
 
     /**
      * if <code>true</code>, the PhysicalNode will be run by the Scheduler.
+     * When the flag goes from <code>false</code> to <code>true</code>, the PhysicalNode
+     * is also added to the active set of ECM (only once, the flag making sure of that).
      **/
     public void setOnTheSchedulerListForPhysicalNodes(
             boolean onTheSchedulerListForPhysicalNodes)
     {
 
         getRwLock().writeLock().lock();
+        boolean wasOnTheList = this.onTheSchedulerListForPhysicalNodes;
         this.onTheSchedulerListForPhysicalNodes = onTheSchedulerListForPhysicalNodes;
         getRwLock().writeLock().unlock();
+        if (onTheSchedulerListForPhysicalNodes && !wasOnTheList) {
+            ecm.addToActivePhysicalNodes(this);
+        }
     }
 
     /**
@@ -727,4 +796,12 @@ public class PhysicalNode
     {
         return rwLock;
     }
+
+    /* The ECM is not serialized : a de-serialized node belongs to the ECM of the current SimulationContext.*/
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        ecm = ECM.getInstance();
+    }
 }
@@ -21,12 +21,15 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 
 package ini.cx3d.physics;
 
-import ini.cx3d.simulations.ECM;
+import ini.cx3d.spatialOrganization.NeighborSnapshot;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNodeMovementListener;
 
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
 
 import static ini.cx3d.utilities.Matrix.add;
@@ -44,9 +47,13 @@ public class PhysicalNodeMovementListener
         implements SpatialOrganizationNodeMovementListener<PhysicalNode>
 {
 
-    // flag we put into each neighboring PhysicalNode before the move
-    // so we recognize a new neighbor after the movement has occurred.
-    private static int movementOperationId = (int) (10000 * ECM.getRandomDouble());
+    // what we remember about each node between nodeAboutToMove() and nodeMoved(). Several
+    // nodes can be about to move at the same time (see SpaceNode.moveAll()).
+    private final IdentityHashMap<SpatialOrganizationNode<PhysicalNode>, Movement> movements =
+            new IdentityHashMap<SpatialOrganizationNode<PhysicalNode>, Movement>();
+    // the nodes that have moved while others announced with them have not yet.
+    private final Vector<SpatialOrganizationNode<PhysicalNode>> movedNodes =
+            new Vector<SpatialOrganizationNode<PhysicalNode>>();
     // all extracellularSubstances present in this PhysicalNode.
     private Substance[] substancesInN;
     // respective quantity of the extracellularSubstances before the move.
@@ -63,32 +70,37 @@ public class PhysicalNodeMovementListener
     // in all the participants by this ration -> total mass by definition is the same.
     // (Implementation note : the neighbors after the movement are only known after
     // the move, i.e. when the second method is called).
+    // When several nodes are moved together (SpaceNode.moveAll()), their neighborhoods
+    // overlap, and a ratio per node would count the shared neighbors several times. The
+    // ratio is then computed once, after the last of them has moved, over all the moved
+    // nodes and all their neighbors.
     //----------------------------------------------------------------------
 
+    /**
+     * State of one node between <code>nodeAboutToMove()</code> and <code>nodeMoved()</code>.
+     */
+    private static class Movement
+    {
+
+        // all extracellularSubstances present in the moving PhysicalNode.
+        Substance[] substancesInN;
+        // all the neighbors of the PhysicalNode before the move.
+        NeighborSnapshot<PhysicalNode> neighborsBefore;
+    }
+
     public void nodeAboutToMove(SpatialOrganizationNode<PhysicalNode> n, double[] planedMovement)
     {
         PhysicalNode pn = n.getUserObject();
-        neighborsBefore = n.getPermanentListOfNeighbors();
         Hashtable<String, Substance> extracellularSubstancesInPn = pn.getExtracellularSubstances();
-        substancesInN = new Substance[extracellularSubstancesInPn.size()];
-        q = new double[substancesInN.length];
-        movementOperationId = (movementOperationId + 1) % 1000000;
-        // 1) Quantities summation in pn & pn's neighbors before the move:
-        // (for all extracellularSubstances in the moving node)
-        int i = 0;
-        for (Substance s : extracellularSubstancesInPn.values()) {
-            q[i] = s.getQuantity();
-            substancesInN[i] = s;
-            String sId = s.getId();
-            for (PhysicalNode nn : neighborsBefore) {
-                nn.setMovementConcentratioUpdateProcedure(movementOperationId);
-                Substance ss = nn.getExtracellularSubstances().get(sId);
-                if (ss != null) {
-                    q[i] += ss.getQuantity();
-                }
-            }
-            i++;
-        }
+        Substance[] substancesInN = extracellularSubstancesInPn.values().toArray(
+                new Substance[extracellularSubstancesInPn.size()]);
+        Movement movement = new Movement();
+        movement.substancesInN = substancesInN;
+        movement.neighborsBefore = n.getNeighborSnapshot();
+        movements.put(n, movement);
+        // 1) (the quantities before the move are summed in nodeMoved(), since they don't change
+        // until then)
+
         // 2) computing the concentration at the future new location of pn (for every substance)
 
         // if possible : find the tetrahedron the new location belongs to :
@@ -98,7 +110,7 @@ public class PhysicalNodeMovementListener
         // we weight the concentration of each vertex by the barycentric coord of the new point
         if (vertices != null) {
             double[] barycentricCoord = pn.getBarycentricCoordinates(futurePosition, vertices);
-            for (i = 0; i < substancesInN.length; i++) {
+            for (int i = 0; i < substancesInN.length; i++) {
                 String name = substancesInN[i].getId();
                 double newConcentration = 0;
                 for (int j = 0; j < 4; j++) {
@@ -109,7 +121,7 @@ public class PhysicalNodeMovementListener
         }
         else {
             // if we can't find a tetra, we compute the gradient and multiply this by the displacement
-            for (i = 0; i < substancesInN.length; i++) {
+            for (int i = 0; i < substancesInN.length; i++) {
                 double newConcentration = pn.computeConcentrationAtDistanceBasedOnGradient(substancesInN[i], planedMovement);
                 substancesInN[i].setConcentration(newConcentration);
             }
@@ -118,81 +130,83 @@ public class PhysicalNodeMovementListener
 
     public void nodeMoved(SpatialOrganizationNode<PhysicalNode> n)
     {
-        PhysicalNode pn = n.getUserObject();
-        Iterable<PhysicalNode> neighborsAfter = n.getNeighbors();
-        Vector<PhysicalNode> newNeighbors = new Vector<PhysicalNode>();
-
-        // 3) identifying the really new neighbors of n
-        // (i.e. the ones that were not neighbors before the movement)
-        for (PhysicalNode nn : neighborsAfter) {
-            if (nn.getMovementConcentratioUpdateProcedure() != movementOperationId) {
-                newNeighbors.add(nn);
-            }
+        movedNodes.add(n);
+        if (movedNodes.size() < movements.size()) {
+            // other nodes of the same batch still have to move
+            return;
         }
 
-        // 4) adding all the new neighbors contribution to the total quantity before the move:
-        for (int i = 0; i < substancesInN.length; i++) {
-            for (PhysicalNode nn : newNeighbors) {
-                Substance ss = nn.getExtracellularSubstances().get(substancesInN[i].getId());
-                if (ss != null) {
-                    q[i] += ss.getQuantity();
+        // 3) identifying all the nodes that have been affected : the moved ones, their
+        // neighbors before and their neighbors after the movement
+        Vector<PhysicalNode> affected = new Vector<PhysicalNode>();
+        Set<PhysicalNode> affectedSet = Collections.newSetFromMap(new IdentityHashMap<PhysicalNode, Boolean>());
+        Vector<String> substanceIds = new Vector<String>();
+        for (SpatialOrganizationNode<PhysicalNode> movedNode : movedNodes) {
+            Movement movement = movements.get(movedNode);
+            if (affectedSet.add(movedNode.getUserObject())) {
+                affected.add(movedNode.getUserObject());
+            }
+            for (Substance s : movement.substancesInN) {
+                if (!substanceIds.contains(s.getId())) {
+                    substanceIds.add(s.getId());
                 }
             }
+            addNeighbors(movement.neighborsBefore, affected, affectedSet);
+            addNeighbors(movedNode.getNeighborSnapshot(), affected, affectedSet);
         }
+        movements.clear();
+        movedNodes.clear();
 
-        // For all extracellularSubstances:
-        for (int i = 0; i < substancesInN.length; i++) {
+        // For all extracellularSubstances of the moved nodes:
+        for (String id : substanceIds) {
 
-            // 5) Update the quantities in every cell that has been affected, and sum it
-            // 5.a) in pn itself
-            Substance s = substancesInN[i];
-            s.updateQuantityBasedOnConcentration(pn.getSoNode().getVolume());
-            double quantityAfter = s.getQuantity();
-            // 5.b) in the old neighbors
-            for (PhysicalNode nn : neighborsBefore) {
-                Substance ss = nn.getExtracellularSubstances().get(s.getId());
+            // 4) the total quantity before the move (not updated yet)
+            double quantityBefore = 0;
+            for (PhysicalNode nn : affected) {
+                Substance ss = nn.getExtracellularSubstances().get(id);
                 if (ss != null) {
-                    ss.updateQuantityBasedOnConcentration(nn.getSoNode().getVolume());
-                    quantityAfter += ss.getQuantity();
+                    quantityBefore += ss.getQuantity();
                 }
             }
-            // 5.c) in the NEW neighbors
-            for (Iterator<PhysicalNode> iter = newNeighbors.iterator(); iter.hasNext(); ) {
-                PhysicalNode nn = iter.next();
-                Substance ss = nn.getExtracellularSubstances().get(s.getId());
+
+            // 5) Update the quantities in every node that has been affected, and sum it
+            double quantityAfter = 0;
+            for (PhysicalNode nn : affected) {
+                Substance ss = nn.getExtracellularSubstances().get(id);
                 if (ss != null) {
                     ss.updateQuantityBasedOnConcentration(nn.getSoNode().getVolume());
                     quantityAfter += ss.getQuantity();
                 }
             }
 
-            // 6) defining a ratio of quantity change (quantity before / quantity after) for the i-th substance
+            // 6) defining a ratio of quantity change (quantity before / quantity after) for the substance
+            double ratio;
             if (quantityAfter < 1.0E-14) {
-                q[i] = 0;        // (avoid division by 0)
+                ratio = 0;        // (avoid division by 0)
             }
             else {
-                q[i] /= quantityAfter;
-//				q[i] = 1;     	// de-comment this for DEACTIVATION !!!!!!!!!!!!!!!!!!!!!
+                ratio = quantityBefore / quantityAfter;
+//				ratio = 1;     	// de-comment this for DEACTIVATION !!!!!!!!!!!!!!!!!!!!!
             }
 
-            // 7) changing the concentration of the i-th substance by its ratio
-            // 7.a) in pn
-            s.multiplyQuantityAndConcentrationBy(q[i]);
-            // 7.b) in the old neighbors
-            for (PhysicalNode nn : neighborsBefore) {
-                Substance ss = nn.getExtracellularSubstances().get(s.getId());
+            // 7) changing the concentration of the substance by its ratio in all the affected nodes
+            for (PhysicalNode nn : affected) {
+                Substance ss = nn.getExtracellularSubstances().get(id);
                 // Note : should not use PhysicalNode.giveYourSubstanceInstance(), because never returns null
                 if (ss != null) {
-                    ss.multiplyQuantityAndConcentrationBy(q[i]);
+                    ss.multiplyQuantityAndConcentrationBy(ratio);
                 }
             }
-            // 7.c) in the NEW neighbors
-            for (Iterator<PhysicalNode> iter = newNeighbors.iterator(); iter.hasNext(); ) {
-                PhysicalNode nn = iter.next();
-                Substance ss = nn.getExtracellularSubstances().get(s.getId());
-                if (ss != null) {
-                    ss.multiplyQuantityAndConcentrationBy(q[i]);
-                }
+        }
+    }
+
+    private static void addNeighbors(NeighborSnapshot<PhysicalNode> neighbors, Vector<PhysicalNode> affected,
+                                     Set<PhysicalNode> affectedSet)
+    {
+        for (int k = 0; k < neighbors.size(); k++) {
+            PhysicalNode nn = neighbors.getNeighbor(k);
+            if (affectedSet.add(nn)) {
+                affected.add(nn);
             }
         }
     }
@@ -239,7 +253,14 @@ public class PhysicalNodeMovementListener
         // since there might be no substances yet in the point
         // pn, we take a neighbor as furnishing the templates
         Iterable<PhysicalNode> neighbors = n.getPermanentListOfNeighbors();
-        PhysicalNode pnn = neighbors.iterator().next();
+        Iterator<PhysicalNode> neighborsIterator = neighbors.iterator();
+        if (!neighborsIterator.hasNext()) {
+            // (can happen with a UniformGridNode far from all the others : nothing to conserve)
+            substancesInN = new Substance[0];
+            q = new double[0];
+            return;
+        }
+        PhysicalNode pnn = neighborsIterator.next();
         substancesInN = new Substance[pnn.getExtracellularSubstances().size()];
         q = new double[substancesInN.length];
         int i = 0;
@@ -256,6 +277,7 @@ public class PhysicalNodeMovementListener
         }
 
         // 3) update quantities in all nodes, and sum it :
+        NeighborSnapshot<PhysicalNode> neighborsAfter = n.getNeighborSnapshot();
         for (i = 0; i < substancesInN.length; i++) {
             double quantityAfter = 0;
             // 3.a) in pn itself
@@ -267,7 +289,8 @@ public class PhysicalNodeMovementListener
             }
 
             // 3.b) in the  neighbors
-            for (PhysicalNode nn : n.getNeighbors()) {
+            for (int k = 0; k < neighborsAfter.size(); k++) {
+                PhysicalNode nn = neighborsAfter.getNeighbor(k);
                 ss = nn.getExtracellularSubstances().get(s.getId());
                 if (ss != null) {
                     ss.updateQuantityBasedOnConcentration(nn.getSoNode().getVolume());
@@ -291,7 +314,8 @@ public class PhysicalNodeMovementListener
                 ss.multiplyQuantityAndConcentrationBy(q[i]);
             }
             // 5.b) in the neighbors
-            for (PhysicalNode nn : n.getNeighbors()) {
+            for (int k = 0; k < neighborsAfter.size(); k++) {
+                PhysicalNode nn = neighborsAfter.getNeighbor(k);
                 ss = nn.getExtracellularSubstances().get(s.getId());
                 if (ss != null) {
                     ss.multiplyQuantityAndConcentrationBy(q[i]);
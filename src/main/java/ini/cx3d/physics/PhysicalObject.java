@@ -23,12 +23,15 @@ package ini.cx3d.physics;
 
 import ini.cx3d.Param;
 import ini.cx3d.localBiology.CellElement;
+import ini.cx3d.simulations.SimulationContext;
+import ini.cx3d.spatialOrganization.NeighborVisitor;
 import ini.cx3d.synapses.Excrescence;
 
 import java.awt.Color;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import static ini.cx3d.utilities.Matrix.dot;
 
@@ -54,6 +57,20 @@ public abstract class PhysicalObject
     // * The simulation of Force in this simulation.*/
     static InterObjectForce interObjectForce = new DefaultForce();
 
+    /**
+     * Puts the neighbors that are PhysicalObjects on the scheduler list, e.g. after a movement
+     * (<code>soNode.visitNeighbors(NEIGHBOR_SCHEDULER)</code>).
+     */
+    public static final NeighborVisitor<PhysicalNode> NEIGHBOR_SCHEDULER = new NeighborVisitor<PhysicalNode>()
+    {
+        public void visit(PhysicalNode neighbor)
+        {
+            if (neighbor.isAPhysicalObject()) {
+                ((PhysicalObject) neighbor).setOnTheSchedulerListForPhysicalObjects(true);
+            }
+        }
+    };
+
     /*
      * Tells if a PhysicalObject is still part of the simulation.
      * If an object is deleted (either by fusion of two segments, or after retraction),
@@ -109,6 +126,8 @@ public abstract class PhysicalObject
     public PhysicalObject()
     {
         super();
+        // a new object is on the scheduler list
+        ecm.addToActivePhysicalObjects(this);
     }
 
     /**
@@ -204,6 +223,36 @@ public abstract class PhysicalObject
      */
     public abstract void runPhysics();
 
+    /**
+     * Structural changes that have to be made before the forces are computed (for instance
+     * the discretization of a terminal <code>PhysicalCylinder</code>). Only called in the
+     * two-phase integration mode; <code>runPhysics()</code> calls it itself.
+     */
+    public void prepareForPhysics()
+    {
+    }
+
+    /**
+     * First half of <code>runPhysics()</code> : computes the forces and the resulting movement
+     * from the current positions, and stores them in this object. Nothing is moved, and no other
+     * object is modified, so that this method can be called for all objects concurrently.
+     */
+    public abstract void computePhysics();
+
+    /**
+     * Second half of <code>runPhysics()</code> : performs the movement computed during the last
+     * call to <code>computePhysics()</code>, updates the SpatialOrganizationNode and re-schedules
+     * the objects concerned. Has to be called on one thread only.
+     */
+    public abstract void commitPhysics();
+
+    /* Called by computePhysics() with the norm of the total force and of the resulting displacement
+     * (see SimulationContext.getMaximalDisplacement()).*/
+    protected static void recordMechanics(double force, double displacement)
+    {
+        SimulationContext.getCurrent().recordMechanics(force, displacement);
+    }
+
     /**
      * Returns the force that a daughter branch transmits to a mother's point
      * mass. It consists of 1) the spring force between the mother and the
@@ -636,28 +685,36 @@ public abstract class PhysicalObject
     protected void diffuseWithThisPhysicalObjects(PhysicalObject po, double distance)
     {
 
+        // always lock highest ID first, to avoid deadlocks when the neighbouring
+        // objects are diffusing at the same time (parallel Scheduler).
+        ReadWriteLock r1;
+        ReadWriteLock r2;
+        if (po.getID() > this.getID()) {
+            r1 = po.getRwLock();
+            r2 = this.getRwLock();
+        }
+        else {
+            r1 = this.getRwLock();
+            r2 = po.getRwLock();
+        }
+        r1.writeLock().lock();
+        r2.writeLock().lock();
+        try {
+            diffuseWithThisPhysicalObjectsLocked(po, distance);
+        }
+        finally {
+            r2.writeLock().unlock();
+            r1.writeLock().unlock();
+        }
+    }
+
+    /* Diffusion of diffusible IntracellularSubstances between two PhysicalObjects,
+     * once the locks of both of them are held.
+     */
+    private void diffuseWithThisPhysicalObjectsLocked(PhysicalObject po, double distance)
+    {
         // We store these temporary variable, because we still don't know if the
         // Substances depend on volumes or not
-//		ReadWriteLock r1; 
-//		ReadWriteLock r2;
-//		if(po.ID != this.ID) System.out.println("not the same id!!!" + po.ID+ " "+this.ID);
-//		else
-//		{
-//			System.out.println(" The same id!!!" + po.ID+ " "+this.ID);
-//		}
-//		if(po.ID>this.ID)
-//		{
-//			r1=po.getRwLock();
-//			r2=this.getRwLock();
-//		}
-//		else
-//		{
-//			r1=this.getRwLock();
-//			r2=po.getRwLock();
-//		}
-//		r1.writeLock().lock();
-//		r2.writeLock().lock();
-
         double vA_v = this.volume;
         double vB_v = po.getVolume();
         double pre_a_v = (1.0 / distance);
@@ -733,8 +790,6 @@ public abstract class PhysicalObject
             sA.updateConcentrationBasedOnQuantity(vA);
             sB.updateConcentrationBasedOnQuantity(vB);
         }
-//		r1.writeLock().unlock();
-//		r2.writeLock().unlock();
     }
 
     /**
@@ -936,13 +991,19 @@ public abstract class PhysicalObject
 
     /**
      * If true, this PhysicalObject will be run by the Scheduler on the next occasion.
+     * When the flag goes from <code>false</code> to <code>true</code>, the PhysicalObject
+     * is also added to the active set of ECM.
      */
     public void setOnTheSchedulerListForPhysicalObjects(
             boolean onTheSchedulerListForPhysicalObjects)
     {
         getRwLock().writeLock().lock();
+        boolean wasOnTheList = this.onTheSchedulerListForPhysicalObjects;
         this.onTheSchedulerListForPhysicalObjects = onTheSchedulerListForPhysicalObjects;
         getRwLock().writeLock().unlock();
+        if (onTheSchedulerListForPhysicalObjects && !wasOnTheList) {
+            ecm.addToActivePhysicalObjects(this);
+        }
     }
 
     /**
@@ -27,6 +27,7 @@ import ini.cx3d.cells.CellFactory;
 import ini.cx3d.localBiology.CellElement;
 import ini.cx3d.localBiology.SomaElement;
 import ini.cx3d.simulations.ECM;
+import ini.cx3d.spatialOrganization.NeighborSnapshot;
 import ini.cx3d.spatialOrganization.PositionNotAllowedException;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
 
@@ -77,6 +78,11 @@ public class PhysicalSphere
     /* Force applied by the biology. Is taken into account during runPhysics(), and the set to 0.*/
     protected double[] tractorForce = {0, 0, 0};
 
+    /* Translation computed in computePhysics(), performed in commitPhysics() (null if no translation).*/
+    private double[] pendingMovement = null;
+    /* Rotation force computed in computePhysics(), applied in commitPhysics() (null if no rotation).*/
+    private double[] pendingRotationForce = null;
+
     public PhysicalSphere()
     {
         super();
@@ -240,7 +246,7 @@ public class PhysicalSphere
             // TODO : do we need this ?
             displacementOfTheCenter = add(displacementOfTheCenter, randomNoise(diameter * 0.025, 3));
             try {
-                soNode.moveFrom(displacementOfTheCenter);
+                ecm.moveSpatialOrganizationNode(soNode, displacementOfTheCenter);
             }
             catch (PositionNotAllowedException e) {
                 e.printStackTrace();
@@ -683,6 +689,12 @@ public class PhysicalSphere
     }
 
     public void runPhysics()
+    {
+        computePhysics();
+        commitPhysics();
+    }
+
+    public void computePhysics()
     {
         // Basically, the idea is to make the sum of all the forces acting
         // on the Point mass. It is stored in translationForceOnPointMass.
@@ -751,7 +763,9 @@ public class PhysicalSphere
         //**LOCK R
         getRwLock().readLock().lock();
         //	(We check for every neighbor object if they touch us, i.e. push us away)
-        for (PhysicalNode neighbor : soNode.getNeighbors()) {
+        NeighborSnapshot<PhysicalNode> neighbors = soNode.getNeighborSnapshot();
+        for (int k = 0; k < neighbors.size(); k++) {
+            PhysicalNode neighbor = neighbors.getNeighbor(k);
             // of course, only if it is an instance of PhysicalObject
             if (neighbor.isAPhysicalObject()) {
                 PhysicalObject n = (PhysicalObject) neighbor;
@@ -823,23 +837,42 @@ public class PhysicalSphere
         }
 
         getRwLock().writeLock().lock();
-        // Performing the translation itself :
+        // The translation to perform :
         if (physicalTranslation || biologicalTranslation) {
 
             super.totalForceLastTimeStep[3] = 1; // it does become a movement
+            recordMechanics(normOfTheForce, norm(movementAtNextStep));
 
             // but we want to avoid huge jumps in the simulation, so there are maximum distances possible
             if (normOfTheForce * mh > Param.SIMULATION_MAXIMAL_DISPLACEMENT) {
                 movementAtNextStep = scalarMult(Param.SIMULATION_MAXIMAL_DISPLACEMENT, normalize(movementAtNextStep));
             }
+            pendingMovement = movementAtNextStep;
+        }
+        else {
+            recordMechanics(normOfTheForce, 0);
+            pendingMovement = null;
+        }
+        // The rotation to perform :
+        pendingRotationForce = physicalRotation ? rotationForce : null;
+        getRwLock().writeLock().unlock();
+    }
 
-            // The translational movement itself
+    public void commitPhysics()
+    {
+        getRwLock().writeLock().lock();
+        double[] movementAtNextStep = pendingMovement;
+        double[] rotationForce = pendingRotationForce;
+        pendingMovement = null;
+        pendingRotationForce = null;
+        // Performing the translation itself :
+        if (movementAtNextStep != null) {
             massLocation[0] += movementAtNextStep[0];
             massLocation[1] += movementAtNextStep[1];
             massLocation[2] += movementAtNextStep[2];
         }
         // Performing the rotation
-        if (physicalRotation) {
+        if (rotationForce != null) {
             double rotationAngle = 3.14 * Param.SIMULATION_TIME_STEP;
             this.xAxis = rotAroundAxis(xAxis, rotationAngle, rotationForce);
             this.yAxis = rotAroundAxis(yAxis, rotationAngle, rotationForce);
@@ -847,7 +880,7 @@ public class PhysicalSphere
         }
         getRwLock().writeLock().unlock();
         // updating some values :
-        if (biologicalTranslation || physicalTranslation || physicalRotation) {
+        if (movementAtNextStep != null || rotationForce != null) {
             // re-centering my SpatialOrganizationNode
             updateSpatialOrganizationNodePosition();
             // if I have daughters, I update their length and tension
@@ -863,11 +896,7 @@ public class PhysicalSphere
             }
             // neighbors :
             getRwLock().readLock().lock();
-            for (PhysicalNode neighbor : soNode.getNeighbors()) {
-                if (neighbor.isAPhysicalObject()) {
-                    ((PhysicalObject) neighbor).setOnTheSchedulerListForPhysicalObjects(true);
-                }
-            }
+            soNode.visitNeighbors(NEIGHBOR_SCHEDULER);
             getRwLock().readLock().unlock();
             // physical objects at the other side of a PhysicalBond:
             getRwLock().readLock().lock();
@@ -897,11 +926,7 @@ public class PhysicalSphere
         }
         // neighbors :
         getRwLock().readLock().lock();
-        for (PhysicalNode neighbor : soNode.getNeighbors()) {
-            if (neighbor.isAPhysicalObject()) {
-                ((PhysicalObject) neighbor).setOnTheSchedulerListForPhysicalObjects(true);
-            }
-        }
+        soNode.visitNeighbors(NEIGHBOR_SCHEDULER);
         getRwLock().readLock().unlock();
         // physical objects at the other side of a PhysicalBond:
         getRwLock().readLock().lock();
@@ -0,0 +1,336 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import ini.cx3d.Param;
+import ini.cx3d.spatialOrganization.TriangulationContext;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static ini.cx3d.utilities.StringUtilities.doubleToString;
+
+/**
+ * Adapts <code>Param.SIMULATION_TIME_STEP</code> between two time steps of the <code>Scheduler</code>.
+ * After each time step, the controller looks at
+ * <ul>
+ * <li> the largest displacement computed by the mechanics (before it is bounded by
+ * <code>Param.SIMULATION_MAXIMAL_DISPLACEMENT</code>),
+ * <li> the largest force,
+ * <li> the fraction of the movements of the triangulation that could not be done with flips
+ * (see <code>TriangulationContext.getDeleteAndInsertMovements()</code>).
+ * </ul>
+ * If the displacements were bounded, if the largest force went above a threshold (see
+ * <code>setMaximalForce()</code>; there is none by default), or if the triangulation had to delete
+ * and re-insert too many nodes, the time step is reduced. If the largest displacement is well below
+ * the target and the largest force well below its threshold, the time step is increased, but never
+ * so much that the largest displacement, scaled with the time step, would go above the target.
+ * The time step always stays between a minimum and a maximum.
+ * <p/>
+ * Every change of the time step is stored (see <code>getHistory()</code>), and printed if a log
+ * stream was given, so that a run can be audited afterwards.
+ * <p/>
+ * Usage : <code>Scheduler.setAdaptiveTimeStepController(new AdaptiveTimeStepController(0.001, 0.1));</code>
+ */
+public class AdaptiveTimeStepController
+{
+
+    /**
+     * One change of the time step.
+     */
+    public static class Change
+    {
+
+        /* time step number (Scheduler's cycle counter) and ECM time at the end of that step.*/
+        public final int step;
+        public final double ecmTime;
+        public final double oldTimeStep;
+        public final double newTimeStep;
+        /* the values observed during that time step.*/
+        public final double maximalDisplacement;
+        public final double maximalForce;
+        public final double deleteAndInsertRate;
+        public final String reason;
+
+        Change(int step, double ecmTime, double oldTimeStep, double newTimeStep, double maximalDisplacement,
+               double maximalForce, double deleteAndInsertRate, String reason)
+        {
+            this.step = step;
+            this.ecmTime = ecmTime;
+            this.oldTimeStep = oldTimeStep;
+            this.newTimeStep = newTimeStep;
+            this.maximalDisplacement = maximalDisplacement;
+            this.maximalForce = maximalForce;
+            this.deleteAndInsertRate = deleteAndInsertRate;
+            this.reason = reason;
+        }
+
+        public String toString()
+        {
+            return "step " + step + " (t = " + doubleToString(ecmTime, 4) + ") : dt " + oldTimeStep + " -> " + newTimeStep
+                    + " (" + reason + ", max displacement = " + doubleToString(maximalDisplacement, 4)
+                    + ", max force = " + doubleToString(maximalForce, 4)
+                    + ", delete&insert = " + doubleToString(deleteAndInsertRate, 4) + ")";
+        }
+    }
+
+    /* bounds of the time step.*/
+    private double minimalTimeStep;
+    private double maximalTimeStep;
+
+    /* The largest displacement we aim at during one time step.*/
+    private double targetDisplacement = 0.5 * Param.SIMULATION_MAXIMAL_DISPLACEMENT;
+    /* Above this force, the time step is reduced (stiff interactions need small steps even when the
+     * displacements are small).*/
+    private double maximalForce = Double.POSITIVE_INFINITY;
+    /* Above this fraction of delete&insert movements (vs flips), the time step is reduced...*/
+    private double maximalDeleteAndInsertRate = 0.75;
+    /* ...provided that there were enough movements during the step for the fraction to mean something.*/
+    private int minimalNumberOfMovements = 20;
+    /* after a reduction, the time step is not increased during this number of steps (avoids oscillations).*/
+    private int stepsBeforeGrowth = 10;
+    private int stepsSinceLastShrink = Integer.MAX_VALUE / 2;
+    /* multiplication factors of the time step.*/
+    private double growthFactor = 1.2;
+    private double shrinkFactor = 0.5;
+
+    /* values of the counters of the triangulation at the beginning of the time step.*/
+    private long lastFlipMovements;
+    private long lastDeleteAndInsertMovements;
+
+    private final List<Change> history = new ArrayList<Change>();
+    private PrintStream log = null;
+
+    /**
+     * @param minimalTimeStep the time step never goes below this value
+     * @param maximalTimeStep the time step never goes above this value
+     */
+    public AdaptiveTimeStepController(double minimalTimeStep, double maximalTimeStep)
+    {
+        if (minimalTimeStep <= 0 || maximalTimeStep < minimalTimeStep) {
+            throw new IllegalArgumentException("need 0 < minimalTimeStep <= maximalTimeStep");
+        }
+        this.minimalTimeStep = minimalTimeStep;
+        this.maximalTimeStep = maximalTimeStep;
+    }
+
+    /**
+     * Called by the Scheduler before the physics of a time step.
+     */
+    void startStep()
+    {
+        SimulationContext.getCurrent().resetMechanicsStatistics();
+        TriangulationContext<?> triangulation = ECM.getInstance().getTriangulationContext();
+        lastFlipMovements = (triangulation == null) ? 0 : triangulation.getFlipMovements();
+        lastDeleteAndInsertMovements = (triangulation == null) ? 0 : triangulation.getDeleteAndInsertMovements();
+    }
+
+    /**
+     * Called by the Scheduler at the end of a time step : sets the time step for the next one.
+     *
+     * @param step    the number of the time step that just ended
+     * @param ecmTime the ECM time at the end of the step
+     */
+    void endStep(int step, double ecmTime)
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        double maximalDisplacement = context.getMaximalDisplacement();
+        double maximalForce = context.getMaximalForce();
+        TriangulationContext<?> triangulation = ECM.getInstance().getTriangulationContext();
+        long flips = 0;
+        long deleteAndInserts = 0;
+        if (triangulation != null) {
+            flips = triangulation.getFlipMovements() - lastFlipMovements;
+            deleteAndInserts = triangulation.getDeleteAndInsertMovements() - lastDeleteAndInsertMovements;
+        }
+        double deleteAndInsertRate = (flips + deleteAndInserts) == 0 ? 0 : deleteAndInserts / (double) (flips + deleteAndInserts);
+        stepsSinceLastShrink++;
+
+        double oldTimeStep = Param.SIMULATION_TIME_STEP;
+        double newTimeStep = oldTimeStep;
+        String reason;
+        if (maximalDisplacement > Param.SIMULATION_MAXIMAL_DISPLACEMENT) {
+            newTimeStep = oldTimeStep * shrinkFactor;
+            reason = "displacement bounded";
+        }
+        else if (maximalForce > this.maximalForce) {
+            newTimeStep = oldTimeStep * shrinkFactor;
+            reason = "force too large";
+        }
+        else if (deleteAndInsertRate > maximalDeleteAndInsertRate && flips + deleteAndInserts >= minimalNumberOfMovements) {
+            newTimeStep = oldTimeStep * shrinkFactor;
+            reason = "too many delete&insert";
+        }
+        else if (maximalDisplacement < 0.5 * targetDisplacement && maximalForce < 0.5 * this.maximalForce
+                && stepsSinceLastShrink >= stepsBeforeGrowth) {
+            newTimeStep = oldTimeStep * growthFactor;
+            // the displacements are proportional to the time step
+            if (maximalDisplacement > 0) {
+                newTimeStep = Math.min(newTimeStep, oldTimeStep * targetDisplacement / maximalDisplacement);
+            }
+            reason = "small displacement and force";
+        }
+        else {
+            return;
+        }
+        newTimeStep = Math.max(minimalTimeStep, Math.min(maximalTimeStep, newTimeStep));
+        if (newTimeStep == oldTimeStep) {
+            return;
+        }
+        Param.SIMULATION_TIME_STEP = newTimeStep;
+        if (newTimeStep < oldTimeStep) {
+            stepsSinceLastShrink = 0;
+        }
+        Change change = new Change(step, ecmTime, oldTimeStep, newTimeStep, maximalDisplacement, maximalForce,
+                deleteAndInsertRate, reason);
+        history.add(change);
+        if (log != null) {
+            log.println(change);
+        }
+    }
+
+    /**
+     * @return all the changes of the time step made by this controller, in chronological order.
+     */
+    public List<Change> getHistory()
+    {
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Prints all the changes of the time step.
+     *
+     * @param out
+     */
+    public void printHistory(PrintStream out)
+    {
+        for (Change change : history) {
+            out.println(change);
+        }
+    }
+
+    /**
+     * If not null, each change of the time step is printed on this stream when it happens.
+     *
+     * @param log
+     */
+    public void setLog(PrintStream log)
+    {
+        this.log = log;
+    }
+
+    public double getMinimalTimeStep()
+    {
+        return minimalTimeStep;
+    }
+
+    public double getMaximalTimeStep()
+    {
+        return maximalTimeStep;
+    }
+
+    public double getTargetDisplacement()
+    {
+        return targetDisplacement;
+    }
+
+    /**
+     * @param targetDisplacement the largest displacement we aim at in one time step
+     *                           (should be below Param.SIMULATION_MAXIMAL_DISPLACEMENT)
+     */
+    public void setTargetDisplacement(double targetDisplacement)
+    {
+        this.targetDisplacement = targetDisplacement;
+    }
+
+    public double getMaximalForce()
+    {
+        return maximalForce;
+    }
+
+    /**
+     * @param maximalForce the time step is reduced if the norm of a force goes above this value, and
+     *                     only increased while all of them stay below half of it
+     *                     (<code>Double.POSITIVE_INFINITY</code> to ignore the forces)
+     */
+    public void setMaximalForce(double maximalForce)
+    {
+        this.maximalForce = maximalForce;
+    }
+
+    public double getMaximalDeleteAndInsertRate()
+    {
+        return maximalDeleteAndInsertRate;
+    }
+
+    /**
+     * @param maximalDeleteAndInsertRate fraction of the movements of the triangulation that can be
+     *                                   done by delete&insert before the time step is reduced
+     */
+    public void setMaximalDeleteAndInsertRate(double maximalDeleteAndInsertRate)
+    {
+        this.maximalDeleteAndInsertRate = maximalDeleteAndInsertRate;
+    }
+
+    public int getMinimalNumberOfMovements()
+    {
+        return minimalNumberOfMovements;
+    }
+
+    public void setMinimalNumberOfMovements(int minimalNumberOfMovements)
+    {
+        this.minimalNumberOfMovements = minimalNumberOfMovements;
+    }
+
+    public int getStepsBeforeGrowth()
+    {
+        return stepsBeforeGrowth;
+    }
+
+    public void setStepsBeforeGrowth(int stepsBeforeGrowth)
+    {
+        this.stepsBeforeGrowth = stepsBeforeGrowth;
+    }
+
+    public double getGrowthFactor()
+    {
+        return growthFactor;
+    }
+
+    public void setGrowthFactor(double growthFactor)
+    {
+        this.growthFactor = growthFactor;
+    }
+
+    public double getShrinkFactor()
+    {
+        return shrinkFactor;
+    }
+
+    public void setShrinkFactor(double shrinkFactor)
+    {
+        this.shrinkFactor = shrinkFactor;
+    }
+}
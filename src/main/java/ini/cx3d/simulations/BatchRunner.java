@@ -0,0 +1,242 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import java.lang.reflect.InvocationTargetException;
+
+import static ini.cx3d.utilities.StringUtilities.doubleToString;
+
+/**
+ * Runs a simulation without GUI, from the command line. The initial state of the simulation
+ * is defined by a class implementing <code>SimulationSetup</code>; the simulation is then run
+ * at full speed for a given number of time steps, or until a given simulated time is reached.
+ * <p/>
+ * Usage :
+ * <pre>
+ * java ini.cx3d.simulations.BatchRunner &lt;SimulationSetup class&gt; [-steps n] [-time t]
+ *                                         [-seed s] [-threads n] [-twophase] [-batchmoves]
+ *                                         [-skin r] [-compact] [-parallelbiology] [-checkmass] [-verbose]
+ * </pre>
+ * At the end, a summary of the timings is printed, and the JVM exits with one of the
+ * <code>EXIT_</code> codes defined in this class.
+ *
+ * @see SimulationSetup
+ */
+public class BatchRunner
+{
+
+    /**
+     * The simulation was run until the end.
+     */
+    public static final int EXIT_OK = 0;
+    /**
+     * The command line arguments could not be understood.
+     */
+    public static final int EXIT_USAGE = 1;
+    /**
+     * The SimulationSetup class could not be instantiated, or its setUp() failed.
+     */
+    public static final int EXIT_SETUP_FAILED = 2;
+    /**
+     * An exception occurred while simulating.
+     */
+    public static final int EXIT_SIMULATION_FAILED = 3;
+
+    private static final String USAGE = "usage : java " + BatchRunner.class.getName()
+            + " <SimulationSetup class> [-steps n] [-time t] [-seed s] [-threads n] [-twophase] [-batchmoves]"
+            + " [-skin r] [-compact] [-parallelbiology] [-checkmass] [-verbose]\n"
+            + "   -steps n    number of time steps to simulate\n"
+            + "   -time t     simulate until the ECM time reaches t (in hours)\n"
+            + "   -seed s     seed of the random number generators\n"
+            + "   -threads n  run the Scheduler in parallel mode, with n threads\n"
+            + "   -twophase   two-phase (compute/commit) mechanics\n"
+            + "   -batchmoves with -twophase, move all the spatial organization nodes together\n"
+            + "   -skin r     don't update the triangulation for node movements smaller than r\n"
+            + "   -compact    use the array based triangulation (CompactNode) instead of SpaceNodes\n"
+            + "   -parallelbiology  with -threads, also run the modules in parallel\n"
+            + "   -checkmass  with -batchmoves, check that moving the nodes keeps the total quantity of each substance\n"
+            + "   -verbose    print the ECM time at each time step";
+
+    public static void main(String[] args)
+    {
+        // must be done before the Scheduler class is loaded
+        System.setProperty("cx3d.headless", "true");
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /**
+     * Parses the command line arguments, sets up and runs the simulation.
+     *
+     * @param args the command line arguments (cf class description)
+     * @return one of the <code>EXIT_</code> codes
+     */
+    public static int run(String[] args)
+    {
+        String setupClassName = null;
+        int steps = -1;
+        double targetTime = -1;
+        Long seed = null;
+        int threads = 0;
+        boolean twoPhase = false;
+        boolean batchMoves = false;
+        double skinRadius = 0;
+        boolean compact = false;
+        boolean parallelBiology = false;
+        boolean checkMass = false;
+        boolean verbose = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-steps")) {
+                    steps = Integer.parseInt(args[++i]);
+                }
+                else if (arg.equals("-time")) {
+                    targetTime = Double.parseDouble(args[++i]);
+                }
+                else if (arg.equals("-seed")) {
+                    seed = Long.parseLong(args[++i]);
+                }
+                else if (arg.equals("-threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                }
+                else if (arg.equals("-twophase")) {
+                    twoPhase = true;
+                }
+                else if (arg.equals("-batchmoves")) {
+                    batchMoves = true;
+                }
+                else if (arg.equals("-skin")) {
+                    skinRadius = Double.parseDouble(args[++i]);
+                }
+                else if (arg.equals("-compact")) {
+                    compact = true;
+                }
+                else if (arg.equals("-parallelbiology")) {
+                    parallelBiology = true;
+                }
+                else if (arg.equals("-checkmass")) {
+                    checkMass = true;
+                }
+                else if (arg.equals("-verbose")) {
+                    verbose = true;
+                }
+                else if (setupClassName == null && !arg.startsWith("-")) {
+                    setupClassName = arg;
+                }
+                else {
+                    throw new IllegalArgumentException("unknown argument : " + arg);
+                }
+            }
+            if (setupClassName == null) {
+                throw new IllegalArgumentException("no SimulationSetup class given");
+            }
+            if (steps < 0 && targetTime < 0) {
+                throw new IllegalArgumentException("either -steps or -time is needed");
+            }
+            if (threads < 0) {
+                throw new IllegalArgumentException("the number of threads must be positive");
+            }
+            if (skinRadius < 0) {
+                throw new IllegalArgumentException("the skin radius must be positive");
+            }
+        }
+        catch (RuntimeException e) {
+            // (NumberFormatException, ArrayIndexOutOfBoundsException or our own)
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        if (!Scheduler.isHeadless()) {
+            System.err.println("The Scheduler was already initialized with a GUI; "
+                    + "start the JVM with -Dcx3d.headless=true");
+            return EXIT_USAGE;
+        }
+        ECM ecm = ECM.getInstance();
+        if (seed != null) {
+            ECM.setRandomSeed(seed);
+        }
+        Scheduler.setPrintCurrentECMTime(verbose);
+        if (threads > 0) {
+            Scheduler.setRunInParallel(true);
+            Scheduler.setParallelism(threads);
+        }
+        Scheduler.setTwoPhasePhysics(twoPhase);
+        Scheduler.setBatchNodeMovements(batchMoves);
+        ecm.setSkinRadius(skinRadius);
+        if (compact) {
+            ecm.setCompactTriangulation(true);
+        }
+        Scheduler.setParallelBiology(parallelBiology);
+        ecm.setCheckingMassConservation(checkMass);
+
+        // Setup
+        long setupStart = System.currentTimeMillis();
+        try {
+            SimulationSetup setup = (SimulationSetup) Class.forName(setupClassName).getDeclaredConstructor().newInstance();
+            setup.setUp(ecm);
+        }
+        catch (InvocationTargetException e) {
+            // the constructor of the setup failed
+            System.err.println("Could not set up the simulation " + setupClassName + " :");
+            e.getCause().printStackTrace();
+            return EXIT_SETUP_FAILED;
+        }
+        catch (Exception e) {
+            System.err.println("Could not set up the simulation " + setupClassName + " :");
+            e.printStackTrace();
+            return EXIT_SETUP_FAILED;
+        }
+        long setupTime = System.currentTimeMillis() - setupStart;
+
+        // Simulation
+        Scheduler.resetTimings();
+        int stepsDone = 0;
+        try {
+            while ((steps < 0 || stepsDone < steps) && (targetTime < 0 || ecm.getECMtime() < targetTime)) {
+                Scheduler.simulateOneStep();
+                stepsDone++;
+            }
+        }
+        catch (RuntimeException e) {
+            System.err.println("Simulation failed after " + stepsDone + " steps :");
+            e.printStackTrace();
+            printSummary(ecm, setupTime, stepsDone);
+            return EXIT_SIMULATION_FAILED;
+        }
+        printSummary(ecm, setupTime, stepsDone);
+        return EXIT_OK;
+    }
+
+    private static void printSummary(ECM ecm, long setupTime, int stepsDone)
+    {
+        System.out.println("setup : " + setupTime + " ms");
+        System.out.println("steps : " + stepsDone + ", ECM time = " + doubleToString(ecm.getECMtime(), 4));
+        System.out.println("cells : " + ecm.getCellList().size()
+                + ", spheres : " + ecm.getPhysicalSphereList().size()
+                + ", cylinders : " + ecm.getPhysicalCylinderList().size()
+                + ", nodes : " + ecm.getPhysicalNodeList().size());
+        Scheduler.printTimings();
+    }
+}
@@ -31,12 +31,18 @@ import ini.cx3d.physics.IntracellularSubstance;
 import ini.cx3d.physics.PhysicalCylinder;
 import ini.cx3d.physics.PhysicalNode;
 import ini.cx3d.physics.PhysicalNodeMovementListener;
+import ini.cx3d.physics.PhysicalObject;
 import ini.cx3d.physics.PhysicalSphere;
 import ini.cx3d.physics.Substance;
 import ini.cx3d.spatialOrganization.PositionNotAllowedException;
+import ini.cx3d.spatialOrganization.CompactNode;
 import ini.cx3d.spatialOrganization.SpaceNode;
 import ini.cx3d.spatialOrganization.SpatialOrganizationNode;
+import ini.cx3d.spatialOrganization.TriangulationContext;
+import ini.cx3d.spatialOrganization.UniformGridNode;
 import ini.cx3d.utilities.Matrix;
+import ini.cx3d.utilities.ObjectRegistry;
+import ini.cx3d.utilities.RandomStream;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
@@ -46,10 +52,18 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Hashtable;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 import static ini.cx3d.utilities.Matrix.add;
 import static ini.cx3d.utilities.Matrix.randomNoise;
@@ -65,36 +79,48 @@ public class ECM
 {
 
     // List of all the CX3DRunbable objects in the simulation ............................
+    // (ObjectRegistries : add and remove in constant time, but a removal changes the order)
 
     /**
      * List of all the PhysicalNode instances.
      */
-    public Vector<PhysicalNode> physicalNodeList = new Vector<PhysicalNode>();
+    public Vector<PhysicalNode> physicalNodeList = new ObjectRegistry<PhysicalNode>();
     /**
      * List of all the PhysicalSphere instances.
      */
-    public Vector<PhysicalSphere> physicalSphereList = new Vector<PhysicalSphere>();
+    public Vector<PhysicalSphere> physicalSphereList = new ObjectRegistry<PhysicalSphere>();
     /**
      * List of all the PhysicalCylinder instances.
      */
-    public Vector<PhysicalCylinder> physicalCylinderList = new Vector<PhysicalCylinder>();
+    public Vector<PhysicalCylinder> physicalCylinderList = new ObjectRegistry<PhysicalCylinder>();
     /**
      * List of all the SomaElement instances.
      */
-    public Vector<SomaElement> somaElementList = new Vector<SomaElement>();
+    public Vector<SomaElement> somaElementList = new ObjectRegistry<SomaElement>();
     /**
      * List of all the NeuriteElement instances.
      */
-    public Vector<NeuriteElement> neuriteElementList = new Vector<NeuriteElement>();
+    public Vector<NeuriteElement> neuriteElementList = new ObjectRegistry<NeuriteElement>();
     /**
      * List of all the Cell instances.
      */
-    public Vector<Cell> cellList = new Vector<Cell>();
+    public Vector<Cell> cellList = new ObjectRegistry<Cell>();
     /**
      * List of all the Chemical reactions instances.
      */
     public Vector<ECMChemicalReaction> ecmChemicalReactionList = new Vector<ECMChemicalReaction>();
 
+    // Active sets : the objects that were put on the scheduler list ....................
+
+    /* PhysicalNodes whose flag onTheSchedulerListForPhysicalNodes became true since the last drain.*/
+    private ConcurrentLinkedQueue<PhysicalNode> activePhysicalNodes = new ConcurrentLinkedQueue<PhysicalNode>();
+
+    /* PhysicalObjects whose flag onTheSchedulerListForPhysicalObjects became true since the last drain.*/
+    private ConcurrentLinkedQueue<PhysicalObject> activePhysicalObjects = new ConcurrentLinkedQueue<PhysicalObject>();
+
+    /* Structural changes asked for by the modules while they are run in parallel.*/
+    private StructuralCommandBuffer structuralCommandBuffer = new StructuralCommandBuffer();
+
     /**
      * needed for run and pause.
      */
@@ -106,6 +132,25 @@ public class ECM
     /* An SON used to get new SON instances from*/
     private SpatialOrganizationNode<PhysicalNode> initialNode;
 
+    /* If strictly positive, the SONs are UniformGridNodes with this neighborhood radius,
+     * instead of SpaceNodes of a Delaunay triangulation.*/
+    private double uniformGridRadius = 0;
+
+    /* If true (and no uniform grid is used), the SONs are CompactNodes instead of SpaceNodes.*/
+    private boolean compactTriangulation = false;
+
+    /* The skin radius of the Delaunay triangulation (see TriangulationContext.setSkinRadius()).*/
+    private double skinRadius = 0;
+
+    /* The context of the triangulation the SpaceNodes belong to (null with a uniform grid).*/
+    private TriangulationContext<PhysicalNode> triangulation;
+    /* If not null, the movements of the SpatialOrganizationNodes are collected here (new position
+     * of each node) instead of being performed right away (see startCollectingNodeMovements()).*/
+    private LinkedHashMap<SpatialOrganizationNode<PhysicalNode>, double[]> collectedNodeMovements = null;
+    /* If true, performCollectedNodeMovements() checks that the total quantity of each extracellular
+     * substance is the same after the movements as before.*/
+    private boolean checkingMassConservation = false;
+
     /* In here we keep a template for each (extra-cellular) Substance in the simulation that have
      * non-standard value for diffusion and degradation constant.*/
     private Hashtable<String, Substance> substancesLibrary = new Hashtable<String, Substance>();
@@ -172,26 +217,22 @@ public class ECM
     public Hashtable<String, Substance> allArtificialSubstances = new Hashtable<String, Substance>();
 
     // **************************************************************************
-    // Singleton pattern
+    // Singleton pattern (one instance per SimulationContext)
     // **************************************************************************
 
-    private static ECM instance = null;
-
-    private ECM()
+    ECM()
     {
     }
 
     /**
-     * Gets a reference to the (unique) ECM
+     * Gets a reference to the ECM of the current <code>SimulationContext</code>
+     * (unique, as long as only the default context is used).
      *
      * @return the ECM
      */
     public static ECM getInstance()
     {
-        if (instance == null) {
-            instance = new ECM();
-        }
-        return instance;
+        return SimulationContext.getCurrent().getECM();
     }
 
     /**
@@ -206,14 +247,14 @@ public class ECM
     // **************************************************************************
     // Random Number
     // **************************************************************************
-    static Random random = new Random();
+    // (the generators belong to the current SimulationContext)
 
     /**
      * @return a random number between, from uniform probability 0 and 1;
      */
     public static double getRandomDouble()
     {
-        return random.nextDouble();
+        return SimulationContext.getCurrent().random.nextDouble();
     }
 
     /**
@@ -225,7 +266,7 @@ public class ECM
      */
     public static double getGaussianDouble(double mean, double standardDeviation)
     {
-        return mean + standardDeviation * random.nextGaussian();
+        return mean + standardDeviation * SimulationContext.getCurrent().random.nextGaussian();
     }
 
     /**
@@ -235,8 +276,34 @@ public class ECM
      */
     public static void setRandomSeed(long seed)
     {
-        random = new Random(seed);
-        Matrix.setRandomSeedTo(seed);
+        SimulationContext.getCurrent().setRandomSeed(seed);
+    }
+
+    /**
+     * Returns a random number generator that only depends on the seed, on the two keys and on
+     * the current ECM time. Contrary to <code>getRandomDouble()</code>, the numbers obtained don't
+     * depend on what the other objects did before, nor on the thread that asks for them; and there
+     * is no shared state, so no contention.
+     * <p/>
+     * The first key is typically the ID of the object that asks (CellElement, PhysicalNode,...), the
+     * second one distinguishes several users for the same object (e.g. a constant per LocalBiologyModule
+     * class). Asking twice with the same keys during the same time step gives the same numbers;
+     * the sub-cycles of a phase run several times per time step (see Scheduler.setPhaseRate())
+     * get different numbers.
+     *
+     * @param objectID
+     * @param streamID
+     * @return
+     */
+    public static RandomStream getRandomStream(long objectID, long streamID)
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        long time = Double.doubleToLongBits(context.getECM().getECMtime());
+        if (context.subCycle == 0) {
+            // (same keys as without sub-cycles)
+            return new RandomStream(context.randomStreamSeed, objectID, streamID, time);
+        }
+        return new RandomStream(context.randomStreamSeed, objectID, streamID, time, context.subCycle);
     }
 
     // **************************************************************************
@@ -349,6 +416,248 @@ public class ECM
     // SOM and Interaction with PO & CellElements (add, remove, ..)
     // **************************************************************************
 
+    /**
+     * Selects a {@link UniformGridNode} neighbor index instead of the Delaunay triangulation
+     * for all the SpatialOrganizationNodes created from now on. Neighbors are then all the nodes
+     * closer than <code>radius</code>, and moving a node costs O(1). Since the volumes and cross
+     * sections are only approximated, this is meant for mechanics-only simulations (without
+     * extracellular diffusion). The radius has to be larger than the largest interaction distance
+     * between two physical objects.
+     * <p/>
+     * Must be called before the first PhysicalNode is created (i.e. at the beginning of the
+     * simulation or after <code>clearAll()</code>). The choice is kept by <code>clearAll()</code>.
+     *
+     * @param radius the neighborhood radius, or 0 to go back to the Delaunay triangulation.
+     */
+    public void setUniformGridRadius(double radius)
+    {
+        if (initialNode != null) {
+            throw new IllegalStateException("The spatial organization can only be chosen before the first node is created");
+        }
+        if (radius < 0) {
+            throw new IllegalArgumentException("The neighborhood radius must be positive: " + radius);
+        }
+        uniformGridRadius = radius;
+    }
+
+    /**
+     * @return the neighborhood radius of the uniform grid, or 0 if the Delaunay triangulation is used.
+     */
+    public double getUniformGridRadius()
+    {
+        return uniformGridRadius;
+    }
+
+    /**
+     * Selects a {@link CompactNode} triangulation instead of the SpaceNodes for all the
+     * SpatialOrganizationNodes created from now on. The neighbors, volumes and cross sections
+     * are the same, but the triangulation is stored in arrays of primitive values, and takes
+     * several times less memory. The skin radius is ignored.
+     * <p/>
+     * Must be called before the first PhysicalNode is created (i.e. at the beginning of the
+     * simulation or after <code>clearAll()</code>). The choice is kept by <code>clearAll()</code>.
+     *
+     * @param compactTriangulation true for the compact triangulation, false (default) for SpaceNodes.
+     */
+    public void setCompactTriangulation(boolean compactTriangulation)
+    {
+        if (initialNode != null) {
+            throw new IllegalStateException("The spatial organization can only be chosen before the first node is created");
+        }
+        this.compactTriangulation = compactTriangulation;
+    }
+
+    /**
+     * @return true if the SpatialOrganizationNodes are CompactNodes.
+     */
+    public boolean isCompactTriangulation()
+    {
+        return compactTriangulation;
+    }
+
+    /**
+     * Sets the skin radius of the Delaunay triangulation : the SpatialOrganizationNodes that
+     * move by less than this distance are not re-triangulated (see
+     * <code>TriangulationContext.setSkinRadius()</code>). Can be changed at any time; the
+     * choice is kept by <code>clearAll()</code>.
+     *
+     * @param skinRadius the skin radius, or 0 (default) to update the triangulation at each movement.
+     */
+    public void setSkinRadius(double skinRadius)
+    {
+        if (skinRadius < 0) {
+            throw new IllegalArgumentException("The skin radius must be positive: " + skinRadius);
+        }
+        this.skinRadius = skinRadius;
+        if (triangulation != null) {
+            triangulation.setSkinRadius(skinRadius);
+        }
+    }
+
+    /**
+     * @return the skin radius of the Delaunay triangulation.
+     */
+    public double getSkinRadius()
+    {
+        return skinRadius;
+    }
+
+    /**
+     * If set, <code>performCollectedNodeMovements()</code> sums the quantity of each extracellular
+     * substance over all the PhysicalNodes before and after the movements, and throws a
+     * RuntimeException if a total has changed. Costs two passes over all the nodes at each time step.
+     *
+     * @param checkingMassConservation
+     */
+    public void setCheckingMassConservation(boolean checkingMassConservation)
+    {
+        this.checkingMassConservation = checkingMassConservation;
+    }
+
+    public boolean isCheckingMassConservation()
+    {
+        return checkingMassConservation;
+    }
+
+    /**
+     * @return the context of the Delaunay triangulation of this simulation (with the statistics
+     * about node movements), or <code>null</code> if there is no triangulation yet or if a uniform
+     * grid is used.
+     */
+    public TriangulationContext<PhysicalNode> getTriangulationContext()
+    {
+        return triangulation;
+    }
+
+    /**
+     * Moves a SpatialOrganizationNode by a certain displacement. If the movements are being
+     * collected (see <code>startCollectingNodeMovements()</code>), the movement is only recorded,
+     * and will be performed by <code>performCollectedNodeMovements()</code>. If the same node is
+     * moved several times in between, only its last movement counts.
+     *
+     * @param son the node to move.
+     * @param delta the displacement, relative to the current position of the node.
+     * @throws PositionNotAllowedException if the node is moved right away and the new position is not allowed.
+     */
+    public void moveSpatialOrganizationNode(SpatialOrganizationNode<PhysicalNode> son, double[] delta)
+            throws PositionNotAllowedException
+    {
+        if (collectedNodeMovements == null) {
+            son.moveFrom(delta);
+        }
+        else {
+            collectedNodeMovements.put(son, add(son.getPosition(), delta));
+        }
+    }
+
+    /**
+     * From now on and until <code>performCollectedNodeMovements()</code> is called, the movements
+     * asked with <code>moveSpatialOrganizationNode()</code> are recorded instead of being performed.
+     * The neighbors of the nodes are thus the ones before the movements in the meantime.
+     */
+    public void startCollectingNodeMovements()
+    {
+        if (collectedNodeMovements == null) {
+            collectedNodeMovements = new LinkedHashMap<SpatialOrganizationNode<PhysicalNode>, double[]>();
+        }
+    }
+
+    /**
+     * Performs all the movements recorded since <code>startCollectingNodeMovements()</code>. With the
+     * Delaunay triangulation, they are all performed at once with <code>SpaceNode.moveAll()</code>,
+     * i.e. with a single pass of the flip algorithm. The PhysicalObjects that are neighbors of
+     * the moved nodes after the movements are put on the scheduler list.
+     */
+    public void performCollectedNodeMovements()
+    {
+        LinkedHashMap<SpatialOrganizationNode<PhysicalNode>, double[]> movements = collectedNodeMovements;
+        collectedNodeMovements = null;
+        if (movements == null || movements.isEmpty()) {
+            return;
+        }
+        Hashtable<String, Double> quantitiesBefore = checkingMassConservation ? getTotalExtracellularQuantities() : null;
+        LinkedHashMap<SpaceNode<PhysicalNode>, double[]> spaceNodeMovements =
+                new LinkedHashMap<SpaceNode<PhysicalNode>, double[]>();
+        for (Iterator<Map.Entry<SpatialOrganizationNode<PhysicalNode>, double[]>> iter =
+                movements.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<SpatialOrganizationNode<PhysicalNode>, double[]> entry = iter.next();
+            SpatialOrganizationNode<PhysicalNode> son = entry.getKey();
+            PhysicalNode pn = son.getUserObject();
+            if (pn.isAPhysicalObject() && !((PhysicalObject) pn).isStillExisting()) {
+                // (removed in the meantime)
+                iter.remove();
+            }
+            else if (son instanceof SpaceNode) {
+                spaceNodeMovements.put((SpaceNode<PhysicalNode>) son, entry.getValue());
+            }
+            else {
+                try {
+                    son.moveFrom(Matrix.subtract(entry.getValue(), son.getPosition()));
+                }
+                catch (PositionNotAllowedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        try {
+            SpaceNode.moveAll(spaceNodeMovements);
+        }
+        catch (PositionNotAllowedException e) {
+            e.printStackTrace();
+        }
+        // the new neighbors have to take the movements into account:
+        for (SpatialOrganizationNode<PhysicalNode> son : movements.keySet()) {
+            son.visitNeighbors(PhysicalObject.NEIGHBOR_SCHEDULER);
+        }
+        if (quantitiesBefore != null) {
+            Hashtable<String, Double> quantitiesAfter = getTotalExtracellularQuantities();
+            for (String id : quantitiesBefore.keySet()) {
+                double before = quantitiesBefore.get(id);
+                double after = quantitiesAfter.containsKey(id) ? quantitiesAfter.get(id) : 0;
+                if (Math.abs(after - before) > 1e-9 * Math.abs(before) + 1e-12) {
+                    throw new RuntimeException("The total quantity of " + id + " went from " + before + " to "
+                            + after + " while moving " + movements.size() + " nodes");
+                }
+            }
+        }
+    }
+
+    /* The total quantity of each extracellular substance, over all the PhysicalNodes.*/
+    private Hashtable<String, Double> getTotalExtracellularQuantities()
+    {
+        Hashtable<String, Double> totals = new Hashtable<String, Double>();
+        for (PhysicalNode pn : physicalNodeList) {
+            for (Substance s : pn.getExtracellularSubstances().values()) {
+                Double total = totals.get(s.getId());
+                totals.put(s.getId(), (total == null ? 0 : total) + s.getQuantity());
+            }
+        }
+        return totals;
+    }
+
+    /* Creates the first SON of the simulation, of the type chosen with setUniformGridRadius()
+     * and setCompactTriangulation().*/
+    private SpatialOrganizationNode<PhysicalNode> createInitialNode(double[] position, PhysicalNode userObject)
+    {
+        SpatialOrganizationNode<PhysicalNode> sn1;
+        if (uniformGridRadius > 0) {
+            sn1 = new UniformGridNode<PhysicalNode>(uniformGridRadius, position, userObject);
+        }
+        else if (compactTriangulation) {
+            sn1 = new CompactNode<PhysicalNode>(position, userObject);
+        }
+        else {
+            triangulation = new TriangulationContext<PhysicalNode>();
+            triangulation.setSkinRadius(skinRadius);
+            sn1 = new SpaceNode<PhysicalNode>(position, userObject, triangulation);
+        }
+        PhysicalNodeMovementListener listener = new PhysicalNodeMovementListener();
+//			XX_oldMoveListener listener = new XX_oldMoveListener();
+        sn1.addSpatialOrganizationNodeMovementListener(listener);
+        initialNode = sn1;
+        return sn1;
+    }
+
     /**
      * Returns an instance of a class implementing SpatialOrganizationNode.
      * If it is the first node of the simulation, it will fix the Class type of the SpatialOrganizationNode.
@@ -363,12 +672,7 @@ public class ECM
     public SpatialOrganizationNode<PhysicalNode> getSpatialOrganizationNodeInstance(double[] position, PhysicalNode userObject)
     {
         if (initialNode == null) {
-            SpaceNode<PhysicalNode> sn1 = new SpaceNode<PhysicalNode>(position, userObject);
-            PhysicalNodeMovementListener listener = new PhysicalNodeMovementListener();
-//			XX_oldMoveListener listener = new XX_oldMoveListener();
-            sn1.addSpatialOrganizationNodeMovementListener(listener);
-            initialNode = sn1;
-            return sn1;
+            return createInitialNode(position, userObject);
         }
         try {
             return initialNode.getNewInstance(position, userObject);
@@ -395,12 +699,7 @@ public class ECM
             SpatialOrganizationNode<PhysicalNode> n, double[] position, PhysicalNode userObject)
     {
         if (initialNode == null) {
-            SpaceNode<PhysicalNode> sn1 = new SpaceNode<PhysicalNode>(position, userObject);
-            PhysicalNodeMovementListener listener = new PhysicalNodeMovementListener();
-//			XX_oldMoveListener listener = new XX_oldMoveListener();
-            sn1.addSpatialOrganizationNodeMovementListener(listener);
-            initialNode = sn1;
-            return sn1;
+            return createInitialNode(position, userObject);
         }
         try {
             return n.getNewInstance(position, userObject);
@@ -432,9 +731,8 @@ public class ECM
         int yLim = (int) ((y2 - y1 + 2 * borderLength) / d);
         int zLim = (int) ((z2 - z1 + 2 * borderLength) / d);
 
-        // the neighbor Node (close to which we will create the new one
-        SpatialOrganizationNode<PhysicalNode> oldSon = null;
-        // loop to put the nodes in 3D space
+        // loop to compute the positions of the nodes in 3D space
+        Vector<double[]> coords = new Vector<double[]>();
         for (int kx = 0; kx < xLim + 1; kx++) {
             for (int ky = 0; ky < yLim + 1; ky++) {
                 for (int kz = 0; kz < zLim + 1; kz++) {
@@ -443,26 +741,55 @@ public class ECM
                                                    (y1 - borderLength) + d * ky,
                                                    (z1 - borderLength) + d * kz};
                     // add small jitter
-                    coord = add(coord, randomNoise(d * 0.01, 3));
-                    // create the node
-                    PhysicalNode pn = new PhysicalNode();
-                    // request a delaunay vertex
-                    SpatialOrganizationNode<PhysicalNode> newSon;
-                    if (oldSon != null) {
-                        newSon = getSpatialOrganizationNodeInstance(oldSon, coord, pn);
-                    }
-                    else {
-                        newSon = getSpatialOrganizationNodeInstance(coord, pn);
-                    }
-                    // setting call-back
-                    pn.setSoNode(newSon);
-                    // register this node as in ECM
-                    addPhysicalNode(pn);
-                    // becomes the neighbor of the next node
-                    oldSon = newSon;
+                    coords.add(add(coord, randomNoise(d * 0.01, 3)));
                 }
             }
         }
+        Vector<PhysicalNode> nodes = new Vector<PhysicalNode>();
+        for (int i = 0; i < coords.size(); i++) {
+            nodes.add(new PhysicalNode());
+        }
+        insertSpatialOrganizationNodes(coords, nodes);
+        // register the nodes in ECM, in grid order
+        for (PhysicalNode pn : nodes) {
+            addPhysicalNode(pn);
+        }
+    }
+
+    /**
+     * Gives a SpatialOrganizationNode to each of a set of PhysicalNodes. The nodes are inserted
+     * along a space filling curve (see <code>SpatialOrganizationNode.getNewInstances()</code>),
+     * which is much faster than calling <code>getSpatialOrganizationNodeInstance()</code> for
+     * each of them. The PhysicalNodes are not added to the ECM.
+     *
+     * @param positions
+     * @param physicalNodes the PhysicalNodes, in the same order as their positions
+     */
+    public void insertSpatialOrganizationNodes(List<double[]> positions, List<? extends PhysicalNode> physicalNodes)
+    {
+        if (positions.isEmpty()) {
+            return;
+        }
+        ArrayList<PhysicalNode> userObjects = new ArrayList<PhysicalNode>(physicalNodes);
+        if (initialNode == null) {
+            PhysicalNode first = userObjects.get(0);
+            first.setSoNode(createInitialNode(positions.get(0), first));
+            positions = positions.subList(1, positions.size());
+            userObjects.remove(0);
+        }
+        try {
+            initialNode.getNewInstances(positions, userObjects, new Consumer<SpatialOrganizationNode<PhysicalNode>>()
+            {
+                public void accept(SpatialOrganizationNode<PhysicalNode> son)
+                {
+                    // setting call-back, before the listeners look at this node's neighborhood
+                    son.getUserObject().setSoNode(son);
+                }
+            });
+        }
+        catch (PositionNotAllowedException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -510,12 +837,16 @@ public class ECM
 
     public void addPhysicalNode(PhysicalNode newPhysicalNode)
     {
+        checkStructuralChangeAllowed();
         physicalNodeList.add(newPhysicalNode);
     }
 
     public void removePhysicalNode(PhysicalNode oldPhysicalNode)
     {
+        checkStructuralChangeAllowed();
         physicalNodeList.remove(oldPhysicalNode);
+        // in case it is still in the active set
+        oldPhysicalNode.setOnTheSchedulerListForPhysicalNodes(false);
         oldPhysicalNode.getSoNode().remove();
     }
 
@@ -533,35 +864,158 @@ public class ECM
 
     public void addCell(Cell newCell)
     {
+        checkStructuralChangeAllowed();
         cellList.add(newCell);
     }
 
     public void removeCell(Cell oldCell)
     {
+        checkStructuralChangeAllowed();
         cellList.remove(oldCell);
     }
 
     // Cell Elements--------------------------------------------------
     public void addSomaElement(SomaElement newSoma)
     {
+        checkStructuralChangeAllowed();
         somaElementList.add(newSoma);
     }
 
     public void removeSomaElement(SomaElement oldSoma)
     {
+        checkStructuralChangeAllowed();
         somaElementList.remove(oldSoma);
     }
 
     public void addNeuriteElement(NeuriteElement newNE)
     {
+        checkStructuralChangeAllowed();
         neuriteElementList.add(newNE);
     }
 
     public void removeNeuriteElement(NeuriteElement oldNE)
     {
+        checkStructuralChangeAllowed();
         neuriteElementList.remove(oldNE);
     }
 
+    /**
+     * Returns the buffer through which the modules ask for structural changes (division,
+     * branching,...), so that they can be run in parallel.
+     */
+    public StructuralCommandBuffer getStructuralCommandBuffer()
+    {
+        return structuralCommandBuffer;
+    }
+
+    /* While the modules are run in parallel, objects can't be added or removed directly.*/
+    private void checkStructuralChangeAllowed()
+    {
+        if (structuralCommandBuffer.isDeferring()) {
+            throw new IllegalStateException("Structural change while the modules are run in parallel : "
+                    + "use the StructuralCommandBuffer of the ECM");
+        }
+    }
+
+    // **************************************************************************
+    // Active sets (the objects that have to be run by the Scheduler)
+    // **************************************************************************
+
+    /* Sorts by ID, i.e. by order of creation, so that the order in which the Scheduler
+     * runs the active objects does not depend on the order in which they were activated. */
+    private static final Comparator<PhysicalNode> BY_ID = new Comparator<PhysicalNode>()
+    {
+        public int compare(PhysicalNode a, PhysicalNode b)
+        {
+            return a.getID() < b.getID() ? -1 : (a.getID() == b.getID() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Called by a PhysicalNode when it is put on the scheduler list for diffusion.
+     * Should not be called directly (the PhysicalNode makes sure it is added only once).
+     */
+    public void addToActivePhysicalNodes(PhysicalNode pn)
+    {
+        activePhysicalNodes.add(pn);
+    }
+
+    /**
+     * Called by a PhysicalObject when it is put on the scheduler list for physics.
+     * Should not be called directly (the PhysicalObject makes sure it is added only once).
+     */
+    public void addToActivePhysicalObjects(PhysicalObject po)
+    {
+        activePhysicalObjects.add(po);
+    }
+
+    /**
+     * Removes and returns all the PhysicalNodes that were put on the scheduler list
+     * since the last call, sorted by ID. The caller still has to check
+     * <code>isOnTheSchedulerListForPhysicalNodes()</code>, since the flag might have been
+     * reset in the meantime.
+     */
+    public PhysicalNode[] drainActivePhysicalNodes()
+    {
+        ArrayList<PhysicalNode> active = new ArrayList<PhysicalNode>();
+        for (PhysicalNode pn = activePhysicalNodes.poll(); pn != null; pn = activePhysicalNodes.poll()) {
+            active.add(pn);
+        }
+        Collections.sort(active, BY_ID);
+        return active.toArray(new PhysicalNode[active.size()]);
+    }
+
+    /**
+     * Removes and returns all the PhysicalObjects that were put on the scheduler list
+     * since the last call, sorted by ID. The caller still has to check
+     * <code>isOnTheSchedulerListForPhysicalObjects()</code> and <code>isStillExisting()</code>.
+     */
+    public PhysicalObject[] drainActivePhysicalObjects()
+    {
+        ArrayList<PhysicalObject> active = new ArrayList<PhysicalObject>();
+        for (PhysicalObject po = activePhysicalObjects.poll(); po != null; po = activePhysicalObjects.poll()) {
+            active.add(po);
+        }
+        Collections.sort(active, BY_ID);
+        return active.toArray(new PhysicalObject[active.size()]);
+    }
+
+    /**
+     * Empties the active sets (used when the Scheduler scans the complete lists instead).
+     */
+    public void clearActiveSets()
+    {
+        activePhysicalNodes.clear();
+        activePhysicalObjects.clear();
+    }
+
+    /**
+     * Re-builds the active sets by scanning all the PhysicalNodes and PhysicalObjects
+     * for their scheduler flag.
+     */
+    public void rebuildActiveSets()
+    {
+        clearActiveSets();
+        for (int i = 0; i < physicalNodeList.size(); i++) {
+            PhysicalNode pn = physicalNodeList.get(i);
+            if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                activePhysicalNodes.add(pn);
+            }
+        }
+        for (int i = 0; i < physicalCylinderList.size(); i++) {
+            PhysicalCylinder pc = physicalCylinderList.get(i);
+            if (pc.isOnTheSchedulerListForPhysicalObjects()) {
+                activePhysicalObjects.add(pc);
+            }
+        }
+        for (int i = 0; i < physicalSphereList.size(); i++) {
+            PhysicalSphere ps = physicalSphereList.get(i);
+            if (ps.isOnTheSchedulerListForPhysicalObjects()) {
+                activePhysicalObjects.add(ps);
+            }
+        }
+    }
+
     public void resetTime()
     {
         this.ECMtime = 0.0;
@@ -573,15 +1027,16 @@ public class ECM
     public void clearAll()
     {
         // Layer 1 : Cells
-        cellList = new Vector<Cell>();
+        cellList = new ObjectRegistry<Cell>();
         // Layer 2 : local biology
-        somaElementList = new Vector<SomaElement>();
-        neuriteElementList = new Vector<NeuriteElement>();
+        somaElementList = new ObjectRegistry<SomaElement>();
+        neuriteElementList = new ObjectRegistry<NeuriteElement>();
 
         // Layer 3 : physics
-        physicalNodeList = new Vector<PhysicalNode>();
-        physicalSphereList = new Vector<PhysicalSphere>();
-        physicalCylinderList = new Vector<PhysicalCylinder>();
+        physicalNodeList = new ObjectRegistry<PhysicalNode>();
+        physicalSphereList = new ObjectRegistry<PhysicalSphere>();
+        physicalCylinderList = new ObjectRegistry<PhysicalCylinder>();
+        clearActiveSets();
         allArtificialSubstances.clear();
         gaussianArtificialConcentrationX.clear();
         gaussianArtificialConcentrationZ.clear();
@@ -591,6 +1046,8 @@ public class ECM
         this.substancesLibrary.clear();
         // Layer 4 : triangulation
         initialNode = null;
+        triangulation = null;
+        collectedNodeMovements = null;
         if (myGuiCreator != null) {
             myGuiCreator.removeAllChemicalSubstances();
         }
@@ -1278,7 +1735,7 @@ public class ECM
 
     public void setCellList(Vector<Cell> cellList)
     {
-        this.cellList = cellList;
+        this.cellList = new ObjectRegistry<Cell>(cellList);
     }
 
     /**
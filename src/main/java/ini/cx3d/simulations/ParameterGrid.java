@@ -0,0 +1,130 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values a parameter sweep goes through : each parameter gets a list of values, and the
+ * grid contains every combination of them (cartesian product). The points are numbered from 0
+ * to <code>size()-1</code>, the last parameter added varying the fastest.
+ * <p/>
+ * A grid without parameters contains one point (with no values).
+ *
+ * @see SweepRunner
+ */
+public class ParameterGrid
+{
+
+    /* the names of the parameters, in the order they were added.*/
+    private List<String> names = new ArrayList<String>();
+
+    /* the values of each parameter (same order).*/
+    private List<double[]> values = new ArrayList<double[]>();
+
+    /**
+     * Adds a parameter to the grid.
+     *
+     * @param name   the name given to the <code>SimulationFactory</code>
+     * @param values the values the parameter takes (at least one)
+     * @return this grid
+     */
+    public ParameterGrid addParameter(String name, double... values)
+    {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("parameter " + name + " already in the grid");
+        }
+        if (values.length == 0) {
+            throw new IllegalArgumentException("no value for parameter " + name);
+        }
+        names.add(name);
+        this.values.add(values.clone());
+        return this;
+    }
+
+    /**
+     * Adds a parameter taking <code>count</code> values evenly spaced between
+     * <code>min</code> and <code>max</code> (both included).
+     *
+     * @return this grid
+     */
+    public ParameterGrid addParameterRange(String name, double min, double max, int count)
+    {
+        if (count < 1) {
+            throw new IllegalArgumentException("no value for parameter " + name);
+        }
+        double[] range = new double[count];
+        for (int i = 0; i < count; i++) {
+            range[i] = count == 1 ? min : min + (max - min) * i / (count - 1);
+        }
+        return addParameter(name, range);
+    }
+
+    /**
+     * Returns the names of the parameters, in the order they were added.
+     */
+    public List<String> getParameterNames()
+    {
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * Returns the number of points in the grid (the product of the numbers of values).
+     */
+    public int size()
+    {
+        int size = 1;
+        for (double[] v : values) {
+            size *= v.length;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the values of the parameters at one point of the grid.
+     *
+     * @param index the number of the point, between 0 and <code>size()-1</code>
+     * @return the value of each parameter, by name (in the order they were added)
+     */
+    public Map<String, Double> getPoint(int index)
+    {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("point " + index + " of a grid of size " + size());
+        }
+        Map<String, Double> point = new LinkedHashMap<String, Double>();
+        // the last parameter varies the fastest
+        int[] digits = new int[names.size()];
+        for (int i = names.size() - 1; i >= 0; i--) {
+            int radix = values.get(i).length;
+            digits[i] = index % radix;
+            index /= radix;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            point.put(names.get(i), values.get(i)[digits[i]]);
+        }
+        return point;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.simulations;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task used by the <code>Scheduler</code> to run one phase of a time step
+ * (diffusion, physics, ...) over an array of objects. The array is recursively cut
+ * in halves until the pieces are smaller than a threshold, and each piece is then
+ * processed sequentially by the calling worker thread.
+ * <p/>
+ * Since <code>ForkJoinPool.invoke()</code> only returns once every sub-task is done,
+ * two consecutive phases are always separated by a barrier.
+ * <p/>
+ * The <code>SimulationContext</code> of the thread that creates the task is bound to the
+ * worker threads while they run it.
+ *
+ * @param <T> the type of the objects the phase is run on.
+ */
+class PhaseTask<T>
+        extends RecursiveAction
+{
+
+    /**
+     * The work that has to be done on each element of a phase.
+     *
+     * @param <T> the type of the objects the phase is run on.
+     */
+    interface Body<T>
+    {
+
+        public void run(T element);
+    }
+
+    /* Under this number of elements, we don't split the work anymore.*/
+    static int sequentialThreshold = 64;
+
+    private final T[] elements;
+    private final int from;
+    private final int to;
+    private final Body<T> body;
+    private final SimulationContext context;
+
+    PhaseTask(T[] elements, int from, int to, Body<T> body)
+    {
+        this(elements, from, to, body, SimulationContext.getCurrent());
+    }
+
+    private PhaseTask(T[] elements, int from, int to, Body<T> body, SimulationContext context)
+    {
+        this.elements = elements;
+        this.from = from;
+        this.to = to;
+        this.body = body;
+        this.context = context;
+    }
+
+    @Override
+    protected void compute()
+    {
+        SimulationContext previous = context.bind();
+        try {
+            if (to - from <= sequentialThreshold) {
+                for (int i = from; i < to; i++) {
+                    body.run(elements[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PhaseTask<T>(elements, from, middle, body, context),
+                    new PhaseTask<T>(elements, middle, to, body, context));
+        }
+        finally {
+            SimulationContext.restore(previous);
+        }
+    }
+}
@@ -22,12 +22,22 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 package ini.cx3d.simulations;
 
 import ini.cx3d.Param;
+import ini.cx3d.cells.Cell;
 import ini.cx3d.graphics.View;
+import ini.cx3d.localBiology.NeuriteElement;
+import ini.cx3d.localBiology.SomaElement;
 import ini.cx3d.physics.ECMChemicalReaction;
 import ini.cx3d.physics.PhysicalCylinder;
 import ini.cx3d.physics.PhysicalNode;
+import ini.cx3d.physics.PhysicalObject;
 import ini.cx3d.physics.PhysicalSphere;
 
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import static ini.cx3d.utilities.StringUtilities.doubleToString;
 
 /**
@@ -40,12 +50,11 @@ import static ini.cx3d.utilities.StringUtilities.doubleToString;
  */
 public class Scheduler
 {
-    /* Reference to the ECM.*/
-    protected static ECM ecm = ECM.getInstance();
+    /* If true, no GUI is created, and the steps are run without the pause/repaint handshake with it.
+     * Set with the system property cx3d.headless, or automatically if there is no display.*/
+    protected static boolean headless = Boolean.getBoolean("cx3d.headless") || GraphicsEnvironment.isHeadless();
     /* Reference to the ECM display window */
-    protected static View view = ecm.createGUI();
-    /* static counter, needed in case where we want to make regular snapshots.*/
-    protected static int cycle_counter = 0;
+    protected static View view = headless ? null : ECM.getInstance().createGUI();
     protected static int inter_snapshot_time_steps = 30;
 
     /* if false, the physics is not computed......*/
@@ -55,6 +64,50 @@ public class Scheduler
     protected static boolean printCurrentECMTime = true;
     protected static boolean printCurrentStep = false;
 
+    /* if true, the diffusion and physics phases are run over a ForkJoinPool.*/
+    protected static boolean runInParallel = false;
+    /* The pool used in parallel mode (created lazily, with one worker per core by default).*/
+    protected static ForkJoinPool pool = null;
+    protected static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /* if true, only the objects in the active sets of ECM are run, instead of scanning the
+     * complete lists for the scheduler flags.*/
+    protected static boolean useActiveSets = true;
+    /* incremented when the active sets have to be re-built from the flags (after a mode change);
+     * each SimulationContext compares it with the value it saw last.*/
+    protected static int activeSetsGeneration = 0;
+
+    /* if true, the mechanics are integrated in two phases : all the movements are first computed
+     * from the same positions, and then performed (see setTwoPhasePhysics()).*/
+    protected static boolean twoPhasePhysics = false;
+    /* if true (and with two-phase physics), the SpatialOrganizationNodes are all moved together
+     * at the end of the commit phase (see setBatchNodeMovements()).*/
+    protected static boolean batchNodeMovements = false;
+
+    /* if true (and in parallel mode), the modules are run over the ForkJoinPool, and their structural
+     * changes are deferred to the end of the biology phase (see setParallelBiology()).*/
+    protected static boolean parallelBiology = false;
+
+    /**
+     * Phase of a time step : extracellular diffusion (see <code>setPhaseRate()</code>).
+     */
+    public static final int PHASE_DIFFUSION = 0;
+    /**
+     * Phase of a time step : mechanics, i.e. <code>runPhysics()</code> of the PhysicalObjects.
+     */
+    public static final int PHASE_MECHANICS = 1;
+    /**
+     * Phase of a time step : biology, i.e. the cell modules and the local biology modules.
+     */
+    public static final int PHASE_BIOLOGY = 2;
+    /* for each phase, it is run every phasePeriod[phase] time steps...*/
+    protected static int[] phasePeriod = {1, 1, 1};
+    /* ...and then phaseSubCycles[phase] times in a row, each over period*SIMULATION_TIME_STEP/subCycles.*/
+    protected static int[] phaseSubCycles = {1, 1, 1};
+
+    /* if not null, adapts Param.SIMULATION_TIME_STEP after each time step.*/
+    protected static AdaptiveTimeStepController adaptiveTimeStepController = null;
+
     /**
      * Runs all the CX3D elements for one time step, and pauses for a few ms.
      *
@@ -66,29 +119,29 @@ public class Scheduler
         simulateOneStep();
     }
 
-    protected static long physics_time;
-    protected static long module_time;
-    protected static long total_time;
-
     /**
      * Runs all the CX3D runnable objects for one time step.
      */
     public static void simulateOneStep()
     {
+        SimulationContext context = SimulationContext.getCurrent();
+        ECM ecm = ECM.getInstance();
         long start_time = System.currentTimeMillis();
 
         try {
 
-            ECM.getInstance().canRun.acquire();
+            if (!headless) {
+                ECM.getInstance().canRun.acquire();
 
-            Thread.sleep(1);
+                Thread.sleep(1);
+            }
 
             if (printCurrentECMTime) {
                 System.out.println("time = " + doubleToString(ecm.getECMtime(), 2));
             }
 
             if (printCurrentStep) {
-                System.out.println("step = " + cycle_counter);
+                System.out.println("step = " + context.cycleCounter);
             }
 
             // if we make a pause at each time step
@@ -97,11 +150,34 @@ public class Scheduler
 //			} 
 
             // GUI rotation
-            if (ecm.isContinuouslyRotating()) {
+            if (!headless && ecm.isContinuouslyRotating()) {
                 ecm.view.rotateAroundZ(ecm.getView().getRotationSpeed());
             }
+            if (adaptiveTimeStepController != null) {
+                adaptiveTimeStepController.startStep();
+            }
             long phystemptime = System.currentTimeMillis();
-            if (runPhyics) {
+            if (useActiveSets && context.activeSetsGeneration != activeSetsGeneration) {
+                ecm.rebuildActiveSets();
+                context.activeSetsGeneration = activeSetsGeneration;
+            }
+            else if (!useActiveSets) {
+                // nobody is going to drain them
+                ecm.clearActiveSets();
+            }
+            if (runPhyics && isMultiRate()) {
+                runPhysicsMultiRate();
+            }
+            else if (runPhyics && runInParallel) {
+                runPhysicsInParallel();
+            }
+            else if (runPhyics && useActiveSets) {
+                runPhysicsOnActiveSets();
+            }
+            else if (runPhyics && twoPhasePhysics) {
+                runPhysicsInTwoPhases();
+            }
+            else if (runPhyics) {
                 // PhysicalNode (diffusion & degradation of Substances)
                 int totalNbOfPhysicalNode = ecm.physicalNodeList.size();
                 int runPhyisicalNodes = 0;
@@ -159,32 +235,25 @@ public class Scheduler
                     ps.runIntracellularDiffusion();
                 }
             }
-            physics_time += System.currentTimeMillis() - phystemptime;
+            context.physicsTime += System.currentTimeMillis() - phystemptime;
 
             //		System.out.println("PhysicalSpheres : \ttotal = "+totalNbOfPhysicalSpheres+" ; \tRun = "+runPhyisicalSpheres);
             // cellList
 
-            // Modified by Sabina: the new cells should not be run in the same time step as they are created!!!
-            int size = ecm.cellList.size();
-            for (int i = 0; i < size; i++) {
-                ecm.cellList.get(i).run();
-            }
-
-//			for (int i = 0; i < ecm.cellList.size(); i++) {
-//				ecm.cellList.get(i).run();
-//			}
-
-            // somata
-
-            long moduletime = System.currentTimeMillis();
-            for (int i = 0; i < ecm.somaElementList.size(); i++) {
-                ecm.somaElementList.get(i).run();
-            }
-            // neurites
-            for (int i = 0; i < ecm.neuriteElementList.size(); i++) {
-                ecm.neuriteElementList.get(i).run();
+            if (isPhaseDue(PHASE_BIOLOGY)) {
+                double baseTimeStep = Param.SIMULATION_TIME_STEP;
+                try {
+                    Param.SIMULATION_TIME_STEP = getPhaseTimeStep(PHASE_BIOLOGY);
+                    for (int cycle = 0; cycle < phaseSubCycles[PHASE_BIOLOGY]; cycle++) {
+                        context.subCycle = cycle;
+                        runBiology();
+                    }
+                }
+                finally {
+                    Param.SIMULATION_TIME_STEP = baseTimeStep;
+                    context.subCycle = 0;
+                }
             }
-            module_time += System.currentTimeMillis() - moduletime;
 
             // update values in substances
 //			for (int i = 0; i < ecm.physicalNodeList.size(); i++) {
@@ -204,31 +273,476 @@ public class Scheduler
 //			//	}
 //			}
 
-            // possibility to make a movie
-            if (ecm.isTakingSnapshotAtEachTimeStep() == true) {
-                ecm.dumpImage();
-            }
-            else if (cycle_counter % inter_snapshot_time_steps == 0 && ecm.isTakingSnapshotEach100TimeSteps() == true) {
-                ecm.dumpImage();
+            if (!headless) {
+                // possibility to make a movie
+                if (ecm.isTakingSnapshotAtEachTimeStep() == true) {
+                    ecm.dumpImage();
+                }
+                else if (context.cycleCounter % inter_snapshot_time_steps == 0 && ecm.isTakingSnapshotEach100TimeSteps() == true) {
+                    ecm.dumpImage();
+                }
+                // updating the picture on the GUI
+                view.repaint();
             }
-            // updating the picture on the GUI
-            view.repaint();
             // ticking ECM's time
-            cycle_counter += 1;
+            context.cycleCounter += 1;
             ecm.increaseECMtime(Param.SIMULATION_TIME_STEP);
+            if (adaptiveTimeStepController != null) {
+                adaptiveTimeStepController.endStep(context.cycleCounter - 1, ecm.getECMtime());
+            }
             //System.out.println("Machine executed"+Machine.elementsexecuted);
-            ecm.getInstance().canRun.release();
+            if (!headless) {
+                ecm.getInstance().canRun.release();
+            }
         }
         catch (InterruptedException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
         }
-        total_time += System.currentTimeMillis() - start_time;
+        context.totalTime += System.currentTimeMillis() - start_time;
+        context.timedSteps += 1;
 //		System.out.println("total Time: "+total_time);
 //		System.out.println("physics % : "+100.0/(module_time+physics_time)*physics_time);
 //		System.out.println("module  % : "+100.0/(module_time+physics_time)*module_time);
     }
 
+    /* The biology part of a time step.*/
+    private static void runBiology()
+    {
+        if (runInParallel && parallelBiology) {
+            runBiologyInParallel();
+            return;
+        }
+        SimulationContext context = SimulationContext.getCurrent();
+        ECM ecm = ECM.getInstance();
+        // Modified by Sabina: the new cells should not be run in the same time step as they are created!!!
+        int size = ecm.cellList.size();
+        for (int i = 0; i < size; i++) {
+            ecm.cellList.get(i).run();
+        }
+
+//		for (int i = 0; i < ecm.cellList.size(); i++) {
+//			ecm.cellList.get(i).run();
+//		}
+
+        // somata
+
+        long moduletime = System.currentTimeMillis();
+        for (int i = 0; i < ecm.somaElementList.size(); i++) {
+            ecm.somaElementList.get(i).run();
+        }
+        // neurites
+        for (int i = 0; i < ecm.neuriteElementList.size(); i++) {
+            ecm.neuriteElementList.get(i).run();
+        }
+        context.moduleTime += System.currentTimeMillis() - moduletime;
+    }
+
+    /* Parallel version of runBiology() : the CellModules, then the modules of the SomaElements and
+     * then the ones of the NeuriteElements are run over the ForkJoinPool. Their structural changes
+     * are stored in the StructuralCommandBuffer of ECM, and executed on this thread at the end.
+     * Objects created during the phase are run for the first time at the next time step.
+     */
+    private static void runBiologyInParallel()
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        ECM ecm = ECM.getInstance();
+        final StructuralCommandBuffer buffer = ecm.getStructuralCommandBuffer();
+        buffer.startDeferring();
+        try {
+            runPhase(ecm.cellList, new PhaseTask.Body<Cell>()
+            {
+                public void run(Cell cell)
+                {
+                    buffer.setIssuer(StructuralCommandBuffer.ISSUER_CELL, cell.getID());
+                    cell.run();
+                }
+            });
+            long moduletime = System.currentTimeMillis();
+            runPhase(ecm.somaElementList, new PhaseTask.Body<SomaElement>()
+            {
+                public void run(SomaElement soma)
+                {
+                    buffer.setIssuer(StructuralCommandBuffer.ISSUER_SOMA_ELEMENT, soma.getID());
+                    soma.run();
+                }
+            });
+            runPhase(ecm.neuriteElementList, new PhaseTask.Body<NeuriteElement>()
+            {
+                public void run(NeuriteElement neurite)
+                {
+                    buffer.setIssuer(StructuralCommandBuffer.ISSUER_NEURITE_ELEMENT, neurite.getID());
+                    neurite.run();
+                }
+            });
+            context.moduleTime += System.currentTimeMillis() - moduletime;
+        }
+        finally {
+            // (also if a module failed : the buffer must not stay in deferring mode)
+            buffer.executeAll();
+        }
+    }
+
+    /* Version of the physics part of a time step where the diffusion and the mechanics each
+     * have their own rate (see setPhaseRate()). The other options (active sets, parallel mode,
+     * two-phase mechanics) are taken into account. While the mechanics are run,
+     * Param.SIMULATION_TIME_STEP is temporarily set to the time step of this phase; since
+     * the phases are separated by barriers, all the threads see the same value.
+     */
+    private static void runPhysicsMultiRate()
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        ECM ecm = ECM.getInstance();
+        // extracellular diffusion
+        if (runDiffusion && isPhaseDue(PHASE_DIFFUSION)) {
+            double timeStep = getPhaseTimeStep(PHASE_DIFFUSION);
+            for (int cycle = 0; cycle < phaseSubCycles[PHASE_DIFFUSION]; cycle++) {
+                runExtracellularDiffusion(timeStep);
+            }
+        }
+        if (!ecm.ecmChemicalReactionList.isEmpty()) {
+            for (int i = 0; i < ecm.physicalNodeList.size(); i++) {
+                PhysicalNode pn = ecm.physicalNodeList.get(i);
+                for (ECMChemicalReaction chemicalReaction : ecm.ecmChemicalReactionList) {
+                    chemicalReaction.run(pn);
+                }
+            }
+        }
+        // mechanics
+        if (isPhaseDue(PHASE_MECHANICS)) {
+            double baseTimeStep = Param.SIMULATION_TIME_STEP;
+            try {
+                Param.SIMULATION_TIME_STEP = getPhaseTimeStep(PHASE_MECHANICS);
+                for (int cycle = 0; cycle < phaseSubCycles[PHASE_MECHANICS]; cycle++) {
+                    context.subCycle = cycle;
+                    runMechanics(useActiveSets ? ecm.drainActivePhysicalObjects() : allPhysicalObjects());
+                }
+            }
+            finally {
+                Param.SIMULATION_TIME_STEP = baseTimeStep;
+                context.subCycle = 0;
+            }
+        }
+        // intracellular diffusion (at each time step)
+        if (runInParallel) {
+            PhaseTask.Body<PhysicalObject> intracellularDiffusion = new PhaseTask.Body<PhysicalObject>()
+            {
+                public void run(PhysicalObject po)
+                {
+                    if (po.isStillExisting()) {
+                        po.runIntracellularDiffusion();
+                    }
+                }
+            };
+            runPhase(ecm.physicalCylinderList, intracellularDiffusion);
+            runPhase(ecm.physicalSphereList, intracellularDiffusion);
+        }
+        else {
+            for (int i = 0; i < ecm.physicalCylinderList.size(); i++) {
+                ecm.physicalCylinderList.get(i).runIntracellularDiffusion();
+            }
+            for (int i = 0; i < ecm.physicalSphereList.size(); i++) {
+                ecm.physicalSphereList.get(i).runIntracellularDiffusion();
+            }
+        }
+    }
+
+    /* One pass of extracellular diffusion over the PhysicalNodes that are on the scheduler list.*/
+    private static void runExtracellularDiffusion(final double timeStep)
+    {
+        ECM ecm = ECM.getInstance();
+        PhysicalNode[] nodes = useActiveSets ? ecm.drainActivePhysicalNodes()
+                : ecm.physicalNodeList.toArray(new PhysicalNode[0]);
+        if (runInParallel) {
+            runPhase(Arrays.asList(nodes), new PhaseTask.Body<PhysicalNode>()
+            {
+                public void run(PhysicalNode pn)
+                {
+                    if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                        pn.runExtracellularDiffusion(timeStep);
+                    }
+                }
+            });
+        }
+        else {
+            for (PhysicalNode pn : nodes) {
+                if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                    pn.runExtracellularDiffusion(timeStep);
+                }
+            }
+        }
+    }
+
+    /* true if the phase has to be run during the current time step.*/
+    private static boolean isPhaseDue(int phase)
+    {
+        return SimulationContext.getCurrent().cycleCounter % phasePeriod[phase] == 0;
+    }
+
+    /* The time over which each sub-cycle of a phase is integrated.*/
+    private static double getPhaseTimeStep(int phase)
+    {
+        return Param.SIMULATION_TIME_STEP * phasePeriod[phase] / phaseSubCycles[phase];
+    }
+
+    /* true if one of the phases has a rate that is not "once per time step".*/
+    static boolean isMultiRate()
+    {
+        for (int phase = 0; phase < phasePeriod.length; phase++) {
+            if (phasePeriod[phase] != 1 || phaseSubCycles[phase] != 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Version of the physics part of a time step that only visits the objects that were
+     * put on the scheduler list (plus all objects for the intracellular diffusion).
+     * Objects activated while the phase is running will be run at the next time step.
+     */
+    private static void runPhysicsOnActiveSets()
+    {
+        ECM ecm = ECM.getInstance();
+        // PhysicalNode (diffusion & degradation of Substances)
+        if (runDiffusion) {
+            for (PhysicalNode pn : ecm.drainActivePhysicalNodes()) {
+                if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                    pn.runExtracellularDiffusion();
+                }
+            }
+        }
+
+        if (!ecm.ecmChemicalReactionList.isEmpty()) {
+            for (int i = 0; i < ecm.physicalNodeList.size(); i++) {
+                PhysicalNode pn = ecm.physicalNodeList.get(i);
+                for (ECMChemicalReaction chemicalReaction : ecm.ecmChemicalReactionList) {
+                    chemicalReaction.run(pn);
+                }
+            }
+        }
+
+        // Physical objects : first the PhysicalCylinders, then the PhysicalSpheres
+        PhysicalObject[] activeObjects = ecm.drainActivePhysicalObjects();
+        if (twoPhasePhysics) {
+            runMechanics(activeObjects);
+            for (int i = 0; i < ecm.physicalCylinderList.size(); i++) {
+                ecm.physicalCylinderList.get(i).runIntracellularDiffusion();
+            }
+            for (int i = 0; i < ecm.physicalSphereList.size(); i++) {
+                ecm.physicalSphereList.get(i).runIntracellularDiffusion();
+            }
+            return;
+        }
+        for (PhysicalObject po : activeObjects) {
+            if (po.isAPhysicalCylinder() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                po.runPhysics();
+            }
+        }
+        for (int i = 0; i < ecm.physicalCylinderList.size(); i++) {
+            ecm.physicalCylinderList.get(i).runIntracellularDiffusion();
+        }
+        for (PhysicalObject po : activeObjects) {
+            if (po.isAPhysicalSphere() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                po.runPhysics();
+            }
+        }
+        for (int i = 0; i < ecm.physicalSphereList.size(); i++) {
+            ecm.physicalSphereList.get(i).runIntracellularDiffusion();
+        }
+    }
+
+    /* Version of the physics part of a time step with a scan of the complete lists, and two-phase
+     * mechanics.
+     */
+    private static void runPhysicsInTwoPhases()
+    {
+        ECM ecm = ECM.getInstance();
+        if (runDiffusion) {
+            for (int i = 0; i < ecm.physicalNodeList.size(); i++) {
+                PhysicalNode pn = ecm.physicalNodeList.get(i);
+                if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                    pn.runExtracellularDiffusion();
+                }
+            }
+        }
+        if (!ecm.ecmChemicalReactionList.isEmpty()) {
+            for (int i = 0; i < ecm.physicalNodeList.size(); i++) {
+                PhysicalNode pn = ecm.physicalNodeList.get(i);
+                for (ECMChemicalReaction chemicalReaction : ecm.ecmChemicalReactionList) {
+                    chemicalReaction.run(pn);
+                }
+            }
+        }
+        runMechanics(allPhysicalObjects());
+        for (int i = 0; i < ecm.physicalCylinderList.size(); i++) {
+            ecm.physicalCylinderList.get(i).runIntracellularDiffusion();
+        }
+        for (int i = 0; i < ecm.physicalSphereList.size(); i++) {
+            ecm.physicalSphereList.get(i).runIntracellularDiffusion();
+        }
+    }
+
+    /* All the PhysicalCylinders, followed by all the PhysicalSpheres.*/
+    private static PhysicalObject[] allPhysicalObjects()
+    {
+        ECM ecm = ECM.getInstance();
+        ArrayList<PhysicalObject> all = new ArrayList<PhysicalObject>(ecm.physicalCylinderList.size() + ecm.physicalSphereList.size());
+        all.addAll(ecm.physicalCylinderList);
+        all.addAll(ecm.physicalSphereList);
+        return all.toArray(new PhysicalObject[all.size()]);
+    }
+
+    /* Runs the mechanics of the candidates that are on the scheduler list, first the PhysicalCylinders
+     * and then the PhysicalSpheres.
+     * Without two-phase physics, runPhysics() is called on each one in turn (each object sees the
+     * movements of the ones before it), and always on the calling thread.
+     * With two-phase physics, the discretization of the cylinders is done first, then all the
+     * movements are computed from the same positions (over the ForkJoinPool in parallel mode), and
+     * then they are all performed on the calling thread, in the order of the candidates. The result
+     * does therefore not depend on the number of threads.
+     */
+    private static void runMechanics(PhysicalObject[] candidates)
+    {
+        if (!twoPhasePhysics) {
+            for (PhysicalObject po : candidates) {
+                if (po.isAPhysicalCylinder() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                    po.runPhysics();
+                }
+            }
+            for (PhysicalObject po : candidates) {
+                if (po.isAPhysicalSphere() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                    po.runPhysics();
+                }
+            }
+            return;
+        }
+        // 0) structural changes (sequential : they modify the neuron trees and the triangulation)
+        for (PhysicalObject po : candidates) {
+            if (po.isAPhysicalCylinder() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                po.prepareForPhysics();
+            }
+        }
+        // the objects that will move (the flags are modified by computePhysics())
+        ArrayList<PhysicalObject> running = new ArrayList<PhysicalObject>(candidates.length);
+        for (PhysicalObject po : candidates) {
+            if (po.isAPhysicalCylinder() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                running.add(po);
+            }
+        }
+        for (PhysicalObject po : candidates) {
+            if (po.isAPhysicalSphere() && po.isStillExisting() && po.isOnTheSchedulerListForPhysicalObjects()) {
+                running.add(po);
+            }
+        }
+        // 1) compute phase : every object only reads the others
+        if (runInParallel) {
+            runPhase(running, new PhaseTask.Body<PhysicalObject>()
+            {
+                public void run(PhysicalObject po)
+                {
+                    po.computePhysics();
+                }
+            });
+        }
+        else {
+            for (int i = 0; i < running.size(); i++) {
+                running.get(i).computePhysics();
+            }
+        }
+        // 2) commit phase
+        if (!batchNodeMovements) {
+            for (int i = 0; i < running.size(); i++) {
+                running.get(i).commitPhysics();
+            }
+            return;
+        }
+        ECM ecm = ECM.getInstance();
+        ecm.startCollectingNodeMovements();
+        try {
+            for (int i = 0; i < running.size(); i++) {
+                running.get(i).commitPhysics();
+            }
+        }
+        finally {
+            ecm.performCollectedNodeMovements();
+        }
+    }
+
+    /* Parallel version of the physics part of a time step. Each phase is run over the
+     * ForkJoinPool, and the next phase only starts once the previous one is completed.
+     * Diffusion relies on the ReadWriteLocks of the PhysicalNodes (always locking the
+     * highest ID first). The movements modify the triangulation, which is not thread safe,
+     * and are therefore still performed on the calling thread; only the computation of the
+     * forces in two-phase mode is spread over the pool.
+     */
+    private static void runPhysicsInParallel()
+    {
+        final ECM ecm = ECM.getInstance();
+        // 1) extracellular diffusion & degradation
+        if (runDiffusion) {
+            List<PhysicalNode> nodes = useActiveSets ? Arrays.asList(ecm.drainActivePhysicalNodes()) : ecm.physicalNodeList;
+            runPhase(nodes, new PhaseTask.Body<PhysicalNode>()
+            {
+                public void run(PhysicalNode pn)
+                {
+                    if (pn.isOnTheSchedulerListForPhysicalNodes()) {
+                        pn.runExtracellularDiffusion();
+                    }
+                }
+            });
+        }
+        // 2) chemical reactions
+        if (!ecm.ecmChemicalReactionList.isEmpty()) {
+            runPhase(ecm.physicalNodeList, new PhaseTask.Body<PhysicalNode>()
+            {
+                public void run(PhysicalNode pn)
+                {
+                    for (ECMChemicalReaction chemicalReaction : ecm.ecmChemicalReactionList) {
+                        chemicalReaction.run(pn);
+                    }
+                }
+            });
+        }
+        // 3) mechanics (only the compute phase of the two-phase mode is parallel, see runMechanics())
+        runMechanics(useActiveSets ? ecm.drainActivePhysicalObjects() : allPhysicalObjects());
+        // 4) intracellular diffusion (pairs of objects are locked in diffuseWithThisPhysicalObjects())
+        PhaseTask.Body<PhysicalObject> intracellularDiffusion = new PhaseTask.Body<PhysicalObject>()
+        {
+            public void run(PhysicalObject po)
+            {
+                if (po.isStillExisting()) {
+                    po.runIntracellularDiffusion();
+                }
+            }
+        };
+        runPhase(ecm.physicalCylinderList, intracellularDiffusion);
+        runPhase(ecm.physicalSphereList, intracellularDiffusion);
+    }
+
+    /* Runs body on every element of the list, in the ForkJoinPool. The list is copied first,
+     * so that it is not affected by elements added or removed during the phase.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void runPhase(List<? extends T> list, PhaseTask.Body<T> body)
+    {
+        T[] elements = (T[]) list.toArray();
+        if (elements.length == 0) {
+            return;
+        }
+        getPool().invoke(new PhaseTask<T>(elements, 0, elements.length, body));
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
     /**
      * Runs the simulation, i.e. runs each active CX3D runnable objects endlessly.
      */
@@ -270,7 +784,10 @@ public class Scheduler
 
     public static void PauseAndDraw(boolean val)
     {
-
+        if (headless) {
+            return;
+        }
+        ECM ecm = ECM.getInstance();
         if (val != ecm.myGuiCreator.pause) {
             ecm.myGuiCreator.togglePauseSim();
         }
@@ -279,6 +796,237 @@ public class Scheduler
         }
     }
 
+    /**
+     * If true, the diffusion (extra- and intracellular) and the chemical reactions of each
+     * time step are run in parallel over a ForkJoinPool. Otherwise (default),
+     * everything is run on the calling thread.
+     *
+     * @param runInParallel
+     */
+    public static void setRunInParallel(boolean runInParallel)
+    {
+        Scheduler.runInParallel = runInParallel;
+    }
+
+    public static boolean isRunInParallel()
+    {
+        return runInParallel;
+    }
+
+    /**
+     * Sets a controller that adapts <code>Param.SIMULATION_TIME_STEP</code> at the end of each
+     * time step (or removes it, if null; the time step then keeps its last value).
+     *
+     * @param controller
+     */
+    public static void setAdaptiveTimeStepController(AdaptiveTimeStepController controller)
+    {
+        adaptiveTimeStepController = controller;
+    }
+
+    public static AdaptiveTimeStepController getAdaptiveTimeStepController()
+    {
+        return adaptiveTimeStepController;
+    }
+
+    /**
+     * Defines how often a phase of the time step is run. The phase is run every <code>period</code>
+     * time steps, and then <code>subCycles</code> times in a row, each time over an interval of
+     * <code>period * Param.SIMULATION_TIME_STEP / subCycles</code>. For instance, slow biology can be
+     * run every 10 time steps, and stiff mechanics 4 times per time step. Phases with a period
+     * larger than one are integrated ahead, i.e. over the coming <code>period</code> time steps.
+     * By default every phase is run once per time step.
+     * <p/>
+     * The diffusion is integrated analytically over the interval. For the mechanics and the biology,
+     * <code>Param.SIMULATION_TIME_STEP</code> is set to the interval while they run, so only the
+     * modules whose effect is proportional to <code>Param.SIMULATION_TIME_STEP</code> (growth speeds,...)
+     * are rescaled correctly; probabilities per call are not.
+     *
+     * @param phase     PHASE_DIFFUSION, PHASE_MECHANICS or PHASE_BIOLOGY
+     * @param period    run every period time steps (at least 1)
+     * @param subCycles number of runs each time (at least 1)
+     */
+    public static void setPhaseRate(int phase, int period, int subCycles)
+    {
+        if (phase < 0 || phase >= phasePeriod.length) {
+            throw new IllegalArgumentException("unknown phase : " + phase);
+        }
+        if (period < 1 || subCycles < 1) {
+            throw new IllegalArgumentException("period and subCycles must be at least 1");
+        }
+        phasePeriod[phase] = period;
+        phaseSubCycles[phase] = subCycles;
+    }
+
+    public static int getPhasePeriod(int phase)
+    {
+        return phasePeriod[phase];
+    }
+
+    public static int getPhaseSubCycles(int phase)
+    {
+        return phaseSubCycles[phase];
+    }
+
+    /**
+     * If true, the mechanics are integrated in two phases. First, the movement of every object
+     * is computed from a frozen state of the positions (in parallel if <code>setRunInParallel(true)</code>).
+     * Then, all the movements and the updates of the triangulation are performed, in a fixed order.
+     * If false (default), each object moves right after having computed its forces, and the next objects
+     * see its new position. Only the two-phase mode gives results that are independent of the number of threads.
+     *
+     * @param twoPhasePhysics
+     */
+    public static void setTwoPhasePhysics(boolean twoPhasePhysics)
+    {
+        Scheduler.twoPhasePhysics = twoPhasePhysics;
+    }
+
+    public static boolean isTwoPhasePhysics()
+    {
+        return twoPhasePhysics;
+    }
+
+    /**
+     * If true, and with two-phase physics (see <code>setTwoPhasePhysics()</code>), the
+     * SpatialOrganizationNodes of the objects are not moved one after the other during the commit
+     * phase, but all together at its end, with a single repair of the Delaunay triangulation
+     * (see <code>SpaceNode.moveAll()</code>). Cheaper when many neighboring objects move a little at
+     * each time step. The neighbors seen during the commit phase are then the ones before the movements.
+     * If false (default), each node is moved as soon as its object has moved.
+     *
+     * @param batchNodeMovements
+     */
+    public static void setBatchNodeMovements(boolean batchNodeMovements)
+    {
+        Scheduler.batchNodeMovements = batchNodeMovements;
+    }
+
+    public static boolean isBatchNodeMovements()
+    {
+        return batchNodeMovements;
+    }
+
+    /**
+     * If true, and if the Scheduler runs in parallel mode, the CellModules and the LocalBiologyModules
+     * are also run in parallel. The modules must then ask for their structural changes (division,
+     * branching, bifurcation, extension or retraction of neurites) through the
+     * <code>StructuralCommandBuffer</code> of ECM; they are performed at the end of the biology phase,
+     * in an order that doesn't depend on the number of threads. A direct structural change throws
+     * an <code>IllegalStateException</code>. The modules must not modify other objects than their own
+     * CellElement and its PhysicalObject, and should draw their random numbers from
+     * <code>ECM.getRandomStream()</code>.
+     * If false (default), the modules are run one after the other on the calling thread.
+     *
+     * @param parallelBiology
+     */
+    public static void setParallelBiology(boolean parallelBiology)
+    {
+        Scheduler.parallelBiology = parallelBiology;
+    }
+
+    public static boolean isParallelBiology()
+    {
+        return parallelBiology;
+    }
+
+    /**
+     * If true (default), the Scheduler only runs the objects that are in the active sets of ECM,
+     * i.e. the objects whose scheduler flag was set since the last time step. The cost of a time
+     * step then depends on the number of active objects, rather than on the total number of objects.
+     * If false, the complete lists of ECM are scanned for the scheduler flags at each time step.
+     *
+     * @param useActiveSets
+     */
+    public static void setUseActiveSets(boolean useActiveSets)
+    {
+        if (useActiveSets && !Scheduler.useActiveSets) {
+            activeSetsGeneration++;
+        }
+        Scheduler.useActiveSets = useActiveSets;
+    }
+
+    public static boolean isUseActiveSets()
+    {
+        return useActiveSets;
+    }
+
+    /**
+     * Sets the number of worker threads used in parallel mode.
+     *
+     * @param parallelism the number of threads (by default the number of available processors).
+     */
+    public static void setParallelism(int parallelism)
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive : " + parallelism);
+        }
+        Scheduler.parallelism = parallelism;
+    }
+
+    public static int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the average number of time steps simulated per second of wall-clock time,
+     * since the start of the simulation (or the last call to resetTimings()).
+     */
+    public static double getStepsPerSecond()
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        if (context.totalTime == 0) {
+            return 0;
+        }
+        return 1000.0 * context.timedSteps / context.totalTime;
+    }
+
+    /**
+     * Prints the number of simulated time steps per second, and the share of time spent in
+     * the physics and in the modules, for the serial or the parallel mode.
+     */
+    public static void printTimings()
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        String mode = runInParallel ? "parallel (" + parallelism + " threads)" : "serial";
+        System.out.println("Scheduler " + mode + " : " + context.timedSteps + " steps in " + context.totalTime + " ms, "
+                + doubleToString(getStepsPerSecond(), 2) + " steps/s");
+        if (context.totalTime > 0) {
+            System.out.println("   physics : " + doubleToString(100.0 * context.physicsTime / context.totalTime, 1) + " %"
+                    + ", modules : " + doubleToString(100.0 * context.moduleTime / context.totalTime, 1) + " %");
+        }
+    }
+
+    /**
+     * Sets all the time measurements back to 0.
+     */
+    public static void resetTimings()
+    {
+        SimulationContext context = SimulationContext.getCurrent();
+        context.physicsTime = 0;
+        context.moduleTime = 0;
+        context.totalTime = 0;
+        context.timedSteps = 0;
+    }
+
+    /**
+     * Returns true if the Scheduler runs without GUI (no View, no pause/run handshake,
+     * no pause between the time steps).
+     */
+    public static boolean isHeadless()
+    {
+        return headless;
+    }
+
+    /**
+     * Returns the number of time steps simulated so far.
+     */
+    public static int getCycleCounter()
+    {
+        return SimulationContext.getCurrent().cycleCounter;
+    }
+
     public static int getInter_snapshot_time_steps()
     {
         return inter_snapshot_time_steps;
@@ -0,0 +1,280 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Everything that belongs to one simulation : the <code>ECM</code> (with the lists of objects, the
+ * substance libraries and the triangulation), the random number generators, the counters used to
+ * give IDs to the objects, and the state of the <code>Scheduler</code> (time step counter, timings).
+ * <p/>
+ * Each thread works for one context, the <i>current</i> context. <code>ECM.getInstance()</code>, the
+ * static methods of <code>Scheduler</code>, <code>ECM.getRandomDouble()</code>,... all refer to the
+ * current context. Unless another one was bound to the thread, the current context is the default
+ * context, so programs that only run one simulation don't have to know about this class.
+ * <p/>
+ * To run several independent simulations in the same JVM (concurrently or not), create a
+ * context per simulation, and do all the work of a simulation (set-up and time steps) inside
+ * <code>context.run()</code> :
+ * <pre>
+ * final SimulationContext context = new SimulationContext();
+ * context.run(new Runnable() {
+ *     public void run() {
+ *         ECM ecm = ECM.getInstance();   // the ECM of this context
+ *         ...
+ *         for (int i = 0; i < 1000; i++) {
+ *             Scheduler.simulateOneStep();
+ *         }
+ *     }
+ * });
+ * </pre>
+ * The objects of a simulation keep a reference to their ECM, so they must not be mixed with the
+ * objects of another context. The configuration of the Scheduler (parallel mode, rates,...) and the
+ * GUI are shared by all the contexts; only the default context can be displayed.
+ */
+public class SimulationContext
+{
+
+    /* (before defaultContext, which needs it to be initialised)*/
+    private static final DoubleBinaryOperator MAX = new DoubleBinaryOperator()
+    {
+        public double applyAsDouble(double left, double right)
+        {
+            return Math.max(left, right);
+        }
+    };
+
+    private static final SimulationContext defaultContext = new SimulationContext();
+
+    private static final ThreadLocal<SimulationContext> current = new ThreadLocal<SimulationContext>();
+
+    /* The ECM of this simulation (created lazily, since its creation needs this context to be current).*/
+    private ECM ecm = null;
+
+    /* random number generators (see ECM.getRandomDouble() and Matrix.randomNoise()).*/
+    Random random = new Random();
+    Random matrixRandom = new Random();
+    long randomStreamSeed = random.nextLong();
+
+    /* ID counters.*/
+    private final AtomicInteger physicalNodeIdCounter = new AtomicInteger(0);
+    private final AtomicInteger cellElementIdCounter = new AtomicInteger(0);
+    private final AtomicInteger cellIdCounter = new AtomicInteger(0);
+
+    /* State of the Scheduler for this simulation : number of time steps (also needed for the
+     * regular snapshots), time measurements, and number of steps over which totalTime was measured.*/
+    int cycleCounter = 0;
+    /* Index of the sub-cycle of the phase being run (see Scheduler.setPhaseRate()); the sub-cycles
+     * of a time step run at the same ECM time, so ECM.getRandomStream() needs it as a key.*/
+    int subCycle = 0;
+    long physicsTime;
+    long moduleTime;
+    long totalTime;
+    long timedSteps;
+    int activeSetsGeneration = 0;
+
+    /* Largest force and largest displacement (before the bound SIMULATION_MAXIMAL_DISPLACEMENT)
+     * computed by the mechanics since the last call to resetMechanicsStatistics().
+     * Accumulators, because the forces can be computed by several threads.*/
+    private final DoubleAccumulator maximalForce = new DoubleAccumulator(MAX, 0);
+    private final DoubleAccumulator maximalDisplacement = new DoubleAccumulator(MAX, 0);
+
+    /**
+     * @return the context the current thread works for (the default context, if none was bound).
+     */
+    public static SimulationContext getCurrent()
+    {
+        SimulationContext context = current.get();
+        return context == null ? defaultContext : context;
+    }
+
+    /**
+     * @return the context used by the threads to which no other context was bound.
+     */
+    public static SimulationContext getDefault()
+    {
+        return defaultContext;
+    }
+
+    /**
+     * Makes this context the current context of the calling thread.
+     *
+     * @return the context that was bound before (null if none), to be given back to <code>restore()</code>.
+     */
+    public SimulationContext bind()
+    {
+        SimulationContext previous = current.get();
+        current.set(this);
+        return previous;
+    }
+
+    /**
+     * Binds again the context that was current before a call to <code>bind()</code>.
+     *
+     * @param previous the value returned by <code>bind()</code>
+     */
+    public static void restore(SimulationContext previous)
+    {
+        if (previous == null) {
+            current.remove();
+        }
+        else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Runs a task with this context as current context of the calling thread.
+     *
+     * @param task
+     */
+    public void run(Runnable task)
+    {
+        SimulationContext previous = bind();
+        try {
+            task.run();
+        }
+        finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * @return the ECM of this simulation.
+     */
+    public synchronized ECM getECM()
+    {
+        if (ecm == null) {
+            SimulationContext previous = bind();
+            try {
+                ecm = new ECM();
+            }
+            finally {
+                restore(previous);
+            }
+        }
+        return ecm;
+    }
+
+    /**
+     * Initialises the random number generators of this simulation.
+     *
+     * @param seed
+     */
+    public void setRandomSeed(long seed)
+    {
+        random = new Random(seed);
+        matrixRandom = new Random(seed);
+        randomStreamSeed = seed;
+    }
+
+    /**
+     * @return the generator used by the methods of <code>ini.cx3d.utilities.Matrix</code>.
+     */
+    public Random getMatrixRandom()
+    {
+        return matrixRandom;
+    }
+
+    public void setMatrixRandom(Random matrixRandom)
+    {
+        this.matrixRandom = matrixRandom;
+    }
+
+    /**
+     * @return a new ID for a PhysicalNode.
+     */
+    public int nextPhysicalNodeID()
+    {
+        return physicalNodeIdCounter.incrementAndGet();
+    }
+
+    /**
+     * @return a new ID for a CellElement.
+     */
+    public int nextCellElementID()
+    {
+        return cellElementIdCounter.incrementAndGet();
+    }
+
+    /**
+     * @return a new ID for a Cell.
+     */
+    public int nextCellID()
+    {
+        return cellIdCounter.incrementAndGet();
+    }
+
+    /**
+     * @return the number of time steps simulated in this context.
+     */
+    public int getCycleCounter()
+    {
+        return cycleCounter;
+    }
+
+    /**
+     * Records the norm of the total force on a physical object and of the resulting displacement
+     * (called by the mechanics, possibly from several threads).
+     *
+     * @param force
+     * @param displacement
+     */
+    public void recordMechanics(double force, double displacement)
+    {
+        maximalForce.accumulate(force);
+        maximalDisplacement.accumulate(displacement);
+    }
+
+    /**
+     * @return the norm of the largest force computed by the mechanics of this simulation since the
+     *         last call to <code>resetMechanicsStatistics()</code>.
+     */
+    public double getMaximalForce()
+    {
+        return maximalForce.get();
+    }
+
+    /**
+     * @return the norm of the largest displacement computed by the mechanics of this simulation since
+     *         the last call to <code>resetMechanicsStatistics()</code>, before it is bounded by
+     *         <code>Param.SIMULATION_MAXIMAL_DISPLACEMENT</code>.
+     */
+    public double getMaximalDisplacement()
+    {
+        return maximalDisplacement.get();
+    }
+
+    /**
+     * Resets the largest force and displacement (see <code>getMaximalForce()</code>).
+     */
+    public void resetMechanicsStatistics()
+    {
+        maximalForce.reset();
+        maximalDisplacement.reset();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import java.util.Map;
+
+/**
+ * Creates the initial state of a simulation for given values of its parameters. Used by the
+ * <code>SweepRunner</code> to run the same model with many different parameter values.
+ * <p/>
+ * Implementations must have a public constructor without arguments, and must not change
+ * static fields (like the ones in <code>ini.cx3d.Param</code>) : several simulations are
+ * set up and run at the same time.
+ *
+ * @see SweepRunner
+ * @see ParameterGrid
+ */
+public interface SimulationFactory
+{
+
+    /**
+     * Returns the set-up of the simulation for one point of the parameter grid.
+     *
+     * @param parameters the value of each parameter, by name. Parameters that are not in the
+     *                   grid are absent, and should get their default value.
+     * @return the set-up, that will be run once in a new <code>SimulationContext</code>.
+     */
+    public SimulationSetup createSetup(Map<String, Double> parameters);
+}
@@ -0,0 +1,42 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package ini.cx3d.simulations;
+
+/**
+ * Classes implementing this interface define the initial state of a simulation
+ * (substances, cells and their modules, PhysicalNodes...). They are used by the
+ * <code>BatchRunner</code> to run simulations without GUI, from the command line.
+ * <p/>
+ * Implementations must have a public constructor without arguments.
+ *
+ * @see BatchRunner
+ */
+public interface SimulationSetup
+{
+
+    /**
+     * Creates all the objects needed at the beginning of the simulation.
+     *
+     * @param ecm the ECM in which the simulation takes place.
+     */
+    public void setUp(ECM ecm);
+}
@@ -0,0 +1,445 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import ini.cx3d.cells.Cell;
+import ini.cx3d.localBiology.NeuriteElement;
+import ini.cx3d.localBiology.SomaElement;
+import ini.cx3d.physics.PhysicalObject;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the structural changes (division of cells, branching, bifurcation, extension,
+ * elongation and retraction of neurites) asked for by the modules, so that they can be performed
+ * after the modules have run. Each ECM has one buffer (see <code>ECM.getStructuralCommandBuffer()</code>).
+ * <p/>
+ * When the <code>Scheduler</code> runs the modules sequentially, the buffer doesn't defer anything :
+ * each command is executed right away, exactly like a direct call to <code>Cell.divide()</code>,
+ * <code>NeuriteElement.branch()</code>,... When the modules are run in parallel
+ * (<code>Scheduler.setParallelBiology(true)</code>), the commands are stored, and executed on one
+ * thread at the end of the biology phase. They are executed in a fixed order : first the ones
+ * issued by the CellModules, then by the SomaElements and then by the NeuriteElements, each time
+ * by increasing ID of the issuer, and in the order in which one issuer submitted them. The result
+ * does therefore not depend on the number of threads.
+ * <p/>
+ * Since the objects created by a deferred command don't exist yet when the module submits it,
+ * they are given to an optional <code>Callback</code> :
+ * <pre>
+ * ecm.getStructuralCommandBuffer().branch(neuriteElement, new StructuralCommandBuffer.Callback&lt;NeuriteElement&gt;() {
+ *     public void done(NeuriteElement newBranch) {
+ *         newBranch.addLocalBiologyModule(new MyModule());
+ *     }
+ * });
+ * </pre>
+ * While the modules run in parallel, the ECM refuses the direct structural changes (they throw
+ * an <code>IllegalStateException</code>). The retraction, the elongation and the movements of the
+ * terminal ends of the neurites also have to go through the buffer in that case, because they move
+ * the nodes of the triangulation (and a retraction can remove a NeuriteElement).
+ */
+public class StructuralCommandBuffer
+{
+
+    /**
+     * Receives the objects created by a command, once it was executed.
+     *
+     * @param <T> the type of the created objects
+     */
+    public interface Callback<T>
+    {
+
+        public void done(T result);
+    }
+
+    /* the issuers of the commands, in the order their commands are executed.*/
+    static final int ISSUER_CELL = 0;
+    static final int ISSUER_SOMA_ELEMENT = 1;
+    static final int ISSUER_NEURITE_ELEMENT = 2;
+
+    /* A deferred command, with the key that defines its place in the execution order.*/
+    private static class Entry
+            implements Comparable<Entry>
+    {
+
+        final int issuerType;
+        final long issuerID;
+        final long sequence;
+        final Runnable command;
+
+        Entry(int issuerType, long issuerID, long sequence, Runnable command)
+        {
+            this.issuerType = issuerType;
+            this.issuerID = issuerID;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+        public int compareTo(Entry o)
+        {
+            if (issuerType != o.issuerType) {
+                return issuerType < o.issuerType ? -1 : 1;
+            }
+            if (issuerID != o.issuerID) {
+                return issuerID < o.issuerID ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+
+    /* true while the modules are run in parallel.*/
+    private volatile boolean deferring = false;
+
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+
+    /* Gives the order of the commands of one issuer (an issuer is always run by one thread).*/
+    private final AtomicLong sequence = new AtomicLong();
+
+    /* The issuer (type and ID) whose modules are being run by the current thread.*/
+    private final ThreadLocal<long[]> issuer = new ThreadLocal<long[]>()
+    {
+        protected long[] initialValue()
+        {
+            return new long[2];
+        }
+    };
+
+    StructuralCommandBuffer()
+    {
+    }
+
+    /**
+     * Returns true if the commands are stored until the end of the biology phase, false if they
+     * are executed right away.
+     */
+    public boolean isDeferring()
+    {
+        return deferring;
+    }
+
+    /* From now on, the commands are stored.*/
+    void startDeferring()
+    {
+        deferring = true;
+    }
+
+    /* Called by the Scheduler before the modules of an issuer are run.*/
+    void setIssuer(int issuerType, long issuerID)
+    {
+        long[] current = issuer.get();
+        current[0] = issuerType;
+        current[1] = issuerID;
+    }
+
+    /* Stops deferring, and executes all the stored commands in the order described above.
+     * Returns the number of commands executed.*/
+    int executeAll()
+    {
+        deferring = false;
+        Entry[] toExecute = entries.toArray(new Entry[0]);
+        entries.clear();
+        Arrays.sort(toExecute);
+        for (Entry e : toExecute) {
+            e.command.run();
+        }
+        return toExecute.length;
+    }
+
+    /**
+     * Executes a command now, or stores it if the modules are run in parallel. The command
+     * can do any structural change.
+     *
+     * @param command
+     */
+    public void submit(Runnable command)
+    {
+        if (!deferring) {
+            command.run();
+            return;
+        }
+        long[] current = issuer.get();
+        entries.add(new Entry((int) current[0], current[1], sequence.getAndIncrement(), command));
+    }
+
+    // *************************************************************************************
+    //   Cells
+    // *************************************************************************************
+
+    /**
+     * Divides a cell (see <code>Cell.divide()</code>).
+     *
+     * @param cell
+     * @param callback receives the new daughter cell (can be null)
+     */
+    public void divide(final Cell cell, final Callback<Cell> callback)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (cell.getSomaElement().getPhysical().isStillExisting()) {
+                    done(callback, cell.divide());
+                }
+            }
+        });
+    }
+
+    /**
+     * Divides a cell (see <code>Cell.divide(double, double, double)</code>).
+     *
+     * @param cell
+     * @param volumeRatio the ratio (Volume daughter 1)/(Volume daughter 2)
+     * @param phi         the angle from the zAxis of the axis of division
+     * @param theta       the angle from the xAxis around the zAxis of the axis of division
+     * @param callback    receives the new daughter cell (can be null)
+     */
+    public void divide(final Cell cell, final double volumeRatio, final double phi, final double theta,
+                       final Callback<Cell> callback)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (cell.getSomaElement().getPhysical().isStillExisting()) {
+                    done(callback, cell.divide(volumeRatio, phi, theta));
+                }
+            }
+        });
+    }
+
+    // *************************************************************************************
+    //   Somata
+    // *************************************************************************************
+
+    /**
+     * Extends a new neurite from a soma (see <code>SomaElement.extendNewNeurite(double, double, double)</code>).
+     *
+     * @param soma
+     * @param diameter the diameter of the new neurite
+     * @param phi      the angle from the zAxis
+     * @param theta    the angle from the xAxis around the zAxis
+     * @param callback receives the new NeuriteElement (can be null)
+     */
+    public void extendNewNeurite(final SomaElement soma, final double diameter, final double phi, final double theta,
+                                 final Callback<NeuriteElement> callback)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (soma.getPhysical().isStillExisting()) {
+                    done(callback, soma.extendNewNeurite(diameter, phi, theta));
+                }
+            }
+        });
+    }
+
+    /**
+     * Extends a new neurite from a soma (see <code>SomaElement.extendNewNeurite(double, double[])</code>).
+     *
+     * @param soma
+     * @param diameter  the diameter of the new neurite
+     * @param direction the direction of the new neurite, in global coordinates
+     * @param callback  receives the new NeuriteElement (can be null)
+     */
+    public void extendNewNeurite(final SomaElement soma, final double diameter, double[] direction,
+                                 final Callback<NeuriteElement> callback)
+    {
+        final double[] directionCopy = direction.clone();
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (soma.getPhysical().isStillExisting()) {
+                    done(callback, soma.extendNewNeurite(diameter, directionCopy));
+                }
+            }
+        });
+    }
+
+    // *************************************************************************************
+    //   Neurites
+    // *************************************************************************************
+
+    /**
+     * Makes a side branch (see <code>NeuriteElement.branch()</code>).
+     *
+     * @param neurite
+     * @param callback receives the NeuriteElement of the new branch (can be null)
+     */
+    public void branch(final NeuriteElement neurite, final Callback<NeuriteElement> callback)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting()) {
+                    done(callback, neurite.branch());
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes a side branch (see <code>NeuriteElement.branch(double, double[])</code>).
+     *
+     * @param neurite
+     * @param diameter        the diameter of the side branch
+     * @param growthDirection (corrected if not at least 45 degrees from the cylinder's axis)
+     * @param callback        receives the NeuriteElement of the new branch (can be null)
+     */
+    public void branch(final NeuriteElement neurite, final double diameter, double[] growthDirection,
+                       final Callback<NeuriteElement> callback)
+    {
+        final double[] directionCopy = growthDirection == null ? null : growthDirection.clone();
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting()) {
+                    done(callback, neurite.branch(diameter, directionCopy));
+                }
+            }
+        });
+    }
+
+    /**
+     * Bifurcates a terminal neurite (see <code>NeuriteElement.bifurcate()</code>).
+     * If the bifurcation is not permitted when the command is executed, nothing happens.
+     *
+     * @param neurite
+     * @param callback receives the two new NeuriteElements (can be null)
+     */
+    public void bifurcate(final NeuriteElement neurite, final Callback<NeuriteElement[]> callback)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting() && neurite.bifurcationPermitted()) {
+                    done(callback, neurite.bifurcate());
+                }
+            }
+        });
+    }
+
+    /**
+     * Bifurcates a terminal neurite (see <code>NeuriteElement.bifurcate(double, double, double, double[], double[])</code>).
+     * If the bifurcation is not permitted when the command is executed, nothing happens.
+     *
+     * @param neurite
+     * @param length      of the new branches
+     * @param diameter_1  of the first new branch
+     * @param diameter_2  of the second new branch
+     * @param direction_1
+     * @param direction_2
+     * @param callback    receives the two new NeuriteElements (can be null)
+     */
+    public void bifurcate(final NeuriteElement neurite, final double length, final double diameter_1,
+                          final double diameter_2, double[] direction_1, double[] direction_2,
+                          final Callback<NeuriteElement[]> callback)
+    {
+        final double[] directionCopy_1 = direction_1.clone();
+        final double[] directionCopy_2 = direction_2.clone();
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting() && neurite.bifurcationPermitted()) {
+                    done(callback, neurite.bifurcate(length, diameter_1, diameter_2, directionCopy_1, directionCopy_2));
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the point mass of a PhysicalObject (see <code>PhysicalObject.movePointMass()</code>). For a
+     * terminal PhysicalCylinder, this is the movement of the growth cone, which elongates the cylinder.
+     *
+     * @param physical
+     * @param speed     in micron/h
+     * @param direction
+     */
+    public void movePointMass(final PhysicalObject physical, final double speed, double[] direction)
+    {
+        final double[] directionCopy = direction.clone();
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (physical.isStillExisting()) {
+                    physical.movePointMass(speed, directionCopy);
+                }
+            }
+        });
+    }
+
+    /**
+     * Retracts the terminal end of a neurite (see <code>NeuriteElement.retractTerminalEnd()</code>).
+     * The NeuriteElement is removed if its cylinder disappears.
+     *
+     * @param neurite
+     * @param speed   the retraction speed in micron/h
+     */
+    public void retractTerminalEnd(final NeuriteElement neurite, final double speed)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting()) {
+                    neurite.retractTerminalEnd(speed);
+                }
+            }
+        });
+    }
+
+    /**
+     * Elongates the terminal end of a neurite (see <code>NeuriteElement.elongateTerminalEnd()</code>).
+     *
+     * @param neurite
+     * @param speed     in micron/h
+     * @param direction
+     */
+    public void elongateTerminalEnd(final NeuriteElement neurite, final double speed, double[] direction)
+    {
+        final double[] directionCopy = direction.clone();
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                if (neurite.getPhysical().isStillExisting()) {
+                    neurite.elongateTerminalEnd(speed, directionCopy);
+                }
+            }
+        });
+    }
+
+    private static <T> void done(Callback<T> callback, T result)
+    {
+        if (callback != null && result != null) {
+            callback.done(result);
+        }
+    }
+}
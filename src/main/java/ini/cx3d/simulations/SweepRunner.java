@@ -0,0 +1,489 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many variants of a simulation in the same JVM : every point of a <code>ParameterGrid</code>,
+ * with every seed. Each run gets its own <code>SimulationContext</code>, and the runs are executed
+ * concurrently by a fixed number of worker threads. The JVM start-up and the JIT warm-up are thus
+ * paid once for the whole sweep.
+ * <p/>
+ * A line of summary is written (in CSV) to the results as soon as a run is finished. The columns
+ * are : run number, seed, the parameters of the grid, status ("ok" or the error), number of time
+ * steps, ECM time, numbers of cells, spheres, cylinders and PhysicalNodes, wall-clock time in ms,
+ * and the value of each <code>Metric</code>. Since the runs finish in any order, the lines are
+ * not sorted by run number.
+ * <p/>
+ * The runs share the static configuration of the <code>Scheduler</code> and of
+ * <code>ini.cx3d.Param</code>. A sweep can therefore only be run headless, with all the phases
+ * of the Scheduler run once per time step and without <code>AdaptiveTimeStepController</code>
+ * (they change <code>Param.SIMULATION_TIME_STEP</code>).
+ * <p/>
+ * Usage from the command line :
+ * <pre>
+ * java ini.cx3d.simulations.SweepRunner &lt;SimulationFactory or SimulationSetup class&gt;
+ *          [-steps n] [-time t] [-seeds s1,s2,...] [-seedcount n] [-param name=v1,v2,...]...
+ *          [-workers n] [-out file]
+ * </pre>
+ *
+ * @see SimulationFactory
+ * @see ParameterGrid
+ */
+public class SweepRunner
+{
+
+    /**
+     * A value computed at the end of each run, and written in its own column.
+     */
+    public interface Metric
+    {
+
+        /**
+         * @param ecm the ECM of the run (its context is the current context)
+         * @return the value to write in the results
+         */
+        public double measure(ECM ecm);
+    }
+
+    private static final String USAGE = "usage : java " + SweepRunner.class.getName()
+            + " <SimulationFactory or SimulationSetup class> [-steps n] [-time t] [-seeds s1,s2,...] [-seedcount n]\n"
+            + "          [-param name=v1,v2,...]... [-workers n] [-out file]\n"
+            + "   -steps n          number of time steps of each run\n"
+            + "   -time t           simulate each run until the ECM time reaches t (in hours)\n"
+            + "   -seeds s1,s2,...  seeds of the random number generators (default : 1)\n"
+            + "   -seedcount n      use the seeds 1 to n\n"
+            + "   -param name=v,... values of a parameter of the SimulationFactory (can be repeated)\n"
+            + "   -workers n        number of runs executed at the same time (default : number of cores)\n"
+            + "   -out file         CSV file for the results (default : standard output)";
+
+    private final SimulationFactory factory;
+    private final ParameterGrid grid;
+    private long[] seeds = {1};
+    private int steps = -1;
+    private double targetTime = -1;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+    /* where the progress is printed (if not null).*/
+    private PrintStream log = null;
+
+    /* state of the sweep being run.*/
+    private PrintWriter results;
+    private int finishedRuns;
+    private int failedRuns;
+
+    /**
+     * @param factory creates the set-up of each run
+     * @param grid    the values of the parameters given to the factory
+     */
+    public SweepRunner(SimulationFactory factory, ParameterGrid grid)
+    {
+        this.factory = factory;
+        this.grid = grid;
+    }
+
+    /**
+     * Each point of the grid is run once with each of these seeds.
+     */
+    public void setSeeds(long... seeds)
+    {
+        if (seeds.length == 0) {
+            throw new IllegalArgumentException("at least one seed is needed");
+        }
+        this.seeds = seeds.clone();
+    }
+
+    /**
+     * Each run stops after this number of time steps (and/or when the target time is reached).
+     */
+    public void setSteps(int steps)
+    {
+        this.steps = steps;
+    }
+
+    /**
+     * Each run stops when the ECM time reaches this value (and/or after the number of steps).
+     */
+    public void setTargetTime(double targetTime)
+    {
+        this.targetTime = targetTime;
+    }
+
+    /**
+     * Sets the number of runs executed at the same time.
+     */
+    public void setWorkers(int workers)
+    {
+        if (workers < 1) {
+            throw new IllegalArgumentException("at least one worker is needed");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Adds a column to the results, computed at the end of each run.
+     */
+    public void addMetric(String name, Metric metric)
+    {
+        metrics.put(name, metric);
+    }
+
+    /**
+     * If not null, a line is printed on this stream each time a run is finished.
+     */
+    public void setLog(PrintStream log)
+    {
+        this.log = log;
+    }
+
+    /**
+     * Returns the number of runs of the sweep (points of the grid times seeds).
+     */
+    public int getNumberOfRuns()
+    {
+        return grid.size() * seeds.length;
+    }
+
+    /**
+     * Executes all the runs, and returns once they are all finished.
+     *
+     * @param out where the results are written (CSV, one line per run)
+     * @return the number of runs that failed
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the runs
+     */
+    public int run(Writer out) throws InterruptedException
+    {
+        if (steps < 0 && targetTime < 0) {
+            throw new IllegalStateException("a number of steps or a target time is needed");
+        }
+        if (!Scheduler.isHeadless()) {
+            throw new IllegalStateException("a sweep can only be run headless (-Dcx3d.headless=true)");
+        }
+        if (Scheduler.isMultiRate() || Scheduler.getAdaptiveTimeStepController() != null) {
+            throw new IllegalStateException("a sweep can't be run with phase rates or an adaptive time step");
+        }
+        results = new PrintWriter(out);
+        finishedRuns = 0;
+        failedRuns = 0;
+        writeHeader();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (int i = 0; i < getNumberOfRuns(); i++) {
+                final int run = i;
+                pool.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        runOne(run);
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            pool.shutdownNow();
+            results.flush();
+        }
+        return failedRuns;
+    }
+
+    /* Sets up and simulates one run in a new context, then writes its line of results.*/
+    private void runOne(int run)
+    {
+        Map<String, Double> parameters = grid.getPoint(run / seeds.length);
+        long seed = seeds[run % seeds.length];
+        SimulationContext context = new SimulationContext();
+        long start = System.currentTimeMillis();
+        String status = "failed";
+        int stepsDone = 0;
+        // ECM time, cells, spheres, cylinders, nodes, then the metrics (empty if the run failed)
+        String[] values = new String[5 + metrics.size()];
+        Arrays.fill(values, "");
+        SimulationContext previous = context.bind();
+        try {
+            ECM ecm = ECM.getInstance();
+            ECM.setRandomSeed(seed);
+            factory.createSetup(parameters).setUp(ecm);
+            while ((steps < 0 || stepsDone < steps) && (targetTime < 0 || ecm.getECMtime() < targetTime)) {
+                Scheduler.simulateOneStep();
+                stepsDone++;
+            }
+            values[0] = Double.toString(ecm.getECMtime());
+            values[1] = Integer.toString(ecm.getCellList().size());
+            values[2] = Integer.toString(ecm.getPhysicalSphereList().size());
+            values[3] = Integer.toString(ecm.getPhysicalCylinderList().size());
+            values[4] = Integer.toString(ecm.getPhysicalNodeList().size());
+            int i = 5;
+            for (Metric metric : metrics.values()) {
+                values[i++] = Double.toString(metric.measure(ecm));
+            }
+            status = "ok";
+        }
+        catch (RuntimeException e) {
+            status = e.toString();
+        }
+        finally {
+            SimulationContext.restore(previous);
+            writeResult(run, seed, parameters, status, stepsDone, values, System.currentTimeMillis() - start);
+        }
+    }
+
+    private void writeHeader()
+    {
+        StringBuilder line = new StringBuilder("run,seed");
+        for (String name : grid.getParameterNames()) {
+            line.append(',').append(escape(name));
+        }
+        line.append(",status,steps,ecm_time,cells,spheres,cylinders,nodes,wall_ms");
+        for (String name : metrics.keySet()) {
+            line.append(',').append(escape(name));
+        }
+        results.println(line);
+        results.flush();
+    }
+
+    private synchronized void writeResult(int run, long seed, Map<String, Double> parameters, String status,
+                                          int stepsDone, String[] values, long wallTime)
+    {
+        StringBuilder line = new StringBuilder();
+        line.append(run).append(',').append(seed);
+        for (Double value : parameters.values()) {
+            line.append(',').append(value);
+        }
+        line.append(',').append(escape(status)).append(',').append(stepsDone);
+        for (int i = 0; i < 5; i++) {
+            line.append(',').append(values[i]);
+        }
+        line.append(',').append(wallTime);
+        for (int i = 5; i < values.length; i++) {
+            line.append(',').append(values[i]);
+        }
+        results.println(line);
+        results.flush();
+        finishedRuns++;
+        if (!status.equals("ok")) {
+            failedRuns++;
+        }
+        if (log != null) {
+            log.println("run " + run + " (" + finishedRuns + "/" + getNumberOfRuns() + ") : " + status);
+        }
+    }
+
+    /* quotes a CSV field if needed.*/
+    private static String escape(String field)
+    {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    public static void main(String[] args)
+    {
+        // must be done before the Scheduler class is loaded
+        System.setProperty("cx3d.headless", "true");
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /**
+     * Parses the command line arguments and runs the sweep.
+     *
+     * @param args the command line arguments (cf class description)
+     * @return one of the <code>EXIT_</code> codes of <code>BatchRunner</code>
+     */
+    public static int run(String[] args)
+    {
+        String className = null;
+        String outputFile = null;
+        ParameterGrid grid = new ParameterGrid();
+        SweepRunner runner;
+        try {
+            int steps = -1;
+            double targetTime = -1;
+            long[] seeds = {1};
+            int workers = 0;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-steps")) {
+                    steps = Integer.parseInt(args[++i]);
+                }
+                else if (arg.equals("-time")) {
+                    targetTime = Double.parseDouble(args[++i]);
+                }
+                else if (arg.equals("-seeds")) {
+                    String[] values = args[++i].split(",");
+                    seeds = new long[values.length];
+                    for (int j = 0; j < values.length; j++) {
+                        seeds[j] = Long.parseLong(values[j].trim());
+                    }
+                }
+                else if (arg.equals("-seedcount")) {
+                    seeds = new long[Integer.parseInt(args[++i])];
+                    for (int j = 0; j < seeds.length; j++) {
+                        seeds[j] = j + 1;
+                    }
+                }
+                else if (arg.equals("-param")) {
+                    String definition = args[++i];
+                    int equal = definition.indexOf('=');
+                    if (equal <= 0) {
+                        throw new IllegalArgumentException("-param needs name=v1,v2,... : " + definition);
+                    }
+                    String[] values = definition.substring(equal + 1).split(",");
+                    double[] parsed = new double[values.length];
+                    for (int j = 0; j < values.length; j++) {
+                        parsed[j] = Double.parseDouble(values[j].trim());
+                    }
+                    grid.addParameter(definition.substring(0, equal), parsed);
+                }
+                else if (arg.equals("-workers")) {
+                    workers = Integer.parseInt(args[++i]);
+                }
+                else if (arg.equals("-out")) {
+                    outputFile = args[++i];
+                }
+                else if (className == null && !arg.startsWith("-")) {
+                    className = arg;
+                }
+                else {
+                    throw new IllegalArgumentException("unknown argument : " + arg);
+                }
+            }
+            if (className == null) {
+                throw new IllegalArgumentException("no SimulationFactory or SimulationSetup class given");
+            }
+            if (steps < 0 && targetTime < 0) {
+                throw new IllegalArgumentException("either -steps or -time is needed");
+            }
+            runner = new SweepRunner(createFactory(className, grid), grid);
+            runner.setSteps(steps);
+            runner.setTargetTime(targetTime);
+            runner.setSeeds(seeds);
+            if (workers != 0) {
+                runner.setWorkers(workers);
+            }
+        }
+        catch (RuntimeException e) {
+            // (NumberFormatException, ArrayIndexOutOfBoundsException or our own)
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return BatchRunner.EXIT_USAGE;
+        }
+        catch (InvocationTargetException e) {
+            // the constructor of the factory failed
+            System.err.println("Could not instantiate " + className + " :");
+            e.getCause().printStackTrace();
+            return BatchRunner.EXIT_SETUP_FAILED;
+        }
+        catch (Exception e) {
+            System.err.println("Could not instantiate " + className + " :");
+            e.printStackTrace();
+            return BatchRunner.EXIT_SETUP_FAILED;
+        }
+
+        Scheduler.setPrintCurrentECMTime(false);
+        int failed;
+        try {
+            Writer out;
+            if (outputFile == null) {
+                out = new PrintWriter(System.out);
+            }
+            else {
+                out = new FileWriter(outputFile);
+                runner.setLog(System.out);
+            }
+            try {
+                failed = runner.run(out);
+            }
+            finally {
+                if (outputFile != null) {
+                    out.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Could not write the results : " + e.getMessage());
+            return BatchRunner.EXIT_USAGE;
+        }
+        catch (InterruptedException e) {
+            System.err.println("Sweep interrupted");
+            return BatchRunner.EXIT_SIMULATION_FAILED;
+        }
+        catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return BatchRunner.EXIT_USAGE;
+        }
+        if (failed > 0) {
+            System.err.println(failed + " of " + runner.getNumberOfRuns() + " runs failed");
+            return BatchRunner.EXIT_SIMULATION_FAILED;
+        }
+        return BatchRunner.EXIT_OK;
+    }
+
+    /* Instantiates the factory; a SimulationSetup can be used for sweeps over the seeds only.*/
+    private static SimulationFactory createFactory(String className, ParameterGrid grid) throws Exception
+    {
+        Object instance = Class.forName(className).getDeclaredConstructor().newInstance();
+        if (instance instanceof SimulationFactory) {
+            return (SimulationFactory) instance;
+        }
+        if (!(instance instanceof SimulationSetup)) {
+            throw new IllegalArgumentException(className + " is neither a SimulationFactory nor a SimulationSetup");
+        }
+        if (!grid.getParameterNames().isEmpty()) {
+            throw new IllegalArgumentException(className + " is a SimulationSetup : it has no parameters");
+        }
+        final Class<?> setupClass = instance.getClass();
+        return new SimulationFactory()
+        {
+            public SimulationSetup createSetup(Map<String, Double> parameters)
+            {
+                try {
+                    return (SimulationSetup) setupClass.getDeclaredConstructor().newInstance();
+                }
+                catch (InvocationTargetException e) {
+                    throw new RuntimeException("Could not instantiate " + setupClass.getName(), e.getCause());
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("Could not instantiate " + setupClass.getName(), e);
+                }
+            }
+        };
+    }
+}
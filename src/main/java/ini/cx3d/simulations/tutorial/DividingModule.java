@@ -49,7 +49,7 @@ public class DividingModule
 
         PhysicalSphere sphere = cell.getSomaElement().getPhysicalSphere();
         if (sphere.getDiameter() > 20) {
-            cell.divide();
+            ECM.getInstance().getStructuralCommandBuffer().divide(cell, null);
         }
         else {
             sphere.changeVolume(300);
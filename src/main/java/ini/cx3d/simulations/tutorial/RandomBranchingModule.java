@@ -29,6 +29,8 @@ import ini.cx3d.localBiology.LocalBiologyModule;
 import ini.cx3d.localBiology.NeuriteElement;
 import ini.cx3d.simulations.ECM;
 import ini.cx3d.simulations.Scheduler;
+import ini.cx3d.simulations.StructuralCommandBuffer;
+import ini.cx3d.utilities.RandomStream;
 
 import static ini.cx3d.utilities.Matrix.add;
 import static ini.cx3d.utilities.Matrix.normalize;
@@ -38,6 +40,9 @@ public class RandomBranchingModule
         implements LocalBiologyModule
 {
 
+    /* Key of our random numbers (together with the ID of the NeuriteElement), see ECM.getRandomStream().*/
+    private static final long RANDOM_STREAM_ID = 0x52616e64427241L;
+
     NeuriteElement neuriteElement;
 
     private double[] direction;
@@ -95,20 +100,33 @@ public class RandomBranchingModule
         double speed = 100;
         double probabilityToBifurcate = 0.005; // o.oo5
         double probabilityToBranch = 0.005;
-        double[] deltaDirection = randomNoise(0.1, 3);
+        RandomStream random = ECM.getRandomStream(neuriteElement.getID(), RANDOM_STREAM_ID);
+        double[] deltaDirection = random.randomNoise(0.1, 3);
         direction = add(direction, deltaDirection);
         direction = normalize(direction);
-        neuriteElement.getPhysical().movePointMass(speed, direction);
-
-        if (ECM.getRandomDouble() < probabilityToBifurcate) {
-            NeuriteElement[] nn = neuriteElement.bifurcate();
-            nn[0].getPhysical().setColor(Param.RED);
-            nn[1].getPhysical().setColor(Param.BLUE);
+        // (the changes go through the command buffer, so that this module can also be run in parallel)
+        StructuralCommandBuffer buffer = ECM.getInstance().getStructuralCommandBuffer();
+        buffer.movePointMass(neuriteElement.getPhysical(), speed, direction);
+
+        if (random.nextDouble() < probabilityToBifurcate) {
+            buffer.bifurcate(neuriteElement, new StructuralCommandBuffer.Callback<NeuriteElement[]>()
+            {
+                public void done(NeuriteElement[] nn)
+                {
+                    nn[0].getPhysical().setColor(Param.RED);
+                    nn[1].getPhysical().setColor(Param.BLUE);
+                }
+            });
             return;
         }
-        if (ECM.getRandomDouble() < probabilityToBranch) {
-            NeuriteElement n = neuriteElement.branch();
-            n.getPhysical().setColor(Param.VIOLET);
+        if (random.nextDouble() < probabilityToBranch) {
+            buffer.branch(neuriteElement, new StructuralCommandBuffer.Callback<NeuriteElement>()
+            {
+                public void done(NeuriteElement n)
+                {
+                    n.getPhysical().setColor(Param.VIOLET);
+                }
+            });
             return;
         }
     }
@@ -44,6 +44,14 @@ public class SomaClustering
         this.substanceID = substanceID;
     }
 
+    /**
+     * Returns the substance this module secretes, and whose gradient it follows.
+     */
+    public String getSubstanceID()
+    {
+        return substanceID;
+    }
+
     public AbstractLocalBiologyModule getCopy()
     {
         return new SomaClustering(substanceID);
@@ -0,0 +1,162 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.simulations.tutorial;
+
+import ini.cx3d.cells.Cell;
+import ini.cx3d.cells.CellFactory;
+import ini.cx3d.localBiology.LocalBiologyModule;
+import ini.cx3d.physics.Substance;
+import ini.cx3d.simulations.ECM;
+import ini.cx3d.simulations.ParameterGrid;
+import ini.cx3d.simulations.Scheduler;
+import ini.cx3d.simulations.SimulationFactory;
+import ini.cx3d.simulations.SimulationSetup;
+import ini.cx3d.simulations.SweepRunner;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Vector;
+
+import static ini.cx3d.utilities.Matrix.distance;
+import static ini.cx3d.utilities.Matrix.randomNoise;
+
+/**
+ * The <code>SomaClustering</code> simulation as a <code>SimulationFactory</code>, to study how the
+ * sorting of the two cell types depends on the substances. Parameters (with their default values) :
+ * <ul>
+ * <li> <code>cellsPerType</code> : number of cells of each type (60),
+ * <li> <code>diffusion</code> : diffusion constant of both substances (1000),
+ * <li> <code>degradation</code> : degradation constant of both substances (0.01).
+ * </ul>
+ * The metric <code>SEGREGATION</code> measures the result of a run.
+ * <p/>
+ * Can be used from the command line :
+ * <pre>
+ * java ini.cx3d.simulations.SweepRunner ini.cx3d.simulations.tutorial.SomaClusteringSweep
+ *          -steps 500 -seedcount 4 -param diffusion=500,1000,2000 -param degradation=0.01,0.1
+ * </pre>
+ * (but the segregation is only computed by the <code>main()</code> of this class).
+ */
+public class SomaClusteringSweep
+        implements SimulationFactory
+{
+
+    /**
+     * The fraction of the cells whose closest cell is of the same type
+     * (about 0.5 if the types are mixed, 1 if they are completely sorted).
+     */
+    public static final SweepRunner.Metric SEGREGATION = new SweepRunner.Metric()
+    {
+        public double measure(ECM ecm)
+        {
+            Vector<Cell> cells = ecm.getCellList();
+            int sameType = 0;
+            for (Cell c : cells) {
+                Cell closest = null;
+                double shortestDistance = Double.MAX_VALUE;
+                for (Cell other : cells) {
+                    double d = distance(c.getSomaElement().getPhysical().getMassLocation(),
+                            other.getSomaElement().getPhysical().getMassLocation());
+                    if (other != c && d < shortestDistance) {
+                        shortestDistance = d;
+                        closest = other;
+                    }
+                }
+                String type = getSubstanceID(c);
+                if (closest != null && type != null && type.equals(getSubstanceID(closest))) {
+                    sameType++;
+                }
+            }
+            return cells.isEmpty() ? 0 : (double) sameType / cells.size();
+        }
+    };
+
+    public SimulationSetup createSetup(Map<String, Double> parameters)
+    {
+        final int cells = (int) getParameter(parameters, "cellsPerType", 60);
+        final double diffusion = getParameter(parameters, "diffusion", 1000);
+        final double degradation = getParameter(parameters, "degradation", 0.01);
+        return new SimulationSetup()
+        {
+            public void setUp(ECM ecm)
+            {
+                ecm.addNewSubstanceTemplate(new Substance("Yellow", diffusion, degradation));
+                ecm.addNewSubstanceTemplate(new Substance("Violet", diffusion, degradation));
+                for (int i = 0; i < 400; i++) {
+                    ecm.getPhysicalNodeInstance(randomNoise(700, 3));
+                }
+                for (int i = 0; i < cells; i++) {
+                    Cell c = CellFactory.getCellInstance(randomNoise(50, 3));
+                    c.getSomaElement().addLocalBiologyModule(new SomaClustering("Yellow"));
+                }
+                for (int i = 0; i < cells; i++) {
+                    Cell c = CellFactory.getCellInstance(randomNoise(50, 3));
+                    c.getSomaElement().addLocalBiologyModule(new SomaClustering("Violet"));
+                }
+            }
+        };
+    }
+
+    private static double getParameter(Map<String, Double> parameters, String name, double defaultValue)
+    {
+        Double value = parameters.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /* the substance secreted by a cell (null if it has no SomaClustering module).*/
+    private static String getSubstanceID(Cell c)
+    {
+        for (LocalBiologyModule m : c.getSomaElement().getLocalBiologyModulesList()) {
+            if (m instanceof SomaClustering) {
+                return ((SomaClustering) m).getSubstanceID();
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        // must be done before the Scheduler class is loaded
+        System.setProperty("cx3d.headless", "true");
+        System.setProperty("java.awt.headless", "true");
+        Scheduler.setPrintCurrentECMTime(false);
+
+        ParameterGrid grid = new ParameterGrid()
+                .addParameter("diffusion", 500, 1000, 2000)
+                .addParameter("degradation", 0.01, 0.1);
+        SweepRunner runner = new SweepRunner(new SomaClusteringSweep(), grid);
+        runner.setSeeds(1, 2, 3, 4);
+        runner.setSteps(500);
+        runner.addMetric("segregation", SEGREGATION);
+        runner.setLog(System.out);
+        FileWriter out = new FileWriter("SomaClusteringSweep.csv");
+        try {
+            runner.run(out);
+        }
+        finally {
+            out.close();
+        }
+        System.exit(0);
+    }
+}
@@ -24,7 +24,9 @@ package ini.cx3d.simulations.tutorial;
 import ini.cx3d.cells.Cell;
 import ini.cx3d.cells.CellFactory;
 import ini.cx3d.localBiology.AbstractLocalBiologyModule;
+import ini.cx3d.simulations.ECM;
 import ini.cx3d.simulations.Scheduler;
+import ini.cx3d.utilities.RandomStream;
 
 import static ini.cx3d.utilities.Matrix.add;
 import static ini.cx3d.utilities.Matrix.normalize;
@@ -34,6 +36,9 @@ public class SomaRandomWalkModule
         extends AbstractLocalBiologyModule
 {
 
+    /* Key of our random numbers (together with the ID of the CellElement), see ECM.getRandomStream().*/
+    private static final long RANDOM_STREAM_ID = 0x536f6d6152574dL;
+
     double direction[] = randomNoise(1.0, 3); // initial direction
 
     public AbstractLocalBiologyModule getCopy()
@@ -44,7 +49,8 @@ public class SomaRandomWalkModule
     public void run()
     {
         double speed = 50;
-        double[] deltaDirection = randomNoise(0.1, 3);
+        RandomStream random = ECM.getRandomStream(super.cellElement.getID(), RANDOM_STREAM_ID);
+        double[] deltaDirection = random.randomNoise(0.1, 3);
         direction = add(direction, deltaDirection);
         direction = normalize(direction);
         super.cellElement.move(speed, direction);
@@ -0,0 +1,653 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.Arrays;
+
+/**
+ * Robust geometric predicates used by the Delaunay triangulation. Each predicate
+ * returns the exact sign of a polynomial in the input coordinates and is evaluated in
+ * up to three stages :
+ * <ol>
+ * <li>The polynomial is evaluated with plain <code>double</code> arithmetics, together with
+ * a rigorous upper bound of the rounding error (computed from the "permanent" of the
+ * polynomial, i.e. the same expression evaluated on absolute values). If the result is
+ * bigger than this bound, its sign is certain. This stage does not allocate any object and
+ * decides almost every call.</li>
+ * <li>Otherwise, the polynomial is evaluated exactly with floating point expansions
+ * (sums of non-overlapping doubles, see J.R. Shewchuk, "Adaptive Precision Floating-Point
+ * Arithmetic and Fast Robust Geometric Predicates", 1997). This is exact as long as no
+ * intermediate value leaves the range where products of doubles can be split exactly.</li>
+ * <li>If that happens (coordinates larger than about 10^150 or differences smaller than
+ * about 10^-135), the polynomial is evaluated with {@link Rational} numbers.</li>
+ * </ol>
+ * The first stage assumes that no underflow happens, which is guaranteed by requiring the
+ * permanent to be larger than {@link #MIN_PERMANENT}.
+ */
+public final class AdaptivePredicates
+{
+
+    /* Relative error of one rounded double operation (2^-53).*/
+    private static final double EPSILON = 1.1102230246251565E-16;
+
+    /* 2^27 + 1, used to split a double into two halves of 26 bits.*/
+    private static final double SPLITTER = 134217729.0;
+
+    /* Relative error bounds of the double evaluation of the different predicates.*/
+    private static final double ORIENTATION_BOUND = (7.0 + 56.0 * EPSILON) * EPSILON;
+    private static final double IN_SPHERE_BOUND = (16.0 + 224.0 * EPSILON) * EPSILON;
+    private static final double CIRCLE_BOUND = (12.0 + 512.0 * EPSILON) * EPSILON;
+    private static final double PLANE_BOUND = (4.0 + 32.0 * EPSILON) * EPSILON;
+
+    /* Under this permanent, the double stage is not trusted (underflow could occur).*/
+    private static final double MIN_PERMANENT = 1E-200;
+
+    /* Range of absolute values in which the product of two doubles can be computed exactly
+     * as an expansion of two doubles.*/
+    private static final double MAX_FACTOR = 0x1p500;
+    private static final double MIN_FACTOR = 0x1p-450;
+
+    /* The expansion representing zero.*/
+    private static final double[] ZERO = new double[0];
+
+    /**
+     * Thrown by the expansion stage when a value leaves the range in which the
+     * computations are exact. Preallocated, since it is only used for control flow.
+     */
+    private static final class RangeException
+            extends RuntimeException
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+
+    private static final RangeException OUT_OF_RANGE = new RangeException();
+
+    private AdaptivePredicates()
+    {
+    }
+
+    // **************************************************************************
+    // Predicates
+    // **************************************************************************
+
+    /**
+     * Computes on which side of the plane through <code>a</code>, <code>b</code> and <code>c</code>
+     * the point <code>d</code> lies.
+     *
+     * @return the sign of <code>((b-a) x (c-a)) . (d-a)</code> : 1 if <code>d</code> lies on the side
+     * the normal vector <code>(b-a) x (c-a)</code> points to, -1 if it lies on the other side and 0 if the
+     * four points are coplanar.
+     */
+    public static int orientation(double[] a, double[] b, double[] c, double[] d)
+    {
+        double ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+        double vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+        double wx = d[0] - a[0], wy = d[1] - a[1], wz = d[2] - a[2];
+        double det = det3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        double permanent = permanent3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        if (isCertain(det, permanent, ORIENTATION_BOUND)) {
+            return det > 0 ? 1 : -1;
+        }
+        try {
+            double[][] u = difference(b, a), v = difference(c, a), w = difference(d, a);
+            return sign(dot(cross(u, v), w));
+        }
+        catch (RangeException e) {
+            ExactVector ax = new ExactVector(a);
+            ExactVector n = new ExactVector(b).subtract(ax).crossProduct(new ExactVector(c).subtract(ax));
+            return n.dotProduct(new ExactVector(d).subtract(ax)).compareTo(new Rational(0, 1));
+        }
+    }
+
+    /**
+     * Computes the same determinant as {@link #orientation(double[], double[], double[], double[])}
+     * and returns an approximation of its value. The sign of the returned value is always
+     * exact (in particular, it is 0 if and only if the four points are coplanar).
+     */
+    public static double orientationValue(double[] a, double[] b, double[] c, double[] d)
+    {
+        double ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+        double vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+        double wx = d[0] - a[0], wy = d[1] - a[1], wz = d[2] - a[2];
+        double det = det3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        double permanent = permanent3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        if (isCertain(det, permanent, ORIENTATION_BOUND)) {
+            return det;
+        }
+        try {
+            double[][] u = difference(b, a), v = difference(c, a), w = difference(d, a);
+            return estimate(dot(cross(u, v), w));
+        }
+        catch (RangeException e) {
+            ExactVector ax = new ExactVector(a);
+            ExactVector n = new ExactVector(b).subtract(ax).crossProduct(new ExactVector(c).subtract(ax));
+            return n.dotProduct(new ExactVector(d).subtract(ax)).doubleValue();
+        }
+    }
+
+    /**
+     * Computes whether the normal vector <code>(b-a) x (c-a)</code> of the triangle <code>a, b, c</code>
+     * points in the same direction as a given vector.
+     *
+     * @return the sign of <code>((b-a) x (c-a)) . direction</code>.
+     */
+    public static int normalOrientation(double[] a, double[] b, double[] c, double[] direction)
+    {
+        double ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+        double vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+        double det = det3(ux, uy, uz, vx, vy, vz, direction[0], direction[1], direction[2]);
+        double permanent = permanent3(ux, uy, uz, vx, vy, vz, direction[0], direction[1], direction[2]);
+        if (isCertain(det, permanent, ORIENTATION_BOUND)) {
+            return det > 0 ? 1 : -1;
+        }
+        try {
+            double[][] u = difference(b, a), v = difference(c, a);
+            return sign(dot(cross(u, v), exact(direction)));
+        }
+        catch (RangeException e) {
+            ExactVector ax = new ExactVector(a);
+            ExactVector n = new ExactVector(b).subtract(ax).crossProduct(new ExactVector(c).subtract(ax));
+            return n.dotProduct(new ExactVector(direction)).compareTo(new Rational(0, 1));
+        }
+    }
+
+    /**
+     * Computes on which side of the plane <code>normal . x = offset</code> a point lies.
+     *
+     * @return the sign of <code>normal . point - offset</code>.
+     */
+    public static int planeSide(double[] normal, double offset, double[] point)
+    {
+        double p0 = normal[0] * point[0], p1 = normal[1] * point[1], p2 = normal[2] * point[2];
+        double value = p0 + p1 + p2 - offset;
+        double permanent = Math.abs(p0) + Math.abs(p1) + Math.abs(p2) + Math.abs(offset);
+        if (isCertain(value, permanent, PLANE_BOUND)) {
+            return value > 0 ? 1 : -1;
+        }
+        try {
+            return sign(subtract(dot(exact(normal), exact(point)), exact(offset)));
+        }
+        catch (RangeException e) {
+            return new ExactVector(normal).dotProduct(new ExactVector(point)).compareTo(new Rational(offset));
+        }
+    }
+
+    /**
+     * Computes whether the point <code>e</code> lies inside the circumsphere of the
+     * tetrahedron <code>a, b, c, d</code>. The result is independent of the orientation of
+     * the tetrahedron.
+     * <p/>
+     * If the four points <code>a, b, c, d</code> are coplanar, there is no circumsphere and
+     * the returned value is 0.
+     *
+     * @return 1 if <code>e</code> lies strictly inside the sphere, 0 if it lies on the sphere and -1
+     * if it lies outside.
+     */
+    public static int inSphere(double[] a, double[] b, double[] c, double[] d, double[] e)
+    {
+        int orientation = orientation(a, b, c, d);
+        if (orientation == 0) {
+            return 0;
+        }
+        double ax = a[0] - e[0], ay = a[1] - e[1], az = a[2] - e[2];
+        double bx = b[0] - e[0], by = b[1] - e[1], bz = b[2] - e[2];
+        double cx = c[0] - e[0], cy = c[1] - e[1], cz = c[2] - e[2];
+        double dx = d[0] - e[0], dy = d[1] - e[1], dz = d[2] - e[2];
+        double aLift = ax * ax + ay * ay + az * az;
+        double bLift = bx * bx + by * by + bz * bz;
+        double cLift = cx * cx + cy * cy + cz * cz;
+        double dLift = dx * dx + dy * dy + dz * dz;
+        double det = (dLift * det3(ax, ay, az, bx, by, bz, cx, cy, cz)
+                - cLift * det3(ax, ay, az, bx, by, bz, dx, dy, dz))
+                + (bLift * det3(ax, ay, az, cx, cy, cz, dx, dy, dz)
+                - aLift * det3(bx, by, bz, cx, cy, cz, dx, dy, dz));
+        double permanent = (dLift * permanent3(ax, ay, az, bx, by, bz, cx, cy, cz)
+                + cLift * permanent3(ax, ay, az, bx, by, bz, dx, dy, dz))
+                + (bLift * permanent3(ax, ay, az, cx, cy, cz, dx, dy, dz)
+                + aLift * permanent3(bx, by, bz, cx, cy, cz, dx, dy, dz));
+        if (isCertain(det, permanent, IN_SPHERE_BOUND)) {
+            return det > 0 ? -orientation : orientation;
+        }
+        try {
+            double[][] av = difference(a, e), bv = difference(b, e), cv = difference(c, e), dv = difference(d, e);
+            double[] exactDet = add(
+                    subtract(multiply(dot(dv, dv), dot(cross(av, bv), cv)),
+                            multiply(dot(cv, cv), dot(cross(av, bv), dv))),
+                    subtract(multiply(dot(bv, bv), dot(cross(av, cv), dv)),
+                            multiply(dot(av, av), dot(cross(bv, cv), dv))));
+            return -sign(exactDet) * orientation;
+        }
+        catch (RangeException ex) {
+            return inSphereRational(a, b, c, d, e);
+        }
+    }
+
+    /**
+     * Computes whether a point lies closer to the center of the circumcircle of the triangle
+     * <code>a, b, c</code> than the radius of that circle. The point does not have to lie in
+     * the plane of the triangle (the distance is measured in three dimensions).
+     * <p/>
+     * If the triangle is degenerate (collinear points), the returned value is 0.
+     *
+     * @return 1 if the distance of <code>point</code> to the circumcenter is smaller than the radius,
+     * 0 if it is equal and -1 if it is bigger.
+     */
+    public static int circleOrientation(double[] a, double[] b, double[] c, double[] point)
+    {
+        // With u = b-a, v = c-a, w = point-a and N = u x v, the circumcenter lies at
+        // a + (|u|^2 (v x N) + |v|^2 (N x u)) / (2 |N|^2), hence the sign of
+        // |N|^2 |w|^2 - (|u|^2 (v x N) + |v|^2 (N x u)) . w
+        // tells whether the point lies outside the circle.
+        double ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+        double vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+        double wx = point[0] - a[0], wy = point[1] - a[1], wz = point[2] - a[2];
+        double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        double nxP = Math.abs(uy * vz) + Math.abs(uz * vy);
+        double nyP = Math.abs(uz * vx) + Math.abs(ux * vz);
+        double nzP = Math.abs(ux * vy) + Math.abs(uy * vx);
+        double nn = nx * nx + ny * ny + nz * nz;
+        double nnP = nxP * nxP + nyP * nyP + nzP * nzP;
+        double ww = wx * wx + wy * wy + wz * wz;
+        double uu = ux * ux + uy * uy + uz * uz;
+        double vv = vx * vx + vy * vy + vz * vz;
+        double tx = uu * (vy * nz - vz * ny) + vv * (ny * uz - nz * uy);
+        double ty = uu * (vz * nx - vx * nz) + vv * (nz * ux - nx * uz);
+        double tz = uu * (vx * ny - vy * nx) + vv * (nx * uy - ny * ux);
+        double txP = uu * (Math.abs(vy) * nzP + Math.abs(vz) * nyP) + vv * (nyP * Math.abs(uz) + nzP * Math.abs(uy));
+        double tyP = uu * (Math.abs(vz) * nxP + Math.abs(vx) * nzP) + vv * (nzP * Math.abs(ux) + nxP * Math.abs(uz));
+        double tzP = uu * (Math.abs(vx) * nyP + Math.abs(vy) * nxP) + vv * (nxP * Math.abs(uy) + nyP * Math.abs(ux));
+        double value = nn * ww - (tx * wx + ty * wy + tz * wz);
+        double permanent = nnP * ww + (txP * Math.abs(wx) + tyP * Math.abs(wy) + tzP * Math.abs(wz));
+        if (isCertain(value, permanent, CIRCLE_BOUND)) {
+            return value > 0 ? -1 : 1;
+        }
+        try {
+            double[][] u = difference(b, a), v = difference(c, a), w = difference(point, a);
+            double[][] n = cross(u, v);
+            double[] uLength = dot(u, u), vLength = dot(v, v);
+            double[][] vn = cross(v, n), nu = cross(n, u);
+            double[][] t = new double[3][];
+            for (int i = 0; i < 3; i++) {
+                t[i] = add(multiply(uLength, vn[i]), multiply(vLength, nu[i]));
+            }
+            return -sign(subtract(multiply(dot(n, n), dot(w, w)), dot(t, w)));
+        }
+        catch (RangeException e) {
+            return circleOrientationRational(a, b, c, point);
+        }
+    }
+
+    // **************************************************************************
+    // Predicates on packed coordinates
+    // **************************************************************************
+    // The points are given by their index in an array of coordinates, in which point i
+    // is stored at 3i, 3i+1 and 3i+2 (see CompactTriangulation). The double stage reads
+    // the array directly; arrays are only created when an exact stage is needed.
+
+    /**
+     * Same as {@link #orientation(double[], double[], double[], double[])}, with the first
+     * three points given by their index in the packed coordinates <code>xyz</code>.
+     */
+    static int orientation(double[] xyz, int a, int b, int c, double[] d)
+    {
+        return orientation(xyz, a, b, c, d[0], d[1], d[2], d);
+    }
+
+    /**
+     * Same as {@link #orientation(double[], double[], double[], double[])}, with the four
+     * points given by their index in the packed coordinates <code>xyz</code>.
+     */
+    static int orientation(double[] xyz, int a, int b, int c, int d)
+    {
+        int l = 3 * d;
+        return orientation(xyz, a, b, c, xyz[l], xyz[l + 1], xyz[l + 2], null);
+    }
+
+    private static int orientation(double[] xyz, int a, int b, int c,
+            double dx, double dy, double dz, double[] d)
+    {
+        int i = 3 * a, j = 3 * b, k = 3 * c;
+        double ax = xyz[i], ay = xyz[i + 1], az = xyz[i + 2];
+        double ux = xyz[j] - ax, uy = xyz[j + 1] - ay, uz = xyz[j + 2] - az;
+        double vx = xyz[k] - ax, vy = xyz[k + 1] - ay, vz = xyz[k + 2] - az;
+        double wx = dx - ax, wy = dy - ay, wz = dz - az;
+        double det = det3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        double permanent = permanent3(ux, uy, uz, vx, vy, vz, wx, wy, wz);
+        if (isCertain(det, permanent, ORIENTATION_BOUND)) {
+            return det > 0 ? 1 : -1;
+        }
+        return orientation(point(xyz, a), point(xyz, b), point(xyz, c),
+                (d != null) ? d : new double[] {dx, dy, dz});
+    }
+
+    /**
+     * Same as {@link #inSphere(double[], double[], double[], double[], double[])}, with the
+     * four points of the tetrahedron given by their index in the packed coordinates
+     * <code>xyz</code>.
+     */
+    static int inSphere(double[] xyz, int a, int b, int c, int d, double[] e)
+    {
+        return inSphere(xyz, a, b, c, d, e[0], e[1], e[2], e);
+    }
+
+    /**
+     * Same as {@link #inSphere(double[], double[], double[], double[], double[])}, with the
+     * five points given by their index in the packed coordinates <code>xyz</code>.
+     */
+    static int inSphere(double[] xyz, int a, int b, int c, int d, int e)
+    {
+        int m = 3 * e;
+        return inSphere(xyz, a, b, c, d, xyz[m], xyz[m + 1], xyz[m + 2], null);
+    }
+
+    private static int inSphere(double[] xyz, int a, int b, int c, int d,
+            double ex, double ey, double ez, double[] e)
+    {
+        int orientation = orientation(xyz, a, b, c, d);
+        int i = 3 * a, j = 3 * b, k = 3 * c, l = 3 * d;
+        double ax = xyz[i] - ex, ay = xyz[i + 1] - ey, az = xyz[i + 2] - ez;
+        double bx = xyz[j] - ex, by = xyz[j + 1] - ey, bz = xyz[j + 2] - ez;
+        double cx = xyz[k] - ex, cy = xyz[k + 1] - ey, cz = xyz[k + 2] - ez;
+        double dx = xyz[l] - ex, dy = xyz[l + 1] - ey, dz = xyz[l + 2] - ez;
+        double aLift = ax * ax + ay * ay + az * az;
+        double bLift = bx * bx + by * by + bz * bz;
+        double cLift = cx * cx + cy * cy + cz * cz;
+        double dLift = dx * dx + dy * dy + dz * dz;
+        double det = (dLift * det3(ax, ay, az, bx, by, bz, cx, cy, cz)
+                - cLift * det3(ax, ay, az, bx, by, bz, dx, dy, dz))
+                + (bLift * det3(ax, ay, az, cx, cy, cz, dx, dy, dz)
+                - aLift * det3(bx, by, bz, cx, cy, cz, dx, dy, dz));
+        double permanent = (dLift * permanent3(ax, ay, az, bx, by, bz, cx, cy, cz)
+                + cLift * permanent3(ax, ay, az, bx, by, bz, dx, dy, dz))
+                + (bLift * permanent3(ax, ay, az, cx, cy, cz, dx, dy, dz)
+                + aLift * permanent3(bx, by, bz, cx, cy, cz, dx, dy, dz));
+        if (orientation != 0 && isCertain(det, permanent, IN_SPHERE_BOUND)) {
+            return det > 0 ? -orientation : orientation;
+        }
+        return inSphere(point(xyz, a), point(xyz, b), point(xyz, c), point(xyz, d),
+                (e != null) ? e : new double[] {ex, ey, ez});
+    }
+
+    /* Copies the coordinates of point i out of the packed coordinates.*/
+    private static double[] point(double[] xyz, int i)
+    {
+        return new double[] {xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]};
+    }
+
+    // **************************************************************************
+    // Last resort : rational numbers
+    // **************************************************************************
+
+    private static int inSphereRational(double[] a, double[] b, double[] c, double[] d, double[] e)
+    {
+        ExactVector[] points = new ExactVector[] {new ExactVector(a), new ExactVector(b),
+                                                  new ExactVector(c), new ExactVector(d)};
+        ExactVector[] normals = new ExactVector[] {points[1].subtract(points[0]),
+                                                   points[2].subtract(points[0]),
+                                                   points[3].subtract(points[0])};
+        Rational half = new Rational(1, 2);
+        Rational[] offsets = new Rational[] {
+                points[0].add(points[1]).dotProduct(normals[0]).multiplyBy(half),
+                points[0].add(points[2]).dotProduct(normals[1]).multiplyBy(half),
+                points[0].add(points[3]).dotProduct(normals[2]).multiplyBy(half)};
+        ExactVector center = Triangle3D.calculate3PlaneXPoint(normals, offsets, ExactVector.det(normals));
+        Rational squaredRadius = center.subtract(points[0]).squaredLength();
+        return squaredRadius.compareTo(center.subtract(new ExactVector(e)).squaredLength());
+    }
+
+    private static int circleOrientationRational(double[] a, double[] b, double[] c, double[] point)
+    {
+        ExactVector ax = new ExactVector(a);
+        ExactVector[] n = new ExactVector[] {new ExactVector(b).subtract(ax), new ExactVector(c).subtract(ax), null};
+        n[2] = n[0].crossProduct(n[1]);
+        Rational half = new Rational(1, 2);
+        ExactVector center = Triangle3D.calculate3PlaneXPoint(n, new Rational[] {
+                new ExactVector(b).add(ax).dotProduct(n[0]).multiplyBy(half),
+                new ExactVector(c).add(ax).dotProduct(n[1]).multiplyBy(half),
+                ax.dotProduct(n[2])}, ExactVector.det(n));
+        return center.subtract(ax).squaredLength().compareTo(center.subtract(new ExactVector(point)).squaredLength());
+    }
+
+    // **************************************************************************
+    // Double stage
+    // **************************************************************************
+
+    /* Returns true if the sign of value is certain, given the permanent of the expression.*/
+    private static boolean isCertain(double value, double permanent, double relativeBound)
+    {
+        double bound = relativeBound * permanent;
+        return (value > bound || -value > bound) && permanent > MIN_PERMANENT
+                && permanent < Double.POSITIVE_INFINITY;
+    }
+
+    /* Determinant of the matrix with rows x, y and z : x . (y cross z).*/
+    private static double det3(double xx, double xy, double xz, double yx, double yy, double yz,
+            double zx, double zy, double zz)
+    {
+        return xx * (yy * zz - yz * zy) + xy * (yz * zx - yx * zz) + xz * (yx * zy - yy * zx);
+    }
+
+    /* The same expression as det3(), with the absolute values of all the products.*/
+    private static double permanent3(double xx, double xy, double xz, double yx, double yy, double yz,
+            double zx, double zy, double zz)
+    {
+        return Math.abs(xx) * (Math.abs(yy * zz) + Math.abs(yz * zy))
+                + Math.abs(xy) * (Math.abs(yz * zx) + Math.abs(yx * zz))
+                + Math.abs(xz) * (Math.abs(yx * zy) + Math.abs(yy * zx));
+    }
+
+    // **************************************************************************
+    // Expansion stage
+    // **************************************************************************
+    // An expansion is an array of non-overlapping doubles sorted by increasing
+    // magnitude, without zeros, whose exact sum is the represented number.
+
+    /* The exact differences p - q of two points, as three expansions.*/
+    private static double[][] difference(double[] p, double[] q)
+    {
+        return new double[][] {subtract(p[0], q[0]), subtract(p[1], q[1]), subtract(p[2], q[2])};
+    }
+
+    /* A vector of doubles as three expansions.*/
+    private static double[][] exact(double[] p)
+    {
+        return new double[][] {exact(p[0]), exact(p[1]), exact(p[2])};
+    }
+
+    private static double[] exact(double value)
+    {
+        return (value == 0) ? ZERO : new double[] {value};
+    }
+
+    private static double[] dot(double[][] x, double[][] y)
+    {
+        return add(add(multiply(x[0], y[0]), multiply(x[1], y[1])), multiply(x[2], y[2]));
+    }
+
+    private static double[][] cross(double[][] x, double[][] y)
+    {
+        return new double[][] {
+                subtract(multiply(x[1], y[2]), multiply(x[2], y[1])),
+                subtract(multiply(x[2], y[0]), multiply(x[0], y[2])),
+                subtract(multiply(x[0], y[1]), multiply(x[1], y[0]))};
+    }
+
+    /* The exact difference of two doubles.*/
+    private static double[] subtract(double a, double b)
+    {
+        double x = a - b;
+        double bVirtual = a - x;
+        double aVirtual = x + bVirtual;
+        double y = (a - aVirtual) + (bVirtual - b);
+        if (x == 0) {
+            return ZERO;
+        }
+        if (y == 0) {
+            return new double[] {x};
+        }
+        return new double[] {y, x};
+    }
+
+    private static double[] add(double[] e, double[] f)
+    {
+        double[] h = e;
+        for (int i = 0; i < f.length; i++) {
+            h = grow(h, f[i]);
+        }
+        return h;
+    }
+
+    private static double[] subtract(double[] e, double[] f)
+    {
+        double[] h = e;
+        for (int i = 0; i < f.length; i++) {
+            h = grow(h, -f[i]);
+        }
+        return h;
+    }
+
+    /* Adds a double to an expansion (Shewchuk's GROW-EXPANSION, with zero elimination).*/
+    private static double[] grow(double[] e, double b)
+    {
+        double[] h = new double[e.length + 1];
+        int length = 0;
+        double q = b;
+        for (int i = 0; i < e.length; i++) {
+            double sum = q + e[i];
+            double bVirtual = sum - q;
+            double aVirtual = sum - bVirtual;
+            double tail = (q - aVirtual) + (e[i] - bVirtual);
+            q = sum;
+            if (tail != 0) {
+                h[length++] = tail;
+            }
+        }
+        if (q != 0) {
+            h[length++] = q;
+        }
+        return (length == h.length) ? h : Arrays.copyOf(h, length);
+    }
+
+    private static double[] multiply(double[] e, double[] f)
+    {
+        double[] h = ZERO;
+        for (int i = 0; i < f.length; i++) {
+            h = add(h, scale(e, f[i]));
+        }
+        return h;
+    }
+
+    /* Multiplies an expansion by a double (Shewchuk's SCALE-EXPANSION, with zero elimination).*/
+    private static double[] scale(double[] e, double b)
+    {
+        if (e.length == 0 || b == 0) {
+            return ZERO;
+        }
+        checkRange(b);
+        double[] h = new double[2 * e.length];
+        int length = 0;
+        checkRange(e[0]);
+        double q = e[0] * b;
+        double tail = productTail(e[0], b, q);
+        if (tail != 0) {
+            h[length++] = tail;
+        }
+        for (int i = 1; i < e.length; i++) {
+            checkRange(e[i]);
+            double product = e[i] * b;
+            double productTail = productTail(e[i], b, product);
+            double sum = q + productTail;
+            double bVirtual = sum - q;
+            double aVirtual = sum - bVirtual;
+            tail = (q - aVirtual) + (productTail - bVirtual);
+            if (tail != 0) {
+                h[length++] = tail;
+            }
+            q = product + sum;
+            tail = sum - (q - product);
+            if (tail != 0) {
+                h[length++] = tail;
+            }
+        }
+        if (q != 0) {
+            h[length++] = q;
+        }
+        return (length == h.length) ? h : Arrays.copyOf(h, length);
+    }
+
+    /* The rounding error of the product x = a * b (Dekker's TWO-PRODUCT).*/
+    private static double productTail(double a, double b, double x)
+    {
+        double c = SPLITTER * a;
+        double aBig = c - a;
+        double aHigh = c - aBig;
+        double aLow = a - aHigh;
+        c = SPLITTER * b;
+        double bBig = c - b;
+        double bHigh = c - bBig;
+        double bLow = b - bHigh;
+        double error1 = x - (aHigh * bHigh);
+        double error2 = error1 - (aLow * bHigh);
+        double error3 = error2 - (aHigh * bLow);
+        return (aLow * bLow) - error3;
+    }
+
+    /* Makes sure that products with this factor are computed exactly.*/
+    private static void checkRange(double factor)
+    {
+        double abs = Math.abs(factor);
+        if (abs > MAX_FACTOR || abs < MIN_FACTOR) {
+            throw OUT_OF_RANGE;
+        }
+    }
+
+    /* The sign of an expansion is the sign of its biggest component.*/
+    private static int sign(double[] e)
+    {
+        if (e.length == 0) {
+            return 0;
+        }
+        double biggest = e[e.length - 1];
+        if (Double.isNaN(biggest) || Double.isInfinite(biggest)) {
+            throw OUT_OF_RANGE;
+        }
+        return biggest > 0 ? 1 : -1;
+    }
+
+    /* An approximation of the value of an expansion, with the right sign.*/
+    private static double estimate(double[] e)
+    {
+        sign(e);
+        double sum = 0;
+        for (int i = 0; i < e.length; i++) {
+            sum += e[i];
+        }
+        return sum;
+    }
+}
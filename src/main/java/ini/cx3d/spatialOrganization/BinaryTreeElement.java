@@ -165,7 +165,7 @@ public class BinaryTreeElement<T>
             if ((smaller == null) && (bigger == null)) {
                 dad.changeLink(this, null);
             }
-            else if ((smaller != null) && ((NewDelaunayTest.rand.nextDouble() < 0.5) || (bigger == null))) {
+            else if ((smaller != null) && ((node.getTriangulation().getRandom().nextDouble() < 0.5) || (bigger == null))) {
                 dad.changeLink(this, smaller);
                 if (bigger != null) {
                     smaller.insert(bigger);
@@ -0,0 +1,325 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An implementation of {@link SpatialOrganizationNode} based on a {@link CompactTriangulation}.
+ * It has the same neighbors, volumes and cross sections as {@link SpaceNode}, but the
+ * triangulation takes several times less memory, which allows much larger simulations.
+ * <p/>
+ * A node is only a handle on a vertex of the triangulation : all the geometric information
+ * is stored in the arrays of the triangulation.
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public class CompactNode<T>
+        implements SpatialOrganizationNode<T>
+{
+
+    /* The triangulation shared by all the nodes of the simulation.*/
+    private final CompactTriangulation<T> triangulation;
+
+    /* The index of the vertex of this node in the triangulation (-1 while it is not inserted).*/
+    private int vertex = -1;
+
+    /* The user object associated with this node.*/
+    private T content;
+
+    /* Listeners called whenever this node is added, moved or removed.*/
+    private LinkedList<SpatialOrganizationNodeMovementListener<T>> listeners = null;
+
+    /**
+     * Creates the first node of a new triangulation.
+     *
+     * @param position the position of the node
+     * @param content the user object associated with the node
+     */
+    public CompactNode(double[] position, T content)
+    {
+        this(new CompactTriangulation<T>(), content, null);
+        try {
+            vertex = triangulation.addVertex(position, this, -1);
+        }
+        catch (PositionNotAllowedException e) {
+            // (the triangulation is empty)
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* Creates a node that is not inserted yet, sharing the listeners of an other one.*/
+    private CompactNode(CompactTriangulation<T> triangulation, T content,
+                        LinkedList<SpatialOrganizationNodeMovementListener<T>> listeners)
+    {
+        this.triangulation = triangulation;
+        this.content = content;
+        if (listeners != null) {
+            this.listeners = new LinkedList<SpatialOrganizationNodeMovementListener<T>>(listeners);
+        }
+    }
+
+    /**
+     * @return the triangulation in which this node is a vertex.
+     */
+    public CompactTriangulation<T> getTriangulation()
+    {
+        return triangulation;
+    }
+
+    public void addSpatialOrganizationNodeMovementListener(
+            SpatialOrganizationNodeMovementListener<T> listener)
+    {
+        if (listeners == null) {
+            listeners = new LinkedList<SpatialOrganizationNodeMovementListener<T>>();
+        }
+        listeners.add(listener);
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompactNode<T> nodeOf(int v)
+    {
+        return (CompactNode<T>) triangulation.getNode(v);
+    }
+
+    public Iterable<SpatialOrganizationEdge<T>> getEdges()
+    {
+        ArrayList<SpatialOrganizationEdge<T>> edges = new ArrayList<SpatialOrganizationEdge<T>>();
+        if (vertex < 0) {
+            return edges;
+        }
+        CompactTriangulation.IntList neighbors = new CompactTriangulation.IntList();
+        double[] crossSections = triangulation.getCrossSections(vertex, neighbors);
+        edges.ensureCapacity(neighbors.size);
+        for (int i = 0; i < neighbors.size; i++) {
+            edges.add(new CompactEdge<T>(this, nodeOf(neighbors.get(i)), crossSections[i]));
+        }
+        return edges;
+    }
+
+    public Iterable<T> getNeighbors()
+    {
+        return getPermanentListOfNeighbors();
+    }
+
+    public Iterable<T> getPermanentListOfNeighbors()
+    {
+        if (vertex < 0) {
+            return new ArrayList<T>(0);
+        }
+        CompactTriangulation.IntList neighbors = triangulation.getNeighbors(vertex);
+        ArrayList<T> result = new ArrayList<T>(neighbors.size);
+        for (int i = 0; i < neighbors.size; i++) {
+            result.add(nodeOf(neighbors.get(i)).content);
+        }
+        return result;
+    }
+
+    public void visitNeighbors(NeighborVisitor<T> visitor)
+    {
+        if (vertex < 0) {
+            return;
+        }
+        CompactTriangulation.IntList neighbors = triangulation.getNeighbors(vertex);
+        for (int i = 0; i < neighbors.size; i++) {
+            visitor.visit(nodeOf(neighbors.get(i)).content);
+        }
+    }
+
+    public SpatialOrganizationNode<T> getNewInstance(double[] position, T userObject)
+            throws PositionNotAllowedException
+    {
+        CompactNode<T> node = new CompactNode<T>(triangulation, userObject, listeners);
+        if (listeners != null) {
+            // tell the listeners that there will be a new node:
+            Object[] verticeContents = userObjects(triangulation.getNodesOfTheTetrahedronContaining(position, vertex));
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToBeAdded(node, position, verticeContents);
+            }
+        }
+        node.vertex = triangulation.addVertex(position, node, vertex);
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAdded(node);
+            }
+        }
+        return node;
+    }
+
+    public double[] getPosition()
+    {
+        return triangulation.getPosition(vertex);
+    }
+
+    public T getUserObject()
+    {
+        return content;
+    }
+
+    public Object[] getVerticesOfTheTetrahedronContaining(double[] position)
+    {
+        return userObjects(triangulation.getNodesOfTheTetrahedronContaining(position, vertex));
+    }
+
+    public Object[][] getVerticesOfTheTetrahedraContaining(List<double[]> positions)
+    {
+        Object[][] result = triangulation.getNodesOfTheTetrahedraContaining(positions, vertex);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = userObjects(result[i]);
+        }
+        return result;
+    }
+
+    /* Replaces nodes by their user objects.*/
+    private static Object[] userObjects(Object[] nodes)
+    {
+        if (nodes != null) {
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = ((CompactNode<?>) nodes[i]).content;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the volume associated with this node : a quarter of the volume of each
+     * incident tetrahedron.
+     */
+    public double getVolume()
+    {
+        return triangulation.getVolume(vertex);
+    }
+
+    public void moveFrom(double[] delta) throws PositionNotAllowedException
+    {
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToMove(this, delta);
+            }
+        }
+        double[] position = getPosition();
+        try {
+            triangulation.moveVertex(vertex, new double[]{position[0] + delta[0],
+                                                         position[1] + delta[1],
+                                                         position[2] + delta[2]});
+        }
+        finally {
+            // also if the position was not allowed (the vertex is then back at its old
+            // position), so that the listeners don't wait for this node any more:
+            if (listeners != null) {
+                for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                    listener.nodeMoved(this);
+                }
+            }
+        }
+    }
+
+    public void remove()
+    {
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToBeRemoved(this);
+            }
+        }
+        triangulation.removeVertex(vertex);
+        vertex = -1;
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeRemoved(this);
+            }
+        }
+    }
+
+    public String toString()
+    {
+        if (vertex < 0) {
+            return "CompactNode(removed)";
+        }
+        double[] position = getPosition();
+        return "CompactNode(" + position[0] + ", " + position[1] + ", " + position[2] + ")";
+    }
+
+    /**
+     * Edge between two nodes of a compact triangulation. Edges are not stored in the
+     * triangulation, so the cross section is the one computed when the edge was created.
+     *
+     * @param <T> The type of the user objects associated with each node.
+     */
+    static class CompactEdge<T>
+            implements SpatialOrganizationEdge<T>
+    {
+
+        private final CompactNode<T> a;
+        private final CompactNode<T> b;
+        private final double crossSection;
+
+        CompactEdge(CompactNode<T> a, CompactNode<T> b, double crossSection)
+        {
+            this.a = a;
+            this.b = b;
+            this.crossSection = crossSection;
+        }
+
+        public T getOppositeElement(T element)
+        {
+            if (element == a.content) {
+                return b.content;
+            }
+            return a.content;
+        }
+
+        public SpatialOrganizationNode<T> getOpposite(SpatialOrganizationNode<T> first)
+        {
+            if (first == a) {
+                return b;
+            }
+            if (first == b) {
+                return a;
+            }
+            throw new RuntimeException("The edge " + this + " is not incident to node " + first);
+        }
+
+        public T getFirstElement()
+        {
+            return a.content;
+        }
+
+        public T getSecondElement()
+        {
+            return b.content;
+        }
+
+        public double getCrossSection()
+        {
+            return crossSection;
+        }
+
+        public String toString()
+        {
+            return "(" + a + " - " + b + ")";
+        }
+    }
+}
@@ -0,0 +1,1483 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Delaunay triangulation stored in arrays of primitive values instead of objects
+ * ({@link SpaceNode}, {@link Tetrahedron}, {@link Triangle3D}, {@link Edge}) :
+ * <ul>
+ * <li>vertex <code>v</code> has its coordinates at <code>3v</code> to <code>3v+2</code> in an array
+ * of doubles, and its volume and one incident tetrahedron at <code>v</code> in two other arrays;</li>
+ * <li>tetrahedron <code>t</code> has its four endpoints at <code>4t</code> to <code>4t+3</code> in an
+ * array of ints, and its four neighbors at the same places in another one (the <code>i</code>-th
+ * neighbor is the tetrahedron opposite to the <code>i</code>-th endpoint).</li>
+ * </ul>
+ * Triangles and edges are not stored : the neighbors of a vertex and the cross sections of its
+ * edges are computed from its incident tetrahedra when they are asked for. The slots of removed
+ * vertices and tetrahedra are kept in free lists and reused first. This needs several times less
+ * memory than the object based triangulation, and the visibility walks read contiguous arrays.
+ * <p/>
+ * As in the object based triangulation, the convex hull is closed by infinite tetrahedra, which
+ * share the vertex {@link #INFINITE_VERTEX}. All finite tetrahedra are positively oriented (see
+ * {@link AdaptivePredicates#orientation(double[], double[], double[], double[])}), and an infinite
+ * tetrahedron is oriented as if its infinite vertex was a point beyond its face on the convex hull.
+ * All the predicates are exact.
+ * <p/>
+ * A point is inserted with the Bowyer-Watson algorithm : all the tetrahedra whose circumsphere
+ * contains it are replaced by a star of new tetrahedra around it. A vertex is removed by filling
+ * the hole left by its incident tetrahedra with the corresponding part of the Delaunay
+ * triangulation of its neighbors. (If that fails in a degenerate configuration, e.g. with
+ * cospherical neighbors, the whole triangulation is rebuilt.) A vertex is moved without any
+ * change of the topology as long as its incident tetrahedra remain valid and Delaunay, otherwise
+ * it is removed and inserted again.
+ * <p/>
+ * Several threads can read the triangulation at the same time (neighbors, volumes, point location),
+ * but it must not be read while it is modified. The user objects are associated with the vertices
+ * through {@link CompactNode}s.
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public class CompactTriangulation<T>
+{
+
+    /**
+     * The index of the vertex at infinity, shared by all the infinite tetrahedra.
+     */
+    public static final int INFINITE_VERTEX = 0;
+
+    /* Value of vertexTetrahedra for vertices that are not in the triangulation (yet),
+     * and for free vertex slots.*/
+    private static final int NOT_INSERTED = -1;
+    private static final int FREE = -2;
+
+    /* Initial number of vertex and tetrahedron slots.*/
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* Coordinates of the vertices (x, y and z of vertex v at 3v, 3v+1 and 3v+2).*/
+    private double[] coordinates = new double[3 * INITIAL_CAPACITY];
+
+    /* One tetrahedron incident to each vertex (or NOT_INSERTED or FREE).*/
+    private int[] vertexTetrahedra = new int[INITIAL_CAPACITY];
+
+    /* The volume associated with each vertex : a quarter of the volume of each incident tetrahedron.*/
+    private double[] volumes = new double[INITIAL_CAPACITY];
+
+    /* The node of each vertex.*/
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+
+    /* Number of vertex slots in use or freed (slot 0 is the infinite vertex).*/
+    private int vertexSlots = 1;
+
+    /* The vertex slots that can be reused.*/
+    private final IntList freeVertices = new IntList();
+
+    /* Number of finite vertices.*/
+    private int size = 0;
+
+    /* The vertices that are waiting for three others to span a first tetrahedron with.*/
+    private final IntList pendingVertices = new IntList();
+
+    /* Endpoints of the tetrahedra, 4 per tetrahedron (the first one is -1 for a free slot).*/
+    private int[] tetrahedronVertices = new int[4 * INITIAL_CAPACITY];
+
+    /* Neighbors of the tetrahedra, 4 per tetrahedron.*/
+    private int[] tetrahedronNeighbors = new int[4 * INITIAL_CAPACITY];
+
+    /* Tags put on the tetrahedra while inserting a point.*/
+    private int[] marks = new int[INITIAL_CAPACITY];
+    private int currentMark = 0;
+
+    /* Number of tetrahedron slots in use or freed.*/
+    private int tetrahedronSlots = 0;
+
+    /* The tetrahedron slots that can be reused.*/
+    private final IntList freeTetrahedra = new IntList();
+
+    /* Number of tetrahedra (finite and infinite).*/
+    private int tetrahedronCount = 0;
+
+    /* A tetrahedron where point locations without a hint start (-1 if there is none).*/
+    private int anyTetrahedron = -1;
+
+    /* Lists reused by the insertions and removals.*/
+    private final IntList cavity = new IntList();
+    private final IntList boundary = new IntList();
+    private final IntList newTetrahedra = new IntList();
+    private int[] edgeTable = new int[64];
+    private int[] edgeTableStamps = new int[64];
+    private int edgeTableStamp = 0;
+
+    /* Triangulation of the neighbors of a vertex that is removed (created when first needed).*/
+    private CompactTriangulation<Object> holeTriangulation = null;
+
+    /* Statistics.*/
+    private long movementsInPlace = 0;
+    private long movementsByReinsertion = 0;
+    private long rebuilds = 0;
+
+    /**
+     * A growable list of ints.
+     */
+    static final class IntList
+    {
+
+        int[] data;
+        int size = 0;
+
+        IntList()
+        {
+            this(16);
+        }
+
+        IntList(int capacity)
+        {
+            data = new int[capacity];
+        }
+
+        void add(int value)
+        {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = value;
+        }
+
+        int get(int index)
+        {
+            return data[index];
+        }
+
+        boolean contains(int value)
+        {
+            for (int i = 0; i < size; i++) {
+                if (data[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeValue(int value)
+        {
+            for (int i = 0; i < size; i++) {
+                if (data[i] == value) {
+                    System.arraycopy(data, i + 1, data, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        int removeLast()
+        {
+            return data[--size];
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+
+    /**
+     * Creates an empty triangulation.
+     */
+    public CompactTriangulation()
+    {
+        vertexTetrahedra[INFINITE_VERTEX] = NOT_INSERTED;
+    }
+
+    // *************************************************************************************
+    // *      Vertices (used by CompactNode)                                               *
+    // *************************************************************************************
+
+    /**
+     * Inserts a new vertex.
+     *
+     * @param position the coordinates of the new vertex.
+     * @param node the node associated with it.
+     * @param hint a vertex close to the new one, where the point location starts (or -1).
+     * @return the index of the new vertex.
+     * @throws PositionNotAllowedException if there is already a vertex at this position.
+     */
+    int addVertex(double[] position, Object node, int hint)
+            throws PositionNotAllowedException
+    {
+        int v = allocateVertex();
+        setCoordinates(v, position);
+        nodes[v] = node;
+        try {
+            insertVertex(v, startTetrahedron(hint));
+        }
+        catch (PositionNotAllowedException e) {
+            freeVertex(v);
+            throw e;
+        }
+        size++;
+        return v;
+    }
+
+    /**
+     * Removes a vertex from the triangulation.
+     */
+    void removeVertex(int v)
+    {
+        detach(v);
+        freeVertex(v);
+        size--;
+    }
+
+    /**
+     * Moves a vertex to a new position. The topology is kept if the tetrahedra incident to the
+     * vertex are still valid and Delaunay; otherwise, the vertex is removed and inserted again.
+     *
+     * @throws PositionNotAllowedException if there is already a vertex at the new position.
+     * The vertex is then left at its old position.
+     */
+    void moveVertex(int v, double[] position)
+            throws PositionNotAllowedException
+    {
+        double[] oldPosition = getPosition(v);
+        if (vertexTetrahedra[v] != NOT_INSERTED) {
+            IntList star = starOf(v);
+            if (!containsInfiniteTetrahedron(star)) {
+                double[] oldVolumes = new double[star.size];
+                for (int k = 0; k < star.size; k++) {
+                    oldVolumes[k] = volume(star.get(k));
+                }
+                setCoordinates(v, position);
+                if (isValidAndDelaunay(star)) {
+                    for (int k = 0; k < star.size; k++) {
+                        int t = star.get(k);
+                        double change = (volume(t) - oldVolumes[k]) / 4.0;
+                        for (int i = 4 * t; i < 4 * t + 4; i++) {
+                            volumes[tetrahedronVertices[i]] += change;
+                        }
+                    }
+                    movementsInPlace++;
+                    return;
+                }
+                setCoordinates(v, oldPosition);
+            }
+            movementsByReinsertion++;
+        }
+        detach(v);
+        setCoordinates(v, position);
+        try {
+            insertVertex(v, anyTetrahedron);
+        }
+        catch (PositionNotAllowedException e) {
+            setCoordinates(v, oldPosition);
+            try {
+                insertVertex(v, anyTetrahedron);
+            }
+            catch (PositionNotAllowedException impossible) {
+                // (the old position was free, and no other vertex moved)
+                throw new IllegalStateException(impossible);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return a copy of the coordinates of a vertex.
+     */
+    double[] getPosition(int v)
+    {
+        return new double[] {coordinates[3 * v], coordinates[3 * v + 1], coordinates[3 * v + 2]};
+    }
+
+    /**
+     * @return the volume associated with a vertex.
+     */
+    double getVolume(int v)
+    {
+        return volumes[v];
+    }
+
+    /**
+     * @return the node associated with a vertex.
+     */
+    Object getNode(int v)
+    {
+        return nodes[v];
+    }
+
+    /**
+     * Finds the neighbors of a vertex, i.e. the vertices it shares an edge with. While there
+     * is no tetrahedron yet, all the vertices are neighbors.
+     */
+    IntList getNeighbors(int v)
+    {
+        IntList neighbors = new IntList(24);
+        if (vertexTetrahedra[v] == NOT_INSERTED) {
+            for (int k = 0; k < pendingVertices.size; k++) {
+                if (pendingVertices.get(k) != v) {
+                    neighbors.add(pendingVertices.get(k));
+                }
+            }
+            return neighbors;
+        }
+        IntList star = starOf(v);
+        for (int k = 0; k < star.size; k++) {
+            for (int i = 4 * star.get(k); i < 4 * star.get(k) + 4; i++) {
+                int w = tetrahedronVertices[i];
+                if (w != v && w != INFINITE_VERTEX && !neighbors.contains(w)) {
+                    neighbors.add(w);
+                }
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * Finds the neighbors of a vertex and the cross section areas of the edges to them
+     * (computed as in {@link Tetrahedron}).
+     *
+     * @param v the vertex.
+     * @param neighbors filled with the neighbors of the vertex.
+     * @return the cross section areas, in the same order as the neighbors.
+     */
+    double[] getCrossSections(int v, IntList neighbors)
+    {
+        if (vertexTetrahedra[v] == NOT_INSERTED) {
+            IntList pending = getNeighbors(v);
+            for (int k = 0; k < pending.size; k++) {
+                neighbors.add(pending.get(k));
+            }
+            return new double[neighbors.size];
+        }
+        IntList star = starOf(v);
+        double[] crossSections = new double[3 * star.size];
+        double[] p = coordinates;
+        for (int k = 0; k < star.size; k++) {
+            int t = star.get(k);
+            if (isInfinite(t)) {
+                for (int i = 4 * t; i < 4 * t + 4; i++) {
+                    int w = tetrahedronVertices[i];
+                    if (w != v && w != INFINITE_VERTEX && !neighbors.contains(w)) {
+                        neighbors.add(w);
+                    }
+                }
+                continue;
+            }
+            int a = slotOf(t, v);
+            for (int b = 0; b < 4; b++) {
+                if (b == a) {
+                    continue;
+                }
+                int c = (b + 1) & 3;
+                if (c == a) {
+                    c = (c + 1) & 3;
+                }
+                int d = 6 - a - b - c;
+                int ia = 3 * v, ib = 3 * tetrahedronVertices[4 * t + b];
+                int ic = 3 * tetrahedronVertices[4 * t + c], id = 3 * tetrahedronVertices[4 * t + d];
+                // the middle of the edge, the center of the tetrahedron, and the centers of
+                // the two faces that contain the edge :
+                double[] m = new double[3], u = new double[3], e = new double[3];
+                for (int x = 0; x < 3; x++) {
+                    double center = (p[ia + x] + p[ib + x] + p[ic + x] + p[id + x]) * 0.25;
+                    m[x] = (p[ia + x] + p[ib + x]) * 0.5 - center;
+                    u[x] = (p[id + x] - p[ic + x]) / 3.0;
+                    e[x] = p[ia + x] - p[ib + x];
+                }
+                double crossSection = Math.abs(
+                        ((m[1] * u[2] - m[2] * u[1]) * e[0] + (m[2] * u[0] - m[0] * u[2]) * e[1]
+                                + (m[0] * u[1] - m[1] * u[0]) * e[2])
+                                / Math.sqrt(e[0] * e[0] + e[1] * e[1] + e[2] * e[2]));
+                int w = tetrahedronVertices[4 * t + b];
+                int index = indexOf(neighbors, w);
+                if (index < 0) {
+                    index = neighbors.size;
+                    neighbors.add(w);
+                }
+                if (index >= crossSections.length) {
+                    crossSections = Arrays.copyOf(crossSections, 2 * index + 1);
+                }
+                crossSections[index] += crossSection;
+            }
+        }
+        return Arrays.copyOf(crossSections, neighbors.size);
+    }
+
+    /**
+     * Finds the finite tetrahedron containing a point.
+     *
+     * @param position the point.
+     * @param hint a vertex close to the point, where the search starts (or -1).
+     * @return the nodes of the four endpoints of the tetrahedron, or <code>null</code> if the
+     * point is outside of the convex hull.
+     */
+    Object[] getNodesOfTheTetrahedronContaining(double[] position, int hint)
+    {
+        int t = locateFinite(position, startTetrahedron(hint));
+        if (t < 0) {
+            return null;
+        }
+        return getNodesOfTetrahedron(t);
+    }
+
+    /**
+     * Same as {@link #getNodesOfTheTetrahedronContaining(double[], int)} for many points. The
+     * points are processed along a Hilbert curve, and each search starts from the tetrahedron
+     * found for the previous point.
+     */
+    Object[][] getNodesOfTheTetrahedraContaining(List<double[]> positions, int hint)
+    {
+        Object[][] result = new Object[positions.size()][];
+        int start = startTetrahedron(hint);
+        for (int index : SpaceNode.hilbertSortedOrder(positions)) {
+            int t = locateFinite(positions.get(index), start);
+            if (t >= 0) {
+                result[index] = getNodesOfTetrahedron(t);
+                start = t;
+            }
+        }
+        return result;
+    }
+
+    // *************************************************************************************
+    // *      Statistics                                                                   *
+    // *************************************************************************************
+
+    /**
+     * @return the number of finite vertices.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of tetrahedra, including the infinite ones.
+     */
+    public int getNumberOfTetrahedra()
+    {
+        return tetrahedronCount;
+    }
+
+    /**
+     * @return the number of vertex movements that didn't change the topology.
+     */
+    public long getMovementsInPlace()
+    {
+        return movementsInPlace;
+    }
+
+    /**
+     * @return the number of vertex movements that were done by removing and inserting the vertex.
+     */
+    public long getMovementsByReinsertion()
+    {
+        return movementsByReinsertion;
+    }
+
+    /**
+     * @return the number of times the triangulation had to be rebuilt because the hole left by a
+     * removed vertex could not be filled (degenerate configurations).
+     */
+    public long getRebuilds()
+    {
+        return rebuilds;
+    }
+
+    /**
+     * @return the number of bytes used by the arrays of this triangulation (without the nodes).
+     */
+    public long getArraysSize()
+    {
+        return 8L * coordinates.length + 4L * vertexTetrahedra.length + 8L * volumes.length
+                + 4L * nodes.length + 4L * tetrahedronVertices.length
+                + 4L * tetrahedronNeighbors.length + 4L * marks.length;
+    }
+
+    // *************************************************************************************
+    // *      Storage                                                                      *
+    // *************************************************************************************
+
+    private int allocateVertex()
+    {
+        int v;
+        if (freeVertices.size > 0) {
+            v = freeVertices.removeLast();
+        }
+        else {
+            if (vertexSlots == vertexTetrahedra.length) {
+                int capacity = 2 * vertexSlots;
+                coordinates = Arrays.copyOf(coordinates, 3 * capacity);
+                vertexTetrahedra = Arrays.copyOf(vertexTetrahedra, capacity);
+                volumes = Arrays.copyOf(volumes, capacity);
+                nodes = Arrays.copyOf(nodes, capacity);
+            }
+            v = vertexSlots++;
+        }
+        vertexTetrahedra[v] = NOT_INSERTED;
+        volumes[v] = 0.0;
+        return v;
+    }
+
+    private void freeVertex(int v)
+    {
+        vertexTetrahedra[v] = FREE;
+        nodes[v] = null;
+        freeVertices.add(v);
+    }
+
+    private void setCoordinates(int v, double[] position)
+    {
+        coordinates[3 * v] = position[0];
+        coordinates[3 * v + 1] = position[1];
+        coordinates[3 * v + 2] = position[2];
+    }
+
+    /* Creates a tetrahedron (without neighbors) and adds its volume to its endpoints.*/
+    private int createTetrahedron(int a, int b, int c, int d)
+    {
+        int t;
+        if (freeTetrahedra.size > 0) {
+            t = freeTetrahedra.removeLast();
+        }
+        else {
+            if (tetrahedronSlots == marks.length) {
+                int capacity = 2 * tetrahedronSlots;
+                tetrahedronVertices = Arrays.copyOf(tetrahedronVertices, 4 * capacity);
+                tetrahedronNeighbors = Arrays.copyOf(tetrahedronNeighbors, 4 * capacity);
+                marks = Arrays.copyOf(marks, capacity);
+            }
+            t = tetrahedronSlots++;
+        }
+        int i = 4 * t;
+        tetrahedronVertices[i] = a;
+        tetrahedronVertices[i + 1] = b;
+        tetrahedronVertices[i + 2] = c;
+        tetrahedronVertices[i + 3] = d;
+        Arrays.fill(tetrahedronNeighbors, i, i + 4, -1);
+        marks[t] = 0;
+        vertexTetrahedra[a] = t;
+        vertexTetrahedra[b] = t;
+        vertexTetrahedra[c] = t;
+        vertexTetrahedra[d] = t;
+        if (!isInfinite(t)) {
+            double quarter = volume(t) / 4.0;
+            volumes[a] += quarter;
+            volumes[b] += quarter;
+            volumes[c] += quarter;
+            volumes[d] += quarter;
+        }
+        tetrahedronCount++;
+        anyTetrahedron = t;
+        return t;
+    }
+
+    /* Frees the slot of a tetrahedron and subtracts its volume from its endpoints.*/
+    private void deleteTetrahedron(int t)
+    {
+        int i = 4 * t;
+        if (!isInfinite(t)) {
+            double quarter = volume(t) / 4.0;
+            for (int k = i; k < i + 4; k++) {
+                volumes[tetrahedronVertices[k]] -= quarter;
+            }
+        }
+        tetrahedronVertices[i] = -1;
+        freeTetrahedra.add(t);
+        tetrahedronCount--;
+    }
+
+    private void setNeighbors(int s, int i, int t, int j)
+    {
+        tetrahedronNeighbors[4 * s + i] = t;
+        tetrahedronNeighbors[4 * t + j] = s;
+    }
+
+    private void nextMark()
+    {
+        if (currentMark == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            currentMark = 0;
+        }
+        currentMark++;
+    }
+
+    /* Removes all the vertices and tetrahedra.*/
+    private void clear()
+    {
+        vertexSlots = 1;
+        freeVertices.clear();
+        size = 0;
+        pendingVertices.clear();
+        tetrahedronSlots = 0;
+        freeTetrahedra.clear();
+        tetrahedronCount = 0;
+        anyTetrahedron = -1;
+    }
+
+    // *************************************************************************************
+    // *      Geometry                                                                     *
+    // *************************************************************************************
+
+    private boolean isInfinite(int t)
+    {
+        int i = 4 * t;
+        return tetrahedronVertices[i] == INFINITE_VERTEX || tetrahedronVertices[i + 1] == INFINITE_VERTEX
+                || tetrahedronVertices[i + 2] == INFINITE_VERTEX || tetrahedronVertices[i + 3] == INFINITE_VERTEX;
+    }
+
+    private boolean containsInfiniteTetrahedron(IntList tetrahedra)
+    {
+        for (int k = 0; k < tetrahedra.size; k++) {
+            if (isInfinite(tetrahedra.get(k))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The slot of a vertex in a tetrahedron, or -1.*/
+    private int slotOf(int t, int v)
+    {
+        for (int i = 0; i < 4; i++) {
+            if (tetrahedronVertices[4 * t + i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* The slot of the neighbor t in the tetrahedron n.*/
+    private int neighborSlot(int n, int t)
+    {
+        for (int j = 0; j < 4; j++) {
+            if (tetrahedronNeighbors[4 * n + j] == t) {
+                return j;
+            }
+        }
+        throw new IllegalStateException("Tetrahedra " + n + " and " + t + " are not adjacent");
+    }
+
+    private static int indexOf(IntList list, int value)
+    {
+        for (int i = 0; i < list.size; i++) {
+            if (list.data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* The volume of a finite tetrahedron.*/
+    private double volume(int t)
+    {
+        int a = 3 * tetrahedronVertices[4 * t], b = 3 * tetrahedronVertices[4 * t + 1];
+        int c = 3 * tetrahedronVertices[4 * t + 2], d = 3 * tetrahedronVertices[4 * t + 3];
+        double[] p = coordinates;
+        double ux = p[b] - p[a], uy = p[b + 1] - p[a + 1], uz = p[b + 2] - p[a + 2];
+        double vx = p[c] - p[a], vy = p[c + 1] - p[a + 1], vz = p[c + 2] - p[a + 2];
+        double wx = p[d] - p[a], wy = p[d + 1] - p[a + 1], wz = p[d + 2] - p[a + 2];
+        return Math.abs(ux * (vy * wz - vz * wy) + uy * (vz * wx - vx * wz) + uz * (vx * wy - vy * wx)) / 6.0;
+    }
+
+    /* The orientation of the tetrahedron t, with its slot-th endpoint replaced by a point.*/
+    private int orientation(int t, int slot, double[] point)
+    {
+        int i = 4 * t;
+        int[] v = tetrahedronVertices;
+        switch (slot) {
+            case 3:
+                return AdaptivePredicates.orientation(coordinates, v[i], v[i + 1], v[i + 2], point);
+            case 2:
+                return -AdaptivePredicates.orientation(coordinates, v[i], v[i + 1], v[i + 3], point);
+            case 1:
+                return -AdaptivePredicates.orientation(coordinates, v[i], v[i + 3], v[i + 2], point);
+            default:
+                return -AdaptivePredicates.orientation(coordinates, v[i + 3], v[i + 1], v[i + 2], point);
+        }
+    }
+
+    /**
+     * Whether a point lies inside the circumsphere of a finite tetrahedron. If it lies exactly
+     * on the sphere, the points are symbolically perturbed in lexicographic order (Devillers
+     * and Teillaud, "Perturbations and vertex removal in a 3D Delaunay triangulation"), so that
+     * the Delaunay triangulation is unique even with cospherical points. A vertex can then be
+     * removed by triangulating its neighbors : the result always fits into the hole.
+     */
+    private boolean isInsideSphere(int t, double[] point)
+    {
+        int i = 4 * t;
+        int side = AdaptivePredicates.inSphere(coordinates, tetrahedronVertices[i], tetrahedronVertices[i + 1],
+                tetrahedronVertices[i + 2], tetrahedronVertices[i + 3], point);
+        if (side != 0) {
+            return side > 0;
+        }
+        int[] order = lexicographicOrder(t, -1, point);
+        // the two largest points decide :
+        for (int k = 0; k < 2; k++) {
+            if (order[k] == 4) {
+                return false;
+            }
+            int orientation = orientation(t, order[k], point);
+            if (orientation != 0) {
+                return orientation > 0;
+            }
+        }
+        throw new IllegalStateException("Degenerate tetrahedron " + t);
+    }
+
+    /**
+     * Same as {@link #isInsideSphere(int, double[])} for a point in the plane of a face of a
+     * finite tetrahedron : whether it lies inside the circumcircle of that face (with the same
+     * kind of perturbation).
+     */
+    private boolean isInsideCircle(int t, int apex, double[] point)
+    {
+        int i = 4 * t;
+        int side = AdaptivePredicates.inSphere(coordinates, tetrahedronVertices[i], tetrahedronVertices[i + 1],
+                tetrahedronVertices[i + 2], tetrahedronVertices[i + 3], point);
+        if (side != 0) {
+            return side > 0;
+        }
+        int[] order = lexicographicOrder(t, apex, point);
+        // the three largest points decide :
+        for (int k = 0; k < 3; k++) {
+            if (order[k] == 4) {
+                return false;
+            }
+            int orientation = orientation(t, order[k], point);
+            if (orientation != 0) {
+                return orientation > 0;
+            }
+        }
+        throw new IllegalStateException("Degenerate face in tetrahedron " + t);
+    }
+
+    /* The slots of the endpoints of a tetrahedron (except the one at slot excluded, if any) and
+     * a point (as slot 4), sorted by decreasing lexicographic order of their coordinates.*/
+    private int[] lexicographicOrder(int t, int excluded, double[] point)
+    {
+        int[] order = new int[excluded < 0 ? 5 : 4];
+        int count = 0;
+        for (int slot = 0; slot <= 4; slot++) {
+            if (slot == excluded) {
+                continue;
+            }
+            int k = count++;
+            while (k > 0 && compareLexicographically(slot, order[k - 1], t, point) > 0) {
+                order[k] = order[k - 1];
+                k--;
+            }
+            order[k] = slot;
+        }
+        return order;
+    }
+
+    private int compareLexicographically(int slot1, int slot2, int t, double[] point)
+    {
+        for (int x = 0; x < 3; x++) {
+            double c1 = (slot1 == 4) ? point[x] : coordinates[3 * tetrahedronVertices[4 * t + slot1] + x];
+            double c2 = (slot2 == 4) ? point[x] : coordinates[3 * tetrahedronVertices[4 * t + slot2] + x];
+            if (c1 != c2) {
+                return (c1 < c2) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /* Whether a tetrahedron would be removed by inserting a point (Bowyer-Watson).*/
+    private boolean isInConflict(int t, double[] point)
+    {
+        int infinite = slotOf(t, INFINITE_VERTEX);
+        if (infinite < 0) {
+            return isInsideSphere(t, point);
+        }
+        int orientation = orientation(t, infinite, point);
+        if (orientation != 0) {
+            return orientation > 0;
+        }
+        // in the plane of a face of the convex hull : in conflict if inside its circumcircle.
+        int finite = tetrahedronNeighbors[4 * t + infinite];
+        return isInsideCircle(finite, neighborSlot(finite, t), point);
+    }
+
+    /* Whether four vertices span a tetrahedron.*/
+    private boolean spanTetrahedron(int a, int b, int c, int d)
+    {
+        return AdaptivePredicates.orientation(coordinates, a, b, c, d) != 0;
+    }
+
+    /* Whether three vertices are not on a line.*/
+    private boolean spanTriangle(int a, int b, int c)
+    {
+        for (int x = 0; x < 3; x++) {
+            double[] point = getPosition(a);
+            point[x] += 1.0 + Math.abs(point[x]);
+            if (AdaptivePredicates.orientation(coordinates, a, b, c, point) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean samePosition(int v, double[] position)
+    {
+        return coordinates[3 * v] == position[0] && coordinates[3 * v + 1] == position[1]
+                && coordinates[3 * v + 2] == position[2];
+    }
+
+    /* Proposes a position close to a vertex, for a vertex that was moved or inserted at
+     * the same position (as in SpaceNode).*/
+    private double[] proposeNewPosition(int v)
+    {
+        double[] position = getPosition(v);
+        IntList neighbors = getNeighbors(v);
+        double minDistance = Double.MAX_VALUE, maxDistance = -1;
+        double[] farthestAwayDiff = {1, 0, 0};
+        for (int k = 0; k < neighbors.size; k++) {
+            double[] diff = getPosition(neighbors.get(k));
+            diff[0] -= position[0];
+            diff[1] -= position[1];
+            diff[2] -= position[2];
+            double distance = diff[0] * diff[0] + diff[1] * diff[1] + diff[2] * diff[2];
+            minDistance = Math.min(minDistance, distance);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthestAwayDiff = diff;
+            }
+        }
+        double length = Math.sqrt(farthestAwayDiff[0] * farthestAwayDiff[0]
+                + farthestAwayDiff[1] * farthestAwayDiff[1] + farthestAwayDiff[2] * farthestAwayDiff[2]);
+        double factor = (minDistance < Double.MAX_VALUE) ? 0.5 * Math.sqrt(minDistance) / length : 1.0;
+        return new double[] {position[0] + factor * farthestAwayDiff[0],
+                             position[1] + factor * farthestAwayDiff[1],
+                             position[2] + factor * farthestAwayDiff[2]};
+    }
+
+    // *************************************************************************************
+    // *      Point location                                                               *
+    // *************************************************************************************
+
+    private int startTetrahedron(int hintVertex)
+    {
+        if (hintVertex > INFINITE_VERTEX && vertexTetrahedra[hintVertex] >= 0) {
+            return vertexTetrahedra[hintVertex];
+        }
+        return anyTetrahedron;
+    }
+
+    /**
+     * Visibility walk towards a point : as long as the point lies beyond one of the faces of the
+     * current tetrahedron, we go to the neighbor behind that face. In a Delaunay triangulation,
+     * such a walk always terminates.
+     *
+     * @return the finite tetrahedron containing the point, or an infinite tetrahedron whose hull
+     * face the point is beyond, or -1 if there is no tetrahedron.
+     */
+    private int locate(double[] point, int start)
+    {
+        if (tetrahedronCount == 0) {
+            return -1;
+        }
+        int t = (start >= 0 && tetrahedronVertices[4 * start] >= 0) ? start : anyTetrahedron;
+        int infinite = slotOf(t, INFINITE_VERTEX);
+        if (infinite >= 0) {
+            t = tetrahedronNeighbors[4 * t + infinite];
+        }
+        for (int step = 0; step < tetrahedronSlots; step++) {
+            int next = -1;
+            for (int k = 0; k < 4; k++) {
+                int i = (k + step) & 3;
+                if (orientation(t, i, point) < 0) {
+                    next = tetrahedronNeighbors[4 * t + i];
+                    break;
+                }
+            }
+            if (next < 0) {
+                return t;
+            }
+            if (isInfinite(next)) {
+                return next;
+            }
+            t = next;
+        }
+        // (can't happen in a Delaunay triangulation)
+        for (t = 0; t < tetrahedronSlots; t++) {
+            if (tetrahedronVertices[4 * t] >= 0) {
+                int slot = slotOf(t, INFINITE_VERTEX);
+                boolean inside = true;
+                for (int i = 0; i < 4 && inside; i++) {
+                    inside = (i == slot) ? orientation(t, i, point) > 0 : orientation(t, i, point) >= 0;
+                }
+                if (inside) {
+                    return t;
+                }
+            }
+        }
+        throw new IllegalStateException("Point location failed");
+    }
+
+    /* Like locate(), but returns -1 for points outside of the convex hull.*/
+    private int locateFinite(double[] point, int start)
+    {
+        int t = locate(point, start);
+        if (t < 0 || isInfinite(t)) {
+            return -1;
+        }
+        return t;
+    }
+
+    private Object[] getNodesOfTetrahedron(int t)
+    {
+        Object[] result = new Object[4];
+        for (int i = 0; i < 4; i++) {
+            result[i] = nodes[tetrahedronVertices[4 * t + i]];
+        }
+        return result;
+    }
+
+    /**
+     * Finds all the tetrahedra incident to a vertex of the triangulation.
+     */
+    private IntList starOf(int v)
+    {
+        IntList star = new IntList(32);
+        star.add(vertexTetrahedra[v]);
+        for (int k = 0; k < star.size; k++) {
+            int t = star.get(k);
+            for (int i = 0; i < 4; i++) {
+                if (tetrahedronVertices[4 * t + i] != v) {
+                    // the face opposite to the i-th endpoint contains v
+                    int n = tetrahedronNeighbors[4 * t + i];
+                    if (!star.contains(n)) {
+                        star.add(n);
+                    }
+                }
+            }
+        }
+        return star;
+    }
+
+    // *************************************************************************************
+    // *      Insertion                                                                    *
+    // *************************************************************************************
+
+    private void insertVertex(int v, int start)
+            throws PositionNotAllowedException
+    {
+        if (tetrahedronCount == 0) {
+            insertPendingVertex(v);
+        }
+        else {
+            insert(v, start);
+        }
+    }
+
+    /**
+     * Inserts a vertex while there is no tetrahedron yet. As soon as four vertices span a
+     * tetrahedron, the triangulation is started with them, and all the others are inserted.
+     */
+    private void insertPendingVertex(int v)
+            throws PositionNotAllowedException
+    {
+        double[] position = getPosition(v);
+        for (int k = 0; k < pendingVertices.size; k++) {
+            if (samePosition(pendingVertices.get(k), position)) {
+                throw new PositionNotAllowedException(proposeNewPosition(pendingVertices.get(k)));
+            }
+        }
+        vertexTetrahedra[v] = NOT_INSERTED;
+        pendingVertices.add(v);
+        // look for a first tetrahedron :
+        int a = pendingVertices.get(0), b = -1, c = -1, d = -1;
+        for (int k = 1; k < pendingVertices.size && d < 0; k++) {
+            int w = pendingVertices.get(k);
+            if (b < 0) {
+                b = w;
+            }
+            else if (c < 0) {
+                if (spanTriangle(a, b, w)) {
+                    c = w;
+                }
+            }
+            else if (spanTetrahedron(a, b, c, w)) {
+                d = w;
+            }
+        }
+        if (d < 0) {
+            return;
+        }
+        IntList others = new IntList(pendingVertices.size);
+        for (int k = 0; k < pendingVertices.size; k++) {
+            int w = pendingVertices.get(k);
+            if (w != a && w != b && w != c && w != d) {
+                others.add(w);
+            }
+        }
+        pendingVertices.clear();
+        createFirstTetrahedron(a, b, c, d);
+        for (int k = 0; k < others.size; k++) {
+            insert(others.get(k), anyTetrahedron);
+        }
+    }
+
+    /* Creates a first finite tetrahedron and the four infinite ones around it.*/
+    private void createFirstTetrahedron(int a, int b, int c, int d)
+    {
+        if (AdaptivePredicates.orientation(coordinates, a, b, c, d) < 0) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        int[] vertices = {a, b, c, d};
+        int[] tetrahedra = new int[5];
+        tetrahedra[4] = createTetrahedron(a, b, c, d);
+        for (int i = 0; i < 4; i++) {
+            int[] w = vertices.clone();
+            // replaced by a point beyond the face, the i-th endpoint would give a negative
+            // orientation : two other endpoints are swapped.
+            w[i] = INFINITE_VERTEX;
+            int j = (i + 1) & 3, k = (i + 2) & 3;
+            int swap = w[j];
+            w[j] = w[k];
+            w[k] = swap;
+            tetrahedra[i] = createTetrahedron(w[0], w[1], w[2], w[3]);
+        }
+        for (int s = 0; s < 5; s++) {
+            for (int t = s + 1; t < 5; t++) {
+                linkIfAdjacent(tetrahedra[s], tetrahedra[t]);
+            }
+        }
+    }
+
+    /* Sets two tetrahedra as neighbors if they share a face.*/
+    private void linkIfAdjacent(int s, int t)
+    {
+        int notInT = -1, shared = 0;
+        for (int i = 0; i < 4; i++) {
+            if (slotOf(t, tetrahedronVertices[4 * s + i]) >= 0) {
+                shared++;
+            }
+            else {
+                notInT = i;
+            }
+        }
+        if (shared == 3) {
+            for (int j = 0; j < 4; j++) {
+                if (slotOf(s, tetrahedronVertices[4 * t + j]) < 0) {
+                    setNeighbors(s, notInT, t, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts a vertex with the Bowyer-Watson algorithm.
+     */
+    private void insert(int v, int start)
+            throws PositionNotAllowedException
+    {
+        double[] point = getPosition(v);
+        int t = locate(point, start);
+        if (!isInfinite(t)) {
+            for (int i = 0; i < 4; i++) {
+                if (samePosition(tetrahedronVertices[4 * t + i], point)) {
+                    throw new PositionNotAllowedException(proposeNewPosition(tetrahedronVertices[4 * t + i]));
+                }
+            }
+        }
+        // 1) the tetrahedra in conflict with the point, and the faces around them :
+        nextMark();
+        cavity.clear();
+        boundary.clear();
+        marks[t] = currentMark;
+        cavity.add(t);
+        for (int k = 0; k < cavity.size; k++) {
+            int c = cavity.get(k);
+            for (int i = 0; i < 4; i++) {
+                int n = tetrahedronNeighbors[4 * c + i];
+                if (marks[n] == currentMark) {
+                    continue;
+                }
+                if (marks[n] != -currentMark && isInConflict(n, point)) {
+                    marks[n] = currentMark;
+                    cavity.add(n);
+                }
+                else {
+                    marks[n] = -currentMark;
+                    boundary.add(c);
+                    boundary.add(i);
+                }
+            }
+        }
+        // 2) remember the faces, and remove the tetrahedra :
+        int faces = boundary.size / 2;
+        int[] faceVertices = new int[4 * faces];
+        int[] outerTetrahedra = new int[faces];
+        int[] outerSlots = new int[faces];
+        for (int f = 0; f < faces; f++) {
+            int c = boundary.get(2 * f), i = boundary.get(2 * f + 1);
+            System.arraycopy(tetrahedronVertices, 4 * c, faceVertices, 4 * f, 4);
+            faceVertices[4 * f + i] = v;
+            outerTetrahedra[f] = tetrahedronNeighbors[4 * c + i];
+            outerSlots[f] = neighborSlot(outerTetrahedra[f], c);
+        }
+        for (int k = 0; k < cavity.size; k++) {
+            deleteTetrahedron(cavity.get(k));
+        }
+        // 3) connect the point to each face :
+        newTetrahedra.clear();
+        for (int f = 0; f < faces; f++) {
+            int i = 4 * f;
+            int n = createTetrahedron(faceVertices[i], faceVertices[i + 1], faceVertices[i + 2], faceVertices[i + 3]);
+            setNeighbors(n, boundary.get(2 * f + 1), outerTetrahedra[f], outerSlots[f]);
+            newTetrahedra.add(n);
+        }
+        linkAroundVertex(newTetrahedra, v);
+    }
+
+    /**
+     * Sets the neighbors of new tetrahedra that all have a vertex <code>v</code> and share the
+     * faces containing it : two of them are neighbors if they share an edge opposite to <code>v</code>.
+     */
+    private void linkAroundVertex(IntList tetrahedra, int v)
+    {
+        int capacity = Integer.highestOneBit(Math.max(16, 6 * tetrahedra.size)) * 2;
+        if (edgeTable.length < 3 * capacity) {
+            edgeTable = new int[3 * capacity];
+            edgeTableStamps = new int[capacity];
+            edgeTableStamp = 0;
+        }
+        if (edgeTableStamp == Integer.MAX_VALUE) {
+            Arrays.fill(edgeTableStamps, 0);
+            edgeTableStamp = 0;
+        }
+        edgeTableStamp++;
+        int mask = capacity - 1;
+        for (int k = 0; k < tetrahedra.size; k++) {
+            int t = tetrahedra.get(k);
+            int slot = slotOf(t, v);
+            for (int j = 0; j < 4; j++) {
+                if (j == slot) {
+                    continue;
+                }
+                // the face opposite to j contains v and the edge between the two other endpoints :
+                int e1 = -1, e2 = -1;
+                for (int i = 0; i < 4; i++) {
+                    if (i != slot && i != j) {
+                        if (e1 < 0) {
+                            e1 = tetrahedronVertices[4 * t + i];
+                        }
+                        else {
+                            e2 = tetrahedronVertices[4 * t + i];
+                        }
+                    }
+                }
+                int low = Math.min(e1, e2), high = Math.max(e1, e2);
+                int h = ((low * 0x9E3779B1) ^ (high * 0x85EBCA6B)) & mask;
+                while (true) {
+                    if (edgeTableStamps[h] != edgeTableStamp) {
+                        edgeTableStamps[h] = edgeTableStamp;
+                        edgeTable[3 * h] = low;
+                        edgeTable[3 * h + 1] = high;
+                        edgeTable[3 * h + 2] = 4 * t + j;
+                        break;
+                    }
+                    if (edgeTable[3 * h] == low && edgeTable[3 * h + 1] == high) {
+                        int other = edgeTable[3 * h + 2];
+                        setNeighbors(t, j, other / 4, other % 4);
+                        break;
+                    }
+                    h = (h + 1) & mask;
+                }
+            }
+        }
+    }
+
+    // *************************************************************************************
+    // *      Removal                                                                      *
+    // *************************************************************************************
+
+    /**
+     * Takes a vertex out of the triangulation (the slot of the vertex is not freed).
+     */
+    private void detach(int v)
+    {
+        if (vertexTetrahedra[v] == NOT_INSERTED) {
+            pendingVertices.removeValue(v);
+            return;
+        }
+        if (size - 1 < 4 || !fillHole(v)) {
+            if (size - 1 >= 4) {
+                rebuilds++;
+            }
+            rebuildWithout(v);
+        }
+        vertexTetrahedra[v] = NOT_INSERTED;
+        volumes[v] = 0.0;
+    }
+
+    /**
+     * Removes the tetrahedra incident to a vertex, and fills the hole with the tetrahedra of
+     * the Delaunay triangulation of its neighbors that lie inside the hole.
+     *
+     * @return <code>false</code> if the hole could not be filled (the triangulation is then unchanged).
+     */
+    private boolean fillHole(int v)
+    {
+        IntList star = starOf(v);
+        // 1) triangulate the neighbors of v :
+        IntList link = new IntList(32);
+        link.add(INFINITE_VERTEX);
+        for (int k = 0; k < star.size; k++) {
+            for (int i = 4 * star.get(k); i < 4 * star.get(k) + 4; i++) {
+                int w = tetrahedronVertices[i];
+                if (w != v && !link.contains(w)) {
+                    link.add(w);
+                }
+            }
+        }
+        if (holeTriangulation == null) {
+            holeTriangulation = new CompactTriangulation<Object>();
+        }
+        CompactTriangulation<Object> hole = holeTriangulation;
+        hole.clear();
+        // (the vertex k of the hole triangulation is the vertex link[k] of this one)
+        for (int k = 1; k < link.size; k++) {
+            try {
+                hole.addVertex(getPosition(link.get(k)), null, -1);
+            }
+            catch (PositionNotAllowedException e) {
+                return false;
+            }
+        }
+        if (hole.tetrahedronCount == 0) {
+            return false;
+        }
+        // 2) find the tetrahedron of the hole triangulation behind each face of the hole :
+        int faces = star.size;
+        int[] seedTetrahedra = new int[faces];
+        int[] seedSlots = new int[faces];
+        int[] outerTetrahedra = new int[faces];
+        int[] outerSlots = new int[faces];
+        int[] wanted = new int[4];
+        for (int f = 0; f < faces; f++) {
+            int t = star.get(f);
+            int i = slotOf(t, v);
+            for (int j = 0; j < 4; j++) {
+                wanted[j] = (j == i) ? -1 : indexOf(link, tetrahedronVertices[4 * t + j]);
+            }
+            outerTetrahedra[f] = tetrahedronNeighbors[4 * t + i];
+            outerSlots[f] = neighborSlot(outerTetrahedra[f], t);
+            int seed = hole.findTetrahedronBehind(wanted, i);
+            if (seed < 0) {
+                return false;
+            }
+            seedTetrahedra[f] = seed / 4;
+            seedSlots[f] = seed % 4;
+        }
+        // 3) collect the tetrahedra inside the hole, starting from the faces :
+        IntList inside = new IntList(2 * faces);
+        hole.nextMark();
+        for (int f = 0; f < faces; f++) {
+            if (hole.marks[seedTetrahedra[f]] != hole.currentMark) {
+                hole.marks[seedTetrahedra[f]] = hole.currentMark;
+                inside.add(seedTetrahedra[f]);
+            }
+        }
+        boolean infiniteHole = containsInfiniteTetrahedron(star);
+        for (int k = 0; k < inside.size; k++) {
+            int s = inside.get(k);
+            if (inside.size > hole.tetrahedronCount || (!infiniteHole && hole.isInfinite(s))) {
+                return false;
+            }
+            for (int j = 0; j < 4; j++) {
+                if (isSeed(seedTetrahedra, seedSlots, s, j) < 0) {
+                    int n = hole.tetrahedronNeighbors[4 * s + j];
+                    if (hole.marks[n] != hole.currentMark) {
+                        hole.marks[n] = hole.currentMark;
+                        inside.add(n);
+                    }
+                }
+            }
+        }
+        // 4) replace the tetrahedra around v by them :
+        for (int k = 0; k < star.size; k++) {
+            deleteTetrahedron(star.get(k));
+        }
+        int[] created = new int[hole.tetrahedronSlots];
+        for (int k = 0; k < inside.size; k++) {
+            int s = 4 * inside.get(k);
+            int[] w = hole.tetrahedronVertices;
+            created[inside.get(k)] = createTetrahedron(link.get(w[s]), link.get(w[s + 1]),
+                    link.get(w[s + 2]), link.get(w[s + 3]));
+        }
+        for (int k = 0; k < inside.size; k++) {
+            int s = inside.get(k);
+            int t = created[s];
+            for (int j = 0; j < 4; j++) {
+                int f = isSeed(seedTetrahedra, seedSlots, s, j);
+                if (f >= 0) {
+                    setNeighbors(t, j, outerTetrahedra[f], outerSlots[f]);
+                }
+                else {
+                    tetrahedronNeighbors[4 * t + j] = created[hole.tetrahedronNeighbors[4 * s + j]];
+                }
+            }
+        }
+        return true;
+    }
+
+    /* The index of the face of the hole that is the j-th face of the tetrahedron s, or -1.*/
+    private static int isSeed(int[] seedTetrahedra, int[] seedSlots, int s, int j)
+    {
+        for (int f = 0; f < seedTetrahedra.length; f++) {
+            if (seedTetrahedra[f] == s && seedSlots[f] == j) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the tetrahedron that has the three given vertices (<code>wanted</code>, with -1 at
+     * <code>slot</code>) as a face, and whose fourth endpoint lies on the same side of it as a
+     * vertex at <code>slot</code> would in a positively oriented tetrahedron.
+     *
+     * @return <code>4t + i</code> for the tetrahedron <code>t</code> with the fourth endpoint at
+     * its slot <code>i</code>, or -1 if this face doesn't exist.
+     */
+    private int findTetrahedronBehind(int[] wanted, int slot)
+    {
+        int first = wanted[(slot + 1) & 3];
+        if (first < 0 || vertexTetrahedra[first] < 0) {
+            return -1;
+        }
+        IntList star = starOf(first);
+        int[] candidate = new int[4];
+        for (int k = 0; k < star.size; k++) {
+            int s = star.get(k);
+            int missing = -1, missingSlot = -1, found = 0;
+            for (int i = 0; i < 4; i++) {
+                int w = tetrahedronVertices[4 * s + i];
+                if (w == wanted[0] || w == wanted[1] || w == wanted[2] || w == wanted[3]) {
+                    found++;
+                }
+                else {
+                    missing = w;
+                    missingSlot = i;
+                }
+            }
+            if (found != 3) {
+                continue;
+            }
+            System.arraycopy(wanted, 0, candidate, 0, 4);
+            candidate[slot] = missing;
+            int[] actual = Arrays.copyOfRange(tetrahedronVertices, 4 * s, 4 * s + 4);
+            int swaps = 0;
+            for (int i = 0; i < 4; i++) {
+                if (actual[i] != candidate[i]) {
+                    int j = i + 1;
+                    while (actual[j] != candidate[i]) {
+                        j++;
+                    }
+                    int swap = actual[i];
+                    actual[i] = actual[j];
+                    actual[j] = swap;
+                    swaps++;
+                }
+            }
+            if ((swaps & 1) == 0) {
+                return 4 * s + missingSlot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds the triangulation from scratch with all its vertices but one
+     * (inserted along a Hilbert curve).
+     */
+    private void rebuildWithout(int excluded)
+    {
+        IntList vertices = new IntList(size);
+        for (int v = 1; v < vertexSlots; v++) {
+            if (v != excluded && vertexTetrahedra[v] != FREE) {
+                vertices.add(v);
+            }
+        }
+        tetrahedronSlots = 0;
+        freeTetrahedra.clear();
+        tetrahedronCount = 0;
+        anyTetrahedron = -1;
+        pendingVertices.clear();
+        List<double[]> positions = new ArrayList<double[]>(vertices.size);
+        for (int k = 0; k < vertices.size; k++) {
+            int v = vertices.get(k);
+            vertexTetrahedra[v] = NOT_INSERTED;
+            volumes[v] = 0.0;
+            positions.add(getPosition(v));
+        }
+        for (int index : SpaceNode.hilbertSortedOrder(positions)) {
+            try {
+                insertVertex(vertices.get(index), anyTetrahedron);
+            }
+            catch (PositionNotAllowedException e) {
+                // (they all had different positions before)
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the tetrahedra incident to a vertex that was just moved are still
+     * positively oriented, and whether all their faces are still locally Delaunay. Since the
+     * other tetrahedra didn't change, the whole triangulation is then still Delaunay.
+     */
+    private boolean isValidAndDelaunay(IntList star)
+    {
+        for (int k = 0; k < star.size; k++) {
+            int i = 4 * star.get(k);
+            if (AdaptivePredicates.orientation(coordinates, tetrahedronVertices[i], tetrahedronVertices[i + 1],
+                    tetrahedronVertices[i + 2], tetrahedronVertices[i + 3]) <= 0) {
+                return false;
+            }
+        }
+        for (int k = 0; k < star.size; k++) {
+            int t = star.get(k);
+            for (int i = 0; i < 4; i++) {
+                int n = tetrahedronNeighbors[4 * t + i];
+                if (isInfinite(n)) {
+                    continue;
+                }
+                if (isInsideSphere(t, getPosition(tetrahedronVertices[4 * n + neighborSlot(n, t)]))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -76,12 +76,12 @@ class EdgeHashKey<T>
         this.a = a;
         this.b = b;
         // this.c = oppositeNode;
-        this.ab = subtract(b.getPosition(), a
-                .getPosition());
+        this.ab = subtract(b.getTriangulationPosition(), a
+                .getTriangulationPosition());
         this.lastNormalVector = normalize(crossProduct(
                 ab, subtract(
-                        oppositeNode.getPosition(), a
-                                .getPosition())));
+                        oppositeNode.getTriangulationPosition(), a
+                                .getTriangulationPosition())));
         this.hashCode = Math.max(a.getId(), b.getId())
                 * 11 + Math.min(a.getId(), b.getId())
                 * 31;
@@ -134,7 +134,7 @@ class EdgeHashKey<T>
     double getCosine(double[] fourthPoint)
     {
         double[] normal = normalize(crossProduct(ab,
-                subtract(fourthPoint, a.getPosition())));
+                subtract(fourthPoint, a.getTriangulationPosition())));
         // double sine = norm(crossProduct(normal,lastNormalVector));
         double cosine = dot(normal, lastNormalVector);
         // if ((sine > -0.000000001) && (sine < 0.000000001)) {
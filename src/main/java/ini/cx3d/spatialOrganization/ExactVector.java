@@ -74,7 +74,7 @@ public class ExactVector
     {
         Rational ret = new Rational(0, 1);
         for (int i = 0; i < 3; i++) {
-            ret.add(this.elements[i].multiply(this.elements[i]));
+            ret = ret.add(this.elements[i].multiply(this.elements[i]));
         }
         return ret;
     }
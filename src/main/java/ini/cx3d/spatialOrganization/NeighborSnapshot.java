@@ -0,0 +1,176 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.ArrayList;
+
+/**
+ * The neighbors of a node and the edges to them, copied into arrays, so that hot loops can
+ * iterate over them with an index instead of an iterator :
+ * <pre>
+ * NeighborSnapshot&lt;PhysicalNode&gt; neighbors = soNode.getNeighborSnapshot();
+ * for (int i = 0; i &lt; neighbors.size(); i++) {
+ *     PhysicalNode neighbor = neighbors.getNeighbor(i);
+ *     ...
+ * }
+ * </pre>
+ * A {@link SpaceNode} keeps its last snapshot, and returns it again until one of its edges is
+ * created or removed. As long as the topology of the triangulation around a node doesn't change,
+ * getting and reading its neighbors doesn't allocate anything. The other implementations of
+ * {@link SpatialOrganizationNode} create a new snapshot at each call.
+ * <p/>
+ * Distances and cross sections change with every movement, also when the topology doesn't :
+ * they are not copied, but read from the nodes and the edges when they are asked for.
+ * A snapshot is never modified, and can be read by several threads at the same time.
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public class NeighborSnapshot<T>
+{
+
+    /* The node whose neighbors are in this snapshot.*/
+    private final SpatialOrganizationNode<T> node;
+
+    /* The user objects of the neighbors, their nodes, and the edges to them.*/
+    private final Object[] neighbors;
+    private final SpatialOrganizationNode<?>[] neighborNodes;
+    private final SpatialOrganizationEdge<?>[] edges;
+    private final int numberOfEdges;
+
+    /* Used by SpaceNode to know whether this snapshot is still up to date.*/
+    private final int version;
+
+    /**
+     * Creates a snapshot of the neighbors of a node.
+     *
+     * @param node the node.
+     * @param edges the edges of the node.
+     */
+    public NeighborSnapshot(SpatialOrganizationNode<T> node, Iterable<SpatialOrganizationEdge<T>> edges)
+    {
+        this(node, edges, 0);
+    }
+
+    /**
+     * Creates a snapshot of the neighbors of a node.
+     *
+     * @param node the node.
+     * @param edges the edges of the node.
+     * @param version the version of the edges of the node.
+     */
+    NeighborSnapshot(SpatialOrganizationNode<T> node, Iterable<SpatialOrganizationEdge<T>> edges, int version)
+    {
+        this.node = node;
+        this.version = version;
+        ArrayList<SpatialOrganizationEdge<T>> edgeList = new ArrayList<SpatialOrganizationEdge<T>>();
+        ArrayList<SpatialOrganizationNode<T>> nodeList = new ArrayList<SpatialOrganizationNode<T>>();
+        for (SpatialOrganizationEdge<T> e : edges) {
+            SpatialOrganizationNode<T> opposite = e.getOpposite(node);
+            if (opposite != null) {
+                edgeList.add(e);
+                nodeList.add(opposite);
+            }
+        }
+        numberOfEdges = edgeList.size();
+        this.edges = edgeList.toArray(new SpatialOrganizationEdge<?>[numberOfEdges]);
+        this.neighborNodes = nodeList.toArray(new SpatialOrganizationNode<?>[nodeList.size()]);
+        this.neighbors = new Object[neighborNodes.length];
+        for (int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = neighborNodes[i].getUserObject();
+        }
+    }
+
+    int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the number of neighbors.
+     */
+    public int size()
+    {
+        return neighbors.length;
+    }
+
+    /**
+     * @return the number of neighbors connected to the node by an edge. Every neighbor has
+     * an edge, so this is the same as {@link #size()}.
+     */
+    public int getNumberOfEdges()
+    {
+        return numberOfEdges;
+    }
+
+    /**
+     * @param i the index of a neighbor, between 0 and {@link #size()}.
+     * @return the user object associated with that neighbor.
+     */
+    @SuppressWarnings("unchecked")
+    public T getNeighbor(int i)
+    {
+        return (T) neighbors[i];
+    }
+
+    /**
+     * @param i the index of a neighbor, between 0 and {@link #size()}.
+     * @return the node of that neighbor.
+     */
+    @SuppressWarnings("unchecked")
+    public SpatialOrganizationNode<T> getNeighborNode(int i)
+    {
+        return (SpatialOrganizationNode<T>) neighborNodes[i];
+    }
+
+    /**
+     * @param i the index of a neighbor, between 0 and {@link #getNumberOfEdges()}.
+     * @return the edge to that neighbor.
+     */
+    @SuppressWarnings("unchecked")
+    public SpatialOrganizationEdge<T> getEdge(int i)
+    {
+        return (SpatialOrganizationEdge<T>) edges[i];
+    }
+
+    /**
+     * @param i the index of a neighbor, between 0 and {@link #size()}.
+     * @return the current cross section area of the edge to that neighbor.
+     */
+    public double getCrossSection(int i)
+    {
+        return edges[i].getCrossSection();
+    }
+
+    /**
+     * @param i the index of a neighbor, between 0 and {@link #size()}.
+     * @return the current distance between the node and that neighbor.
+     */
+    public double getDistance(int i)
+    {
+        double[] a = node.getPosition();
+        double[] b = neighborNodes[i].getPosition();
+        double dx = b[0] - a[0], dy = b[1] - a[1], dz = b[2] - a[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package ini.cx3d.spatialOrganization;
+
+/**
+ * Called for each neighbor of a node by {@link SpatialOrganizationNode#visitNeighbors(NeighborVisitor)}.
+ * Unlike a loop over {@link SpatialOrganizationNode#getNeighbors()}, this doesn't create any
+ * iterator; a visitor without state can be kept in a constant, so that visiting the neighbors
+ * of a node doesn't allocate anything at all.
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public interface NeighborVisitor<T>
+{
+    /**
+     * @param neighbor the user object associated with a neighbor of the visited node.
+     */
+    public void visit(T neighbor);
+}
@@ -79,6 +79,8 @@ public class NewDelaunayTest
     public final boolean repair = false;
     public static Random rand = new Random(1312);
     Tetrahedron<PhysicalNode> outerTetrahedron;
+    TriangulationContext<PhysicalNode> triangulation = new TriangulationContext<PhysicalNode>();
+    boolean trackObjects = false;
     int totalCounter = 0;
     public static PrintStream out;
     private static boolean createOutPut = false;
@@ -145,15 +147,15 @@ public class NewDelaunayTest
 
     public void checkConvexHull()
     {
-        if (Tetrahedron.allTetrahedra != null) {
-            for (Tetrahedron<PhysicalNode> tet : Tetrahedron.allTetrahedra) {
+        if (triangulation.getTetrahedra() != null) {
+            for (Tetrahedron<PhysicalNode> tet : triangulation.getTetrahedra()) {
                 if (tet.isInfinite()) {
                     Triangle3D<PhysicalNode> convexhullTriangle = tet.getAdjacentTriangles()[0];
                     convexhullTriangle.updatePlaneEquationIfNecessary();
                     if (convexhullTriangle.getOppositeTetrahedron(tet) != null) {
                         SpaceNode<PhysicalNode> innerNode = convexhullTriangle.getOppositeTetrahedron(tet).getOppositeNode(convexhullTriangle);
-                        if (SpaceNode.allNodes != null) {
-                            for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                        if (triangulation.getNodes() != null) {
+                            for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                                 if (!tet.isAdjacentTo(node)) {
                                     if (!convexhullTriangle.onSameSide(innerNode.getPosition(), node.getPosition())) {
                                         System.out.println("The node " + node + " doesn't lie on the inner side of " + convexhullTriangle + "!");
@@ -167,11 +169,12 @@ public class NewDelaunayTest
         }
     }
 
-    public static boolean checkTetrahedronForDelaunayViolation(Tetrahedron tetrahedron)
+    public static <T> boolean checkTetrahedronForDelaunayViolation(Tetrahedron<T> tetrahedron)
     {
         boolean problems = false;
-        if (SpaceNode.allNodes != null) {
-            for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+        LinkedList<SpaceNode<T>> allNodes = tetrahedron.getTriangulation().getNodes();
+        if (allNodes != null) {
+            for (SpaceNode<T> node : allNodes) {
                 if (tetrahedron.isFlat()) {
                     throw new RuntimeException("There is a flat tetrahedron left over!");
                 }
@@ -212,8 +215,7 @@ public class NewDelaunayTest
         System.out.println("\nTest case #" + totalCounter + ": Trying seed " + seed);
         totalCounter++;
         createOutPut = false;
-        SpaceNode.clear();
-        Tetrahedron.clear();
+        triangulation = new TriangulationContext<PhysicalNode>(trackObjects, seed);
         ini.cx3d.parallelSpatialOrganization.SpaceNode.clear();
         ini.cx3d.parallelSpatialOrganization.Tetrahedron.clear();
 //		Tetrahedron<T> startTetrahedron = Tetrahedron.createInitialTetrahedron(new SpaceNode<T>(
@@ -268,7 +270,7 @@ public class NewDelaunayTest
 //					}
 //					else {
                     if (!useParallelSpatialOrganization) {
-                        innerNodes[i] = new SpaceNode<PhysicalNode>(position, dummyNode);
+                        innerNodes[i] = new SpaceNode<PhysicalNode>(position, dummyNode, triangulation);
                     }
                     else {
                         innerNodes[i] = initializeSOMs().createInitialNode(position, dummyNode);
@@ -290,8 +292,8 @@ public class NewDelaunayTest
 
         if (checkAt != null && checkAt.contains(0)) {
             boolean problems = false;
-            if (Tetrahedron.allTetrahedra != null) {
-                for (Tetrahedron<PhysicalNode> tetrahedron : Tetrahedron.allTetrahedra) {
+            if (triangulation.getTetrahedra() != null) {
+                for (Tetrahedron<PhysicalNode> tetrahedron : triangulation.getTetrahedra()) {
                     tetrahedron.calculateCircumSphere();
                     if (checkTetrahedronForDelaunayViolation(tetrahedron)) {
                         break;
@@ -302,8 +304,8 @@ public class NewDelaunayTest
                 System.out.println("Run number: " + 0);
                 if (repair) {
                     System.out.println("repairing by flipping...");
-                    if (SpaceNode.allNodes != null) {
-                        for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                    if (triangulation.getNodes() != null) {
+                        for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                             node.restoreDelaunay();
                         }
                     }
@@ -367,11 +369,11 @@ public class NewDelaunayTest
                         }
                         if (checkAt != null && checkAt.contains(runNumber)) {
                             boolean problems = false;
-                            if (Tetrahedron.allTetrahedra != null) {
-                                for (Tetrahedron<PhysicalNode> tetrahedron : Tetrahedron.allTetrahedra) {
+                            if (triangulation.getTetrahedra() != null) {
+                                for (Tetrahedron<PhysicalNode> tetrahedron : triangulation.getTetrahedra()) {
                                     tetrahedron.calculateCircumSphere();
 //							SpaceNode node = anyNode;
-                                    for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                                    for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                                         if (tetrahedron.isFlat()) {
                                             throw new RuntimeException("There is a flat tetrahedron left over!");
                                         }
@@ -394,7 +396,7 @@ public class NewDelaunayTest
                                 System.out.println("Run number: " + runNumber);
                                 if (repair) {
                                     System.out.println("repairing by flipping...");
-                                    for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                                    for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                                         node.restoreDelaunay();
                                     }
                                 }
@@ -415,25 +417,25 @@ public class NewDelaunayTest
             e.printStackTrace();
             return runNumber;
         }
-        analyzeDoubleArray(OpenTriangleOrganizer.toleranceValues, "SD-Distance tolerance-values");
+        analyzeDoubleArray(triangulation.getToleranceValues(), "SD-Distance tolerance-values");
         displayStats();
         return runNumber;
     }
 
-    public static void displayStats()
+    public void displayStats()
     {
-        System.out.println("Maximal tolerance intervall needed for SD-Distance: " + OpenTriangleOrganizer.maxToleranceNeeded);
-        System.out.println("\nMaximal tolerance intervall needed for Tetrahedron-orientation: " + Tetrahedron.maxToleranceNeeded);
-        System.out.println("Exact calculation for Tetrahedron-orientation was calculated " + Tetrahedron.toleranceUsages + " times.");
-        System.out.println("Flip-Movements: " + SpaceNode.flipMovements);
-        System.out.println("Delete & Insert-Movements: " + SpaceNode.deleteAndInsertMovements);
-        System.out.println("SD-Distance-calculations normal: " + OpenTriangleOrganizer.normalCalculations);
-        System.out.println("SD-Distance-calculations exact: " + OpenTriangleOrganizer.exactCalculations);
+        System.out.println("Maximal tolerance intervall needed for SD-Distance: " + triangulation.getMaxSDToleranceNeeded());
+        System.out.println("\nMaximal tolerance intervall needed for Tetrahedron-orientation: " + triangulation.getMaxOrientationToleranceNeeded());
+        System.out.println("Exact calculation for Tetrahedron-orientation was calculated " + triangulation.getToleranceUsages() + " times.");
+        System.out.println("Flip-Movements: " + triangulation.getFlipMovements());
+        System.out.println("Delete & Insert-Movements: " + triangulation.getDeleteAndInsertMovements());
+        System.out.println("SD-Distance-calculations normal: " + triangulation.getNormalCalculations());
+        System.out.println("SD-Distance-calculations exact: " + triangulation.getExactCalculations());
     }
 
     public int searchError(long seed, int runningTill)
     {
-        Tetrahedron.allTetrahedra = new LinkedList<Tetrahedron>();
+        trackObjects = true;
         int stepSize = (runningTill + 4) / 5;
         int start = 0, end = runningTill;
         while (stepSize > 0) {
@@ -450,7 +452,7 @@ public class NewDelaunayTest
 
     public boolean runSeed(long seed)
     {
-        Tetrahedron.allTetrahedra = null;
+        trackObjects = false;
         int completedTill = runSingleTest(seed, -1, null);
         if (completedTill == this.movesPerRun) {
             return true;
@@ -478,12 +480,12 @@ public class NewDelaunayTest
                 for (int i = 0; i < this.checks.length; i++) {
                     checks.add(this.checks[i]);
                 }
-                Tetrahedron.allTetrahedra = new LinkedList<Tetrahedron>();
+                trackObjects = true;
                 runSingleTest(initialSeed, printRun, checks);
             }
         }
         else {
-            Tetrahedron.allTetrahedra = null;
+            trackObjects = false;
             Random generator = new Random();
             int completedTill = this.movesPerRun;
             long seed = generator.nextLong();
@@ -520,13 +522,12 @@ public class NewDelaunayTest
             System.out.println("\nTest case #" + totalCounter + ": Trying seed " + seed);
             totalCounter++;
             createOutPut = false;
-            SpaceNode.clear();
-            Tetrahedron.clear();
+            triangulation = new TriangulationContext<PhysicalNode>(trackObjects, seed);
             Tetrahedron<PhysicalNode> startTetrahedron = Tetrahedron.createInitialTetrahedron(new SpaceNode<PhysicalNode>(
-                    0.0, 0.0, 0.0, null), new SpaceNode<PhysicalNode>(1.0,
-                    0.0, 0.0, null), new SpaceNode<PhysicalNode>(0.0, 1.0,
-                    0.0, null), new SpaceNode<PhysicalNode>(0.0, 0.0, 1.0, null));
-            OpenTriangleOrganizer oto = OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer();
+                    0.0, 0.0, 0.0, null, triangulation), new SpaceNode<PhysicalNode>(1.0,
+                    0.0, 0.0, null, triangulation), new SpaceNode<PhysicalNode>(0.0, 1.0,
+                    0.0, null, triangulation), new SpaceNode<PhysicalNode>(0.0, 0.0, 1.0, null, triangulation));
+            OpenTriangleOrganizer<PhysicalNode> oto = OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer(triangulation);
             SpaceNode<PhysicalNode>[] innerNodes = new SpaceNode[initialNodeCount + insertNodeCount];
             //		// lets create some random nodes in a cubic volume, all nodes sitting at integer positions:
             //		for (int i = 0; i < initialNodeCount; i++) {
@@ -577,7 +578,7 @@ public class NewDelaunayTest
                 innerNodes[i] = new SpaceNode<PhysicalNode>(
                         rand.nextDouble() * 2 * volumeConstant - volumeConstant,
                         rand.nextDouble() * 2 * volumeConstant - volumeConstant,
-                        rand.nextDouble() * 2 * volumeConstant - volumeConstant, null);
+                        rand.nextDouble() * 2 * volumeConstant - volumeConstant, null, triangulation);
 //						rand(-volumeConstant, volumeConstant + 1),
 //						rand(-volumeConstant,volumeConstant + 1), 
 //						rand(-volumeConstant,volumeConstant + 1));
@@ -603,9 +604,7 @@ public class NewDelaunayTest
                     startTetrahedron = innerNodes[i].insert(startTetrahedron);
                 }
                 catch (PositionNotAllowedException e) {
-                    if (SpaceNode.allNodes != null) {
-                        SpaceNode.allNodes.remove(innerNodes[i]);
-                    }
+                    triangulation.nodeRemoved(innerNodes[i]);
                     i--;
                 }
             }
@@ -645,8 +644,8 @@ public class NewDelaunayTest
 
                             runNumber++;
                             anyNode.moveFrom(delta);
-                            if (SpaceNode.allNodes != null) {
-                                if (SpaceNode.allNodes.size() < innerNodes.length + 4) {
+                            if (triangulation.getNodes() != null) {
+                                if (triangulation.getNodes().size() < innerNodes.length + 4) {
                                     throw new RuntimeException("Knoten verloren!");
                                 }
                             }
@@ -672,12 +671,12 @@ public class NewDelaunayTest
                             }
                             if (runNumber > 115742) {
                                 boolean problems = false;
-                                if (Tetrahedron.allTetrahedra != null) {
-                                    for (Tetrahedron<PhysicalNode> tetrahedron : Tetrahedron.allTetrahedra) {
+                                if (triangulation.getTetrahedra() != null) {
+                                    for (Tetrahedron<PhysicalNode> tetrahedron : triangulation.getTetrahedra()) {
                                         tetrahedron.calculateCircumSphere();
                                         //							SpaceNode node = anyNode;
-                                        if (SpaceNode.allNodes != null) {
-                                            for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                                        if (triangulation.getNodes() != null) {
+                                            for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                                                 if (tetrahedron.isFlat()) {
                                                     throw new RuntimeException("There is a flat tetrahedron left over!");
                                                 }
@@ -699,7 +698,7 @@ public class NewDelaunayTest
                                 if (problems) {
                                     done = true;
                                     System.out.println("Run number: " + runNumber);
-                                    for (SpaceNode<PhysicalNode> node : SpaceNode.allNodes) {
+                                    for (SpaceNode<PhysicalNode> node : triangulation.getNodes()) {
                                         node.restoreDelaunay();
                                     }
                                     throw new RuntimeException("Delaunay criterion is not fullfilled!");
@@ -50,49 +50,6 @@ import static ini.cx3d.utilities.Matrix.subtract;
 public class OpenTriangleOrganizer<T>
 {
 
-    /**
-     * Counts the number of times exact arithmetics have been used in any instance of this class.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static int exactCalculations = 0;
-
-    /**
-     * Counts the number of times that calculations were performed without using exact arithmetics
-     * in any instance of this class.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static int normalCalculations = 0;
-
-    /**
-     * Saves tolerance values that have been used during calculations of any instance of this class.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static double[] toleranceValues = new double[1024];
-
-    /**
-     * A pointer to a position in <code>toleranceValues</code>.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static int toleranceValuePointer = 0;
-
-    /**
-     * Adds a new value to the array <code>toleranceValues</code>.
-     *
-     * @param tolerance The new value.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static void addToleranceValue(double tolerance)
-    {
-        toleranceValues[toleranceValuePointer] = tolerance;
-        toleranceValuePointer = (toleranceValuePointer + 1) & 1023;
-    }
-
-    /**
-     * Saves the maximum tolerance that was ever exploited.
-     * Used for debugging purposes only! DO NOT USE. Needs to be removed.
-     */
-    public static double maxToleranceNeeded = 0.0;
-
     /**
      * A hashmap to store open triangles that are created during any operation on the triangulation.
      * Used to keep track of which triangles are not open any more.
@@ -113,6 +70,11 @@ public class OpenTriangleOrganizer<T>
      */
     private AbstractTriangulationNodeOrganizer<T> tno;
 
+    /**
+     * The context of the triangulation this organizer works on.
+     */
+    private final TriangulationContext<T> triangulation;
+
     /**
      * In addition to <code>map</code>, all open triangles are also stored in this stack.
      * Thereby, a fast extraction of any open triangle is guaranteed.
@@ -138,13 +100,16 @@ public class OpenTriangleOrganizer<T>
      * @param preferredCapacity The number of open triangles that this organizer will
      * have to keep track of. The internal hashmap is initialized with double this size.
      * @param tno The node organizer used to keep track of "open" nodes.
+     * @param triangulation The context of the triangulation this organizer works on.
      */
     public OpenTriangleOrganizer(int preferredCapacity,
-            AbstractTriangulationNodeOrganizer<T> tno)
+            AbstractTriangulationNodeOrganizer<T> tno,
+            TriangulationContext<T> triangulation)
     {
         map = new HashMap<TriangleHashKey<T>, Triangle3D<T>>(
                 preferredCapacity * 2);
         this.tno = tno;
+        this.triangulation = triangulation;
     }
 
     /**
@@ -182,12 +147,14 @@ public class OpenTriangleOrganizer<T>
      * to 30.
      *
      * @param <T> The type of user objects associated with nodes in the triangulation.
+     * @param triangulation The context of the triangulation the new organizer will work on.
      * @return A new instance of <code>OpenTriangleOrganizer</code>.
      */
-    public static <T> OpenTriangleOrganizer<T> createSimpleOpenTriangleOrganizer()
+    public static <T> OpenTriangleOrganizer<T> createSimpleOpenTriangleOrganizer(
+            TriangulationContext<T> triangulation)
     {
         return new OpenTriangleOrganizer<T>(30,
-                new SimpleTriangulationNodeOrganizer<T>());
+                new SimpleTriangulationNodeOrganizer<T>(), triangulation);
     }
 
     /**
@@ -568,7 +535,7 @@ public class OpenTriangleOrganizer<T>
             double minDistance = Double.MAX_VALUE;
             for (SpaceNode<T> node : nodes) {
                 double[] dummy = subtract(lastSearchNode
-                        .getPosition(), node.getPosition());
+                        .getTriangulationPosition(), node.getTriangulationPosition());
                 double dot = dot(dummy, dummy);
                 if (dot < minDistance) {
                     searchNode = node;
@@ -591,14 +558,14 @@ public class OpenTriangleOrganizer<T>
                 }
             }
             double[] lastVector = normalize(subtract(
-                    searchNode.getPosition(),
-                    lastSearchNode.getPosition()));
+                    searchNode.getTriangulationPosition(),
+                    lastSearchNode.getTriangulationPosition()));
             double biggestCosinus = -2.0;
             SpaceNode<T> pickedNode = null;
             for (SpaceNode<T> node : nodes) {
                 double[] dummy = normalize(subtract(node
-                        .getPosition(), searchNode
-                        .getPosition()));
+                        .getTriangulationPosition(), searchNode
+                        .getTriangulationPosition()));
                 double currentCosinus = dot(dummy,
                         lastVector);
                 if (currentCosinus > biggestCosinus) {
@@ -649,7 +616,7 @@ public class OpenTriangleOrganizer<T>
                         .isInsideSphere(oppositeTetrahedron
                                 .getOppositeNode(
                                         triangle)
-                                .getPosition()))) {
+                                .getTriangulationPosition()))) {
                     tetrahedronsToRemove[i] = oppositeTetrahedron;
                 }
                 if (triangle.isClosed()) {
@@ -776,7 +743,7 @@ public class OpenTriangleOrganizer<T>
                     }
                     double cosinus = anOpenEdge
                             .getCosine(currentNode
-                                    .getPosition());
+                                    .getTriangulationPosition());
                     if (cosinus < upperBound) {
                         if (cosinus > lowerBound) {
                             similarDistanceNodes
@@ -881,20 +848,20 @@ public class OpenTriangleOrganizer<T>
         shortestDistance = Double.MAX_VALUE;
         SpaceNode<T> b = null;
         for (SpaceNode<T> dummy : tno.getNodes(a, rep)) {
-            double[] vector = subtract(dummy.getPosition(),
-                    a.getPosition());
+            double[] vector = subtract(dummy.getTriangulationPosition(),
+                    a.getTriangulationPosition());
             double distance = dot(vector, vector);
             if (distance < shortestDistance + tolerance) {
                 if (distance > shortestDistance - tolerance) {
                     Rational distNew = (new ExactVector(a
-                            .getPosition()))
+                            .getTriangulationPosition()))
                             .subtract(
                                     new ExactVector(dummy
-                                            .getPosition()))
+                                            .getTriangulationPosition()))
                             .squaredLength();
                     Rational distLast = (new ExactVector(a
-                            .getPosition())).subtract(
-                            new ExactVector(b.getPosition()))
+                            .getTriangulationPosition())).subtract(
+                            new ExactVector(b.getTriangulationPosition()))
                             .squaredLength();
                     if (distLast.compareTo(distNew) > 0) {
                         b = dummy;
@@ -915,7 +882,7 @@ public class OpenTriangleOrganizer<T>
         // the middle point between a and b:
 
         shortestDistance = Double.MAX_VALUE;
-        double[] av = a.getPosition(), bv = b.getPosition();
+        double[] av = a.getTriangulationPosition(), bv = b.getTriangulationPosition();
         double[][] normals = new double[3][];
         normals[0] = subtract(bv, av);
         double[] offsets = new double[3];
@@ -924,7 +891,7 @@ public class OpenTriangleOrganizer<T>
         tolerance = dot(normals[0], normals[0]) * 0.000000001;
 
         for (SpaceNode<T> dummy : tno.getNodes(a, rep)) {
-            double[] dummyPos = dummy.getPosition();
+            double[] dummyPos = dummy.getTriangulationPosition();
             double[] avToDummyPos = subtract(dummyPos, av);
             normals[1] = crossProduct(normals[0],
                     avToDummyPos);
@@ -953,7 +920,7 @@ public class OpenTriangleOrganizer<T>
                                                 av,
                                                 bv,
                                                 c
-                                                        .getPosition()));
+                                                        .getTriangulationPosition()));
                         if ((comparison < 0)
                                 || ((comparison == 0) && (dummy
                                 .getId() < c
@@ -1043,16 +1010,16 @@ public class OpenTriangleOrganizer<T>
             double tolerance = openTriangle
                     .getTypicalSDDistance() * 0.0000001;
 //			double tolerance = 0.00002;
-            if (Math.random() < 0.001) {
-                addToleranceValue(tolerance);
+            if (triangulation.getRandom().nextDouble() < 0.001) {
+                triangulation.addToleranceValue(tolerance);
             }
             for (SpaceNode<T> node : tno.getNodes(openTriangle
                     .getNodes()[0], rep)) {
                 if (!openTriangle.isAdjacentTo(node)) {
                     double currentDistance = openTriangle
                             .getSDDistance(node
-                                    .getPosition());
-                    normalCalculations++;
+                                    .getTriangulationPosition());
+                    triangulation.normalCalculation();
                     // boolean dummy =false;
                     // if (dummy) {
                     // FieldElement lastSDDistance = openTriangle
@@ -1072,31 +1039,15 @@ public class OpenTriangleOrganizer<T>
                         boolean smaller = false;
                         if (currentDistance > lowerBound) {
 //							System.out.print(".");
-                            exactCalculations++;
+                            triangulation.exactCalculation();
 
-                            Rational lastSDDistance = openTriangle
-                                    .getSDDistanceExact(
-                                            pickedNode
-                                                    .getPosition());
-//											lastTetrahedron
-//													.getOppositeNode(
-//															openTriangle)
-//													.getPosition());
-                            Rational newSDDistance = openTriangle
-                                    .getSDDistanceExact(
-                                            node
-                                                    .getPosition());
-//											lastTetrahedron
-//													.getOppositeNode(
-//															openTriangle)
-//													.getPosition());
-                            int comparison = lastSDDistance
-                                    .compareTo(newSDDistance);
+                            int comparison = openTriangle
+                                    .compareSDDistances(
+                                            pickedNode.getTriangulationPosition(),
+                                            node.getTriangulationPosition());
                             if ((comparison != 0) && ((comparison > 0) ^ (currentDistance < shortestDistance))) {
                                 double difference = Math.abs(currentDistance - shortestDistance);
-                                if (difference > maxToleranceNeeded) {
-                                    maxToleranceNeeded = difference;
-                                }
+                                triangulation.sdToleranceNeeded(difference);
                             }
                             if (comparison == 0) {
                                 similarDistanceNodes
@@ -1122,8 +1073,8 @@ public class OpenTriangleOrganizer<T>
                         }
                     }
                     else if (openTriangle.orientationToUpperSide(node
-                            .getPosition()) == 0
-                            && openTriangle.circleOrientation(node.getPosition()) == 0) {
+                            .getTriangulationPosition()) == 0
+                            && openTriangle.circleOrientation(node.getTriangulationPosition()) == 0) {
                         onCircleNodes.add(node);
                     }
                 }
@@ -123,18 +123,18 @@ public class Plane3D<T>
         int first = (nodes[0] == nonUsedNode) ? 1 : 0;
         initPlane(
                 subtract(
-                        nodes[first].getPosition(),
+                        nodes[first].getTriangulationPosition(),
                         (first == 0) ? ((nodes[1] != nonUsedNode) ? (nodes[1]
-                                .getPosition())
-                                : nodes[2].getPosition())
-                                : nodes[2].getPosition()),
+                                .getTriangulationPosition())
+                                : nodes[2].getTriangulationPosition())
+                                : nodes[2].getTriangulationPosition()),
                 subtract(
-                        nodes[first].getPosition(),
+                        nodes[first].getTriangulationPosition(),
                         (nodes[3] == nonUsedNode) ? nodes[2]
-                                .getPosition()
-                                : nodes[3].getPosition()),
-                nodes[first].getPosition(), normalize);
-        defineUpperSide(nonUsedNode.getPosition());
+                                .getTriangulationPosition()
+                                : nodes[3].getTriangulationPosition()),
+                nodes[first].getTriangulationPosition(), normalize);
+        defineUpperSide(nonUsedNode.getTriangulationPosition());
     }
 
     /**
@@ -233,10 +233,8 @@ public class Plane3D<T>
      */
     protected int orientationExact(double[] point1, double[] point2)
     {
-        ExactVector normalVector = new ExactVector(this.normalVector);
-        Rational offset = new Rational(this.offset);
-        return normalVector.dotProduct(new ExactVector(point1)).compareTo(offset) *
-                normalVector.dotProduct(new ExactVector(point2)).compareTo(offset);
+        return AdaptivePredicates.planeSide(normalVector, offset, point1)
+                * AdaptivePredicates.planeSide(normalVector, offset, point2);
     }
 
     /**
@@ -21,8 +21,16 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 
 package ini.cx3d.spatialOrganization;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static ini.cx3d.utilities.Matrix.add;
 import static ini.cx3d.utilities.Matrix.dot;
@@ -47,43 +55,26 @@ public class SpaceNode<T>
         implements SpatialOrganizationNode<T>
 {
     /**
-     * A static list of all nodes that are part of the current triangulation. DO
-     * NOT USE! Exclusively used for debugging purposes. Needs to be removed.
-     * TODO: remove!
+     * Number of bits per coordinate used to sort points along a Hilbert curve
+     * in {@link #spatiallySortedOrder(List)}.
      */
-//	public static LinkedList<SpaceNode> allNodes = new LinkedList<SpaceNode>();
-    public static LinkedList<SpaceNode> allNodes = null;
+    private static final int HILBERT_BITS = 16;
 
     /**
-     * Number of node movements performed during the current simulation which
-     * were processed by a flipping algorithm. Only for debugging purposes.
-     * TODO: remove!
+     * Size under which the first round of a biased randomized insertion order
+     * is not split any further.
      */
-    public static int flipMovements = 0;
+    private static final int BRIO_FIRST_ROUND = 64;
 
     /**
-     * Number of node movements performed during the current simulation where a
-     * delete & insert algorithm had to be applied. Only for debugging purposes.
-     * Needs to be removed.
-     * TODO: remove!
+     * The state shared by all nodes of the triangulation this node belongs to.
      */
-    public static int deleteAndInsertMovements = 0;
+    private final TriangulationContext<T> triangulation;
 
     /**
-     * A static variable that is used to assign a unique number to each
-     * initialized flip process.
+     * The ID number of this SpaceNode, unique within its triangulation.
      */
-    private static int checkingIndex = 0;
-
-    /**
-     * A static counter used to keep track of the number of created SpaceNodes.
-     */
-    private static int IDCOUNTER = 0;
-
-    /**
-     * The ID number of this SpaceNode.
-     */
-    private int id = IDCOUNTER++;
+    private final int id;
 
     /**
      * The user object associated with this SpaceNode.
@@ -101,6 +92,13 @@ public class SpaceNode<T>
      */
     private double[] position = new double[3];
 
+    /**
+     * The actual coordinate of this SpaceNode, if it was moved by less than the skin radius
+     * of the triangulation since the triangulation was last updated for it (see
+     * {@link TriangulationContext#setSkinRadius(double)}). <code>null</code> otherwise.
+     */
+    private double[] logicalPosition = null;
+
     // private ExtendedLinkedList<Edge<T>> adjacentEdges = new
     // ExtendedLinkedList<Edge<T>>();
     // private ExtendedLinkedList<Tetrahedron<T> > adjacentTetrahedra = new
@@ -111,6 +109,17 @@ public class SpaceNode<T>
      */
     private LinkedList<SpatialOrganizationEdge<T>> adjacentEdges = new LinkedList<SpatialOrganizationEdge<T>>();
 
+    /**
+     * Incremented whenever an edge is added to or removed from <code>adjacentEdges</code>.
+     */
+    private int edgeVersion = 0;
+
+    /**
+     * The last snapshot of the neighbors of this node, returned by
+     * {@link #getNeighborSnapshot()} as long as <code>edgeVersion</code> doesn't change.
+     */
+    private volatile NeighborSnapshot<T> neighborSnapshot = null;
+
     /**
      * A list of all tetrahedra incident to this node.
      */
@@ -122,15 +131,24 @@ public class SpaceNode<T>
     private double volume = 0;
 
     /**
-     * Clears the list of all nodes and sets the static node counter to zero.
+     * The tetrahedron found by the last point location started from this node.
+     * Callers usually probe points close to each other, so the next walk
+     * starts there if this tetrahedron is still part of the triangulation.
+     */
+    private Tetrahedron<T> locationHint = null;
+
+    /**
+     * Creates a new SpaceNode with at a given coordinate and associates it with
+     * a user object. The node is the first node of a new triangulation.
+     *
+     * @param position
+     *            The position for this SpaceNode.
+     * @param content
+     *            The user object that should be associated with this SpaceNode.
      */
-    public static void clear()
+    public SpaceNode(double[] position, T content)
     {
-        if (allNodes != null) {
-            allNodes.clear();
-        }
-        checkingIndex = 0;
-        IDCOUNTER = 0;
+        this(position, content, new TriangulationContext<T>());
     }
 
     /**
@@ -141,14 +159,16 @@ public class SpaceNode<T>
      *            The position for this SpaceNode.
      * @param content
      *            The user object that should be associated with this SpaceNode.
+     * @param triangulation
+     *            The context of the triangulation this node will be part of.
      */
-    public SpaceNode(double[] position, T content)
+    public SpaceNode(double[] position, T content, TriangulationContext<T> triangulation)
     {
         this.position = position;
         this.content = content;
-        if (allNodes != null) {
-            allNodes.add(this);
-        }
+        this.triangulation = triangulation;
+        this.id = triangulation.createNodeId();
+        triangulation.nodeCreated(this);
     }
 
     /**
@@ -166,13 +186,27 @@ public class SpaceNode<T>
      */
     public SpaceNode(double x, double y, double z, T content)
     {
-        this.position[0] = x;
-        this.position[1] = y;
-        this.position[2] = z;
-        this.content = content;
-        if (allNodes != null) {
-            allNodes.add(this);
-        }
+        this(new double[] {x, y, z}, content);
+    }
+
+    /**
+     * Creates a new SpaceNode with at a given coordinate and associates it with
+     * a user object.
+     *
+     * @param x
+     *            The x-coordinate for this SpaceNode.
+     * @param y
+     *            The y-coordinate for this SpaceNode.
+     * @param z
+     *            The z-coordinate for this SpaceNode.
+     * @param content
+     *            The user object that should be associated with this SpaceNode.
+     * @param triangulation
+     *            The context of the triangulation this node will be part of.
+     */
+    public SpaceNode(double x, double y, double z, T content, TriangulationContext<T> triangulation)
+    {
+        this(new double[] {x, y, z}, content, triangulation);
     }
 
     /**
@@ -204,6 +238,7 @@ public class SpaceNode<T>
     public void addEdge(Edge<T> newEdge)
     {
         this.adjacentEdges.addFirst(newEdge);
+        edgeVersion++;
     }
 
     /**
@@ -236,6 +271,17 @@ public class SpaceNode<T>
     protected void removeEdge(Edge<T> edge)
     {
         adjacentEdges.remove(edge);
+        edgeVersion++;
+    }
+
+    /**
+     * Removes all the edges from the list of incident edges (without removing them from
+     * the other endpoints).
+     */
+    private void clearEdges()
+    {
+        adjacentEdges.clear();
+        edgeVersion++;
     }
 
     /**
@@ -375,6 +421,35 @@ public class SpaceNode<T>
         // };
     }
 
+    /**
+     * Returns the neighbors of this node in arrays. The snapshot is kept, and returned again
+     * until an edge of this node is created or removed.
+     *
+     * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#getNeighborSnapshot()
+     */
+    public NeighborSnapshot<T> getNeighborSnapshot()
+    {
+        NeighborSnapshot<T> snapshot = neighborSnapshot;
+        if (snapshot == null || snapshot.getVersion() != edgeVersion) {
+            snapshot = new NeighborSnapshot<T>(this, adjacentEdges, edgeVersion);
+            neighborSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#visitNeighbors(NeighborVisitor)
+     */
+    public void visitNeighbors(NeighborVisitor<T> visitor)
+    {
+        NeighborSnapshot<T> snapshot = getNeighborSnapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            visitor.visit(snapshot.getNeighbor(i));
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -408,7 +483,58 @@ public class SpaceNode<T>
         // " is not adjacent to any tetrahedra! Therefore, this point cannot
         // find a tetrahedron containing the position ("+
         // position[0]+"/"+position[1]+"/"+position[2]+")!");
-        Tetrahedron<T> insertionTetrahedron = adjacentTetrahedra.getFirst();
+        Tetrahedron<T> insertionTetrahedron = locate(position, locationHint);
+        locationHint = insertionTetrahedron;
+        return getUserObjectsOfTheVertices(insertionTetrahedron);
+    }
+
+    /**
+     * Finds the tetrahedra containing a whole set of positions. The positions are
+     * processed along a Hilbert curve (see {@link #hilbertSortedOrder(List)}) and each
+     * walk starts at the tetrahedron found for the previous position, so that probing
+     * many nearby points only costs a few steps per point.
+     *
+     * @param positions The positions of interest.
+     * @return For each position, in the same order as <code>positions</code>, the user
+     * objects of the vertices of the tetrahedron containing it, or <code>null</code>
+     * if it lies outside the convex hull.
+     * @see #getVerticesOfTheTetrahedronContaining(double[])
+     */
+    public Object[][] getVerticesOfTheTetrahedraContaining(List<double[]> positions)
+    {
+        Object[][] ret = new Object[positions.size()][];
+        if (adjacentTetrahedra.isEmpty()) {
+            return ret;
+        }
+        Tetrahedron<T> start = locationHint;
+        for (int index : hilbertSortedOrder(positions)) {
+            Tetrahedron<T> found = locate(positions.get(index), start);
+            ret[index] = getUserObjectsOfTheVertices(found);
+            if (!found.isInfinite()) {
+                start = found;
+            }
+        }
+        locationHint = start;
+        return ret;
+    }
+
+    /**
+     * Walks through the triangulation to the tetrahedron containing a given position.
+     *
+     * @param position The position of interest.
+     * @param start The tetrahedron where the walk should start. If it is <code>null</code>,
+     * infinite or not part of the triangulation anymore, the walk starts at a tetrahedron
+     * incident to this node.
+     * @return The tetrahedron containing <code>position</code>, or an infinite tetrahedron
+     * if it lies outside the convex hull.
+     */
+    private Tetrahedron<T> locate(double[] position, Tetrahedron<T> start)
+    {
+        Tetrahedron<T> insertionTetrahedron = start;
+        if ((insertionTetrahedron == null) || !insertionTetrahedron.isValid()
+                || insertionTetrahedron.isInfinite()) {
+            insertionTetrahedron = adjacentTetrahedra.getFirst();
+        }
         if (insertionTetrahedron.isInfinite()) {
             insertionTetrahedron =
                     insertionTetrahedron.getOppositeTriangle(null)
@@ -426,11 +552,21 @@ public class SpaceNode<T>
                 insertionTetrahedron = last;
             }
         }
-        if (insertionTetrahedron.isInfinite()) {
+        return insertionTetrahedron;
+    }
+
+    /**
+     * @param tetrahedron A tetrahedron of the triangulation.
+     * @return The user objects of the four endpoints of <code>tetrahedron</code>, or
+     * <code>null</code> if it is infinite.
+     */
+    private Object[] getUserObjectsOfTheVertices(Tetrahedron<T> tetrahedron)
+    {
+        if (tetrahedron.isInfinite()) {
             return null;
         }
         Object[] ret = new Object[4];
-        SpaceNode<T>[] nodes = insertionTetrahedron.getAdjacentNodes();
+        SpaceNode<T>[] nodes = tetrahedron.getAdjacentNodes();
         for (int i = 0; i < nodes.length; i++) {
             if (nodes[i] != null) {
                 ret[i] = nodes[i].getUserObject();
@@ -472,7 +608,7 @@ public class SpaceNode<T>
     {
 
         // create a new SpaceNode:
-        SpaceNode<T> insertPoint = new SpaceNode<T>(position, userObject);
+        SpaceNode<T> insertPoint = new SpaceNode<T>(position, userObject, triangulation);
 
         // the new instance should have the same listeners!
         insertPoint.setListenerList(this.listeners);
@@ -488,10 +624,9 @@ public class SpaceNode<T>
                         (SpaceNode<T>) adjacentEdges.getLast()
                                 .getOpposite(this);
                 // clear the edge lists:
-                adjacentEdges.clear();
-
-                a.getAdjacentEdges().clear();
-                b.getAdjacentEdges().clear();
+                clearEdges();
+                a.clearEdges();
+                b.clearEdges();
                 // now create the first tetrahedron:
                 Tetrahedron.createInitialTetrahedron(this, insertPoint, a, b);
             }
@@ -506,11 +641,186 @@ public class SpaceNode<T>
         else
         // insert point:
         {
-            insertPoint.insert(adjacentTetrahedra.getFirst());
+            try {
+                insertPoint.insert(adjacentTetrahedra.getFirst());
+            }
+            finally {
+                checkDeferredMovements();
+            }
         }
         return insertPoint;
     }
 
+    /**
+     * Computes an insertion order for a set of points that keeps consecutive points close
+     * to each other, using a biased randomized insertion order (BRIO) : the points are
+     * randomly distributed into rounds of doubling size, and the points of each round are
+     * sorted along a Hilbert curve. The randomization protects the triangulation from
+     * degenerate orders (e.g. a regular grid traversed line by line), while the sorting
+     * keeps the point location walks short.
+     * <p>
+     * The rounds are drawn with a fixed seed, so that the order only depends on the points.
+     *
+     * @param positions The points to be inserted.
+     * @return The indices of the points in <code>positions</code>, in the order in which
+     * they should be inserted.
+     */
+    public static int[] spatiallySortedOrder(List<double[]> positions)
+    {
+        int n = positions.size();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (n < 2) {
+            return order;
+        }
+        // random distribution into rounds:
+        Random random = new Random(n);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int dummy = order[i];
+            order[i] = order[j];
+            order[j] = dummy;
+        }
+        // each round is twice as big as the previous one; sort them one by one:
+        Comparator<Integer> byKey = compareKeys(hilbertKeys(positions));
+        int end = n;
+        while (end > 0) {
+            int start = (end > BRIO_FIRST_ROUND) ? end / 2 : 0;
+            Integer[] round = new Integer[end - start];
+            for (int i = start; i < end; i++) {
+                round[i - start] = order[i];
+            }
+            Arrays.sort(round, byKey);
+            for (int i = start; i < end; i++) {
+                order[i] = round[i - start];
+            }
+            end = start;
+        }
+        return order;
+    }
+
+    /**
+     * Sorts a set of points along a Hilbert curve, so that consecutive points are
+     * close to each other. Unlike {@link #spatiallySortedOrder(List)}, no randomization
+     * is applied; this is the order of choice for point location queries, which don't
+     * modify the triangulation.
+     *
+     * @param positions The points to be sorted.
+     * @return The indices of the points in <code>positions</code>, in the order of the curve.
+     */
+    public static int[] hilbertSortedOrder(List<double[]> positions)
+    {
+        int n = positions.size();
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        if (n > 1) {
+            Arrays.sort(sorted, compareKeys(hilbertKeys(positions)));
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = sorted[i];
+        }
+        return order;
+    }
+
+    /**
+     * Computes the Hilbert curve index of each point of a set, on a grid spanning
+     * the bounding box of the set.
+     *
+     * @param positions The points.
+     * @return The index of each point along the curve.
+     */
+    private static long[] hilbertKeys(List<double[]> positions)
+    {
+        int n = positions.size();
+        double[] min = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] max = new double[] {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (double[] position : positions) {
+            for (int j = 0; j < 3; j++) {
+                min[j] = Math.min(min[j], position[j]);
+                max[j] = Math.max(max[j], position[j]);
+            }
+        }
+        double extent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        double scale = (extent > 0) ? ((1 << HILBERT_BITS) - 1) / extent : 0;
+        long[] keys = new long[n];
+        int[] cell = new int[3];
+        for (int i = 0; i < n; i++) {
+            double[] position = positions.get(i);
+            for (int j = 0; j < 3; j++) {
+                cell[j] = (int) ((position[j] - min[j]) * scale);
+            }
+            keys[i] = hilbertKey(cell);
+        }
+        return keys;
+    }
+
+    /**
+     * @param keys The Hilbert curve index of each point.
+     * @return A comparator ordering point indices by their Hilbert curve index.
+     */
+    private static Comparator<Integer> compareKeys(final long[] keys)
+    {
+        return new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return (keys[a] < keys[b]) ? -1 : ((keys[a] == keys[b]) ? 0 : 1);
+            }
+        };
+    }
+
+    /**
+     * Computes the index of a cell along a 3D Hilbert curve (J. Skilling, "Programming
+     * the Hilbert curve", 2004).
+     *
+     * @param cell The integer coordinates of the cell, between 0 and 2^HILBERT_BITS - 1.
+     * This array is modified.
+     * @return The position of the cell along the curve.
+     */
+    private static long hilbertKey(int[] cell)
+    {
+        int m = 1 << (HILBERT_BITS - 1);
+        // inverse undo:
+        for (int q = m; q > 1; q >>= 1) {
+            int p = q - 1;
+            for (int i = 0; i < 3; i++) {
+                if ((cell[i] & q) != 0) {
+                    cell[0] ^= p;
+                }
+                else {
+                    int t = (cell[0] ^ cell[i]) & p;
+                    cell[0] ^= t;
+                    cell[i] ^= t;
+                }
+            }
+        }
+        // Gray encode:
+        cell[1] ^= cell[0];
+        cell[2] ^= cell[1];
+        int t = 0;
+        for (int q = m; q > 1; q >>= 1) {
+            if ((cell[2] & q) != 0) {
+                t ^= q - 1;
+            }
+        }
+        cell[0] ^= t;
+        cell[1] ^= t;
+        cell[2] ^= t;
+        // interleave the bits of the three transposed coordinates:
+        long key = 0;
+        for (int b = HILBERT_BITS - 1; b >= 0; b--) {
+            for (int i = 0; i < 3; i++) {
+                key = (key << 1) | ((cell[i] >> b) & 1);
+            }
+        }
+        return key;
+    }
+
     /**
      * Sets the list of movement listeners attached to this node to a specified
      * list.
@@ -554,6 +864,18 @@ public class SpaceNode<T>
      * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#getPosition()
      */
     public double[] getPosition()
+    {
+        if (logicalPosition != null) {
+            return logicalPosition;
+        }
+        return position;
+    }
+
+    /**
+     * @return The coordinate this node has in the triangulation. It differs from
+     * {@link #getPosition()} by less than the skin radius of the triangulation.
+     */
+    double[] getTriangulationPosition()
     {
         return position;
     }
@@ -566,6 +888,14 @@ public class SpaceNode<T>
         return id;
     }
 
+    /**
+     * @return The context of the triangulation this node belongs to.
+     */
+    public TriangulationContext<T> getTriangulation()
+    {
+        return triangulation;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -573,7 +903,10 @@ public class SpaceNode<T>
      */
     public void remove()
     {
+        locationHint = null;
         removeAndReturnCreatedTetrahedron();
+        setLogicalPosition(null);
+        checkDeferredMovements();
     }
 
     /**
@@ -591,7 +924,7 @@ public class SpaceNode<T>
             }
         }
         OpenTriangleOrganizer<T> oto =
-                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer();
+                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer(triangulation);
         LinkedList<Tetrahedron<T>> messedUpTetrahedra = null;
         // Collect the triangles that are opened by removing the point and
         // remove the corresponding tetrahedrons:
@@ -606,7 +939,7 @@ public class SpaceNode<T>
                 tetrahedron.remove();
                 if ((oppositeTetrahedron != null)
                         && !oppositeTetrahedron.isInfinite()
-                        && (oppositeTetrahedron.isInsideSphere(getPosition()))) {
+                        && (oppositeTetrahedron.isInsideSphere(getTriangulationPosition()))) {
                     if (messedUpTetrahedra == null) {
                         messedUpTetrahedra = new LinkedList<Tetrahedron<T>>();
                     }
@@ -622,9 +955,7 @@ public class SpaceNode<T>
             }
         }
         oto.triangulate();
-        if (allNodes != null) {
-            allNodes.remove(this);
-        }
+        triangulation.nodeRemoved(this);
         if (listeners != null) {
             for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
                 listener.nodeRemoved(this);
@@ -645,7 +976,7 @@ public class SpaceNode<T>
     public Tetrahedron<T> searchInitialInsertionTetrahedron(Tetrahedron<T> start)
             throws PositionNotAllowedException
     {
-        return searchInitialInsertionTetrahedron(start, this.getPosition());
+        return searchInitialInsertionTetrahedron(start, this.getTriangulationPosition());
     }
 
     /**
@@ -759,7 +1090,7 @@ public class SpaceNode<T>
         }
 
         OpenTriangleOrganizer<T> oto =
-                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer();
+                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer(triangulation);
         LinkedList<Triangle3D<T>> queue = new LinkedList<Triangle3D<T>>();
         LinkedList<Triangle3D<T>> outerTriangles =
                 new LinkedList<Triangle3D<T>>();
@@ -835,7 +1166,7 @@ public class SpaceNode<T>
                 Triangle3D<T> triangle = tetrahedron.getOppositeTriangle(this);
                 // if (! triangle.isInfinite()) {
                 triangle.updatePlaneEquationIfNecessary();
-                if (!triangle.trulyOnSameSide(this.getPosition(), newPosition)) {
+                if (!triangle.trulyOnSameSide(this.getTriangulationPosition(), newPosition)) {
                     tetrahedron.testPosition(newPosition);
                     return false;
                 }
@@ -844,19 +1175,6 @@ public class SpaceNode<T>
         return true;
     }
 
-    /**
-     * Creates an unique identifier that is used while restoring the Delaunay property.
-     * While running the flip algorithm, each triangle has to be tested whether it is still
-     * locally Delaunay. In order to make sure that no triangle is tested more than once,
-     * tested triangles are tagged with a checking index.
-     * @return A unique index.
-     */
-    private static int createNewCheckingIndex()
-    {
-        checkingIndex = (checkingIndex + 1) % 2000000000;
-        return checkingIndex;
-    }
-
     // private void recurseForMessedUpTetrahedra(
     // Tetrahedron<T> startingTetrahedron,
     // LinkedList<Tetrahedron<T>> messedUpTetrahedra,
@@ -960,7 +1278,7 @@ public class SpaceNode<T>
                 new LinkedList<Tetrahedron<T>>();
         LinkedList<SpaceNode<T>> problemNodes = new LinkedList<SpaceNode<T>>();
         OpenTriangleOrganizer<T> oto =
-                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer();
+                OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer(triangulation);
         if (NewDelaunayTest.createOutput()) {
             NewDelaunayTest.out("Cleaning up messed up tetrahedra: "
                     + messedUpTetrahedra.toString());
@@ -983,7 +1301,7 @@ public class SpaceNode<T>
                         if (!outerTetrahedron.isAdjacentTo(node)) {
                             if (outerTetrahedron.isFlat()
                                     || outerTetrahedron.isInsideSphere(node
-                                    .getPosition())) {
+                                    .getTriangulationPosition())) {
                                 removeTetrahedronDuringCleanUp(
                                         outerTetrahedron, outerTetrahedra,
                                         problemNodes, oto);
@@ -1023,9 +1341,19 @@ public class SpaceNode<T>
             tetrahedron.updateCirumSphereAfterNodeMovement(this);
             activeTetrahedra.add(tetrahedron);
         }
+        restoreDelaunay(activeTetrahedra);
+    }
 
+    /**
+     * Runs the flip algorithm of {@link #restoreDelaunay()}, starting at a given set of
+     * tetrahedra. The circumspheres of these tetrahedra must already be up to date.
+     *
+     * @param activeTetrahedra The tetrahedra whose neighborhood might not be Delaunay anymore.
+     */
+    private void restoreDelaunay(LinkedList<Tetrahedron<T>> activeTetrahedra)
+    {
         while (activeTetrahedra != null && !activeTetrahedra.isEmpty()) {
-            int checkingIndex = createNewCheckingIndex();
+            int checkingIndex = triangulation.createCheckingIndex();
             LinkedList<Tetrahedron<T>> problemTetrahedra =
                     new LinkedList<Tetrahedron<T>>();
             LinkedList<Tetrahedron<T>> flatTetrahedra =
@@ -1051,7 +1379,7 @@ public class SpaceNode<T>
                             // is there a violation of the Delaunay criterion?
                             if ((nodeI != null)
                                     && ((tetrahedron.isTrulyInsideSphere(nodeI
-                                    .getPosition()) || (tetrahedron
+                                    .getTriangulationPosition()) || (tetrahedron
                                     .isFlat() && tetrahedronI.isFlat())))) {
                                 Tetrahedron<T>[] newTetrahedra = null;
                                 // check if there is a neighboring tetrahedron
@@ -1094,9 +1422,9 @@ public class SpaceNode<T>
                                                         && tetrahedronJ.isFlat() && tetrahedronI != tetrahedronJ)
                                                         || (tetrahedronJ
                                                         .isTrulyInsideSphere(oppJ
-                                                                .getPosition()) && tetrahedronI
+                                                                .getTriangulationPosition()) && tetrahedronI
                                                         .isTrulyInsideSphere(oppI
-                                                                .getPosition()))) {
+                                                                .getTriangulationPosition()))) {
                                                     newTetrahedra =
                                                             Tetrahedron
                                                                     .flip3to2(
@@ -1240,7 +1568,7 @@ public class SpaceNode<T>
                                     oppositeTetrahedron
                                             .getOppositeNode(adjacentTriangle);
                             if (tetrahedron.isTrulyInsideSphere(oppositeNode
-                                    .getPosition())) {
+                                    .getTriangulationPosition())) {
                                 messedUpTetrahedra.add(tetrahedron);
                                 break;
                             }
@@ -1255,7 +1583,7 @@ public class SpaceNode<T>
             // for (Tetrahedron flatTetrahedron : flatTetrahedra) {
             // if (flatTetrahedron.isValid() &&
             // !messedUpTetrahedra.contains(flatTetrahedron)) {
-            // checkingIndex = createNewCheckingIndex();
+            // checkingIndex = triangulation.createCheckingIndex();
             // messedUpTetrahedra.add(flatTetrahedron);
             // for (Triangle3D triangle :
             // flatTetrahedron.getAdjacentTriangles()) {
@@ -1287,7 +1615,7 @@ public class SpaceNode<T>
             //
             // for (Tetrahedron tetrahedron : problemTetrahedra) {
             // if (tetrahedron.isValid() && !tetrahedron.isFlat()) {
-            // checkingIndex = createNewCheckingIndex();
+            // checkingIndex = triangulation.createCheckingIndex();
             // for (Triangle3D adjacentTriangle :
             // tetrahedron.getAdjacentTriangles()) {
             // Tetrahedron oppositeTetrahedron =
@@ -1312,7 +1640,7 @@ public class SpaceNode<T>
             // if (messedUpTetrahedron.isValid()) {
             //
             // if (oto == null)
-            // oto = OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer();
+            // oto = OpenTriangleOrganizer.createSimpleOpenTriangleOrganizer(triangulation);
             // messedUpTetrahedron.remove();
             // for (int i = 0; i < 4; i++) {
             // Triangle3D currentTriangle =
@@ -1350,23 +1678,407 @@ public class SpaceNode<T>
         }
     }
 
+    /**
+     * Moves a set of nodes of the same triangulation at once, and restores the Delaunay
+     * property in a single pass of the flip algorithm over all the tetrahedra incident to the
+     * moved nodes. When many neighboring nodes move a little, this avoids flipping the same
+     * tetrahedra again and again, as successive calls to {@link #moveTo(double[])} would.
+     * <p>
+     * Only the nodes whose movement, together with the movements of the other nodes, keeps
+     * all their incident tetrahedra valid (same orientation, not flat) are moved that way.
+     * The other ones (e.g. nodes on the convex hull, or nodes that would invert a
+     * tetrahedron) are moved afterwards one by one with {@link #moveTo(double[])}, which
+     * falls back to deleting and reinserting them when needed, and ignores the movements
+     * within the skin radius.
+     * <p>
+     * The movement listeners are called as for individual movements, except that all the
+     * nodes moved together are announced before any of them is moved.
+     *
+     * @param newPositions The new coordinate of each node that should be moved.
+     * @throws PositionNotAllowedException If a node could not be moved to its new position,
+     * after all the other nodes were moved.
+     */
+    public static <T> void moveAll(Map<SpaceNode<T>, double[]> newPositions)
+            throws PositionNotAllowedException
+    {
+        // 1) the nodes that can be moved together:
+        LinkedHashMap<SpaceNode<T>, double[]> batch = new LinkedHashMap<SpaceNode<T>, double[]>();
+        for (Map.Entry<SpaceNode<T>, double[]> entry : newPositions.entrySet()) {
+            if (!entry.getKey().mayDeferMovementTo(entry.getValue())
+                    && entry.getKey().mayBeMovedByFlipping()) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        LinkedList<SpaceNode<T>> nodesToCheck = new LinkedList<SpaceNode<T>>(batch.keySet());
+        HashSet<Tetrahedron<T>> validTetrahedra = new HashSet<Tetrahedron<T>>();
+        while (!nodesToCheck.isEmpty()) {
+            SpaceNode<T> node = nodesToCheck.poll();
+            if (!batch.containsKey(node)) {
+                continue;
+            }
+            for (Tetrahedron<T> tetrahedron : node.adjacentTetrahedra) {
+                if (validTetrahedra.contains(tetrahedron)) {
+                    continue;
+                }
+                if (keepsItsOrientation(tetrahedron, batch)) {
+                    validTetrahedra.add(tetrahedron);
+                }
+                else {
+                    // move none of its endpoints, and check again their neighbors in the batch:
+                    for (SpaceNode<T> endpoint : tetrahedron.getAdjacentNodes()) {
+                        if (batch.remove(endpoint) != null) {
+                            for (Tetrahedron<T> otherTetrahedron : endpoint.adjacentTetrahedra) {
+                                validTetrahedra.remove(otherTetrahedron);
+                                for (SpaceNode<T> neighbor : otherTetrahedron.getAdjacentNodes()) {
+                                    if (batch.containsKey(neighbor)) {
+                                        nodesToCheck.add(neighbor);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        // 2) move them and restore the Delaunay property:
+        if (!batch.isEmpty()) {
+            for (Map.Entry<SpaceNode<T>, double[]> entry : batch.entrySet()) {
+                SpaceNode<T> node = entry.getKey();
+                node.setLogicalPosition(null);
+                if (node.listeners != null) {
+                    double[] delta = subtract(entry.getValue(), node.position);
+                    for (SpatialOrganizationNodeMovementListener<T> listener : node.listeners) {
+                        listener.nodeAboutToMove(node, delta);
+                    }
+                }
+            }
+            for (Map.Entry<SpaceNode<T>, double[]> entry : batch.entrySet()) {
+                entry.getKey().position = entry.getValue();
+                entry.getKey().triangulation.flipMovement();
+            }
+            LinkedHashSet<Tetrahedron<T>> movedTetrahedra = new LinkedHashSet<Tetrahedron<T>>();
+            for (SpaceNode<T> node : batch.keySet()) {
+                for (Tetrahedron<T> tetrahedron : node.adjacentTetrahedra) {
+                    if (movedTetrahedra.add(tetrahedron)) {
+                        tetrahedron.updateCirumSphereAfterNodeMovement(node);
+                    }
+                    else {
+                        // the circumsphere is already up to date, but not all the triangles know
+                        // that one more of their endpoints moved:
+                        for (Triangle3D<T> triangle : tetrahedron.getAdjacentTriangles()) {
+                            triangle.informAboutNodeMovement();
+                        }
+                    }
+                }
+            }
+            SpaceNode<T> anyNode = batch.keySet().iterator().next();
+            anyNode.restoreDelaunay(new LinkedList<Tetrahedron<T>>(movedTetrahedra));
+            for (SpaceNode<T> node : batch.keySet()) {
+                for (Tetrahedron<T> tetrahedron : node.adjacentTetrahedra) {
+                    node.triangulation.tetrahedronMoved(tetrahedron);
+                }
+            }
+            anyNode.checkDeferredMovements();
+            for (SpaceNode<T> node : batch.keySet()) {
+                if (node.listeners != null) {
+                    for (SpatialOrganizationNodeMovementListener<T> listener : node.listeners) {
+                        listener.nodeMoved(node);
+                    }
+                }
+            }
+        }
+        // 3) the other ones, one by one:
+        PositionNotAllowedException firstException = null;
+        for (Map.Entry<SpaceNode<T>, double[]> entry : newPositions.entrySet()) {
+            if (!batch.containsKey(entry.getKey())) {
+                try {
+                    entry.getKey().moveTo(entry.getValue());
+                }
+                catch (PositionNotAllowedException e) {
+                    if (firstException == null) {
+                        firstException = e;
+                    }
+                }
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if this node can be moved without changing the convex hull,
+     * i.e. it is not an endpoint of an infinite or flat tetrahedron.
+     */
+    private boolean mayBeMovedByFlipping()
+    {
+        if (adjacentTetrahedra.isEmpty()) {
+            return false;
+        }
+        for (Tetrahedron<T> tetrahedron : adjacentTetrahedra) {
+            if (tetrahedron.isInfinite() || tetrahedron.isFlat()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether a finite tetrahedron remains valid if some of its endpoints are moved.
+     *
+     * @param tetrahedron The tetrahedron.
+     * @param newPositions The new coordinates of the nodes that will be moved.
+     * @return <code>true</code> if the tetrahedron has the same orientation with the new
+     * coordinates as with the current ones, and is not flat.
+     */
+    private static <T> boolean keepsItsOrientation(Tetrahedron<T> tetrahedron,
+            Map<SpaceNode<T>, double[]> newPositions)
+    {
+        SpaceNode<T>[] nodes = tetrahedron.getAdjacentNodes();
+        double[][] after = new double[4][];
+        for (int i = 0; i < 4; i++) {
+            after[i] = newPositions.get(nodes[i]);
+            if (after[i] == null) {
+                after[i] = nodes[i].position;
+            }
+        }
+        int orientationBefore = AdaptivePredicates.orientation(nodes[0].position,
+                nodes[1].position, nodes[2].position, nodes[3].position);
+        int orientationAfter = AdaptivePredicates.orientation(after[0], after[1],
+                after[2], after[3]);
+        return (orientationBefore != 0) && (orientationBefore == orientationAfter);
+    }
+
     /* (non-Javadoc)
      * @see ini.cx3d.spatialOrganization.SpatialOrganizationNode#moveFrom(double[])
      */
     public void moveFrom(double[] delta)
             throws PositionNotAllowedException
     {
-        moveTo(add(this.position, delta));
+        moveTo(add(getPosition(), delta));
+    }
+
+    /**
+     * @param newPosition A new coordinate for this node.
+     * @return <code>true</code> if <code>newPosition</code> is closer than the skin radius
+     * to the coordinate this node has in the triangulation, so that the triangulation
+     * doesn't need to be updated.
+     */
+    private boolean isWithinSkin(double[] newPosition)
+    {
+        double skinRadius = triangulation.getSkinRadius();
+        if (skinRadius <= 0 || adjacentTetrahedra.isEmpty()) {
+            return false;
+        }
+        double[] diff = subtract(newPosition, position);
+        return dot(diff, diff) < skinRadius * skinRadius;
+    }
+
+    /**
+     * @param newPosition A new coordinate for this node.
+     * @return <code>true</code> if the movement of this node to <code>newPosition</code> is
+     * within the skin radius, and if the tetrahedra of this node remain Delaunay tetrahedra
+     * with the positions of the nodes (see
+     * {@link #isDelaunayWithPositions(Tetrahedron, SpaceNode, double[])}).
+     */
+    private boolean mayDeferMovementTo(double[] newPosition)
+    {
+        if (!isWithinSkin(newPosition) || !mayBeMovedByFlipping()) {
+            return false;
+        }
+        for (Tetrahedron<T> tetrahedron : adjacentTetrahedra) {
+            if (!isDelaunayWithPositions(tetrahedron, this, newPosition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the position of this node that differs from its coordinate in the triangulation,
+     * and keeps track of the number of such nodes in the triangulation context.
+     * @param newLogicalPosition The new position, or <code>null</code> if the position of this
+     * node is its coordinate in the triangulation.
+     */
+    private void setLogicalPosition(double[] newLogicalPosition)
+    {
+        if ((newLogicalPosition != null) && (logicalPosition == null)) {
+            triangulation.deferringNodeAdded();
+        }
+        else if ((newLogicalPosition == null) && (logicalPosition != null)) {
+            triangulation.deferringNodeRemoved();
+        }
+        logicalPosition = newLogicalPosition;
+    }
+
+    /**
+     * @param movedNode A node that is about to be moved within the skin radius, or
+     * <code>null</code>.
+     * @param newPosition The new position of <code>movedNode</code>.
+     * @return The new position if this node is <code>movedNode</code>, and its position
+     * (see {@link #getPosition()}) otherwise.
+     */
+    private double[] getPosition(SpaceNode<T> movedNode, double[] newPosition)
+    {
+        return (this == movedNode) ? newPosition : getPosition();
     }
 
     /**
-     * Moves this node to a new position.
+     * Determines whether a tetrahedron is still a Delaunay tetrahedron if the nodes are
+     * placed at their positions (see {@link #getPosition()}) instead of their coordinates in
+     * the triangulation: it must keep its orientation, and the nodes of the adjacent
+     * tetrahedra must not lie strictly inside its circumsphere. Infinite and flat tetrahedra
+     * are only accepted if none of their endpoints was moved within the skin radius.
+     * <p>
+     * If this holds for all the tetrahedra, the triangulation is a Delaunay triangulation of
+     * the positions as well (every triangle is locally Delaunay, the tetrahedra don't overlap,
+     * and the convex hull doesn't move).
+     *
+     * @param tetrahedron The tetrahedron.
+     * @param movedNode A node that is about to be moved within the skin radius, or
+     * <code>null</code>.
+     * @param newPosition The new position of <code>movedNode</code>.
+     * @return <code>true</code> if the tetrahedron is still a Delaunay tetrahedron.
+     */
+    private static <T> boolean isDelaunayWithPositions(Tetrahedron<T> tetrahedron,
+            SpaceNode<T> movedNode, double[] newPosition)
+    {
+        SpaceNode<T>[] nodes = tetrahedron.getAdjacentNodes();
+        if (tetrahedron.isInfinite() || tetrahedron.isFlat()) {
+            for (SpaceNode<T> node : nodes) {
+                if ((node != null) && ((node == movedNode) || (node.logicalPosition != null))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        double[][] positions = new double[4][];
+        boolean moved = false;
+        for (int i = 0; i < 4; i++) {
+            positions[i] = nodes[i].getPosition(movedNode, newPosition);
+            moved |= positions[i] != nodes[i].position;
+        }
+        if (moved) {
+            int orientationBefore = AdaptivePredicates.orientation(nodes[0].position,
+                    nodes[1].position, nodes[2].position, nodes[3].position);
+            int orientationAfter = AdaptivePredicates.orientation(positions[0], positions[1],
+                    positions[2], positions[3]);
+            if ((orientationBefore == 0) || (orientationBefore != orientationAfter)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            Tetrahedron<T> adjacentTetrahedron = tetrahedron.getAdjacentTetrahedron(i);
+            if ((adjacentTetrahedron == null) || adjacentTetrahedron.isInfinite()) {
+                continue;
+            }
+            SpaceNode<T> node = adjacentTetrahedron.getOppositeNode(tetrahedron.getAdjacentTriangles()[i]);
+            double[] nodePosition = node.getPosition(movedNode, newPosition);
+            if ((moved || (nodePosition != node.position))
+                    && (AdaptivePredicates.inSphere(positions[0], positions[1], positions[2],
+                    positions[3], nodePosition) > 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies to the triangulation the deferred movements after which a tetrahedron would no
+     * longer be a Delaunay tetrahedron (see
+     * {@link #isDelaunayWithPositions(Tetrahedron, SpaceNode, double[])}), once the
+     * triangulation was modified. The tetrahedra that were created or moved since the last
+     * check are collected by the triangulation context.
+     * <p>
+     * If a node cannot be moved to its position in the triangulation, it keeps its
+     * coordinate in the triangulation as its position.
+     */
+    private void checkDeferredMovements()
+    {
+        if (!triangulation.startCheckingTetrahedra()) {
+            // already done by a caller of this method
+            return;
+        }
+        try {
+            Tetrahedron<T> tetrahedron;
+            while ((tetrahedron = triangulation.pollTetrahedronToCheck()) != null) {
+                if (!tetrahedron.isValid() || isDelaunayWithPositions(tetrahedron, null, null)) {
+                    continue;
+                }
+                // apply the movement of one of the endpoints of the tetrahedron or of its
+                // adjacent tetrahedra, and check the tetrahedron again if it still exists:
+                SpaceNode<T> deferringNode = null;
+                for (int i = 0; (i < 4) && (deferringNode == null); i++) {
+                    SpaceNode<T> node = tetrahedron.getAdjacentNodes()[i];
+                    if ((node != null) && (node.logicalPosition != null)) {
+                        deferringNode = node;
+                    }
+                }
+                for (int i = 0; (i < 4) && (deferringNode == null); i++) {
+                    Tetrahedron<T> adjacentTetrahedron = tetrahedron.getAdjacentTetrahedron(i);
+                    if (adjacentTetrahedron != null) {
+                        SpaceNode<T> node = adjacentTetrahedron.getOppositeNode(tetrahedron.getAdjacentTriangles()[i]);
+                        if ((node != null) && (node.logicalPosition != null)) {
+                            deferringNode = node;
+                        }
+                    }
+                }
+                try {
+                    deferringNode.updateTriangulationPosition(deferringNode.logicalPosition);
+                }
+                catch (PositionNotAllowedException e) {
+                    // the node was reinserted at its coordinate in the triangulation
+                }
+                triangulation.tetrahedronMoved(tetrahedron);
+            }
+        }
+        finally {
+            triangulation.stopCheckingTetrahedra();
+        }
+    }
+
+    /**
+     * Moves this node to a new position. If the skin radius of the triangulation is positive
+     * and the new position is closer than it to the coordinate of this node in the
+     * triangulation, only the position returned by {@link #getPosition()} is updated: neither
+     * the triangulation nor the movement listeners are informed. They are once the node moves
+     * farther, with the whole displacement since the last update.
+     * <p>
+     * Movements within the skin radius are only deferred if the node is not on the convex
+     * hull, and if the triangulation remains a Delaunay triangulation of the positions of
+     * the nodes, so that the neighbors of all the nodes stay exact. When the triangulation is
+     * updated, the deferred movements for which this no longer holds are applied to the
+     * triangulation as well.
      * @param newPosition The new coordinate for this node.
      * @throws PositionNotAllowedException
      */
     public void moveTo(double[] newPosition)
             throws PositionNotAllowedException
     {
+        if (mayDeferMovementTo(newPosition)) {
+            setLogicalPosition(newPosition);
+            triangulation.deferredMovement();
+            return;
+        }
+        try {
+            updateTriangulationPosition(newPosition);
+        }
+        finally {
+            checkDeferredMovements();
+        }
+    }
+
+    /**
+     * Moves this node to a new position in the triangulation, and restores the Delaunay
+     * property.
+     * @param newPosition The new coordinate for this node.
+     * @throws PositionNotAllowedException
+     */
+    private void updateTriangulationPosition(double[] newPosition)
+            throws PositionNotAllowedException
+    {
+        setLogicalPosition(null);
 
         if (checkIfTriangulationIsStillValid(newPosition)) {
             if (listeners != null) {
@@ -1375,9 +2087,12 @@ public class SpaceNode<T>
                     listener.nodeAboutToMove(this, delta);
                 }
             }
-            flipMovements++;
+            triangulation.flipMovement();
             this.position = newPosition;
             restoreDelaunay();
+            for (Tetrahedron<T> tetrahedron : adjacentTetrahedra) {
+                triangulation.tetrahedronMoved(tetrahedron);
+            }
             if (listeners != null) {
                 for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
                     listener.nodeMoved(this);
@@ -1388,7 +2103,7 @@ public class SpaceNode<T>
             if (NewDelaunayTest.createOutput()) {
                 NewDelaunayTest.out("Node must be deleted and reinserted!");
             }
-            deleteAndInsertMovements++;
+            triangulation.deleteAndInsertMovement();
             Tetrahedron<T> insertPosition =
                     searchInitialInsertionTetrahedron(adjacentTetrahedra
                             .getFirst(), newPosition);
@@ -1407,9 +2122,7 @@ public class SpaceNode<T>
                 insert(insertPosition);
                 throw e;
             }
-            if (allNodes != null) {
-                allNodes.add(this);
-            }
+            triangulation.nodeCreated(this);
         }
     }
 
@@ -1454,9 +2167,9 @@ public class SpaceNode<T>
                 farthestAwayDiff = triangle.getNormalVector();
                 if (!oppositeTetrahedron.isInfinite()) {
                     double[] outerPosition =
-                            add(this.getPosition(), farthestAwayDiff);
+                            add(this.getTriangulationPosition(), farthestAwayDiff);
                     if (triangle.onSameSide(outerPosition, oppositeTetrahedron
-                            .getOppositeNode(triangle).getPosition())) {
+                            .getOppositeNode(triangle).getTriangulationPosition())) {
                         farthestAwayDiff = scalarMult(-1, farthestAwayDiff);
                     }
                 }
@@ -21,6 +21,11 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 
 package ini.cx3d.spatialOrganization;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * Interface to define the basic properties of a node in the triangulation.
  *
@@ -36,9 +41,71 @@ public interface SpatialOrganizationNode<T>
 
     public Iterable<T> getNeighbors();
 
+    /**
+     * Returns the neighbors of this node, with the edges to them, in arrays. By default, a new
+     * snapshot is built from {@link #getEdges()} at each call.
+     *
+     * @return a snapshot of the neighbors.
+     */
+    public default NeighborSnapshot<T> getNeighborSnapshot()
+    {
+        return new NeighborSnapshot<T>(this, getEdges());
+    }
+
+    /**
+     * Calls a visitor for the user object of each neighbor of this node. By default, the
+     * neighbors are taken from {@link #getNeighbors()}.
+     *
+     * @param visitor
+     */
+    public default void visitNeighbors(NeighborVisitor<T> visitor)
+    {
+        for (T neighbor : getNeighbors()) {
+            visitor.visit(neighbor);
+        }
+    }
+
     public SpatialOrganizationNode<T> getNewInstance(double[] position, T userObject)
             throws PositionNotAllowedException;
 
+    /**
+     * Inserts a whole set of new nodes, in the order computed by
+     * {@link SpaceNode#spatiallySortedOrder(List)} : the insertion of each node starts from the
+     * node inserted just before, which lies close to it, so the whole insertion takes
+     * near-linear time, whatever the order in which the points are given.
+     * <p>
+     * Each new node is created with {@link #getNewInstance(double[], Object)}, so it gets the
+     * listeners of this node. These listeners may look at the nodes inserted before, so
+     * <code>inserted</code> is called for each new node right after its insertion, e.g. to
+     * let its user object know its node.
+     *
+     * @param positions The positions of the new nodes.
+     * @param userObjects The user objects of the new nodes, in the same order.
+     * @param inserted Called with each new node right after its insertion (can be <code>null</code>).
+     * @return The new nodes, in the same order as <code>positions</code>.
+     * @throws PositionNotAllowedException if a node can't be inserted; the nodes inserted
+     * before it are kept.
+     */
+    public default List<SpatialOrganizationNode<T>> getNewInstances(List<double[]> positions, List<T> userObjects,
+                                                                   Consumer<SpatialOrganizationNode<T>> inserted)
+            throws PositionNotAllowedException
+    {
+        if (positions.size() != userObjects.size()) {
+            throw new IllegalArgumentException("There must be one user object per position");
+        }
+        List<SpatialOrganizationNode<T>> newNodes =
+                new ArrayList<SpatialOrganizationNode<T>>(Collections.<SpatialOrganizationNode<T>>nCopies(positions.size(), null));
+        SpatialOrganizationNode<T> last = this;
+        for (int index : SpaceNode.spatiallySortedOrder(positions)) {
+            last = last.getNewInstance(positions.get(index), userObjects.get(index));
+            newNodes.set(index, last);
+            if (inserted != null) {
+                inserted.accept(last);
+            }
+        }
+        return newNodes;
+    }
+
     public Iterable<T> getPermanentListOfNeighbors();
 
     public double[] getPosition();
@@ -47,6 +114,23 @@ public interface SpatialOrganizationNode<T>
 
     public Object[] getVerticesOfTheTetrahedronContaining(double[] position);
 
+    /**
+     * Finds the tetrahedra containing a set of positions. By default, each position is looked
+     * up on its own with {@link #getVerticesOfTheTetrahedronContaining(double[])}.
+     *
+     * @param positions The positions of interest.
+     * @return For each position, in the same order, the user objects of the vertices of the
+     * tetrahedron containing it, or <code>null</code> if there is none.
+     */
+    public default Object[][] getVerticesOfTheTetrahedraContaining(List<double[]> positions)
+    {
+        Object[][] result = new Object[positions.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getVerticesOfTheTetrahedronContaining(positions.get(i));
+        }
+        return result;
+    }
+
     public double getVolume();
 
     public void moveFrom(double[] delta)
@@ -22,10 +22,8 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 package ini.cx3d.spatialOrganization;
 
 import java.lang.reflect.Array;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.Random;
 
 import static ini.cx3d.utilities.Matrix.add;
 import static ini.cx3d.utilities.Matrix.crossProduct;
@@ -53,29 +51,6 @@ import static ini.cx3d.utilities.Matrix.subtract;
 public class Tetrahedron<T>
 {
     public static final double TOLERANCE_SETTING = 0.001;
-    // public static LinkedList<Tetrahedron> allTetrahedra = new
-    // LinkedList<Tetrahedron>();
-
-    /**
-     * Exclusively used for debugging purposes. Needs to be removed.
-     */
-    public static LinkedList<Tetrahedron> allTetrahedra = null;
-    /**
-     * Exclusively used for debugging purposes. Needs to be removed.
-     */
-    public static int toleranceUsages = 0;
-    /**
-     * Exclusively used for debugging purposes. Needs to be removed.
-     */
-    public static double maxToleranceNeeded = 0.0;
-
-    /**
-     * A small list containing a permutation of the number 0-3. This list is
-     * used to randomize the visibility walk implemented in
-     * {@link #walkToPoint(double[])}.
-     */
-    private static List<Integer> triangleOrder = Arrays.asList(new Integer[] {
-            0, 1, 2, 3});
 
     // /**
     // * A global variable that keeps track of the number of Tetrahedra
@@ -84,18 +59,6 @@ public class Tetrahedron<T>
     // */
     // private static int IDCOUNTER = 0;
 
-    /**
-     * Exclusively used for debugging purposes. Needs to be removed.
-     */
-    public static void clear()
-    {
-        if (allTetrahedra != null) {
-            allTetrahedra.clear();
-        }
-        // IDCOUNTER = 0;
-        triangleOrder = Arrays.asList(new Integer[] {0, 1, 2, 3});
-    }
-
     // /**
     // * Each tetrahedron is assigned a unique ID. Not used.
     // */
@@ -226,7 +189,7 @@ public class Tetrahedron<T>
         Tetrahedron<T> ret = new Tetrahedron<T>(triangleA, triangleB,
                 triangleC, triangleD, a, b, c, d);
         OpenTriangleOrganizer oto = OpenTriangleOrganizer
-                .createSimpleOpenTriangleOrganizer();
+                .createSimpleOpenTriangleOrganizer(a.getTriangulation());
         new Tetrahedron<T>(triangleA, null, oto);
         new Tetrahedron<T>(triangleB, null, oto);
         new Tetrahedron<T>(triangleC, null, oto);
@@ -297,9 +260,7 @@ public class Tetrahedron<T>
         // System.out.println("Tetrahedron.init");
         // }
         calculateCircumSphere();
-        if (allTetrahedra != null) {
-            allTetrahedra.add(this);
-        }
+        getTriangulation().tetrahedronCreated(this);
         if (NewDelaunayTest.createOutput()) {
             NewDelaunayTest.out("created tetrahedron " + this);
         }
@@ -344,9 +305,7 @@ public class Tetrahedron<T>
         }
         registerEdges();
         calculateCircumSphere();
-        if (allTetrahedra != null) {
-            allTetrahedra.add(this);
-        }
+        getTriangulation().tetrahedronCreated(this);
         if (NewDelaunayTest.createOutput()) {
             NewDelaunayTest.out("created tetrahedron " + this);
         }
@@ -438,10 +397,10 @@ public class Tetrahedron<T>
             double[][] areaMiddles = new double[4][3];
             double[] tetraMiddle = {0.0, 0.0, 0.0};
             double[][] positions = new double[][] {
-                    adjacentNodes[0].getPosition(),
-                    adjacentNodes[1].getPosition(),
-                    adjacentNodes[2].getPosition(),
-                    adjacentNodes[3].getPosition()};
+                    adjacentNodes[0].getTriangulationPosition(),
+                    adjacentNodes[1].getTriangulationPosition(),
+                    adjacentNodes[2].getTriangulationPosition(),
+                    adjacentNodes[3].getTriangulationPosition()};
             // i: dimension: x, y, z
             for (int i = 0; i < 3; i++) {
                 for (int j = 0, lineCounter = 0; j < 4; j++) {
@@ -617,12 +576,12 @@ public class Tetrahedron<T>
     {
         if (!isInfinite()) {
             return new double[][] {
-                    subtract(adjacentNodes[1].getPosition(), adjacentNodes[0]
-                            .getPosition()),
-                    subtract(adjacentNodes[2].getPosition(), adjacentNodes[0]
-                            .getPosition()),
-                    subtract(adjacentNodes[3].getPosition(), adjacentNodes[0]
-                            .getPosition())};
+                    subtract(adjacentNodes[1].getTriangulationPosition(), adjacentNodes[0]
+                            .getTriangulationPosition()),
+                    subtract(adjacentNodes[2].getTriangulationPosition(), adjacentNodes[0]
+                            .getTriangulationPosition()),
+                    subtract(adjacentNodes[3].getTriangulationPosition(), adjacentNodes[0]
+                            .getTriangulationPosition())};
         }
         else {
             return null;
@@ -652,7 +611,8 @@ public class Tetrahedron<T>
     /**
      * Determines wether a given point lies inside or outside the circumsphere
      * of this tetrahedron or lies on the surface of this sphere. This function
-     * uses precise arithmetics to calculate a reliable answer.
+     * uses precise arithmetics to calculate a reliable answer (see
+     * {@link AdaptivePredicates#inSphere(double[], double[], double[], double[], double[])}).
      *
      * @param position The position for which the orientation should be determined.
      * @return -1, if the point lies outside this tetrahedron's circumsphere, 1
@@ -660,6 +620,30 @@ public class Tetrahedron<T>
      * the sphere.
      */
     protected int orientationExact(double[] position)
+    {
+        if (isInfinite()) {
+            return 1;
+        }
+        double[] a = adjacentNodes[0].getTriangulationPosition(), b = adjacentNodes[1].getTriangulationPosition(),
+                c = adjacentNodes[2].getTriangulationPosition(), d = adjacentNodes[3].getTriangulationPosition();
+        int result = AdaptivePredicates.inSphere(a, b, c, d, position);
+        if ((result == 0) && (AdaptivePredicates.orientation(a, b, c, d) == 0)) {
+            // a flat tetrahedron has no circumsphere:
+            return orientationRational(position);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #orientationExact(double[])}, but entirely computed with rational numbers.
+     * Only used for flat tetrahedra.
+     *
+     * @param position The position for which the orientation should be determined.
+     * @return -1, if the point lies outside this tetrahedron's circumsphere, 1
+     * if it is inside the sphere and 0, if it lies on the surface of
+     * the sphere.
+     */
+    private int orientationRational(double[] position)
     {
         if (isInfinite()) {
             return 1;
@@ -668,7 +652,7 @@ public class Tetrahedron<T>
             ExactVector[] points = new ExactVector[4];
             // NewDelaunayTest.out("Points:");
             for (int i = 0; i < points.length; i++) {
-                points[i] = new ExactVector(this.adjacentNodes[i].getPosition());
+                points[i] = new ExactVector(this.adjacentNodes[i].getTriangulationPosition());
                 // for (int j = 1; j < 4; j++) {
                 // outFieldElement(points[i].getEntry(j));
                 // }
@@ -876,9 +860,9 @@ public class Tetrahedron<T>
                 * (1 / maxLength2 + 1 / (maxLength2 * maxLength2)));
         double ddet2 = 36 * dns2;
 
-        double pm2 = maxAbs(adjacentNodes[0].getPosition(), adjacentNodes[1]
-                        .getPosition(), adjacentNodes[2].getPosition(),
-                adjacentNodes[3].getPosition());
+        double pm2 = maxAbs(adjacentNodes[0].getTriangulationPosition(), adjacentNodes[1]
+                        .getTriangulationPosition(), adjacentNodes[2].getTriangulationPosition(),
+                adjacentNodes[3].getTriangulationPosition());
         pm2 *= pm2;
         // Offset-Fehler / My2
         double doff2 = 6 * pm2 * (dns2 + 1);
@@ -887,12 +871,12 @@ public class Tetrahedron<T>
         double det = det(normals);
 
         // double detError2 = detError2(normals, normalErrors, det);
-        double[] add01 = add(adjacentNodes[0].getPosition(), adjacentNodes[1]
-                .getPosition());
-        double[] add02 = add(adjacentNodes[0].getPosition(), adjacentNodes[2]
-                .getPosition());
-        double[] add03 = add(adjacentNodes[0].getPosition(), adjacentNodes[3]
-                .getPosition());
+        double[] add01 = add(adjacentNodes[0].getTriangulationPosition(), adjacentNodes[1]
+                .getTriangulationPosition());
+        double[] add02 = add(adjacentNodes[0].getTriangulationPosition(), adjacentNodes[2]
+                .getTriangulationPosition());
+        double[] add03 = add(adjacentNodes[0].getTriangulationPosition(), adjacentNodes[3]
+                .getTriangulationPosition());
         double[] offsets = new double[] {0.5 * dot(normals[0], add01),
                                          0.5 * dot(normals[1], add02), 0.5 * dot(normals[2], add03)};
         // double[] offsetErrors = new double[] {
@@ -942,7 +926,7 @@ public class Tetrahedron<T>
             ddiv2 = 1 / (det * det) * 3 * dscalar2 + 324 * pm2 * ddet2
                     / (det * det * det * det);
             double[] dummy = subtract(circumCenter, adjacentNodes[0]
-                    .getPosition());
+                    .getTriangulationPosition());
             squaredRadius = dot(dummy, dummy);
             tolerance = Math.sqrt(12 * ddiv2 * squaredRadius) * my2;
         }
@@ -954,7 +938,7 @@ public class Tetrahedron<T>
      */
     private void computeRadius()
     {
-        double[] dummy = subtract(circumCenter, adjacentNodes[0].getPosition());
+        double[] dummy = subtract(circumCenter, adjacentNodes[0].getTriangulationPosition());
         squaredRadius = dot(dummy, dummy);
         // if (TOLERANCE_SETTING > 0)
         // tolerance = squaredRadius*TOLERANCE_SETTING;
@@ -1038,14 +1022,13 @@ public class Tetrahedron<T>
             }
             else {
                 // System.out.print("-");
-                toleranceUsages++;
+                TriangulationContext<T> triangulation = getTriangulation();
+                triangulation.orientationToleranceUsed();
                 int result = orientationExact(point);
                 if ((result != 0) && ((result == 1) ^ (dum < squaredRadius))) {
                     double difference = Math.abs(squaredRadius - dum);
                     difference /= tolerance;
-                    if (difference > maxToleranceNeeded) {
-                        maxToleranceNeeded = difference;
-                    }
+                    triangulation.orientationToleranceNeeded(difference);
                     NewDelaunayTest.changeOutputCreation();
                     orientationExact(point);
                     NewDelaunayTest.changeOutputCreation();
@@ -1064,7 +1047,7 @@ public class Tetrahedron<T>
                 }
                 orientation = adjacentTriangles[0].orientation(point,
                         innerTetrahedron.getOppositeNode(adjacentTriangles[0])
-                                .getPosition());
+                                .getTriangulationPosition());
             }
             else {
                 orientation = adjacentTriangles[0]
@@ -1144,7 +1127,7 @@ public class Tetrahedron<T>
             Tetrahedron opposite = getAdjacentTetrahedron(i);
             if (opposite != null && !isInfinite() && opposite.isInfinite()) {
                 adjacentTriangles[i].orientToSide(adjacentNodes[i]
-                        .getPosition());
+                        .getTriangulationPosition());
             }
             adjacentTriangles[i].removeTetrahedron(this);
         }
@@ -1154,9 +1137,7 @@ public class Tetrahedron<T>
                 adjacentEdges[i].removeTetrahedron(this);
             }
         }
-        if (allTetrahedra != null) {
-            allTetrahedra.remove(this);
-        }
+        getTriangulation().tetrahedronRemoved(this);
     }
 
     /**
@@ -1437,7 +1418,7 @@ public class Tetrahedron<T>
                 if (i != connectingTriangleNumber) {
                     adjacentTriangles[i].updatePlaneEquationIfNecessary();
                     if (!adjacentTriangles[i].trulyOnSameSide(adjacentNodes[i]
-                            .getPosition(), point)) {
+                            .getTriangulationPosition(), point)) {
                         return false;
                     }
                 }
@@ -1490,7 +1471,7 @@ public class Tetrahedron<T>
                 if (i != connectingTriangleNumber) {
                     adjacentTriangles[i].updatePlaneEquationIfNecessary();
                     int currentResult = adjacentTriangles[i].orientation(
-                            adjacentNodes[i].getPosition(), point);
+                            adjacentNodes[i].getTriangulationPosition(), point);
                     if (currentResult < 0) {
                         return -1;
                     }
@@ -1651,7 +1632,7 @@ public class Tetrahedron<T>
             }
         }
         int convexPosition = (lowerNode == null) ? 1 : tetrahedronA
-                .isInConvexPosition(lowerNode.getPosition(),
+                .isInConvexPosition(lowerNode.getTriangulationPosition(),
                         connectingTriangleNumber);
         if (convexPosition >= 0) {
             boolean checkForFlatTetrahedra = convexPosition == 0;
@@ -1680,7 +1661,7 @@ public class Tetrahedron<T>
                 }
                 if ((checkForFlatTetrahedra)
                         && (upperTriangles[i].orientation(lowerNode
-                        .getPosition(), lowerNode.getPosition()) == 0)) {
+                        .getTriangulationPosition(), lowerNode.getTriangulationPosition()) == 0)) {
                     ret[i] = new FlatTetrahedron(newTriangles[b],
                             upperTriangles[i], lowerTriangles[i],
                             newTriangles[a], connectingTriangleNodes[a],
@@ -1846,13 +1827,22 @@ public class Tetrahedron<T>
             throws PositionNotAllowedException
     {
         if (!isInfinite()) {
-            Collections.shuffle(triangleOrder, NewDelaunayTest.rand);
+            // random permutation of 0-3, to randomize the visibility walk
+            // (local, since several walks can take place at the same time)
+            int[] triangleOrder = {0, 1, 2, 3};
+            Random random = adjacentNodes[0].getTriangulation().getRandom();
+            for (int i = 3; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = triangleOrder[i];
+                triangleOrder[i] = triangleOrder[j];
+                triangleOrder[j] = tmp;
+            }
             for (int i = 0; i < 4; i++) {
-                int pos = triangleOrder.get(i);
+                int pos = triangleOrder[i];
                 Triangle3D<T> currentTriangle = adjacentTriangles[pos];
                 currentTriangle.updatePlaneEquationIfNecessary();
                 int orientation = currentTriangle.orientation(
-                        adjacentNodes[pos].getPosition(), coordinate);
+                        adjacentNodes[pos].getTriangulationPosition(), coordinate);
                 if (orientation < 0) {
                     return currentTriangle.getOppositeTetrahedron(this);
                 }
@@ -1887,7 +1877,7 @@ public class Tetrahedron<T>
     {
         for (SpaceNode<T> node : adjacentNodes) {
             if (node != null) {
-                double[] diff = subtract(position, node.getPosition());
+                double[] diff = subtract(position, node.getTriangulationPosition());
                 if ((Math.abs(diff[0]) == 0) && (Math.abs(diff[1]) == 0)
                         && (Math.abs(diff[2]) == 0)) {
                     throw new PositionNotAllowedException(node.proposeNewPosition());
@@ -1908,6 +1898,15 @@ public class Tetrahedron<T>
         return valid;
     }
 
+    /**
+     * @return The context of the triangulation this tetrahedron belongs to.
+     */
+    TriangulationContext<T> getTriangulation()
+    {
+        return (adjacentNodes[0] != null) ? adjacentNodes[0].getTriangulation()
+                : adjacentNodes[1].getTriangulation();
+    }
+
     /**
      * Returns whether a given tetrahedron is adjacent to this tetrahedron.
      *
@@ -221,34 +221,22 @@ public class Triangle3D<T>
         if (!isInfinite()) {
             // calc that distance within 6 subtractions, 3 additions, 1 division
             // and 9 multiplications. Beat that!
-            double[] ad = subtract(nodes[0].getPosition(), fourthPoint);
+            double[] ad = subtract(nodes[0].getTriangulationPosition(), fourthPoint);
             double denominator = dot(ad, normalVector);
             // if ((denominator != 0.0) && (Math.abs(denominator) < tolerance))
             // {
             if ((denominator != 0.0) && (Math.abs(denominator) < tolerance)) {
-                ExactVector n0Vector = new ExactVector(nodes[0].getPosition());
-                ExactVector v1 = n0Vector.subtract(new ExactVector(nodes[1]
-                        .getPosition()));
-                ExactVector v2 = n0Vector.subtract(new ExactVector(nodes[2]
-                        .getPosition()));
-                ExactVector normalVector = v1.crossProduct(v2);
-                Rational dot = normalVector.dotProduct(n0Vector
-                        .subtract(new ExactVector(fourthPoint)));
-                if (dot.isZero()) {
-                    denominator = 0.0;
-                }
-                else {
-                    denominator = ((Rational) dot).doubleValue();
-                    dot = normalVector.dotProduct(new ExactVector(
-                            this.normalVector));
-                    if (dot.compareTo(new Rational(0, 1)) < 0) {
-                        denominator = 0 - denominator;
-                    }
+                double[] a = nodes[0].getTriangulationPosition(), b = nodes[1].getTriangulationPosition(), c = nodes[2].getTriangulationPosition();
+                // (b-a) x (c-a) . (a - fourthPoint), with an exact sign:
+                denominator = -AdaptivePredicates.orientationValue(a, b, c, fourthPoint);
+                if ((denominator != 0.0)
+                        && (AdaptivePredicates.normalOrientation(a, b, c, this.normalVector) < 0)) {
+                    denominator = 0 - denominator;
                 }
             }
             if (denominator != 0) {
                 double sdDistance = dot(ad, subtract(scalarMult(0.5, add(
-                        nodes[0].getPosition(), fourthPoint)), circumCenter))
+                        nodes[0].getTriangulationPosition(), fourthPoint)), circumCenter))
                         / denominator;
                 // int test = 0;
                 // if (test == 1) {
@@ -336,7 +324,7 @@ public class Triangle3D<T>
         if (!isInfinite() && onUpperSide(fourthPoint)) {
             ExactVector[] points = new ExactVector[4];
             for (int i = 0; i < 3; i++) {
-                points[i] = new ExactVector(nodes[i].getPosition());
+                points[i] = new ExactVector(nodes[i].getTriangulationPosition());
             }
             points[3] = new ExactVector(fourthPoint);
             ExactVector normalVector = calculateExactNormalVector(points);
@@ -368,6 +356,33 @@ public class Triangle3D<T>
         }
     }
 
+    /**
+     * Compares the signed delaunay distances of this triangle to two points. Gives the same
+     * result as <code>getSDDistanceExact(point1).compareTo(getSDDistanceExact(point2))</code>, but
+     * without rational numbers in the common case where both points lie strictly on the upper side.
+     * <p>
+     * The sphere through the three endpoints and <code>point1</code> contains <code>point2</code>
+     * exactly if the center of that sphere lies further on the upper side than the center of the
+     * sphere through <code>point2</code>, hence the comparison reduces to an in-sphere test.
+     *
+     * @param point1 The first point.
+     * @param point2 The second point.
+     * @return -1, 0 or 1 if the signed delaunay distance to <code>point1</code> is smaller than,
+     *         equal to or bigger than the one to <code>point2</code>.
+     */
+    public int compareSDDistances(double[] point1, double[] point2)
+    {
+        if (!isInfinite() && (orientationToUpperSide(point1) > 0)
+                && (orientationToUpperSide(point2) > 0)) {
+            double[] a = nodes[0].getTriangulationPosition(), b = nodes[1].getTriangulationPosition(), c = nodes[2].getTriangulationPosition();
+            int alignment = AdaptivePredicates.normalOrientation(a, b, c, this.normalVector);
+            if (alignment != 0) {
+                return alignment * AdaptivePredicates.inSphere(a, b, c, point1, point2);
+            }
+        }
+        return getSDDistanceExact(point1).compareTo(getSDDistanceExact(point2));
+    }
+
     /**
      * Returns the distance of the center of a circumsphere touching all points
      * of this triangle and the given 4th point and the center of the
@@ -572,13 +587,13 @@ public class Triangle3D<T>
     {
         if (!circumCenterUpdated && !isInfinite()) {
             this.circumCenterUpdated = true;
-            double[] a = nodes[0].getPosition();
+            double[] a = nodes[0].getTriangulationPosition();
             // Start by calculating the normal vectors:
             double[][] n = new double[3][];
             // n[0] = subtract(nodes[1].getPosition(), a);
             // n[1] = subtract(nodes[2].getPosition(), a);
-            double[] line01 = subtract(nodes[1].getPosition(), a);
-            double[] line02 = subtract(nodes[2].getPosition(), a);
+            double[] line01 = subtract(nodes[1].getTriangulationPosition(), a);
+            double[] line02 = subtract(nodes[2].getTriangulationPosition(), a);
             n[0] = normalize(line01);
             n[1] = normalize(line02);
             n[2] = crossProduct(n[0], n[1]);
@@ -595,8 +610,8 @@ public class Triangle3D<T>
             normalVectorUpdated = true;
             // cut the three planes:
             circumCenter = calculate3PlaneXPoint(n, new double[] {
-                    dot(add(a, nodes[1].getPosition()), n[0]) * 0.5,
-                    dot(add(a, nodes[2].getPosition()), n[1]) * 0.5,
+                    dot(add(a, nodes[1].getTriangulationPosition()), n[0]) * 0.5,
+                    dot(add(a, nodes[2].getTriangulationPosition()), n[1]) * 0.5,
                     dot(a, n[2])});
         }
     }
@@ -634,9 +649,9 @@ public class Triangle3D<T>
                     NewDelaunayTest.out("Now!");
                 }
             }
-            double[] node0Position = nodes[0].getPosition();
-            initPlane(subtract(nodes[1].getPosition(), node0Position),
-                    subtract(nodes[2].getPosition(), node0Position),
+            double[] node0Position = nodes[0].getTriangulationPosition();
+            initPlane(subtract(nodes[1].getTriangulationPosition(), node0Position),
+                    subtract(nodes[2].getTriangulationPosition(), node0Position),
                     node0Position, false);
             planeUpdated = true;
         }
@@ -657,9 +672,9 @@ public class Triangle3D<T>
      */
     private ExactVector[] getExactPositionVectors()
     {
-        return new ExactVector[] {new ExactVector(nodes[0].getPosition()),
-                                  new ExactVector(nodes[1].getPosition()),
-                                  new ExactVector(nodes[2].getPosition())};
+        return new ExactVector[] {new ExactVector(nodes[0].getTriangulationPosition()),
+                                  new ExactVector(nodes[1].getTriangulationPosition()),
+                                  new ExactVector(nodes[2].getTriangulationPosition())};
     }
 
     /**
@@ -667,14 +682,22 @@ public class Triangle3D<T>
      */
     public int orientationExact(double[] point1, double[] point2)
     {
-        ExactVector[] points = getExactPositionVectors();
-        ExactVector normalVector = points[1].subtract(points[0]).crossProduct(
-                points[2].subtract(points[0]));
-        Rational offset = normalVector.dotProduct(points[0]);
-        return normalVector.dotProduct(new ExactVector(point1)).compareTo(
-                offset)
-                * normalVector.dotProduct(new ExactVector(point2)).compareTo(
-                offset);
+        double[] a = nodes[0].getTriangulationPosition(), b = nodes[1].getTriangulationPosition(), c = nodes[2].getTriangulationPosition();
+        return AdaptivePredicates.orientation(a, b, c, point1)
+                * AdaptivePredicates.orientation(a, b, c, point2);
+    }
+
+    /**
+     * Computes on which side of the plane through the three endpoints a point lies, using
+     * the exact normal vector <code>(b-a) x (c-a)</code> of this triangle.
+     *
+     * @param point The coordinate of interest.
+     * @return The sign of the dot product of that normal vector with <code>point - a</code>.
+     */
+    private int orientationExact(double[] point)
+    {
+        return AdaptivePredicates.orientation(nodes[0].getTriangulationPosition(),
+                nodes[1].getTriangulationPosition(), nodes[2].getTriangulationPosition(), point);
     }
 
     /**
@@ -691,20 +714,14 @@ public class Triangle3D<T>
         updateCircumCenterIfNecessary();
         double[] dummy = subtract(point, this.circumCenter);
         double squaredDistance = dot(dummy, dummy);
-        double[] radial = subtract(this.nodes[0].getPosition(),
+        double[] radial = subtract(this.nodes[0].getTriangulationPosition(),
                 this.circumCenter);
         double squaredRadius = dot(radial, radial);
         double tolerance = squaredRadius * 0.000000001;
         if (squaredDistance < squaredRadius + tolerance) {
             if (squaredDistance > squaredRadius - tolerance) {
-                ExactVector[] points = getExactPositionVectors();
-                ExactVector circumCenter = calculateCircumCenterExact(points,
-                        calculateExactNormalVector(points));
-                Rational pointDistance = circumCenter.subtract(
-                        new ExactVector(point)).squaredLength();
-                Rational squaredRadiusX = circumCenter.subtract(points[0])
-                        .squaredLength();
-                return squaredRadiusX.compareTo(pointDistance);
+                return AdaptivePredicates.circleOrientation(nodes[0].getTriangulationPosition(),
+                        nodes[1].getTriangulationPosition(), nodes[2].getTriangulationPosition(), point);
             }
             else {
                 return 1;
@@ -859,7 +876,7 @@ public class Triangle3D<T>
                     return true;
                 }
                 return !(onSameSide(adjacentTetrahedra[1].getOppositeNode(this)
-                        .getPosition(), point));
+                        .getTriangulationPosition(), point));
             }
         }
         else if (adjacentTetrahedra[1] == null) {
@@ -867,7 +884,7 @@ public class Triangle3D<T>
                 return true;
             }
             return !(onSameSide(adjacentTetrahedra[0].getOppositeNode(this)
-                    .getPosition(), point));
+                    .getTriangulationPosition(), point));
         }
         else {
             return false;
@@ -882,7 +899,7 @@ public class Triangle3D<T>
     protected void updateNormalVector(double[] newNormalVector)
     {
         this.normalVector = newNormalVector;
-        this.offset = dot(normalVector, nodes[0].getPosition());
+        this.offset = dot(normalVector, nodes[0].getTriangulationPosition());
         this.normalVectorUpdated = true;
     }
 
@@ -906,18 +923,13 @@ public class Triangle3D<T>
                 upperSidePositive = false;
             }
             else {
-                ExactVector[] points = getExactPositionVectors();
-                ExactVector normalVector = calculateExactNormalVector(points);
-                Rational dot1 = normalVector.dotProduct(points[0]);
-                Rational dot2 = normalVector.dotProduct(new ExactVector(
-                        position));
-                int comparison = dot1.compareTo(dot2);
-                if (comparison == 0) {
+                int orientation = orientationExact(position);
+                if (orientation == 0) {
                     throw new RuntimeException("The triangle " + this
                             + " cannot be oriented to " + position
                             + " because that point lies in the plane!");
                 }
-                upperSidePositive = comparison < 0;
+                upperSidePositive = orientation > 0;
             }
         }
     }
@@ -938,7 +950,7 @@ public class Triangle3D<T>
                 }
                 if (!adjacentTetrahedra[1].isInfinite()) {
                     orientToSide(adjacentTetrahedra[1].getOppositeNode(this)
-                            .getPosition());
+                            .getTriangulationPosition());
                     upperSidePositive ^= true;
                 }
                 else {
@@ -948,7 +960,7 @@ public class Triangle3D<T>
             else if (adjacentTetrahedra[1] == null) {
                 if (!adjacentTetrahedra[0].isInfinite()) {
                     orientToSide(adjacentTetrahedra[0].getOppositeNode(this)
-                            .getPosition());
+                            .getTriangulationPosition());
                     upperSidePositive ^= true;
                 }
                 else {
@@ -979,16 +991,12 @@ public class Triangle3D<T>
             return upperSidePositive ? -1 : 1;
         }
         else {
-            ExactVector[] points = getExactPositionVectors();
-            ExactVector normalVector = calculateExactNormalVector(points);
-            Rational dot1 = normalVector.dotProduct(points[0]);
-            Rational dot2 = normalVector.dotProduct(new ExactVector(point));
-            if (dot1.equals(dot2)) {
+            int orientation = orientationExact(point);
+            if (orientation == 0) {
                 return 0;
             }
             else {
-                return ((dot1.compareTo(dot2) > 0) ^ upperSidePositive) ? 1
-                        : -1;
+                return ((orientation < 0) ^ upperSidePositive) ? 1 : -1;
             }
         }
     }
@@ -1031,7 +1039,7 @@ public class Triangle3D<T>
             return Double.MAX_VALUE;
         }
         else {
-            double[] dummy = subtract(nodes[0].getPosition(), this.circumCenter);
+            double[] dummy = subtract(nodes[0].getTriangulationPosition(), this.circumCenter);
             return norm(dummy) / norm(normalVector);
         }
     }
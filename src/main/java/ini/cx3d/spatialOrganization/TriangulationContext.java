@@ -0,0 +1,407 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The state shared by all the nodes, tetrahedra and open triangle organizers of one
+ * triangulation : the counter used to give IDs to the nodes, the index used to tag triangles
+ * during a flip process, the random number generator of the visibility walks, and a few
+ * statistics.
+ * <p/>
+ * Each triangulation has its own context, so that independent triangulations can be
+ * modified by different threads at the same time. A triangulation itself is never modified
+ * by more than one thread at a time, so the fields used during modifications are not
+ * synchronized. The statistics are <code>LongAdder</code>s, because they are typically
+ * read by another thread than the one updating the triangulation.
+ * <p/>
+ * The first node of a triangulation creates a new context (unless one is passed to
+ * its constructor); all the nodes inserted afterwards share the context of the node
+ * they were created from.
+ *
+ * @param <T> The type of the user objects associated with the nodes of the triangulation.
+ * @see SpaceNode#getTriangulation()
+ */
+public class TriangulationContext<T>
+{
+
+    /* Size of the ring buffer of sampled SD-distance tolerance values.*/
+    private static final int TOLERANCE_VALUES = 1024;
+
+    /* All nodes and tetrahedra of the triangulation. Only for debugging purposes,
+     * null unless requested in the constructor.*/
+    private final LinkedList<SpaceNode<T>> nodes;
+    private final LinkedList<Tetrahedron<T>> tetrahedra;
+
+    /* Used to assign an ID to each node of this triangulation.*/
+    private int nodeIdCounter = 0;
+
+    /* Used to assign a unique number to each flip process.*/
+    private int checkingIndex = 0;
+
+    /* Used to randomize the visibility walks and the removal of nodes from the node organizers.*/
+    private final Random random;
+
+    /* Node movements smaller than this distance don't update the triangulation.*/
+    private double skinRadius = 0.0;
+
+    /* Number of nodes whose movements within the skin radius were not applied to the
+     * triangulation yet, and tetrahedra created or moved since then that must be checked
+     * with the positions of the nodes (see SpaceNode.checkDeferredMovements()).*/
+    private int deferringNodes = 0;
+    private final LinkedList<Tetrahedron<T>> tetrahedraToCheck = new LinkedList<Tetrahedron<T>>();
+    private boolean checkingTetrahedra = false;
+
+    /* Node movements processed by flipping, by delete & insert, and not processed
+     * because they were smaller than the skin radius.*/
+    private final LongAdder flipMovements = new LongAdder();
+    private final LongAdder deleteAndInsertMovements = new LongAdder();
+    private final LongAdder deferredMovements = new LongAdder();
+
+    /* Number of tetrahedron orientations that needed exact arithmetics,
+     * and largest tolerance (in units of the tolerance interval) that was actually needed.*/
+    private final LongAdder toleranceUsages = new LongAdder();
+    private double maxOrientationToleranceNeeded = 0.0;
+
+    /* SD-distance computations done without and with exact arithmetics in the
+     * open triangle organizers, and largest difference that was actually needed.*/
+    private final LongAdder normalCalculations = new LongAdder();
+    private final LongAdder exactCalculations = new LongAdder();
+    private double maxSDToleranceNeeded = 0.0;
+
+    /* A sample of the SD-distance tolerance values, in a ring buffer.*/
+    private final double[] toleranceValues = new double[TOLERANCE_VALUES];
+    private int toleranceValuePointer = 0;
+
+    /**
+     * Creates a new context for a triangulation, which doesn't keep track of
+     * its nodes and tetrahedra.
+     */
+    public TriangulationContext()
+    {
+        this(false, 1312);
+    }
+
+    /**
+     * Creates a new context for a triangulation.
+     *
+     * @param trackObjects if <code>true</code>, lists of all the nodes and tetrahedra of the
+     * triangulation are maintained (see {@link #getNodes()}). Only for debugging purposes.
+     * @param seed the seed of the random number generator used by the visibility walks.
+     */
+    public TriangulationContext(boolean trackObjects, long seed)
+    {
+        if (trackObjects) {
+            nodes = new LinkedList<SpaceNode<T>>();
+            tetrahedra = new LinkedList<Tetrahedron<T>>();
+        }
+        else {
+            nodes = null;
+            tetrahedra = null;
+        }
+        random = new Random(seed);
+    }
+
+    // *************************************************************************************
+    // *      Used by the triangulation                                                    *
+    // *************************************************************************************
+
+    int createNodeId()
+    {
+        return nodeIdCounter++;
+    }
+
+    /**
+     * Creates an unique identifier that is used while restoring the Delaunay property.
+     * While running the flip algorithm, each triangle has to be tested whether it is still
+     * locally Delaunay. In order to make sure that no triangle is tested more than once,
+     * tested triangles are tagged with a checking index.
+     *
+     * @return A unique index.
+     */
+    int createCheckingIndex()
+    {
+        checkingIndex = (checkingIndex + 1) % 2000000000;
+        return checkingIndex;
+    }
+
+    Random getRandom()
+    {
+        return random;
+    }
+
+    void nodeCreated(SpaceNode<T> node)
+    {
+        if (nodes != null) {
+            nodes.add(node);
+        }
+    }
+
+    void nodeRemoved(SpaceNode<T> node)
+    {
+        if (nodes != null) {
+            nodes.remove(node);
+        }
+    }
+
+    void tetrahedronCreated(Tetrahedron<T> tetrahedron)
+    {
+        if (tetrahedra != null) {
+            tetrahedra.add(tetrahedron);
+        }
+        tetrahedronMoved(tetrahedron);
+    }
+
+    void tetrahedronMoved(Tetrahedron<T> tetrahedron)
+    {
+        if (deferringNodes > 0) {
+            tetrahedraToCheck.add(tetrahedron);
+        }
+    }
+
+    Tetrahedron<T> pollTetrahedronToCheck()
+    {
+        return tetrahedraToCheck.poll();
+    }
+
+    boolean startCheckingTetrahedra()
+    {
+        if (checkingTetrahedra) {
+            return false;
+        }
+        checkingTetrahedra = true;
+        return true;
+    }
+
+    void stopCheckingTetrahedra()
+    {
+        checkingTetrahedra = false;
+    }
+
+    void deferringNodeAdded()
+    {
+        deferringNodes++;
+    }
+
+    void deferringNodeRemoved()
+    {
+        deferringNodes--;
+        if (deferringNodes == 0) {
+            tetrahedraToCheck.clear();
+        }
+    }
+
+    void tetrahedronRemoved(Tetrahedron<T> tetrahedron)
+    {
+        if (tetrahedra != null) {
+            tetrahedra.remove(tetrahedron);
+        }
+    }
+
+    void flipMovement()
+    {
+        flipMovements.increment();
+    }
+
+    void deleteAndInsertMovement()
+    {
+        deleteAndInsertMovements.increment();
+    }
+
+    void deferredMovement()
+    {
+        deferredMovements.increment();
+    }
+
+    void orientationToleranceUsed()
+    {
+        toleranceUsages.increment();
+    }
+
+    void orientationToleranceNeeded(double neededTolerance)
+    {
+        if (neededTolerance > maxOrientationToleranceNeeded) {
+            maxOrientationToleranceNeeded = neededTolerance;
+        }
+    }
+
+    void normalCalculation()
+    {
+        normalCalculations.increment();
+    }
+
+    void exactCalculation()
+    {
+        exactCalculations.increment();
+    }
+
+    void sdToleranceNeeded(double neededTolerance)
+    {
+        if (neededTolerance > maxSDToleranceNeeded) {
+            maxSDToleranceNeeded = neededTolerance;
+        }
+    }
+
+    void addToleranceValue(double tolerance)
+    {
+        toleranceValues[toleranceValuePointer] = tolerance;
+        toleranceValuePointer = (toleranceValuePointer + 1) % TOLERANCE_VALUES;
+    }
+
+    // *************************************************************************************
+    // *      Settings                                                                     *
+    // *************************************************************************************
+
+    /**
+     * Sets the skin radius of this triangulation (0 by default). As long as a node stays
+     * closer than this distance to the coordinate it has in the triangulation, its movements
+     * only update its position, and the triangulation is not repaired (cf. the skin of
+     * Verlet neighbor lists). This saves most of the flips when the nodes only jitter around
+     * their positions.
+     * <p/>
+     * A movement is only deferred if the triangulation remains a Delaunay triangulation of the
+     * positions of the nodes, so the neighbors of the nodes are the same as without a skin
+     * (see {@link SpaceNode#moveTo(double[])}): the nodes on the convex hull, and the
+     * movements that need a flip, always update the triangulation. Volumes, cross sections
+     * and point locations are computed with positions that can be off by up to the skin
+     * radius.
+     *
+     * @param skinRadius the skin radius, or 0 to update the triangulation at each movement.
+     */
+    public void setSkinRadius(double skinRadius)
+    {
+        if (skinRadius < 0) {
+            throw new IllegalArgumentException("The skin radius must be positive: " + skinRadius);
+        }
+        this.skinRadius = skinRadius;
+    }
+
+    /**
+     * @return the skin radius of this triangulation.
+     */
+    public double getSkinRadius()
+    {
+        return skinRadius;
+    }
+
+    // *************************************************************************************
+    // *      Statistics                                                                   *
+    // *************************************************************************************
+
+    /**
+     * @return all the nodes of this triangulation, or <code>null</code> if this context
+     * doesn't keep track of them. Only for debugging purposes.
+     */
+    public LinkedList<SpaceNode<T>> getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return all the tetrahedra of this triangulation, or <code>null</code> if this context
+     * doesn't keep track of them. Only for debugging purposes.
+     */
+    public LinkedList<Tetrahedron<T>> getTetrahedra()
+    {
+        return tetrahedra;
+    }
+
+    /**
+     * @return the number of node movements that were processed by a flipping algorithm.
+     */
+    public long getFlipMovements()
+    {
+        return flipMovements.sum();
+    }
+
+    /**
+     * @return the number of node movements where a delete & insert algorithm had to be applied.
+     */
+    public long getDeleteAndInsertMovements()
+    {
+        return deleteAndInsertMovements.sum();
+    }
+
+    /**
+     * @return the number of node movements that didn't update the triangulation, because
+     * they were smaller than the skin radius.
+     */
+    public long getDeferredMovements()
+    {
+        return deferredMovements.sum();
+    }
+
+    /**
+     * @return the number of times exact arithmetics were needed to find the orientation
+     * of a point with respect to the circumsphere of a tetrahedron.
+     */
+    public long getToleranceUsages()
+    {
+        return toleranceUsages.sum();
+    }
+
+    /**
+     * @return the largest error of the floating point orientation of a point with respect
+     * to a circumsphere, in units of the tolerance interval.
+     */
+    public double getMaxOrientationToleranceNeeded()
+    {
+        return maxOrientationToleranceNeeded;
+    }
+
+    /**
+     * @return the number of signed Delaunay distances computed with floating point arithmetics.
+     */
+    public long getNormalCalculations()
+    {
+        return normalCalculations.sum();
+    }
+
+    /**
+     * @return the number of signed Delaunay distances that had to be compared exactly.
+     */
+    public long getExactCalculations()
+    {
+        return exactCalculations.sum();
+    }
+
+    /**
+     * @return the largest error of a floating point signed Delaunay distance that was
+     * detected by an exact comparison.
+     */
+    public double getMaxSDToleranceNeeded()
+    {
+        return maxSDToleranceNeeded;
+    }
+
+    /**
+     * @return a sample of the tolerance values used for signed Delaunay distances.
+     */
+    public double[] getToleranceValues()
+    {
+        return toleranceValues.clone();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A uniform grid of cubic boxes in which {@link UniformGridNode}s are sorted according to
+ * their position. The edge length of the boxes is equal to the neighborhood radius,
+ * so that all the neighbors of a node are found in the 27 boxes surrounding it.
+ * Only the boxes that contain at least one node are stored (in a hash map), hence the
+ * simulation space is not bounded.
+ * <p/>
+ * Adding, removing and moving a node are O(1) operations. Looking for the neighbors of a
+ * node costs O(number of nodes in the 27 boxes).
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public class UniformGrid<T>
+{
+
+    /* Number of bits used for each coordinate in the key of a box.*/
+    private static final int BITS = 21;
+
+    /* Mask for one coordinate of the key.*/
+    private static final long MASK = (1L << BITS) - 1;
+
+    /* The radius of the neighborhood, equal to the edge length of a box.*/
+    private final double radius;
+
+    /* The square of the radius, to avoid square roots in the distance test.*/
+    private final double radiusSquared;
+
+    /* The volume of a box.*/
+    private final double boxVolume;
+
+    /* The non-empty boxes, indexed by their key.*/
+    private final HashMap<Long, ArrayList<UniformGridNode<T>>> boxes =
+            new HashMap<Long, ArrayList<UniformGridNode<T>>>();
+
+    /* Total number of nodes in the grid.*/
+    private int size = 0;
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param radius the neighborhood radius. Two nodes are neighbors if the distance
+     * between them is smaller than or equal to this value.
+     */
+    public UniformGrid(double radius)
+    {
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("The neighborhood radius must be positive: " + radius);
+        }
+        this.radius = radius;
+        this.radiusSquared = radius * radius;
+        this.boxVolume = radius * radius * radius;
+    }
+
+    /**
+     * @return the neighborhood radius (and edge length of the boxes).
+     */
+    public double getRadius()
+    {
+        return radius;
+    }
+
+    /**
+     * @return the number of nodes currently in the grid.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the index of the box containing a coordinate along one axis.
+     */
+    private int boxIndex(double coordinate)
+    {
+        return (int) Math.floor(coordinate / radius);
+    }
+
+    /**
+     * Packs the three indices of a box into one key. The indices wrap around
+     * after 2^21 boxes, which only puts far away nodes in the same box (they are then
+     * excluded by the distance test).
+     */
+    private static long key(int i, int j, int k)
+    {
+        return ((i & MASK) << (2 * BITS)) | ((j & MASK) << BITS) | (k & MASK);
+    }
+
+    /**
+     * Puts a node in the box corresponding to its current position.
+     */
+    void add(UniformGridNode<T> node)
+    {
+        double[] p = node.getPosition();
+        long key = key(boxIndex(p[0]), boxIndex(p[1]), boxIndex(p[2]));
+        ArrayList<UniformGridNode<T>> box = boxes.get(key);
+        if (box == null) {
+            box = new ArrayList<UniformGridNode<T>>(4);
+            boxes.put(key, box);
+        }
+        node.box = box;
+        node.boxKey = key;
+        node.indexInBox = box.size();
+        box.add(node);
+        size++;
+    }
+
+    /**
+     * Removes a node from its box. The last node of the box takes its place,
+     * so that no shifting is needed.
+     */
+    void remove(UniformGridNode<T> node)
+    {
+        ArrayList<UniformGridNode<T>> box = node.box;
+        int last = box.size() - 1;
+        UniformGridNode<T> moved = box.remove(last);
+        if (moved != node) {
+            box.set(node.indexInBox, moved);
+            moved.indexInBox = node.indexInBox;
+        }
+        if (box.isEmpty()) {
+            boxes.remove(node.boxKey);
+        }
+        node.box = null;
+        node.indexInBox = -1;
+        size--;
+    }
+
+    /**
+     * Puts a node in a new box if its position has changed box.
+     */
+    void update(UniformGridNode<T> node)
+    {
+        double[] p = node.getPosition();
+        long key = key(boxIndex(p[0]), boxIndex(p[1]), boxIndex(p[2]));
+        if (key != node.boxKey) {
+            remove(node);
+            add(node);
+        }
+    }
+
+    /**
+     * Fills a list with all the nodes lying within the neighborhood radius of a position.
+     *
+     * @param position the center of the search
+     * @param exclude a node that should not be put in the list (typically the node
+     * located at <code>position</code>), or <code>null</code>.
+     * @param result the list in which the neighbors are added.
+     */
+    void collectNeighbors(double[] position, UniformGridNode<T> exclude, ArrayList<UniformGridNode<T>> result)
+    {
+        int i0 = boxIndex(position[0]);
+        int j0 = boxIndex(position[1]);
+        int k0 = boxIndex(position[2]);
+        for (int i = i0 - 1; i <= i0 + 1; i++) {
+            for (int j = j0 - 1; j <= j0 + 1; j++) {
+                for (int k = k0 - 1; k <= k0 + 1; k++) {
+                    ArrayList<UniformGridNode<T>> box = boxes.get(key(i, j, k));
+                    if (box == null) {
+                        continue;
+                    }
+                    for (int n = 0; n < box.size(); n++) {
+                        UniformGridNode<T> other = box.get(n);
+                        if (other == exclude) {
+                            continue;
+                        }
+                        double[] q = other.getPosition();
+                        double dx = q[0] - position[0];
+                        double dy = q[1] - position[1];
+                        double dz = q[2] - position[2];
+                        if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                            result.add(other);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the volume associated with a node : the volume of its box, shared
+     * equally between all the nodes it contains.
+     */
+    double getVolume(UniformGridNode<T> node)
+    {
+        if (node.box == null) {
+            return 0;
+        }
+        return boxVolume / node.box.size();
+    }
+}
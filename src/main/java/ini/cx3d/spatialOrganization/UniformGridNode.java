@@ -0,0 +1,310 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.spatialOrganization;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * An implementation of {@link SpatialOrganizationNode} based on a {@link UniformGrid}
+ * instead of a Delaunay triangulation. Two nodes are neighbors if they are closer than
+ * the neighborhood radius of the grid. Moving a node only updates the box it is sorted in,
+ * which makes this implementation much cheaper than {@link SpaceNode} for simulations
+ * with lots of moving objects.
+ * <p/>
+ * The price to pay is that the geometric information of the triangulation is lost :
+ * the volume of a node is the volume of its box divided by the number of nodes in it,
+ * the cross section of an edge is approximated from these volumes and
+ * {@link #getVerticesOfTheTetrahedronContaining(double[])} always returns <code>null</code>
+ * (the concentration of a new node is then estimated from the gradient). This is fine for
+ * purely mechanical simulations, but extracellular diffusion will be much less accurate
+ * than with the triangulation.
+ * <p/>
+ * The neighborhood radius must be larger than the largest interaction distance between
+ * two physical objects (e.g. the sum of the two largest diameters, or the length of the
+ * longest cylinder), otherwise some collisions will be missed.
+ *
+ * @param <T> The type of the user objects associated with each node.
+ */
+public class UniformGridNode<T>
+        implements SpatialOrganizationNode<T>
+{
+
+    /* The grid shared by all the nodes of the simulation.*/
+    private final UniformGrid<T> grid;
+
+    /* The user object associated with this node.*/
+    private T content;
+
+    /* The coordinate of this node.*/
+    private double[] position;
+
+    /* Listeners called whenever this node is added, moved or removed.*/
+    private LinkedList<SpatialOrganizationNodeMovementListener<T>> listeners = null;
+
+    /* The box of the grid containing this node (managed by UniformGrid).*/
+    ArrayList<UniformGridNode<T>> box = null;
+
+    /* The key of this box (managed by UniformGrid).*/
+    long boxKey;
+
+    /* The index of this node in its box (managed by UniformGrid).*/
+    int indexInBox = -1;
+
+    /**
+     * Creates the first node of a new grid.
+     *
+     * @param radius the neighborhood radius
+     * @param position the position of the node
+     * @param content the user object associated with the node
+     */
+    public UniformGridNode(double radius, double[] position, T content)
+    {
+        this(new UniformGrid<T>(radius), position, content);
+    }
+
+    /**
+     * Creates a new node in an existing grid. The listeners are not called
+     * (use {@link #getNewInstance(double[], Object)} for that).
+     *
+     * @param grid the grid in which the node is put
+     * @param position the position of the node
+     * @param content the user object associated with the node
+     */
+    public UniformGridNode(UniformGrid<T> grid, double[] position, T content)
+    {
+        this.grid = grid;
+        this.position = position.clone();
+        this.content = content;
+        grid.add(this);
+    }
+
+    /**
+     * @return the grid in which this node is sorted.
+     */
+    public UniformGrid<T> getGrid()
+    {
+        return grid;
+    }
+
+    public void addSpatialOrganizationNodeMovementListener(
+            SpatialOrganizationNodeMovementListener<T> listener)
+    {
+        if (listeners == null) {
+            listeners = new LinkedList<SpatialOrganizationNodeMovementListener<T>>();
+        }
+        listeners.add(listener);
+    }
+
+    /* Returns the nodes within the neighborhood radius, in a new list.*/
+    private ArrayList<UniformGridNode<T>> neighborNodes()
+    {
+        ArrayList<UniformGridNode<T>> result = new ArrayList<UniformGridNode<T>>();
+        grid.collectNeighbors(position, this, result);
+        return result;
+    }
+
+    public Iterable<SpatialOrganizationEdge<T>> getEdges()
+    {
+        ArrayList<UniformGridNode<T>> neighbors = neighborNodes();
+        ArrayList<SpatialOrganizationEdge<T>> edges =
+                new ArrayList<SpatialOrganizationEdge<T>>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            edges.add(new GridEdge<T>(this, neighbors.get(i)));
+        }
+        return edges;
+    }
+
+    public Iterable<T> getNeighbors()
+    {
+        return getPermanentListOfNeighbors();
+    }
+
+    public Iterable<T> getPermanentListOfNeighbors()
+    {
+        ArrayList<UniformGridNode<T>> neighbors = neighborNodes();
+        ArrayList<T> result = new ArrayList<T>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            result.add(neighbors.get(i).content);
+        }
+        return result;
+    }
+
+    public void visitNeighbors(NeighborVisitor<T> visitor)
+    {
+        ArrayList<UniformGridNode<T>> neighbors = neighborNodes();
+        for (int i = 0; i < neighbors.size(); i++) {
+            visitor.visit(neighbors.get(i).content);
+        }
+    }
+
+    public SpatialOrganizationNode<T> getNewInstance(double[] position, T userObject)
+            throws PositionNotAllowedException
+    {
+        UniformGridNode<T> node = new UniformGridNode<T>(grid, position, userObject, listeners);
+        if (listeners != null) {
+            // the new node is already in the grid, so that the listeners can see its neighbors:
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToBeAdded(node, node.position, null);
+            }
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAdded(node);
+            }
+        }
+        return node;
+    }
+
+    /* Creates a node sharing the listeners of an other one.*/
+    private UniformGridNode(UniformGrid<T> grid, double[] position, T content,
+                            LinkedList<SpatialOrganizationNodeMovementListener<T>> listeners)
+    {
+        this(grid, position, content);
+        if (listeners != null) {
+            this.listeners = new LinkedList<SpatialOrganizationNodeMovementListener<T>>(listeners);
+        }
+    }
+
+    public double[] getPosition()
+    {
+        return position;
+    }
+
+    public T getUserObject()
+    {
+        return content;
+    }
+
+    /**
+     * There are no tetrahedra in a uniform grid.
+     *
+     * @return always <code>null</code>.
+     */
+    public Object[] getVerticesOfTheTetrahedronContaining(double[] position)
+    {
+        return null;
+    }
+
+    /**
+     * @return the volume of the box of this node, divided by the number of nodes in that box.
+     */
+    public double getVolume()
+    {
+        return grid.getVolume(this);
+    }
+
+    public void moveFrom(double[] delta) throws PositionNotAllowedException
+    {
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToMove(this, delta);
+            }
+        }
+        position = new double[]{position[0] + delta[0], position[1] + delta[1], position[2] + delta[2]};
+        grid.update(this);
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeMoved(this);
+            }
+        }
+    }
+
+    public void remove()
+    {
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeAboutToBeRemoved(this);
+            }
+        }
+        grid.remove(this);
+        if (listeners != null) {
+            for (SpatialOrganizationNodeMovementListener<T> listener : listeners) {
+                listener.nodeRemoved(this);
+            }
+        }
+    }
+
+    public String toString()
+    {
+        return "GridNode(" + position[0] + ", " + position[1] + ", " + position[2] + ")";
+    }
+
+    /**
+     * Edge between two nodes of a uniform grid. The cross section is approximated by the
+     * area of a face of a cube having the volume of the smaller of the two nodes.
+     *
+     * @param <T> The type of the user objects associated with each node.
+     */
+    static class GridEdge<T>
+            implements SpatialOrganizationEdge<T>
+    {
+
+        private final UniformGridNode<T> a;
+        private final UniformGridNode<T> b;
+
+        GridEdge(UniformGridNode<T> a, UniformGridNode<T> b)
+        {
+            this.a = a;
+            this.b = b;
+        }
+
+        public T getOppositeElement(T element)
+        {
+            if (element == a.content) {
+                return b.content;
+            }
+            return a.content;
+        }
+
+        public SpatialOrganizationNode<T> getOpposite(SpatialOrganizationNode<T> first)
+        {
+            if (first == a) {
+                return b;
+            }
+            if (first == b) {
+                return a;
+            }
+            throw new RuntimeException("The edge " + this + " is not incident to node " + first);
+        }
+
+        public T getFirstElement()
+        {
+            return a.content;
+        }
+
+        public T getSecondElement()
+        {
+            return b.content;
+        }
+
+        public double getCrossSection()
+        {
+            double volume = Math.min(a.getVolume(), b.getVolume());
+            return Math.pow(volume, 2.0 / 3.0);
+        }
+
+        public String toString()
+        {
+            return "(" + a + " - " + b + ")";
+        }
+    }
+}
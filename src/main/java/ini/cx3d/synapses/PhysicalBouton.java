@@ -25,6 +25,7 @@ import ini.cx3d.localBiology.NeuriteElement;
 import ini.cx3d.physics.PhysicalBond;
 import ini.cx3d.physics.PhysicalCylinder;
 import ini.cx3d.physics.PhysicalObject;
+import ini.cx3d.simulations.ECM;
 
 import static ini.cx3d.utilities.Matrix.distance;
 import static ini.cx3d.utilities.Matrix.norm;
@@ -151,7 +152,7 @@ public class PhysicalBouton
         double[] currDir = pc.getUnitaryAxisDirectionVector();
 
         // for (double dX = dx; dX<neLength; dX=dX+dx) {
-        double dX = neLength * Math.random();
+        double dX = neLength * ECM.getRandomDouble();
         currVec = new double[] {-currDir[0] * dX, -currDir[1] * dX,
                                 -currDir[2] * dX};
 
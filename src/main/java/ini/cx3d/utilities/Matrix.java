@@ -21,6 +21,8 @@ along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
 
 package ini.cx3d.utilities;
 
+import ini.cx3d.simulations.SimulationContext;
+
 import java.util.Random;
 
 /**
@@ -74,24 +76,28 @@ import java.util.Random;
 public abstract class Matrix
 {
 
-    static private Random random = new Random();
+    /* The random number generator of the current simulation.*/
+    private static Random random()
+    {
+        return SimulationContext.getCurrent().getMatrixRandom();
+    }
 
     /**
      * @return a random number between 0 and 1;
      */
     public static double getRandomDouble()
     {
-        return random.nextDouble();
+        return random().nextDouble();
     }
 
     /**
-     * Initializes the random number generator.
+     * Initializes the random number generator (of the current simulation).
      *
      * @param seed
      */
     public static void setRandomSeedTo(long seed)
     {
-        random = new Random(seed);
+        SimulationContext.getCurrent().setMatrixRandom(new Random(seed));
     }
 
     /**
@@ -862,14 +868,14 @@ public abstract class Matrix
             vectPerp[0] = 1.0;
             vectPerp[1] = 0.0;
             vectPerp[2] = 0.0;
-            vectPerp = rotAroundAxis(vectPerp, 6.35 * random.nextDouble(), a);
+            vectPerp = rotAroundAxis(vectPerp, 6.35 * random().nextDouble(), a);
         }
         else {
             vectPerp[0] = a[1];
             vectPerp[1] = -a[0];
             vectPerp[2] = 0.0;
             vectPerp = normalize(vectPerp);
-            vectPerp = rotAroundAxis(vectPerp, 6.35 * random.nextDouble(), a);
+            vectPerp = rotAroundAxis(vectPerp, 6.35 * random().nextDouble(), a);
         }
         return vectPerp;
     }
@@ -990,7 +996,7 @@ public abstract class Matrix
     {
         double[] a = new double[n];
         for (int i = 0; i < n; i++) {
-            a[i] = (double) random.nextDouble();
+            a[i] = (double) random().nextDouble();
         }
         return a;
     }
@@ -1006,7 +1012,7 @@ public abstract class Matrix
         double[][] A = new double[n][m];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
-                A[i][j] = (double) random.nextDouble();
+                A[i][j] = (double) random().nextDouble();
             }
         }
         return A;
@@ -1023,7 +1029,7 @@ public abstract class Matrix
     {
         double[] a = new double[n];
         for (int i = 0; i < n; i++) {
-            a[i] = -k + 2 * k * (double) random.nextDouble();
+            a[i] = -k + 2 * k * (double) random().nextDouble();
         }
         return a;
     }
@@ -1040,7 +1046,7 @@ public abstract class Matrix
         double[][] A = new double[n][m];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
-                A[i][j] = -k + 2 * k * (double) random.nextDouble();
+                A[i][j] = -k + 2 * k * (double) random().nextDouble();
             }
         }
         return A;
@@ -1055,7 +1061,7 @@ public abstract class Matrix
     {
         double[] a = new double[n];
         for (int i = 0; i < n; i++) {
-            a[i] = (double) Math.rint(random.nextDouble());
+            a[i] = (double) Math.rint(random().nextDouble());
         }
         return a;
     }
@@ -1071,7 +1077,7 @@ public abstract class Matrix
         double[][] A = new double[n][m];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
-                A[i][j] = (double) Math.rint(random.nextDouble());
+                A[i][j] = (double) Math.rint(random().nextDouble());
             }
         }
         return A;
@@ -1086,7 +1092,7 @@ public abstract class Matrix
     {
         double[] A = new double[n];
         for (int i = 0; i < n; i++) {
-            if (random.nextDouble() > 0.5) {
+            if (random().nextDouble() > 0.5) {
                 A[i] = 1.0;
             }
             else {
@@ -1107,7 +1113,7 @@ public abstract class Matrix
         double[][] A = new double[n][m];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
-                if (random.nextDouble() > 0.5) {
+                if (random().nextDouble() > 0.5) {
                     A[i][j] = 1.0;
                 }
                 else {
@@ -1130,7 +1136,7 @@ public abstract class Matrix
     {
         double[] a = new double[n];
         for (int i = 0; i < n; i++) {
-            a[i] = (double) random.nextDouble() * d;
+            a[i] = (double) random().nextDouble() * d;
         }
         return a;
     }
@@ -0,0 +1,378 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.utilities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A <code>Vector</code> in which objects can be added and removed in constant time, used by
+ * <code>ECM</code> for the lists of all the objects of the simulation. It can be used wherever
+ * a <code>Vector</code> was used before, with the following differences :
+ * <ul>
+ * <li> An object is removed by moving the last element into its place, so the order of the
+ * elements changes when an element is removed (the order of the remaining elements is the same
+ * whatever the thread count, though).
+ * <li> Each object is present at most once, and is found by identity (not by <code>equals()</code>).
+ * Adding an object that is already in the registry does nothing.
+ * <li> <code>get()</code>, <code>size()</code>, <code>contains()</code>, <code>indexOf()</code> and the
+ * iterator don't lock the registry. Like the rest of the simulation state, a registry must not be
+ * modified while other threads read it.
+ * <li> Insertions at another place than the end are not supported.
+ * </ul>
+ *
+ * @param <T> the type of the registered objects
+ */
+public class ObjectRegistry<T>
+        extends java.util.Vector<T>
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /* position of each registered object in elementData.*/
+    private transient IdentityHashMap<Object, Integer> indices = new IdentityHashMap<Object, Integer>();
+
+    public ObjectRegistry()
+    {
+        super();
+    }
+
+    /**
+     * Creates a registry containing the elements of a collection (in the same order, without duplicates).
+     *
+     * @param c
+     */
+    public ObjectRegistry(Collection<? extends T> c)
+    {
+        super(Math.max(10, c.size()));
+        addAll(c);
+    }
+
+    // *************************************************************************************
+    //   Reading (without lock)
+    // *************************************************************************************
+
+    @SuppressWarnings("unchecked")
+    public T get(int index)
+    {
+        if (index >= elementCount) {
+            throw new ArrayIndexOutOfBoundsException(index + " >= " + elementCount);
+        }
+        return (T) elementData[index];
+    }
+
+    public T elementAt(int index)
+    {
+        return get(index);
+    }
+
+    public int size()
+    {
+        return elementCount;
+    }
+
+    public boolean isEmpty()
+    {
+        return elementCount == 0;
+    }
+
+    public boolean contains(Object o)
+    {
+        return indices.containsKey(o);
+    }
+
+    public int indexOf(Object o)
+    {
+        Integer index = indices.get(o);
+        return index == null ? -1 : index;
+    }
+
+    public int lastIndexOf(Object o)
+    {
+        return indexOf(o);
+    }
+
+    public Iterator<T> iterator()
+    {
+        return new Iterator<T>()
+        {
+            int cursor = 0;
+            int lastReturned = -1;
+            int expectedModCount = modCount;
+
+            public boolean hasNext()
+            {
+                return cursor < elementCount;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next()
+            {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (cursor >= elementCount) {
+                    throw new NoSuchElementException();
+                }
+                lastReturned = cursor++;
+                return (T) elementData[lastReturned];
+            }
+
+            public void remove()
+            {
+                if (lastReturned < 0) {
+                    throw new IllegalStateException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                ObjectRegistry.this.remove(lastReturned);
+                // the last element was moved to this place, and still has to be visited
+                cursor = lastReturned;
+                lastReturned = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    // *************************************************************************************
+    //   Adding
+    // *************************************************************************************
+
+    public synchronized boolean add(T o)
+    {
+        if (indices.containsKey(o)) {
+            return false;
+        }
+        if (elementCount == elementData.length) {
+            elementData = Arrays.copyOf(elementData, Math.max(10, 2 * elementData.length));
+        }
+        indices.put(o, elementCount);
+        elementData[elementCount++] = o;
+        modCount++;
+        return true;
+    }
+
+    public void addElement(T o)
+    {
+        add(o);
+    }
+
+    public synchronized boolean addAll(Collection<? extends T> c)
+    {
+        boolean modified = false;
+        for (T o : c) {
+            modified |= add(o);
+        }
+        return modified;
+    }
+
+    public synchronized void add(int index, T o)
+    {
+        if (index != elementCount) {
+            throw new UnsupportedOperationException("ObjectRegistry : insertion only at the end");
+        }
+        add(o);
+    }
+
+    public void insertElementAt(T o, int index)
+    {
+        add(index, o);
+    }
+
+    public synchronized boolean addAll(int index, Collection<? extends T> c)
+    {
+        if (index != elementCount) {
+            throw new UnsupportedOperationException("ObjectRegistry : insertion only at the end");
+        }
+        return addAll(c);
+    }
+
+    // *************************************************************************************
+    //   Removing
+    // *************************************************************************************
+
+    public synchronized boolean remove(Object o)
+    {
+        Integer index = indices.get(o);
+        if (index == null) {
+            return false;
+        }
+        remove(index.intValue());
+        return true;
+    }
+
+    public boolean removeElement(Object o)
+    {
+        return remove(o);
+    }
+
+    /**
+     * Removes the element at a given position, and moves the last element to this position.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T remove(int index)
+    {
+        T removed = get(index);
+        indices.remove(removed);
+        int last = elementCount - 1;
+        if (index != last) {
+            elementData[index] = elementData[last];
+            indices.put(elementData[index], index);
+        }
+        elementData[last] = null;
+        elementCount = last;
+        modCount++;
+        return removed;
+    }
+
+    public void removeElementAt(int index)
+    {
+        remove(index);
+    }
+
+    public synchronized boolean removeAll(Collection<?> c)
+    {
+        boolean modified = false;
+        for (Object o : c) {
+            modified |= remove(o);
+        }
+        return modified;
+    }
+
+    public synchronized boolean retainAll(final Collection<?> c)
+    {
+        return removeIf(new Predicate<T>()
+        {
+            public boolean test(T o)
+            {
+                return !c.contains(o);
+            }
+        });
+    }
+
+    public synchronized boolean removeIf(Predicate<? super T> filter)
+    {
+        boolean modified = false;
+        // from the end, so that the element moved in place of a removed one was already tested
+        for (int i = elementCount - 1; i >= 0; i--) {
+            if (filter.test(get(i))) {
+                remove(i);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    protected synchronized void removeRange(int fromIndex, int toIndex)
+    {
+        // from the end, so that the elements moved into the range come from above it
+        for (int i = toIndex - 1; i >= fromIndex; i--) {
+            remove(i);
+        }
+    }
+
+    public synchronized void clear()
+    {
+        Arrays.fill(elementData, 0, elementCount, null);
+        elementCount = 0;
+        indices.clear();
+        modCount++;
+    }
+
+    public void removeAllElements()
+    {
+        clear();
+    }
+
+    // *************************************************************************************
+    //   Replacing & re-ordering
+    // *************************************************************************************
+
+    public synchronized T set(int index, T o)
+    {
+        T old = get(index);
+        if (old == o) {
+            return old;
+        }
+        if (indices.containsKey(o)) {
+            throw new IllegalArgumentException("ObjectRegistry : object already registered");
+        }
+        indices.remove(old);
+        indices.put(o, index);
+        elementData[index] = o;
+        return old;
+    }
+
+    public void setElementAt(T o, int index)
+    {
+        set(index, o);
+    }
+
+    public synchronized void replaceAll(UnaryOperator<T> operator)
+    {
+        for (int i = 0; i < elementCount; i++) {
+            set(i, operator.apply(get(i)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void sort(Comparator<? super T> c)
+    {
+        Arrays.sort((T[]) elementData, 0, elementCount, c);
+        for (int i = 0; i < elementCount; i++) {
+            indices.put(elementData[i], i);
+        }
+        modCount++;
+    }
+
+    public synchronized void setSize(int newSize)
+    {
+        if (newSize != elementCount) {
+            throw new UnsupportedOperationException("ObjectRegistry : can't change the size");
+        }
+    }
+
+    public synchronized Object clone()
+    {
+        return new ObjectRegistry<T>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        indices = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < elementCount; i++) {
+            indices.put(elementData[i], i);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright (C) 2009 Frédéric Zubler, Rodney J. Douglas,
+Dennis Göhlsdorf, Toby Weston, Andreas Hauri, Roman Bauer,
+Sabina Pfister & Adrian M. Whatley.
+
+This file is part of CX3D.
+
+CX3D is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+CX3D is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with CX3D.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package ini.cx3d.utilities;
+
+/**
+ * Small random number generator (SplitMix64) whose state is entirely defined by a few keys, for
+ * instance a global seed, the ID of an object and the current time step. Two streams created with
+ * the same keys produce the same numbers, whatever the thread or the order in which they are created,
+ * so that the simulation stays reproducible when objects are run in parallel.
+ * <p/>
+ * An instance is not thread safe : it should be created, used and forgotten by the same caller.
+ * Usually it is obtained from <code>ECM.getRandomStream()</code>.
+ *
+ * @see java.util.SplittableRandom
+ */
+public class RandomStream
+{
+
+    /* The odd constant used to increment the state (2^64 / golden ratio).*/
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    /* 2^-53, to convert the 53 upper bits of a long in a double in [0,1[.*/
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private long state;
+
+    /* second value of the last Gaussian computation (they come in pairs).*/
+    private double nextNextGaussian;
+    private boolean haveNextNextGaussian = false;
+
+    /**
+     * Creates a stream whose state is derived from all the keys (their order matters).
+     *
+     * @param keys
+     */
+    public RandomStream(long... keys)
+    {
+        long s = 0;
+        for (long key : keys) {
+            s = mix64(s + GOLDEN_GAMMA + mix64(key));
+        }
+        this.state = s;
+    }
+
+    /* Finalizer of the MurmurHash3 / SplitMix64 (variant 13 of D. Stafford).*/
+    private static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the next pseudo-random <code>long</code> of this stream.
+     */
+    public long nextLong()
+    {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * @return a random number from uniform distribution between 0 (inclusive) and 1 (exclusive).
+     */
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param n the bound (must be positive)
+     * @return a random integer between 0 (inclusive) and n (exclusive).
+     */
+    public int nextInt(int n)
+    {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        return (int) (nextDouble() * n);
+    }
+
+    /**
+     * @return a random number from a gaussian distribution of mean 0 and standard deviation 1
+     *         (polar method, as in <code>java.util.Random</code>).
+     */
+    public double nextGaussian()
+    {
+        if (haveNextNextGaussian) {
+            haveNextNextGaussian = false;
+            return nextNextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+        nextNextGaussian = v2 * multiplier;
+        haveNextNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /**
+     * Returns a random number from gaussian distribution.
+     *
+     * @param mean
+     * @param standardDeviation
+     * @return
+     */
+    public double nextGaussian(double mean, double standardDeviation)
+    {
+        return mean + standardDeviation * nextGaussian();
+    }
+
+    /**
+     * Same as <code>Matrix.randomNoise(k, n)</code> : a vector of length n of random
+     * <code>double</code> between -k and k.
+     *
+     * @param k the upper bound
+     * @param n the length
+     * @return a vector with random elements between -k and k
+     */
+    public double[] randomNoise(double k, int n)
+    {
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = -k + 2 * k * nextDouble();
+        }
+        return a;
+    }
+}